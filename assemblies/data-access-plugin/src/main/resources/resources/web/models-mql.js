@@ -354,6 +354,139 @@ pentaho.pda.model.mql.prototype.submitXmlQuery = function( queryObject, rowLimit
 
     }
 
+pentaho.pda.model.mql.COLUMNAR_MEDIA_TYPE = 'application/vnd.pentaho.columnar';
+
+// get the results of the query in the binary columnar format, which is much smaller than JSON for large results.
+// The callback receives an object with the same metadata and resultset as the CDA JSON, or null if the query failed.
+pentaho.pda.model.mql.prototype.submitQueryColumnar = function( queryObject, rowLimit, callback ) {
+        var json = queryObject.getJson();
+        if (!rowLimit) {
+            rowLimit = -1;
+        }
+
+        var url = this.handler.METADATA_SERVICE_URL+'/doJsonQueryToCdaJson?json='+encodeURIComponent(json)+'&rowLimit='+rowLimit;
+        var request = new XMLHttpRequest();
+        request.open('GET', url, true);
+        request.responseType = 'arraybuffer';
+        request.setRequestHeader('Accept', pentaho.pda.model.mql.COLUMNAR_MEDIA_TYPE);
+        request.onload = function() {
+            callback(request.status == 200 ? pentaho.pda.model.mql.decodeColumnarResult(request.response) : null);
+        };
+        request.onerror = function() {
+            callback(null);
+        };
+        request.send();
+    }
+
+// decode an ArrayBuffer written by ColumnarResultWriter into a CDA JSON like object. Dates are returned as Date objects,
+// and the numbers of DECIMAL blocks, which a double cannot hold exactly, as their decimal text.
+pentaho.pda.model.mql.decodeColumnarResult = function( buffer ) {
+        var view = new DataView(buffer), pos = 0, decoder = new TextDecoder('utf-8');
+        var readInt = function() {
+            var value = view.getInt32(pos);
+            pos += 4;
+            return value;
+        };
+        // the server only writes longs up to 2^53 in magnitude, which this computes exactly
+        var readLong = function() {
+            var value = view.getInt32(pos) * 4294967296 + view.getUint32(pos+4);
+            pos += 8;
+            return value;
+        };
+        var readString = function() {
+            var length = readInt();
+            if (length < 0) {
+                return null;
+            }
+            var value = decoder.decode(new Uint8Array(buffer, pos, length));
+            pos += length;
+            return value;
+        };
+        var readBitmap = function(rows) {
+            var bitmap = new Uint8Array(buffer, pos, (rows+7)>>3);
+            pos += (rows+7)>>3;
+            return bitmap;
+        };
+        var isSet = function(bitmap, i) {
+            return (bitmap[i>>3] & (1 << (i&7))) != 0;
+        };
+
+        if (view.getUint8(0) != 80 || view.getUint8(1) != 67 || view.getUint8(2) != 82 || view.getUint8(3) != 2) {
+            throw new Error('Unsupported result format');
+        }
+        pos = 4;
+        var columnCount = readInt();
+        var result = { metadata: [], resultset: [] };
+        for (var i=0; i<columnCount; i++) {
+            var column = { colName: readString(), colType: readString(), colIndex: i };
+            var label = readString();
+            if (label != null) {
+                column.colLabel = label;
+            }
+            result.metadata.push(column);
+        }
+
+        var rows, start, r, c;
+        while ((rows = readInt()) > 0) {
+            start = result.resultset.length;
+            for (r=0; r<rows; r++) {
+                result.resultset.push(new Array(columnCount));
+            }
+            for (c=0; c<columnCount; c++) {
+                var encoding = view.getUint8(pos++);
+                if (encoding == 0) {
+                    for (r=0; r<rows; r++) {
+                        result.resultset[start+r][c] = null;
+                    }
+                    continue;
+                }
+                var nulls = readBitmap(rows), values = [], value;
+                if (encoding == 3) {
+                    var bits = readBitmap(rows);
+                    for (r=0; r<rows; r++) {
+                        values.push(isSet(bits, r));
+                    }
+                } else if (encoding == 6) {
+                    for (r=0; r<rows; r++) {
+                        values.push(readString());
+                    }
+                } else if (encoding == 5) {
+                    var dictionary = [], size = readInt();
+                    for (var d=0; d<size; d++) {
+                        dictionary.push(readString());
+                    }
+                    for (r=0; r<rows; r++) {
+                        if (size <= 0x100) {
+                            value = view.getUint8(pos);
+                            pos += 1;
+                        } else if (size <= 0x10000) {
+                            value = view.getUint16(pos);
+                            pos += 2;
+                        } else {
+                            value = readInt();
+                        }
+                        values.push(dictionary[value]);
+                    }
+                } else {
+                    for (r=0; r<rows; r++) {
+                        if (encoding == 2) {
+                            values.push(view.getFloat64(pos));
+                            pos += 8;
+                        } else if (encoding == 4) {
+                            values.push(new Date(readLong()));
+                        } else {
+                            values.push(readLong());
+                        }
+                    }
+                }
+                for (r=0; r<rows; r++) {
+                    result.resultset[start+r][c] = isSet(nulls, r) ? null : values[r];
+                }
+            }
+        }
+        return result;
+    }
+
 // parse the results XML into a MetadataQuery.Results object
 pentaho.pda.model.mql.prototype.parseResultSetXml = function(xml) {
 		var oXML  = parseXML(xml);
@@ -0,0 +1,172 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+import org.pentaho.platform.plugin.action.kettle.KettleSystemListener;
+import org.pentaho.test.platform.engine.core.BaseTest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Loads a CSV file into an embedded H2 database with the transformation and with a bulk load, checks that both load the
+ * same rows, and logs the rows per second of each.
+ */
+@SuppressWarnings( { "all" } )
+public class CsvBulkLoadBenchmarkIT extends BaseTest {
+
+  private static final Log log = LogFactory.getLog( CsvBulkLoadBenchmarkIT.class );
+
+  private static final String SOLUTION_PATH = "target/test-classes/solution1/";
+
+  private static final String ALT_SOLUTION_PATH = "target/test-classes/solution11";
+
+  private static final String PENTAHO_XML_PATH = "/system/pentaho.xml";
+
+  private static final String DATABASE = "mem:csv_bulk_load_benchmark;DB_CLOSE_DELAY=-1";
+
+  private static final String TABLE_NAME = "BULK_LOAD_BENCHMARK";
+
+  private static final int ROWS = 200000;
+
+  public String getSolutionPath() {
+    File file = new File( SOLUTION_PATH + PENTAHO_XML_PATH );
+    if ( file.exists() ) {
+      return SOLUTION_PATH;
+    } else {
+      return ALT_SOLUTION_PATH;
+    }
+  }
+
+  public void testBulkLoadLoadsTheRowsOfTransformation() throws Exception {
+    IPentahoSession session = new StandaloneSession( "test" );
+    KettleSystemListener.environmentInit( session );
+
+    ModelInfo info = createModel();
+    File file = createFile( info );
+    try {
+      DatabaseMeta databaseMeta = new DatabaseMeta( "benchmark", "H2", "Native", null, DATABASE, null, "sa", "" );
+      CsvTransformGenerator gen = new CsvTransformGenerator( info, databaseMeta );
+      gen.createOrModifyTable( session );
+
+      gen.setBulkLoad( false );
+      long transformationMillis = load( gen, session );
+      String transformationRows = getRowSummary();
+
+      long start = System.currentTimeMillis();
+      assertTrue( gen.bulkLoadTable( true ) );
+      long bulkMillis = System.currentTimeMillis() - start;
+      assertEquals( transformationRows, getRowSummary() );
+
+      log.info( "transformation: " + rowsPerSecond( transformationMillis ) + " rows/s, bulk load: "
+        + rowsPerSecond( bulkMillis ) + " rows/s" );
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static long load( CsvTransformGenerator gen, IPentahoSession session ) throws Exception {
+    long start = System.currentTimeMillis();
+    gen.loadTable( true, session, false );
+    FileTransformStats stats = gen.getTransformStats();
+    while ( !stats.isRowsFinished() ) {
+      Thread.sleep( 10 );
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private static long rowsPerSecond( long millis ) {
+    return ROWS * 1000L / Math.max( 1, millis );
+  }
+
+  /**
+   * Returns the count of the rows of the table, and aggregates of each column
+   */
+  private static String getRowSummary() throws Exception {
+    try ( Connection connection = DriverManager.getConnection( "jdbc:h2:" + DATABASE, "sa", "" );
+          Statement stmt = connection.createStatement();
+          ResultSet rs = stmt.executeQuery( "select count(*), sum(ID), sum(cast(round(AMOUNT * 10) as bigint)), "
+            + "min(NAME), max(NAME), count(distinct REGION) from " + TABLE_NAME ) ) {
+      assertTrue( rs.next() );
+      assertEquals( ROWS, rs.getLong( 1 ) );
+      return rs.getLong( 1 ) + ", " + rs.getLong( 2 ) + ", " + rs.getLong( 3 ) + ", " + rs.getString( 4 )
+        + ", " + rs.getString( 5 ) + ", " + rs.getLong( 6 );
+    }
+  }
+
+  private static File createFile( ModelInfo info ) throws Exception {
+    String path = PentahoSystem.getApplicationContext().getSolutionPath( CsvTransformGenerator.TMP_FILE_PATH );
+    File file = new File( path, info.getFileInfo().getTmpFilename() );
+    file.getParentFile().mkdirs();
+    try ( Writer out = new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ) ) {
+      out.write( "id,name,amount,region\n" );
+      for ( int i = 0; i < ROWS; i++ ) {
+        out.write( i + ",\"customer " + i + "\"," + ( i % 1000 ) + "." + ( i % 7 ) + ",region " + ( i % 13 ) + "\n" );
+      }
+    }
+    return file;
+  }
+
+  private static ModelInfo createModel() {
+    CsvFileInfo fileInfo = new CsvFileInfo();
+    fileInfo.setTmpFilename( "bulk_load_benchmark.tmp" );
+    fileInfo.setProject( "testsolution" );
+    fileInfo.setEncoding( "UTF-8" );
+    fileInfo.setHeaderRows( 1 );
+    fileInfo.setDelimiter( "," );
+    fileInfo.setEnclosure( "\"" );
+    fileInfo.setIfNull( "" );
+
+    ModelInfo info = new ModelInfo();
+    info.setFileInfo( fileInfo );
+    info.setColumns( new ColumnInfo[] {
+      createColumn( "ID", DataType.NUMERIC, 0 ),
+      createColumn( "NAME", DataType.STRING, 0 ),
+      createColumn( "AMOUNT", DataType.NUMERIC, 1 ),
+      createColumn( "REGION", DataType.STRING, 0 ) } );
+    info.setStageTableName( TABLE_NAME );
+    return info;
+  }
+
+  private static ColumnInfo createColumn( String id, DataType dataType, int precision ) {
+    ColumnInfo column = new ColumnInfo();
+    column.setId( id );
+    column.setTitle( id );
+    column.setDataType( dataType );
+    column.setPrecision( precision );
+    column.setLength( dataType == DataType.STRING ? 30 : 10 );
+    column.setFieldType( ColumnInfo.FIELD_TYPE_BOTH );
+    column.setAggregateType( AggregationType.NONE.toString() );
+    return column;
+  }
+}
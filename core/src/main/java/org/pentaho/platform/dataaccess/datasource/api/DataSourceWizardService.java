@@ -53,6 +53,7 @@ import org.pentaho.platform.dataaccess.datasource.wizard.service.gwt.IDSWDatasou
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.DSWDatasourceServiceImpl;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.ModelerService;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.UtilHtmlSanitizer;
+import org.pentaho.platform.dataaccess.metadata.service.MetadataDomainEvents;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.metadata.MetadataPublisher;
@@ -159,6 +160,7 @@ public class DataSourceWizardService extends DatasourceService {
       logger.warn( "Failed to remove logical model", ex );
     }
     metadataDomainRepository.removeDomain( dswId );
+    MetadataDomainEvents.domainChanged( dswId );
   }
 
   public List<String> getDSWDatasourceIds() {
@@ -236,6 +238,7 @@ public class DataSourceWizardService extends DatasourceService {
     logger.debug( "imported metadata xmi" );
     importer.importFile( mondrianBundle );
     logger.debug( "imported mondrian schema" );
+    MetadataDomainEvents.domainChanged( domainId );
     // trigger refreshes
     IPentahoSession session = getSession();
     PentahoSystem.publish( session, METADATA_PUBLISHER );
@@ -310,6 +313,7 @@ public class DataSourceWizardService extends DatasourceService {
       aclAwarePentahoMetadataDomainRepositoryImporter.setAclFor( dswId, acl );
     }
     flushDataSources();
+    MetadataDomainEvents.domainChanged( dswId );
   }
 
   private void checkDSWExists( String dswId ) throws PentahoAccessControlException, FileNotFoundException {
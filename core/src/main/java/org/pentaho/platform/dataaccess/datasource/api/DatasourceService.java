@@ -39,6 +39,7 @@ import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
 import org.pentaho.platform.dataaccess.datasource.utils.DataAccessPermissionUtil;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.ConnectionServiceImpl;
+import org.pentaho.platform.dataaccess.metadata.service.MetadataDomainEvents;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.plugin.action.mondrian.catalog.IMondrianCatalogService;
@@ -167,6 +168,7 @@ public class DatasourceService {
 
   protected void flushDataSources() {
     metadataDomainRepository.flushDomains();
+    MetadataDomainEvents.domainsFlushed();
     mondrianCatalogService.reInit( PentahoSessionHolder.getSession() );
   }
 
@@ -45,6 +45,7 @@ import org.pentaho.platform.dataaccess.datasource.api.resources.MetadataTempFile
 import org.pentaho.platform.dataaccess.datasource.utils.ConvertMultipartDataToJavaObject;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.messages.Messages;
+import org.pentaho.platform.dataaccess.metadata.service.MetadataDomainEvents;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.plugin.services.importer.IPlatformImporter;
@@ -101,6 +102,7 @@ public class MetadataService extends DatasourceService {
     }
 
     metadataDomainRepository.removeDomain( forceXmiSuffix( metadataId ) );
+    MetadataDomainEvents.domainChanged( forceXmiSuffix( metadataId ) );
   }
 
   public List<String> getMetadataDatasourceIds() {
@@ -265,6 +267,7 @@ public class MetadataService extends DatasourceService {
     IPlatformImportBundle bundle = bundleBuilder.build();
     IPlatformImporter importer = getImporter();
     importer.importFile( bundle );
+    MetadataDomainEvents.domainChanged( domainId );
     IPentahoSession pentahoSession = getSession();
     publish( pentahoSession );
   }
@@ -332,6 +335,7 @@ public class MetadataService extends DatasourceService {
       final RepositoryFileAcl acl = aclDto == null ? null : repositoryFileAclAdapter.unmarshal( aclDto );
       aclAwarePentahoMetadataDomainRepositoryImporter.setAclFor( domainId, acl );
       flushDataSources();
+      MetadataDomainEvents.domainChanged( domainId );
     }
   }
 
@@ -0,0 +1,293 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvParseException;
+
+/**
+ * Tokenizes the first lines of a UTF-8 or ASCII delimited file straight from its bytes. Only the beginning of the file
+ * that holds the lines is read, and the file is not memory mapped, since a mapping keeps the file locked on Windows
+ * until it is garbage collected. The delimiter and the enclosure are matched on the raw bytes, which is safe in both
+ * encodings because no byte of a multi-byte UTF-8 character can be mistaken for an ASCII one, and only the tokens
+ * themselves are decoded into strings. The tokens follow the rules of the <code>CSVTokenizer</code> used for the
+ * other encodings: a token may be enclosed, a doubled enclosure stands for the enclosure itself, tokens are trimmed and
+ * a line that ends with the delimiter has no empty last token.
+ */
+public class ByteCsvTokenizer {
+
+  private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+  /**
+   * The number of bytes first read from a file; the buffer doubles until it holds the lines
+   */
+  static final int READ_SIZE = 64 * 1024;
+
+  private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+  private final ByteBuffer buffer;
+
+  private final int[] lineStarts;
+
+  private final int[] lineEnds;
+
+  private final int lineCount;
+
+  private byte[] scratch = new byte[ 256 ];
+
+  /**
+   * Finds the first lines of the buffer
+   *
+   * @param buffer
+   * @param rowLimit the number of lines to find
+   */
+  ByteCsvTokenizer( ByteBuffer buffer, int rowLimit ) {
+    this.buffer = buffer;
+    int capacity = Math.max( 0, Math.min( rowLimit, 10000 ) );
+    int[] starts = new int[ capacity ];
+    int[] ends = new int[ capacity ];
+    int count = 0;
+    int limit = buffer.limit();
+    int position = startsWith( buffer, 0, UTF8_BOM ) ? UTF8_BOM.length : 0;
+    while ( count < rowLimit && position < limit ) {
+      int end = position;
+      byte b = 0;
+      while ( end < limit && ( b = buffer.get( end ) ) != '\r' && b != '\n' ) {
+        end++;
+      }
+      if ( count == starts.length ) {
+        starts = Arrays.copyOf( starts, Math.max( 16, count * 2 ) );
+        ends = Arrays.copyOf( ends, starts.length );
+      }
+      starts[ count ] = position;
+      ends[ count ] = end;
+      count++;
+      position = end + 1;
+      if ( b == '\r' && position < limit && buffer.get( position ) == '\n' ) {
+        position++;
+      }
+    }
+    this.lineStarts = starts;
+    this.lineEnds = ends;
+    this.lineCount = count;
+  }
+
+  /**
+   * Reads the beginning of a file until it holds the first lines, and finds them. The file is closed when this method
+   * returns.
+   *
+   * @param fileLocation
+   * @param rowLimit     the number of lines to read
+   * @return
+   * @throws IOException
+   */
+  public static ByteCsvTokenizer open( String fileLocation, int rowLimit ) throws IOException {
+    try ( FileChannel channel = FileChannel.open( Paths.get( fileLocation ), StandardOpenOption.READ ) ) {
+      long size = Math.min( channel.size(), MAX_SIZE );
+      byte[] bytes = new byte[ (int) Math.min( size, READ_SIZE ) ];
+      int length = 0;
+      while ( true ) {
+        length = read( channel, bytes, length );
+        ByteCsvTokenizer tokenizer = new ByteCsvTokenizer( ByteBuffer.wrap( bytes, 0, length ), rowLimit );
+        if ( length < bytes.length || bytes.length >= size || tokenizer.hasLines( rowLimit ) ) {
+          return tokenizer;
+        }
+        bytes = Arrays.copyOf( bytes, (int) Math.min( size, bytes.length * 2L ) );
+      }
+    }
+  }
+
+  /**
+   * Fills the array from the channel, starting at the given length
+   *
+   * @return the new length, less than the array length if the end of the file was reached
+   */
+  private static int read( FileChannel channel, byte[] bytes, int length ) throws IOException {
+    ByteBuffer target = ByteBuffer.wrap( bytes, length, bytes.length - length );
+    while ( target.hasRemaining() && channel.read( target ) >= 0 ) {
+      // keep reading until the array is full or the file ends
+    }
+    return target.position();
+  }
+
+  /**
+   * Tells whether the buffer holds the given number of complete lines, so reading more of the file cannot change them
+   */
+  private boolean hasLines( int rowLimit ) {
+    return rowLimit <= 0 || ( lineCount >= rowLimit && lineEnds[ rowLimit - 1 ] < buffer.limit() );
+  }
+
+  /**
+   * Tells whether files in an encoding, as returned by {@link CsvUtils#getEncoding}, can be tokenized on their
+   * raw bytes
+   *
+   * @param encoding
+   * @return
+   */
+  public static boolean isSupported( String encoding ) {
+    if ( encoding == null ) {
+      return false;
+    }
+    try {
+      Charset charset = Charset.forName( encoding );
+      return StandardCharsets.UTF_8.equals( charset ) || StandardCharsets.US_ASCII.equals( charset );
+    } catch ( IllegalArgumentException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the lines that have been found, decoded and without their line endings
+   *
+   * @return
+   */
+  public List<String> getLines() {
+    List<String> lines = new ArrayList<String>( lineCount );
+    for ( int i = 0; i < lineCount; i++ ) {
+      lines.add( decode( lineStarts[ i ], lineEnds[ i ], false ) );
+    }
+    return lines;
+  }
+
+  /**
+   * Tokenizes the lines that have been found
+   *
+   * @param delimiter
+   * @param enclosure may be <code>null</code> or empty when tokens are not enclosed
+   * @return
+   * @throws CsvParseException if an enclosed token is not closed
+   */
+  public CsvColumns tokenize( String delimiter, String enclosure ) throws CsvParseException {
+    byte[] separator = delimiter.getBytes( StandardCharsets.UTF_8 );
+    byte[] quote = enclosure == null ? new byte[ 0 ] : enclosure.getBytes( StandardCharsets.UTF_8 );
+    CsvColumns result = new CsvColumns( lineCount );
+    for ( int row = 0; row < lineCount; row++ ) {
+      int position = lineStarts[ row ];
+      int end = lineEnds[ row ];
+      int column = 0;
+      while ( position < end ) {
+        if ( quote.length > 0 && startsWith( buffer, position, quote ) ) {
+          position = readEnclosed( position + quote.length, end, separator, quote, row, result, column );
+        } else {
+          int tokenEnd = indexOf( position, end, separator );
+          result.set( row, column, decode( position, tokenEnd, true ) );
+          position = tokenEnd + separator.length;
+        }
+        column++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads an enclosed token that starts after its opening enclosure
+   *
+   * @return the position after the delimiter that follows the token
+   */
+  private int readEnclosed( int position, int end, byte[] separator, byte[] quote, int row, CsvColumns result,
+                            int column ) throws CsvParseException {
+    int length = 0;
+    while ( position < end ) {
+      if ( startsWith( buffer, position, quote ) ) {
+        int next = position + quote.length;
+        if ( next < end && startsWith( buffer, next, quote ) ) {
+          // a doubled enclosure stands for the enclosure
+          length = append( length, next, quote.length );
+          position = next + quote.length;
+          continue;
+        }
+        if ( next >= end || startsWith( buffer, next, separator ) ) {
+          result.set( row, column, new String( scratch, trimStart( length ), trimmedLength( length ),
+            StandardCharsets.UTF_8 ) );
+          return next + separator.length;
+        }
+      }
+      length = append( length, position, 1 );
+      position++;
+    }
+    throw new CsvParseException( row + 1, decode( lineStarts[ row ], lineEnds[ row ], false ) );
+  }
+
+  private int indexOf( int from, int end, byte[] separator ) {
+    for ( int i = from; i < end; i++ ) {
+      if ( startsWith( buffer, i, separator ) ) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  private static boolean startsWith( ByteBuffer buffer, int position, byte[] bytes ) {
+    if ( bytes.length == 0 || position + bytes.length > buffer.limit() ) {
+      return false;
+    }
+    for ( int i = 0; i < bytes.length; i++ ) {
+      if ( buffer.get( position + i ) != bytes[ i ] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies bytes of the buffer at the end of the scratch array
+   *
+   * @return the new length of the scratch array content
+   */
+  private int append( int length, int position, int count ) {
+    if ( length + count > scratch.length ) {
+      scratch = Arrays.copyOf( scratch, Math.max( length + count, scratch.length * 2 ) );
+    }
+    for ( int i = 0; i < count; i++ ) {
+      scratch[ length + i ] = buffer.get( position + i );
+    }
+    return length + count;
+  }
+
+  private String decode( int start, int end, boolean trim ) {
+    int length = append( 0, start, end - start );
+    if ( trim ) {
+      return new String( scratch, trimStart( length ), trimmedLength( length ), StandardCharsets.UTF_8 );
+    }
+    return new String( scratch, 0, length, StandardCharsets.UTF_8 );
+  }
+
+  // the same characters String.trim() removes, none of which can be part of a multi-byte UTF-8 character
+
+  private int trimStart( int length ) {
+    int start = 0;
+    while ( start < length && ( scratch[ start ] & 0xFF ) <= ' ' ) {
+      start++;
+    }
+    return start;
+  }
+
+  private int trimmedLength( int length ) {
+    int start = trimStart( length );
+    int end = length;
+    while ( end > start && ( scratch[ end - 1 ] & 0xFF ) <= ' ' ) {
+      end--;
+    }
+    return end - start;
+  }
+}
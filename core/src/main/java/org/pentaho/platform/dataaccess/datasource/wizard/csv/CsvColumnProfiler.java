@@ -0,0 +1,300 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvParseException;
+import org.pentaho.reporting.libraries.base.util.CSVTokenizer;
+
+/**
+ * Profiles the columns of a whole delimited file in one pass and in bounded memory. The data rows are sampled with a
+ * reservoir of a fixed number of rows, so that every row of the file has the same chance to be part of the sample
+ * used for type detection, and exact statistics are kept for every column: the null count, the maximum length, the
+ * minimum and maximum values, and an estimate of the distinct values.
+ */
+public class CsvColumnProfiler {
+
+  private static final int CLOCK_CHECK_ROWS = 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String delimiter;
+
+  private final String enclosure;
+
+  private final int headerRows;
+
+  private final String[][] reservoir;
+
+  private final long deadline;
+
+  private final Random random;
+
+  private final List<ColumnStatistics> statistics = new ArrayList<ColumnStatistics>();
+
+  private long rowCount;
+
+  private boolean complete;
+
+  /**
+   * @param delimiter
+   * @param enclosure
+   * @param headerRows     the number of lines before the data rows
+   * @param reservoirSize  the number of data rows to sample
+   * @param timeBudget     the number of milliseconds after which the profile stops, or 0 to read the whole file
+   */
+  public CsvColumnProfiler( String delimiter, String enclosure, int headerRows, int reservoirSize, long timeBudget ) {
+    this( delimiter, enclosure, headerRows, reservoirSize, timeBudget, new Random() );
+  }
+
+  CsvColumnProfiler( String delimiter, String enclosure, int headerRows, int reservoirSize, long timeBudget,
+                     Random random ) {
+    this.delimiter = delimiter;
+    this.enclosure = enclosure;
+    this.headerRows = headerRows;
+    this.reservoir = new String[ Math.max( 0, reservoirSize ) ][];
+    this.deadline = timeBudget > 0 ? System.currentTimeMillis() + timeBudget : Long.MAX_VALUE;
+    this.random = random;
+  }
+
+  /**
+   * Profiles a file
+   *
+   * @param fileLocation
+   * @param encoding
+   * @throws IOException
+   * @throws CsvParseException if a line can not be tokenized
+   */
+  public void profile( String fileLocation, String encoding ) throws IOException, CsvParseException {
+    UnicodeBOMInputStream inputStream = new UnicodeBOMInputStream( new FileInputStream( fileLocation ) );
+    try ( Reader reader = new InputStreamReader( inputStream, encoding ) ) {
+      inputStream.skipBOM();
+      profile( reader );
+    }
+  }
+
+  /**
+   * Profiles the lines of a reader
+   *
+   * @param reader
+   * @throws IOException
+   * @throws CsvParseException if a line can not be tokenized
+   */
+  public void profile( Reader reader ) throws IOException, CsvParseException {
+    BufferedReader lines = new BufferedReader( reader, BUFFER_SIZE );
+    List<String> tokens = new ArrayList<String>();
+    long lineNumber = 0;
+    String line;
+    complete = true;
+    while ( ( line = lines.readLine() ) != null ) {
+      lineNumber++;
+      if ( lineNumber <= headerRows ) {
+        continue;
+      }
+      if ( rowCount % CLOCK_CHECK_ROWS == 0 && rowCount > 0 && System.currentTimeMillis() > deadline ) {
+        complete = false;
+        break;
+      }
+      tokens.clear();
+      try {
+        CSVTokenizer csvt = new CSVTokenizer( line, delimiter, enclosure );
+        while ( csvt.hasMoreTokens() ) {
+          String token = csvt.nextToken();
+          tokens.add( token != null ? token.trim() : null );
+        }
+      } catch ( IllegalArgumentException iae ) {
+        throw new CsvParseException( (int) Math.min( lineNumber, Integer.MAX_VALUE ), line, iae );
+      }
+      addRow( tokens );
+    }
+  }
+
+  private void addRow( List<String> tokens ) {
+    while ( statistics.size() < tokens.size() ) {
+      // a column that first shows up now was null in the rows before
+      statistics.add( new ColumnStatistics( rowCount ) );
+    }
+    for ( int column = 0; column < statistics.size(); column++ ) {
+      statistics.get( column ).add( column < tokens.size() ? tokens.get( column ) : null );
+    }
+
+    int slot = -1;
+    if ( rowCount < reservoir.length ) {
+      slot = (int) rowCount;
+    } else if ( reservoir.length > 0 ) {
+      long candidate = Math.floorMod( random.nextLong(), rowCount + 1 );
+      if ( candidate < reservoir.length ) {
+        slot = (int) candidate;
+      }
+    }
+    if ( slot >= 0 ) {
+      reservoir[ slot ] = tokens.toArray( new String[ tokens.size() ] );
+    }
+    rowCount++;
+  }
+
+  /**
+   * Returns the sampled data rows
+   *
+   * @return
+   */
+  public CsvColumns getSample() {
+    int rows = (int) Math.min( rowCount, reservoir.length );
+    CsvColumns sample = new CsvColumns( rows );
+    for ( int row = 0; row < rows; row++ ) {
+      String[] values = reservoir[ row ];
+      for ( int column = 0; column < values.length; column++ ) {
+        sample.set( row, column, values[ column ] );
+      }
+    }
+    return sample;
+  }
+
+  /**
+   * Returns the statistics of a column, or <code>null</code> if no row has that column
+   *
+   * @param column
+   * @return
+   */
+  public ColumnStatistics getStatistics( int column ) {
+    return column < statistics.size() ? statistics.get( column ) : null;
+  }
+
+  public int getColumnCount() {
+    return statistics.size();
+  }
+
+  /**
+   * Returns the number of data rows that have been read
+   *
+   * @return
+   */
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Tells whether the whole file has been read, or the time budget ran out before
+   *
+   * @return
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * The statistics of one column. Empty values count as nulls. The minimum and maximum are compared as numbers for as
+   * long as every value of the column is a plain number, and as strings otherwise.
+   */
+  public static class ColumnStatistics {
+
+    private final HyperLogLog distinct = new HyperLogLog();
+
+    private long nullCount;
+
+    private int maxLength;
+
+    private boolean numeric = true;
+
+    private String minNumber;
+
+    private String maxNumber;
+
+    private double minNumberValue;
+
+    private double maxNumberValue;
+
+    private String minString;
+
+    private String maxString;
+
+    ColumnStatistics( long nullCount ) {
+      this.nullCount = nullCount;
+    }
+
+    void add( String value ) {
+      if ( value == null || value.isEmpty() ) {
+        nullCount++;
+        return;
+      }
+      distinct.add( value );
+      if ( value.length() > maxLength ) {
+        maxLength = value.length();
+      }
+      if ( minString == null || value.compareTo( minString ) < 0 ) {
+        minString = value;
+      }
+      if ( maxString == null || value.compareTo( maxString ) > 0 ) {
+        maxString = value;
+      }
+      if ( numeric ) {
+        addNumber( value );
+      }
+    }
+
+    private void addNumber( String value ) {
+      double number;
+      try {
+        number = isNumberLike( value ) ? Double.parseDouble( value ) : Double.NaN;
+      } catch ( NumberFormatException e ) {
+        number = Double.NaN;
+      }
+      if ( Double.isNaN( number ) || Double.isInfinite( number ) ) {
+        numeric = false;
+        return;
+      }
+      if ( minNumber == null || number < minNumberValue ) {
+        minNumber = value;
+        minNumberValue = number;
+      }
+      if ( maxNumber == null || number > maxNumberValue ) {
+        maxNumber = value;
+        maxNumberValue = number;
+      }
+    }
+
+    // rules out most strings without the cost of a NumberFormatException
+    private static boolean isNumberLike( String value ) {
+      char first = value.charAt( 0 );
+      return ( first >= '0' && first <= '9' ) || first == '-' || first == '+' || first == '.';
+    }
+
+    public long getNullCount() {
+      return nullCount;
+    }
+
+    public int getMaxLength() {
+      return maxLength;
+    }
+
+    public String getMin() {
+      return numeric ? minNumber : minString;
+    }
+
+    public String getMax() {
+      return numeric ? maxNumber : maxString;
+    }
+
+    public long getDistinctCount() {
+      return distinct.estimate();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvParseException;
+import org.pentaho.reporting.libraries.base.util.CSVTokenizer;
+
+/**
+ * The tokens of the sampled lines of a delimited file, kept by column. A row that has fewer tokens than the widest
+ * row has <code>null</code> for the missing ones.
+ */
+public class CsvColumns {
+
+  private final int rowCount;
+
+  private String[][] columns = new String[ 0 ][];
+
+  private int columnCount;
+
+  CsvColumns( int rowCount ) {
+    this.rowCount = rowCount;
+  }
+
+  /**
+   * Tokenizes lines that have already been decoded, with the {@link CSVTokenizer}
+   *
+   * @param lines
+   * @param delimiter
+   * @param enclosure
+   * @return
+   * @throws CsvParseException if a line can not be tokenized
+   */
+  public static CsvColumns tokenize( List<String> lines, String delimiter, String enclosure )
+    throws CsvParseException {
+    CsvColumns result = new CsvColumns( lines.size() );
+    for ( int row = 0; row < lines.size(); row++ ) {
+      String line = lines.get( row );
+      try {
+        CSVTokenizer csvt = new CSVTokenizer( line, delimiter, enclosure );
+        for ( int column = 0; csvt.hasMoreTokens(); column++ ) {
+          String token = csvt.nextToken();
+          result.set( row, column, token != null ? token.trim() : null );
+        }
+      } catch ( IllegalArgumentException iae ) {
+        throw new CsvParseException( row + 1, line, iae );
+      }
+    }
+    return result;
+  }
+
+  void set( int row, int column, String value ) {
+    if ( column >= columns.length ) {
+      columns = Arrays.copyOf( columns, Math.max( column + 1, columns.length * 2 ) );
+    }
+    if ( columns[ column ] == null ) {
+      columns[ column ] = new String[ rowCount ];
+    }
+    columns[ column ][ row ] = value;
+    if ( column >= columnCount ) {
+      columnCount = column + 1;
+    }
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return columnCount;
+  }
+
+  public String get( int row, int column ) {
+    return column < columnCount ? columns[ column ][ row ] : null;
+  }
+
+  /**
+   * Returns the tokens of a column, starting from a row, without copying them. A column that no row has is all
+   * <code>null</code>.
+   *
+   * @param column
+   * @param fromRow
+   * @return
+   */
+  public List<String> getColumn( int column, int fromRow ) {
+    if ( column >= columnCount ) {
+      return Collections.nCopies( rowCount - fromRow, null );
+    }
+    return Arrays.asList( columns[ column ] ).subList( fromRow, rowCount );
+  }
+
+  /**
+   * Returns the tokens of a row, with <code>null</code> for the columns the row does not have
+   *
+   * @param row
+   * @return
+   */
+  public String[] getRow( int row ) {
+    String[] values = new String[ columnCount ];
+    for ( int column = 0; column < columnCount; column++ ) {
+      values[ column ] = columns[ column ][ row ];
+    }
+    return values;
+  }
+}
@@ -14,6 +14,7 @@
 package org.pentaho.platform.dataaccess.datasource.wizard.csv;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.pentaho.di.trans.steps.textfileinput.TextFileInputMeta;
@@ -51,33 +52,45 @@ public class CsvInspector {
   }
 
   public String guessDelimiter( String line ) {
+    return guessDelimiter( Collections.singletonList( line ) );
+  }
+
+  /**
+   * Guesses the delimiter from the characters of several lines, without joining them
+   *
+   * @param lines
+   * @return the delimiter, or null if the lines do not contain any of the known delimiters
+   */
+  public String guessDelimiter( List<String> lines ) {
     int numTabs = 0;
     int numCommas = 0;
     int numPipes = 0;
     int numTildas = 0;
     int numColons = 0;
     int numSemiColons = 0;
-    for ( int idx = 0; idx < line.length(); idx++ ) {
-      char c = line.charAt( idx );
-      switch( c ) {
-        case '\t':
-          numTabs++;
-          break;
-        case ',':
-          numCommas++;
-          break;
-        case '|':
-          numPipes++;
-          break;
-        case '~':
-          numTildas++;
-          break;
-        case ':':
-          numColons++;
-          break;
-        case ';':
-          numSemiColons++;
-          break;
+    for ( String line : lines ) {
+      for ( int idx = 0; idx < line.length(); idx++ ) {
+        char c = line.charAt( idx );
+        switch( c ) {
+          case '\t':
+            numTabs++;
+            break;
+          case ',':
+            numCommas++;
+            break;
+          case '|':
+            numPipes++;
+            break;
+          case '~':
+            numTildas++;
+            break;
+          case ':':
+            numColons++;
+            break;
+          case ';':
+            numSemiColons++;
+            break;
+        }
       }
     }
     int max = Math.max( numTabs, numCommas );
@@ -0,0 +1,105 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the first lines of a delimited file in one buffered pass, and keeps the lines the wizard guesses the
+ * delimiter and columns from. A byte order mark is skipped. Lines end with <code>\r\n</code>, <code>\n</code> or
+ * <code>\r</code>.
+ */
+public class CsvSampler {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final List<String> lines;
+
+  CsvSampler( List<String> lines ) {
+    this.lines = lines;
+  }
+
+  /**
+   * Reads the first lines of a file
+   *
+   * @param fileLocation
+   * @param rowLimit     the number of lines to read
+   * @param encoding
+   * @return
+   * @throws IOException
+   */
+  public static CsvSampler sample( String fileLocation, int rowLimit, String encoding ) throws IOException {
+    UnicodeBOMInputStream inputStream = new UnicodeBOMInputStream( new FileInputStream( fileLocation ) );
+    try ( Reader reader = new InputStreamReader( inputStream, encoding ) ) {
+      inputStream.skipBOM();
+      return sample( reader, rowLimit );
+    }
+  }
+
+  /**
+   * Reads the first lines of a reader
+   *
+   * @param reader
+   * @param rowLimit the number of lines to read
+   * @return
+   * @throws IOException
+   */
+  static CsvSampler sample( Reader reader, int rowLimit ) throws IOException {
+    List<String> lines = new ArrayList<String>( Math.max( 0, Math.min( rowLimit, 10000 ) ) );
+    boolean afterCr = false;
+    StringBuilder line = new StringBuilder();
+    char[] buffer = new char[ BUFFER_SIZE ];
+    boolean done = rowLimit <= 0;
+    int count;
+    while ( !done && ( count = reader.read( buffer ) ) != -1 ) {
+      for ( int i = 0; i < count; i++ ) {
+        char c = buffer[ i ];
+        if ( afterCr ) {
+          afterCr = false;
+          if ( c == '\n' ) {
+            continue;
+          }
+        }
+        if ( lines.size() >= rowLimit ) {
+          done = true;
+          break;
+        }
+        if ( c == '\r' || c == '\n' ) {
+          lines.add( line.toString() );
+          line.setLength( 0 );
+          afterCr = c == '\r';
+        } else {
+          line.append( c );
+        }
+      }
+    }
+    if ( line.length() > 0 && lines.size() < rowLimit ) {
+      lines.add( line.toString() );
+    }
+    return new CsvSampler( lines );
+  }
+
+  /**
+   * Returns the lines that have been read, without their line endings
+   *
+   * @return
+   */
+  public List<String> getLines() {
+    return lines;
+  }
+}
@@ -24,13 +24,14 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.util.StringEvaluationResult;
 import org.pentaho.di.core.util.StringEvaluator;
-import org.pentaho.di.trans.steps.textfileinput.TextFileInput;
 import org.pentaho.metadata.model.concept.types.DataType;
 import org.pentaho.metadata.util.SerializationService;
 import org.pentaho.metadata.util.Util;
@@ -44,7 +45,6 @@ import org.pentaho.platform.dataaccess.metadata.messages.Messages;
 import org.pentaho.platform.engine.core.system.PentahoBase;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.util.logging.Logger;
-import org.pentaho.reporting.libraries.base.util.CSVTokenizer;
 
 import com.ibm.icu.text.CharsetDetector;
 import com.ibm.icu.text.CharsetMatch;
@@ -59,6 +59,8 @@ public class CsvUtils extends PentahoBase {
 
   private static final long serialVersionUID = 2498165533158485182L;
 
+  private static final int MIN_SAMPLES_PER_TASK = 2000;
+
   private Log log = LogFactory.getLog( CsvUtils.class );
   public static final String DEFAULT_RELATIVE_UPLOAD_FILE_PATH =
     File.separatorChar + "system" + File.separatorChar + "metadata" + File.separatorChar + "csvfiles"
@@ -67,6 +69,9 @@ public class CsvUtils extends PentahoBase {
     File.separatorChar + "system" + File.separatorChar + File.separatorChar + "tmp" + File.separatorChar;
     //$NON-NLS-1$ //$NON-NLS-2$
 
+  private boolean fullProfile;
+
+  private long profileTimeBudget;
 
   public ModelInfo getFileContents( String project, String name, String delimiter, String enclosure, int rows,
                                     boolean isFirstRowHeader, String encoding ) throws Exception {
@@ -128,14 +133,24 @@ public class CsvUtils extends PentahoBase {
     CsvFileInfo fileInfo = new CsvFileInfo();
     result.setFileInfo( fileInfo );
 
-    CsvInspector inspector = new CsvInspector();
-    String sampleLine = getLines( fileLocation, 1, encoding );
-    int fileType = inspector.determineFileFormat( sampleLine );
-
-    String contents = getLines( fileLocation, rowLimit, encoding );
-    fileInfo.setContents( getLinesList( fileLocation, rowLimit, encoding ) );
+    // UTF-8 and ASCII files are tokenized from the bytes at the start of the file, other encodings are decoded first;
+    // either way the preview, the delimiter guess and the profile share one pass over the file
+    ByteCsvTokenizer tokenizer = null;
+    List<String> lines;
+    try {
+      if ( ByteCsvTokenizer.isSupported( encoding ) ) {
+        tokenizer = ByteCsvTokenizer.open( fileLocation, rowLimit );
+        lines = tokenizer.getLines();
+      } else {
+        lines = CsvSampler.sample( fileLocation, rowLimit, encoding ).getLines();
+      }
+    } catch ( IOException e ) {
+      Logger.error( getClass().getSimpleName(), "Could not read CSV", e );  //$NON-NLS-1$
+      throw e;
+    }
+    fileInfo.setContents( lines );
     if ( delimiter.equals( "" ) ) { //$NON-NLS-1$
-      delimiter = inspector.guessDelimiter( contents );
+      delimiter = new CsvInspector().guessDelimiter( lines );
       enclosure = "\""; //$NON-NLS-1$
       headerRows = 0;
     }
@@ -146,7 +161,30 @@ public class CsvUtils extends PentahoBase {
     fileInfo.setProject( project );
     fileInfo.setTmpFilename( filename );
 
-    DataProfile data = getDataProfile( fileInfo, rowLimit, fileLocation, fileType, encoding );
+    CsvColumns columns;
+    try {
+      columns = tokenizer != null ? tokenizer.tokenize( delimiter, enclosure )
+        : CsvColumns.tokenize( lines, delimiter, enclosure );
+    } catch ( CsvParseException e ) {
+      Logger.error( getClass().getSimpleName(), "There was an issue parsing the CSV file", e );  //$NON-NLS-1$
+      throw e;
+    }
+    CsvColumnProfiler profiler = null;
+    if ( fullProfile ) {
+      // the rows kept by the profiler sample the whole file, the preview only shows its first rows
+      profiler = new CsvColumnProfiler( delimiter, enclosure, headerRows, rowLimit, profileTimeBudget );
+      try {
+        profiler.profile( fileLocation, encoding );
+      } catch ( CsvParseException e ) {
+        Logger.error( getClass().getSimpleName(), "There was an issue parsing the CSV file", e );  //$NON-NLS-1$
+        throw e;
+      }
+      if ( !profiler.isComplete() ) {
+        log.warn( "The profile of " + filename + " stopped after " + profiler.getRowCount()
+          + " rows" );  //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      }
+    }
+    DataProfile data = getDataProfile( headerRows, columns, profiler );
     if ( doData ) {
       result.setData( data.getRows() );
     }
@@ -156,14 +194,6 @@ public class CsvUtils extends PentahoBase {
     return result;
   }
 
-  private List<String> getColumnData( int columnNumber, String[][] data ) {
-    List<String> dataSample = new ArrayList<String>( data.length );
-    for ( String[] row : data ) {
-      dataSample.add( row[ columnNumber ] );
-    }
-    return dataSample;
-  }
-
   protected List<String> getLinesList( String fileLocation, int rows, String encoding ) throws IOException {
     List<String> lines = new ArrayList<String>();
     FileInputStream fis = null;
@@ -208,149 +238,16 @@ public class CsvUtils extends PentahoBase {
     return lines;
   }
 
-  protected String getLines( String fileLocation, int rows, String encoding ) {
-    File file = new File( fileLocation );
-
-    // read one line, including all EOL characters
-    InputStream in;
-    InputStreamReader inr = null;
-    StringBuilder line = new StringBuilder();
-    int count = 0;
-    try {
-      in = new FileInputStream( file );
-      inr = new InputStreamReader( in, encoding );
-
-
-      int c = inr.read();
-      boolean looking = true;
-      while ( looking && c > 0 ) {
-        line.append( (char) c );
-        if ( c == '\r' || c == '\n' ) {
-          // look at the next char
-          c = inr.read();
-          if ( c == '\r' || c == '\n' ) {
-            line.append( (char) c );
-            c = inr.read();
-          }
-          count++;
-          if ( count == rows ) {
-            looking = false;
-          }
-        } else {
-          c = inr.read();
-        }
-      }
-    } catch ( IOException e ) {
-      //do nothing
-    } finally {
-      if ( inr != null ) {
-        try {
-          inr.close();
-        } catch ( IOException e ) {
-          // ignore this one
-        }
-      }
-    }
-    return line.toString();
-
-  }
-
-  private DataProfile getDataProfile( CsvFileInfo fileInfo, int rowLimit, String fileLocation, int fileType,
-                                      String encoding ) throws Exception {
+  private DataProfile getDataProfile( int headerRows, CsvColumns columns, CsvColumnProfiler profiler ) {
     DataProfile result = new DataProfile();
-    String line = null;
-    int row = 0;
-    List<List<String>> headerSample = new ArrayList<List<String>>();
-    List<List<String>> dataSample = new ArrayList<List<String>>( rowLimit );
-    int maxColumns = 0;
-    InputStreamReader reader = null;
-
-    try {
-      InputStream inputStream = new FileInputStream( fileLocation );
-      UnicodeBOMInputStream bomIs = new UnicodeBOMInputStream( inputStream );
-      reader = new InputStreamReader( bomIs, encoding );
-      bomIs.skipBOM();
-
-      //read each line of text file
-      StringBuilder stringBuilder = new StringBuilder( 1000 );
-      line = TextFileInput.getLine( null, reader, fileType, stringBuilder );
-
-      while ( line != null && row < rowLimit ) {
+    int maxColumns = columns.getColumnCount();
+    int firstDataRow = Math.min( headerRows, columns.getRowCount() );
 
-        CSVTokenizer csvt = new CSVTokenizer( line, fileInfo.getDelimiter(), fileInfo.getEnclosure() );
-        List<String> rowData = new ArrayList<String>();
-        int count = 0;
-
-        while ( csvt.hasMoreTokens() ) {
-          String token = csvt.nextToken();
-          if ( token != null ) {
-            token = token.trim();
-          }
-          rowData.add( token );
-          count++;
-        }
-        if ( maxColumns < count ) {
-          maxColumns = count;
-        }
-        if ( row < fileInfo.getHeaderRows() ) {
-          headerSample.add( rowData );
-        } else {
-          dataSample.add( rowData );
-        }
-        line = TextFileInput.getLine( null, reader, fileType, stringBuilder );
-        row++;
-      }
-
-    } catch ( IllegalArgumentException iae ) {
-      Logger.error( getClass().getSimpleName(), "There was an issue parsing the CSV file", iae );  //$NON-NLS-1$
-      throw new CsvParseException( row + 1, line );
-    } catch ( Exception e ) {
-      Logger.error( getClass().getSimpleName(), "Could not read CSV", e );  //$NON-NLS-1$
-      throw e;
-    } finally {
-
-      //close the file
-      try {
-        if ( reader != null ) {
-          reader.close();
-        }
-      } catch ( Exception e ) {
-        throw e;
-        // ignore
-      }
-    }
-    String[][] headerValues = new String[ headerSample.size() ][ maxColumns ];
-    int rowNo = 0;
-    for ( List<String> values : headerSample ) {
-      int colNo = 0;
-      for ( String value : values ) {
-        headerValues[ rowNo ][ colNo ] = value;
-        colNo++;
-      }
-      rowNo++;
-    }
-
-    int[] fieldLengths = new int[ maxColumns ];
-
-    String[][] dataValues = new String[ dataSample.size() ][ maxColumns ];
-    DataRow[] data = new DataRow[ dataSample.size() ];
-    rowNo = 0;
-    for ( List<String> values : dataSample ) {
-      int colNo = 0;
-      for ( String value : values ) {
-        dataValues[ rowNo ][ colNo ] = value;
-
-        int currentMaxLength = fieldLengths[ colNo ];
-        if ( value.length() > currentMaxLength ) {
-          fieldLengths[ colNo ] = value.length();
-        }
-        colNo++;
-      }
+    DataRow[] data = new DataRow[ columns.getRowCount() - firstDataRow ];
+    for ( int rowNo = 0; rowNo < data.length; rowNo++ ) {
       data[ rowNo ] = new DataRow();
-      data[ rowNo ].setCells( dataValues[ rowNo ] );
-      rowNo++;
+      data[ rowNo ].setCells( columns.getRow( firstDataRow + rowNo ) );
     }
-
     result.setRows( data );
 
     DecimalFormat df = new DecimalFormat( "000" ); //$NON-NLS-1$
@@ -361,9 +258,9 @@ public class CsvUtils extends PentahoBase {
       String title = CsvFileInfo.DEFAULT_COLUMN_NAME_PREFIX + df.format( idx + 1 );
       String colId = "PC_" + idx; //$NON-NLS-1$
 
-      if ( headerValues.length > 0 ) {
-        if ( headerValues[ headerValues.length - 1 ][ idx ] != null ) {
-          title = headerValues[ headerValues.length - 1 ][ idx ];
+      if ( firstDataRow > 0 ) {
+        if ( columns.get( firstDataRow - 1, idx ) != null ) {
+          title = columns.get( firstDataRow - 1, idx );
           colId = title;
           if ( !Util.validateId( title ) ) {
             colId = Util.toId( colId );
@@ -372,17 +269,52 @@ public class CsvUtils extends PentahoBase {
       }
       profile.setTitle( title );
       profile.setId( colId );
-
-
-      List<String> samples = getColumnData( idx, dataValues );
-
-      assumeColumnDetails( profile, samples );
-
+    }
+    // each column has its own evaluator, so the columns are evaluated on the fork-join pool
+    CsvColumns samples = profiler != null ? profiler.getSample() : columns;
+    int firstSampleRow = profiler != null ? 0 : firstDataRow;
+    ForkJoinPool.commonPool().invoke( new ColumnDetailsTask( profiles, samples, firstSampleRow, 0, maxColumns ) );
+    if ( profiler != null ) {
+      for ( int idx = 0; idx < maxColumns; idx++ ) {
+        setStatistics( profiles[ idx ], profiler.getStatistics( idx ) );
+      }
     }
     result.setColumns( profiles );
     return result;
   }
 
+  private void setStatistics( ColumnInfo profile, CsvColumnProfiler.ColumnStatistics statistics ) {
+    if ( statistics == null ) {
+      return;
+    }
+    profile.setNullCount( statistics.getNullCount() );
+    profile.setDistinctCount( statistics.getDistinctCount() );
+    profile.setMinValue( statistics.getMin() );
+    profile.setMaxValue( statistics.getMax() );
+    if ( profile.getDataType() == DataType.STRING ) {
+      // the longest value of the file, padded as the sampled lengths are
+      int length = statistics.getMaxLength() + ( statistics.getMaxLength() / 2 );
+      profile.setLength( Math.max( profile.getLength(), length ) );
+    }
+  }
+
+  /**
+   * Makes {@link #generateFields} sample the data rows of the whole file for the column details, and add the
+   * statistics of the whole file to them, instead of only looking at the rows of the preview
+   *
+   * @param fullProfile
+   */
+  public void setFullProfile( boolean fullProfile ) {
+    this.fullProfile = fullProfile;
+  }
+
+  /**
+   * @param profileTimeBudget the number of milliseconds after which a full profile stops, or 0 for no limit
+   */
+  public void setProfileTimeBudget( long profileTimeBudget ) {
+    this.profileTimeBudget = profileTimeBudget;
+  }
+
   protected void assumeColumnDetails( ColumnInfo profile, List<String> samples ) {
     StringEvaluator eval = new StringEvaluator( false, NUMBER_FORMATS, ColumnInfo.DATE_FORMATS );
     assumeColumnDetails( profile, samples, eval );
@@ -490,6 +422,43 @@ public class CsvUtils extends PentahoBase {
     return size;
   }
 
+  /**
+   * Assumes the details of a range of columns, splitting the range while it holds more samples than are worth
+   * a task of their own
+   */
+  private class ColumnDetailsTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final ColumnInfo[] profiles;
+    private final CsvColumns columns;
+    private final int firstDataRow;
+    private final int from;
+    private final int to;
+
+    ColumnDetailsTask( ColumnInfo[] profiles, CsvColumns columns, int firstDataRow, int from, int to ) {
+      this.profiles = profiles;
+      this.columns = columns;
+      this.firstDataRow = firstDataRow;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      int samples = columns.getRowCount() - firstDataRow;
+      if ( to - from > 1 && (long) ( to - from ) * samples > MIN_SAMPLES_PER_TASK ) {
+        int middle = ( from + to ) >>> 1;
+        invokeAll( new ColumnDetailsTask( profiles, columns, firstDataRow, from, middle ),
+          new ColumnDetailsTask( profiles, columns, firstDataRow, middle, to ) );
+      } else {
+        for ( int idx = from; idx < to; idx++ ) {
+          // the samples are a view of the column, not a copy
+          assumeColumnDetails( profiles[ idx ], columns.getColumn( idx, firstDataRow ) );
+        }
+      }
+    }
+  }
+
   private static class DataProfile {
     DataRow[] rows = null;
     ColumnInfo[] columns = null;
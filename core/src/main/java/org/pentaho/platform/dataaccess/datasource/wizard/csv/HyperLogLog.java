@@ -0,0 +1,72 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+/**
+ * Estimates the number of distinct strings that have been added, in 4K of memory and with a standard error of about
+ * 1.6%.
+ */
+public class HyperLogLog {
+
+  private static final int PRECISION = 12;
+
+  private static final int REGISTER_COUNT = 1 << PRECISION;
+
+  private static final double ALPHA = 0.7213 / ( 1 + 1.079 / REGISTER_COUNT );
+
+  private final byte[] registers = new byte[ REGISTER_COUNT ];
+
+  public void add( String value ) {
+    long hash = hash( value );
+    int index = (int) ( hash >>> ( 64 - PRECISION ) );
+    // the rank of the first set bit of the remaining bits, bounded by their number
+    int rank = Long.numberOfLeadingZeros( ( hash << PRECISION ) | ( 1L << ( PRECISION - 1 ) ) ) + 1;
+    if ( rank > registers[ index ] ) {
+      registers[ index ] = (byte) rank;
+    }
+  }
+
+  public long estimate() {
+    double sum = 0;
+    int zeros = 0;
+    for ( byte register : registers ) {
+      sum += 1.0 / ( 1L << register );
+      if ( register == 0 ) {
+        zeros++;
+      }
+    }
+    double estimate = ALPHA * REGISTER_COUNT * REGISTER_COUNT / sum;
+    if ( estimate <= 2.5 * REGISTER_COUNT && zeros > 0 ) {
+      // linear counting is more accurate for small cardinalities
+      estimate = REGISTER_COUNT * Math.log( (double) REGISTER_COUNT / zeros );
+    }
+    return Math.round( estimate );
+  }
+
+  /**
+   * FNV-1a over the characters, followed by the finalizer of MurmurHash3 to spread the bits
+   */
+  private static long hash( String value ) {
+    long hash = 0xcbf29ce484222325L;
+    for ( int i = 0; i < value.length(); i++ ) {
+      hash ^= value.charAt( i );
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
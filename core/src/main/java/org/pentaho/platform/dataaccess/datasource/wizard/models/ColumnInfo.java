@@ -106,6 +106,16 @@ public class ColumnInfo extends XulEventSourceAdapter implements Serializable {
 
   private int precision;
 
+  // the statistics of a profile of the whole file, if one has been made
+
+  private long nullCount = -1;
+
+  private long distinctCount = -1;
+
+  private String minValue;
+
+  private String maxValue;
+
   private int dateFieldBreakout =
       DATE_LEVEL_YEAR
       | DATE_LEVEL_MONTH
@@ -134,6 +144,52 @@ public class ColumnInfo extends XulEventSourceAdapter implements Serializable {
     this.precision = precision;
   }
 
+  /**
+   * Returns the number of null or empty values in the whole file, or -1 if the file has not been profiled
+   */
+  @Bindable
+  public long getNullCount() {
+    return nullCount;
+  }
+
+  @Bindable
+  public void setNullCount( long nullCount ) {
+    this.nullCount = nullCount;
+  }
+
+  /**
+   * Returns an estimate of the number of distinct values in the whole file, or -1 if the file has not been profiled
+   */
+  @Bindable
+  public long getDistinctCount() {
+    return distinctCount;
+  }
+
+  @Bindable
+  public void setDistinctCount( long distinctCount ) {
+    this.distinctCount = distinctCount;
+  }
+
+  @Bindable
+  public String getMinValue() {
+    return minValue;
+  }
+
+  @Bindable
+  public void setMinValue( String minValue ) {
+    this.minValue = minValue;
+  }
+
+  @Bindable
+  public String getMaxValue() {
+    return maxValue;
+  }
+
+  @Bindable
+  public void setMaxValue( String maxValue ) {
+    this.maxValue = maxValue;
+  }
+
   @Bindable
   public String getFormat() {
     return format;
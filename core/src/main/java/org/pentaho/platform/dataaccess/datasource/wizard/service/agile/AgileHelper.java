@@ -34,6 +34,13 @@ public class AgileHelper {
   private static final String SETTINGS_FILE = PLUGIN_NAME + "/settings.xml"; //$NON-NLS-1$  
   private static final String DATASOURCE_SOLUTION_STORAGE = "data-access-datasource-solution-storage"; //$NON-NLS-1$
   private static final String CSV_SAMPLE_SIZE = "data-access-csv-sample-rows";
+  private static final String CSV_FULL_PROFILE = "data-access-csv-full-profile"; //$NON-NLS-1$
+  private static final String CSV_PROFILE_TIME_BUDGET = "data-access-csv-profile-time-budget"; //$NON-NLS-1$
+  private static final String CSV_LOAD_COPIES = "data-access-csv-load-copies"; //$NON-NLS-1$
+  private static final String STAGING_BATCH_SIZE = "data-access-staging-batch-size"; //$NON-NLS-1$
+  private static final String STAGING_COMMIT_SIZE = "data-access-staging-commit-size"; //$NON-NLS-1$
+  private static final String STAGING_BULK_LOAD = "data-access-staging-bulk-load"; //$NON-NLS-1$
+  private static final String STAGING_MAX_JOBS = "data-access-staging-max-jobs"; //$NON-NLS-1$
   private static final Log logger = LogFactory.getLog( AgileHelper.class );
 
   public static String getSchemaName() {
@@ -87,6 +94,73 @@ public class AgileHelper {
     }
   }
 
+  public static boolean isCsvFullProfile() {
+    return Boolean.parseBoolean(
+      PentahoSystem.getSystemSetting( SETTINGS_FILE, CSV_FULL_PROFILE, "false" ) ); //$NON-NLS-1$
+  }
+
+  /**
+   * Returns the number of milliseconds after which a full profile of a CSV file stops, 0 for no limit
+   */
+  public static long getCsvProfileTimeBudget() {
+    String seconds = PentahoSystem.getSystemSetting( SETTINGS_FILE, CSV_PROFILE_TIME_BUDGET, null );
+    try {
+      return seconds != null ? Math.max( 0, Long.parseLong( seconds.trim() ) * 1000 ) : 0;
+    } catch ( NumberFormatException e ) {
+      logger.warn( "Invalid " + CSV_PROFILE_TIME_BUDGET + ": " + seconds ); //$NON-NLS-1$ //$NON-NLS-2$
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the maximum number of parallel copies that load a CSV file, 0 to derive it from the file size and the
+   * number of cores
+   */
+  public static int getCsvLoadCopies() {
+    return getNonNegativeIntSetting( CSV_LOAD_COPIES, 0 );
+  }
+
+  /**
+   * Returns the maximum number of rows the staging table output sends in one JDBC batch, 0 to insert the rows one at a
+   * time
+   */
+  public static int getStagingBatchSize() {
+    return getNonNegativeIntSetting( STAGING_BATCH_SIZE, 0 );
+  }
+
+  /**
+   * Returns the number of rows the staging table output commits at once when it inserts the rows one at a time
+   */
+  public static int getStagingCommitSize() {
+    return getNonNegativeIntSetting( STAGING_COMMIT_SIZE, 1000 );
+  }
+
+  /**
+   * Tells whether CSV files are loaded with the bulk loader of the staging database when it has one. Off unless
+   * configured, because most loaders need the database or its driver set up to read local files.
+   */
+  public static boolean isStagingBulkLoad() {
+    return Boolean.parseBoolean(
+      PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_BULK_LOAD, "false" ) ); //$NON-NLS-1$
+  }
+
+  /**
+   * Returns the number of CSV files that are staged at the same time; the other imports wait in a queue
+   */
+  public static int getStagingMaxJobs() {
+    return Math.max( 1, getNonNegativeIntSetting( STAGING_MAX_JOBS, 2 ) );
+  }
+
+  private static int getNonNegativeIntSetting( String name, int defaultValue ) {
+    String value = PentahoSystem.getSystemSetting( SETTINGS_FILE, name, null );
+    try {
+      return value != null ? Math.max( 0, Integer.parseInt( value.trim() ) ) : defaultValue;
+    } catch ( NumberFormatException e ) {
+      logger.warn( "Invalid " + name + ": " + value ); //$NON-NLS-1$ //$NON-NLS-2$
+      return defaultValue;
+    }
+  }
+
   public static DatabaseMeta getDatabaseMeta() {
     // get the database settings from configuration
     String jndi = getJndiName();
@@ -0,0 +1,268 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.UUID;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.platform.dataaccess.datasource.wizard.csv.ByteCsvTokenizer;
+import org.pentaho.platform.dataaccess.datasource.wizard.csv.UnicodeBOMInputStream;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+/**
+ * Loads a delimited file into a staging table with the bulk load facility of the staging database, instead of row by
+ * row through a transformation. The database reads the file into a relation of text columns named <code>C0</code>,
+ * <code>C1</code>, ... and a single <code>INSERT ... SELECT</code> trims the values, turns the empty ones into nulls
+ * and casts the numbers. The relation is opened first, as some databases commit the statements that open it, and the
+ * rows of the table are then deleted and inserted in one transaction, so a file with a value the database can not
+ * convert loads no rows at all, and can then be loaded with the transformation, which reports the rejected rows.
+ * <p>
+ * Only the models whose values the database can parse the way the transformation does can be loaded this way: strings,
+ * and numbers without grouping or currency symbols, in a file encoded in UTF-8 or US-ASCII, with no null string and no
+ * value to replace empty fields with.
+ */
+public abstract class CsvBulkLoader {
+
+  protected static final String RAW_COLUMN = "C"; //$NON-NLS-1$
+
+  /**
+   * Returns the bulk loader of a staging database
+   *
+   * @param dialect the type of the staging database, as {@link AgileHelper#getDialect(DatabaseMeta)} detects it
+   * @return the loader, or <code>null</code> if the database has none
+   */
+  public static CsvBulkLoader forDialect( String dialect ) {
+    if ( dialect == null ) {
+      return null;
+    }
+    String name = dialect.toUpperCase( Locale.ENGLISH );
+    if ( name.equals( "H2" ) ) { //$NON-NLS-1$
+      return new H2CsvBulkLoader();
+    } else if ( name.equals( "HYPERSONIC" ) || name.contains( "HSQL" ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      return new HypersonicCsvBulkLoader();
+    } else if ( name.startsWith( "POSTGRES" ) ) { //$NON-NLS-1$
+      return new PostgreSQLCsvBulkLoader();
+    } else if ( name.equals( "MYSQL" ) || name.equals( "MARIADB" ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      return new MySQLCsvBulkLoader();
+    }
+    return null;
+  }
+
+  /**
+   * Tells whether the database can load the file of a model on its own
+   *
+   * @param modelInfo
+   * @return
+   */
+  public boolean canLoad( ModelInfo modelInfo ) {
+    CsvFileInfo fileInfo = modelInfo.getFileInfo();
+    ColumnInfo[] columns = modelInfo.getColumns();
+    if ( fileInfo == null || columns == null || !ByteCsvTokenizer.isSupported( fileInfo.getEncoding() ) ) {
+      return false;
+    }
+    String delimiter = fileInfo.getDelimiter();
+    String enclosure = fileInfo.getEnclosure();
+    if ( delimiter == null || delimiter.length() != 1 || delimiter.equals( "\\" ) //$NON-NLS-1$
+      || ( enclosure != null && enclosure.length() > 1 ) || !isEmpty( fileInfo.getNullStr() )
+      || !isEmpty( fileInfo.getIfNull() ) ) {
+      return false;
+    }
+    boolean hasColumns = false;
+    for ( ColumnInfo column : columns ) {
+      if ( column.isIgnore() ) {
+        continue;
+      }
+      if ( column.getDataType() == DataType.NUMERIC ) {
+        if ( !isPlainNumberFormat( column.getFormat() ) ) {
+          return false;
+        }
+      } else if ( column.getDataType() != DataType.STRING ) {
+        // dates and booleans are parsed with the masks of the transformation
+        return false;
+      }
+      hasColumns = true;
+    }
+    return hasColumns;
+  }
+
+  /**
+   * Tells whether the numbers of a column are written with digits, a sign and a decimal point only
+   *
+   * @param format the conversion mask of the column
+   * @return
+   */
+  static boolean isPlainNumberFormat( String format ) {
+    if ( format == null ) {
+      return true;
+    }
+    for ( int i = 0; i < format.length(); i++ ) {
+      if ( "#0.-".indexOf( format.charAt( i ) ) < 0 ) { //$NON-NLS-1$
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Loads a file into an existing table
+   *
+   * @param connection   a connection to the staging database
+   * @param databaseMeta the staging database, which quotes the names of the table and its columns
+   * @param schemaName
+   * @param tableName
+   * @param modelInfo    the model of the file, which {@link #canLoad(ModelInfo)}
+   * @param fileLocation the absolute path of the file
+   * @param truncate     whether to delete the rows of the table first
+   * @return the number of rows loaded
+   * @throws SQLException if the database can not load the file, in which case the table is left as it was
+   * @throws IOException
+   */
+  public long load( Connection connection, DatabaseMeta databaseMeta, String schemaName, String tableName,
+                    ModelInfo modelInfo, String fileLocation, boolean truncate ) throws SQLException, IOException {
+    String table = databaseMeta.getQuotedSchemaTableCombination( schemaName, tableName );
+    String rawTable = "CSV_LOAD_" //$NON-NLS-1$
+      + UUID.randomUUID().toString().replace( "-", "" ).substring( 0, 16 ).toUpperCase( Locale.ENGLISH );
+    ColumnInfo[] columns = modelInfo.getColumns();
+
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit( false );
+    Statement statement = connection.createStatement();
+    try {
+      String source = openSource( connection, statement, rawTable, modelInfo.getFileInfo(), columns.length,
+        fileLocation );
+      if ( truncate ) {
+        statement.executeUpdate( "DELETE FROM " + table ); //$NON-NLS-1$
+      }
+      long rows = statement.executeUpdate( getInsertStatement( databaseMeta, table, columns, source ) );
+      connection.commit();
+      return rows;
+    } catch ( SQLException | IOException e ) {
+      connection.rollback();
+      throw e;
+    } finally {
+      try {
+        connection.setAutoCommit( true );
+        dropSource( statement, rawTable );
+      } catch ( SQLException e ) {
+        // the source was not created
+      }
+      statement.close();
+      connection.setAutoCommit( autoCommit );
+    }
+  }
+
+  /**
+   * Makes the database read the file into a relation of text columns. This runs before the rows of the table are
+   * deleted, in the transaction of the load, and may commit it.
+   *
+   * @param connection
+   * @param statement
+   * @param rawTable     a name for a table that holds the text of the file, if the database needs one
+   * @param fileInfo
+   * @param columnCount  the number of columns of the file
+   * @param fileLocation
+   * @return the relation, to use in a <code>FROM</code> clause
+   * @throws SQLException
+   * @throws IOException
+   */
+  protected abstract String openSource( Connection connection, Statement statement, String rawTable,
+                                        CsvFileInfo fileInfo, int columnCount, String fileLocation )
+    throws SQLException, IOException;
+
+  /**
+   * Drops the table of {@link #openSource(Connection, Statement, String, CsvFileInfo, int, String)}, if there is one
+   *
+   * @param statement
+   * @param rawTable
+   * @throws SQLException
+   */
+  protected void dropSource( Statement statement, String rawTable ) throws SQLException {
+    statement.execute( "DROP TABLE IF EXISTS " + rawTable ); //$NON-NLS-1$
+  }
+
+  String getInsertStatement( DatabaseMeta databaseMeta, String table, ColumnInfo[] columns, String source ) {
+    StringBuilder names = new StringBuilder();
+    StringBuilder values = new StringBuilder();
+    for ( int i = 0; i < columns.length; i++ ) {
+      ColumnInfo column = columns[ i ];
+      if ( column.isIgnore() ) {
+        continue;
+      }
+      if ( names.length() > 0 ) {
+        names.append( ", " ); //$NON-NLS-1$
+        values.append( ", " ); //$NON-NLS-1$
+      }
+      names.append( databaseMeta.quoteField( column.getId() ) );
+      String value = "NULLIF(TRIM(" + RAW_COLUMN + i + "), '')"; //$NON-NLS-1$ //$NON-NLS-2$
+      values.append( column.getDataType() == DataType.NUMERIC ? castToNumber( value, column ) : value );
+    }
+    return "INSERT INTO " + table + " (" + names + ") SELECT " + values + " FROM " + source; //$NON-NLS-1$
+  }
+
+  /**
+   * Casts a text value to the type the table has for a numeric column
+   *
+   * @param value
+   * @param column
+   * @return
+   */
+  protected String castToNumber( String value, ColumnInfo column ) {
+    // the same types as StagingTransformGenerator.convertDataType
+    return "CAST(" + value + " AS " + ( column.getPrecision() <= 0 ? "BIGINT" : "DOUBLE PRECISION" ) + ")";
+  }
+
+  /**
+   * Returns the definition of the text columns of a file, for a <code>CREATE TABLE</code> statement
+   *
+   * @param columnCount
+   * @param type the type of a column
+   * @return
+   */
+  protected static String getRawColumns( int columnCount, String type ) {
+    StringBuilder columns = new StringBuilder();
+    for ( int i = 0; i < columnCount; i++ ) {
+      if ( i > 0 ) {
+        columns.append( ", " ); //$NON-NLS-1$
+      }
+      columns.append( RAW_COLUMN ).append( i ).append( ' ' ).append( type );
+    }
+    return columns.toString();
+  }
+
+  protected static String literal( String value ) {
+    return "'" + value.replace( "'", "''" ) + "'"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+  }
+
+  protected static BufferedReader openReader( String fileLocation, String encoding ) throws IOException {
+    UnicodeBOMInputStream inputStream = new UnicodeBOMInputStream( new FileInputStream( fileLocation ) );
+    BufferedReader reader = new BufferedReader( new InputStreamReader( inputStream, encoding ) );
+    inputStream.skipBOM();
+    return reader;
+  }
+
+  protected static boolean isEmpty( String value ) {
+    return value == null || value.isEmpty();
+  }
+}
@@ -14,11 +14,16 @@
 package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.row.ValueMeta;
 import org.pentaho.di.trans.TransMeta;
@@ -27,8 +32,11 @@ import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.steps.csvinput.CsvInputMeta;
 import org.pentaho.di.trans.steps.selectvalues.SelectValuesMeta;
 import org.pentaho.di.trans.steps.textfileinput.TextFileInputField;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.dataaccess.datasource.wizard.csv.ByteCsvTokenizer;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvTransformGeneratorException;
 import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
@@ -47,8 +55,15 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
   public static final String TMP_FILE_PATH =
     File.separatorChar + "system" + File.separatorChar + File.separatorChar + "tmp" + File.separatorChar;
 
+  // a smaller file is not worth splitting between copies of the input
+  static final long MIN_BYTES_PER_COPY = 16L * 1024 * 1024;
+
   private static final Log log = LogFactory.getLog( CsvTransformGenerator.class );
 
+  private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+  private boolean bulkLoad;
+
   /**
    * Default constructor that uses the JNDI datasource configured in the plugin.xml file.
    */
@@ -83,11 +98,11 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
   }
 
   @Override
-  protected StepMeta[] getSteps( TransMeta transMeta ) {
+  protected StepMeta[] getSteps( TransMeta transMeta, int copies ) {
 
     List<StepMeta> steps = new ArrayList<StepMeta>();
 
-    StepMeta inputStep = createInputStep( transMeta );
+    StepMeta inputStep = createInputStep( transMeta, copies );
     steps.add( inputStep );
 
     StepMeta step = createSelectStep( transMeta, SELECT_VALUES );
@@ -105,12 +120,88 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
     return steps.toArray( new StepMeta[ steps.size() ] );
   }
 
-  protected StepMeta createInputStep( TransMeta transMeta ) {
+  /**
+   * Loads the file with the bulk loader of the staging database, when bulk loads are enabled and the database has a
+   * loader that can load the columns of the model, and with the transformation otherwise
+   */
+  @Override
+  public void loadTable( boolean truncate, IPentahoSession session, boolean async )
+    throws CsvTransformGeneratorException {
+    if ( bulkLoad && session != null && getTableName() != null && bulkLoadTable( truncate ) ) {
+      return;
+    }
+    super.loadTable( truncate, session, async );
+  }
 
-    CsvInputMeta csvInputMeta = new CsvInputMeta();
-    CsvFileInfo fileInfo = getModelInfo().getFileInfo();
+  /**
+   * Loads the file with the bulk loader of the staging database. The load is synchronous, and a file the database can
+   * not load leaves the table as it was.
+   *
+   * @param truncate
+   * @return true if the file was loaded, false if it has to be loaded with the transformation
+   */
+  boolean bulkLoadTable( boolean truncate ) {
+    DatabaseMeta databaseMeta = getTargetDatabaseMeta();
+    // the plugin id of the staging database is the dialect AgileHelper detected
+    CsvBulkLoader loader = CsvBulkLoader.forDialect( databaseMeta.getPluginId() );
+    if ( loader == null || !loader.canLoad( getModelInfo() ) ) {
+      return false;
+    }
+
+    FileTransformStats stats = getTransformStats();
+    if ( stats != null ) {
+      stats.setRowsFinished( false );
+      stats.setRowsStarted( true );
+      stats.setTotalRecords( 0 );
+      stats.setRowsRejected( 0 );
+    }
+    long start = System.currentTimeMillis();
+    Database db = getDatabase( databaseMeta );
+    try {
+      db.connect( null );
+      long rows = loader.load( db.getConnection(), databaseMeta, AgileHelper.getSchemaName(), getTableName(),
+        getModelInfo(), getFile().getAbsolutePath(), truncate );
+      if ( log.isDebugEnabled() ) {
+        log.debug( "Bulk loaded " + rows + " rows into " + getTableName() + " in " //$NON-NLS-1$ //$NON-NLS-2$
+          + ( System.currentTimeMillis() - start ) + " ms" ); //$NON-NLS-1$
+      }
+      if ( stats != null ) {
+        stats.setTotalRecords( rows );
+        stats.setErrorCount( 0 );
+        stats.setRowsFinished( true );
+      }
+      return true;
+    } catch ( Exception e ) {
+      // a file with a value the database can not convert ends up here as well, the transformation reports the row
+      log.warn( "Could not bulk load " + getTableName() + ", loading it with the transformation: " //$NON-NLS-1$
+        + e.getMessage() ); //$NON-NLS-1$
+      log.debug( "Bulk load failed", e ); //$NON-NLS-1$
+      return false;
+    } finally {
+      db.disconnect();
+    }
+  }
 
-    String fileName = fileInfo.getTmpFilename();
+  public boolean isBulkLoad() {
+    return bulkLoad;
+  }
+
+  /**
+   * Sets whether the file is loaded with the bulk loader of the staging database when it has one
+   *
+   * @param bulkLoad
+   */
+  public void setBulkLoad( boolean bulkLoad ) {
+    this.bulkLoad = bulkLoad;
+  }
+
+  /**
+   * Returns the uploaded file of the model
+   *
+   * @return
+   */
+  protected File getFile() {
+    String fileName = getModelInfo().getFileInfo().getTmpFilename();
     String path;
     if ( fileName.endsWith( ".tmp" ) ) { //$NON-NLS-1$
       path = PentahoSystem.getApplicationContext().getSolutionPath( TMP_FILE_PATH );
@@ -119,9 +210,22 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
         String.valueOf( DEFAULT_RELATIVE_UPLOAD_FILE_PATH ) );  //$NON-NLS-1$
       path = PentahoSystem.getApplicationContext().getSolutionPath( relativePath );
     }
+    return new File( path + fileName );
+  }
 
-    File file = new File( path + fileInfo.getTmpFilename() );
-    String filename = file.getAbsolutePath();
+  /**
+   * Creates the step that reads the file
+   *
+   * @param transMeta
+   * @param copies    the number of copies the step runs in, each copy reads a part of the file when there are several
+   * @return
+   */
+  protected StepMeta createInputStep( TransMeta transMeta, int copies ) {
+
+    CsvInputMeta csvInputMeta = new CsvInputMeta();
+    CsvFileInfo fileInfo = getModelInfo().getFileInfo();
+
+    String filename = getFile().getAbsolutePath();
 
     ColumnInfo[] columns = getModelInfo().getColumns();
     TextFileInputField[] inputFields = new TextFileInputField[ columns.length ];
@@ -149,7 +253,7 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
     }
 
     csvInputMeta.setAddResultFile( false );
-    csvInputMeta.setBufferSize( "5000" ); //$NON-NLS-1$
+    csvInputMeta.setBufferSize( "50000" ); //$NON-NLS-1$
     csvInputMeta.setDelimiter( fileInfo.getDelimiter() );
     csvInputMeta.setEnclosure( fileInfo.getEnclosure() );
     csvInputMeta.setEncoding( fileInfo.getEncoding() );
@@ -162,7 +266,8 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
     csvInputMeta.setInputFields( inputFields );
     csvInputMeta.setLazyConversionActive( true );
     csvInputMeta.setRowNumField( "" ); //$NON-NLS-1$
-    csvInputMeta.setRunningInParallel( false );
+    // each copy of the step reads its own byte range of the file, starting at the first line that begins in it
+    csvInputMeta.setRunningInParallel( copies > 1 );
     // inputMeta.setTargetSteps(null);
 
     StepMeta csvInputStepMeta = new StepMeta( CSV_INPUT, CSV_INPUT, csvInputMeta );
@@ -172,8 +277,8 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
 
     final FileTransformStats stats = getTransformStats();
     StepErrorMeta csvInputErrorMeta = new StepErrorMeta( transMeta, csvInputStepMeta ) {
-      public void addErrorRowData( Object[] row, int startIndex, long nrErrors, String errorDescriptions,
-                                   String fieldNames, String errorCodes ) {
+      public synchronized void addErrorRowData( Object[] row, int startIndex, long nrErrors,
+                                                String errorDescriptions, String fieldNames, String errorCodes ) {
         if ( csvErrorRowCount < maxErrorRows ) {
           StringBuffer sb = new StringBuffer();
           sb.append( "Rejected Row: " );
@@ -197,6 +302,168 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
     return csvInputStepMeta;
   }
 
+  @Override
+  protected int getLoadCopies() {
+    CsvFileInfo fileInfo = getModelInfo().getFileInfo();
+    File file = getFile();
+    int copies = getLoadCopies( file.length(), Runtime.getRuntime().availableProcessors(),
+      AgileHelper.getCsvLoadCopies(), fileInfo );
+    if ( copies > 1 ) {
+      // the sample may not reach the first value that spans lines
+      try {
+        if ( hasEnclosedLineBreaks( file, fileInfo ) ) {
+          return 1;
+        }
+      } catch ( IOException e ) {
+        log.debug( "Could not check the file for enclosed line breaks, loading it with one copy", e ); //$NON-NLS-1$
+        return 1;
+      }
+    }
+    return copies;
+  }
+
+  /**
+   * Returns the number of copies of the input that read a file in parallel: one per {@link #MIN_BYTES_PER_COPY} of the
+   * file, at most one per core, and no more than the maximum when there is one. Each copy starts reading at a line
+   * break, so a file is read by one copy when a sampled line shows an enclosed value that spans lines, or when line
+   * breaks can not be found on the raw bytes of its encoding. The rest of the file is checked by
+   * {@link #hasEnclosedLineBreaks(File, CsvFileInfo)} before more than one copy is used.
+   *
+   * @param fileSize
+   * @param cores
+   * @param maxCopies the maximum number of copies, 0 for no maximum
+   * @param fileInfo
+   * @return
+   */
+  static int getLoadCopies( long fileSize, int cores, int maxCopies, CsvFileInfo fileInfo ) {
+    if ( maxCopies == 1 || !ByteCsvTokenizer.isSupported( fileInfo.getEncoding() )
+      || hasEnclosedLineBreaks( fileInfo ) ) {
+      return 1;
+    }
+    int copies = (int) Math.max( 1, Math.min( cores, fileSize / MIN_BYTES_PER_COPY ) );
+    return maxCopies > 1 ? Math.min( copies, maxCopies ) : copies;
+  }
+
+  /**
+   * Tells whether a sampled line has an odd number of enclosures, which means that an enclosed value goes on to the
+   * next line
+   *
+   * @param fileInfo
+   * @return
+   */
+  static boolean hasEnclosedLineBreaks( CsvFileInfo fileInfo ) {
+    String enclosure = fileInfo.getEnclosure();
+    if ( enclosure == null || enclosure.isEmpty() || fileInfo.getContents() == null ) {
+      return false;
+    }
+    for ( String line : fileInfo.getContents() ) {
+      int count = 0;
+      for ( int i = line.indexOf( enclosure ); i >= 0; i = line.indexOf( enclosure, i + enclosure.length() ) ) {
+        count++;
+      }
+      if ( count % 2 != 0 ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Tells whether an enclosed value anywhere in a file goes on to the next line. The file is read once on its raw
+   * bytes, which is only valid for the encodings of {@link ByteCsvTokenizer#isSupported}. A value is enclosed when
+   * the enclosure starts the field, and a doubled enclosure inside it stands for the enclosure.
+   *
+   * @param file
+   * @param fileInfo
+   * @return
+   * @throws IOException
+   */
+  static boolean hasEnclosedLineBreaks( File file, CsvFileInfo fileInfo ) throws IOException {
+    String enclosure = fileInfo.getEnclosure();
+    if ( enclosure == null || enclosure.isEmpty() ) {
+      return false;
+    }
+    if ( hasEnclosedLineBreaks( fileInfo ) ) {
+      return true;
+    }
+    byte[] quote = enclosure.getBytes( StandardCharsets.UTF_8 );
+    String delimiter = fileInfo.getDelimiter();
+    byte[] separator = delimiter == null ? new byte[ 0 ] : delimiter.getBytes( StandardCharsets.UTF_8 );
+    int lookahead = Math.max( quote.length * 2, separator.length );
+    try ( InputStream in = new FileInputStream( file ) ) {
+      byte[] buffer = new byte[ 64 * 1024 ];
+      int length = 0;
+      int position = 0;
+      boolean eof = false;
+      boolean first = true;
+      boolean enclosed = false;
+      boolean fieldStart = true;
+      while ( true ) {
+        if ( !eof && length - position < lookahead ) {
+          System.arraycopy( buffer, position, buffer, 0, length - position );
+          length -= position;
+          position = 0;
+          while ( !eof && length < buffer.length ) {
+            int read = in.read( buffer, length, buffer.length - length );
+            if ( read < 0 ) {
+              eof = true;
+            } else {
+              length += read;
+            }
+          }
+          if ( first ) {
+            first = false;
+            position = matches( buffer, 0, length, UTF8_BOM ) ? UTF8_BOM.length : 0;
+          }
+        }
+        if ( position >= length ) {
+          return false;
+        }
+        byte b = buffer[ position ];
+        if ( enclosed ) {
+          if ( matches( buffer, position, length, quote ) ) {
+            position += quote.length;
+            if ( matches( buffer, position, length, quote ) ) {
+              position += quote.length;
+            } else {
+              enclosed = false;
+            }
+          } else if ( b == '\r' || b == '\n' ) {
+            return true;
+          } else {
+            position++;
+          }
+        } else if ( fieldStart && matches( buffer, position, length, quote ) ) {
+          enclosed = true;
+          fieldStart = false;
+          position += quote.length;
+        } else if ( b == '\r' || b == '\n' ) {
+          fieldStart = true;
+          position++;
+        } else if ( matches( buffer, position, length, separator ) ) {
+          fieldStart = true;
+          position += separator.length;
+        } else {
+          // blanks before the enclosure still start the field
+          fieldStart = fieldStart && ( b == ' ' || b == '\t' );
+          position++;
+        }
+      }
+    }
+  }
+
+  private static boolean matches( byte[] buffer, int position, int length, byte[] bytes ) {
+    if ( bytes.length == 0 || position + bytes.length > length ) {
+      return false;
+    }
+    for ( int i = 0; i < bytes.length; i++ ) {
+      if ( buffer[ position + i ] != bytes[ i ] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   protected StepMeta createSelectStep( TransMeta transMeta, String stepName ) {
     SelectValuesMeta meta = new SelectValuesMeta();
     // find out which columns need to be deleted
@@ -0,0 +1,61 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+/**
+ * Reads the file with the <code>CSVREAD</code> table function of H2. The file is read by the database, so it has to
+ * be on the host of the database, and the user of the staging connection needs the rights to read files.
+ */
+public class H2CsvBulkLoader extends CsvBulkLoader {
+
+  @Override
+  public boolean canLoad( ModelInfo modelInfo ) {
+    // the options of CSVREAD are separated by spaces
+    return super.canLoad( modelInfo ) && !" ".equals( modelInfo.getFileInfo().getDelimiter() ); //$NON-NLS-1$
+  }
+
+  @Override
+  protected String openSource( Connection connection, Statement statement, String rawTable, CsvFileInfo fileInfo,
+                               int columnCount, String fileLocation ) {
+    String delimiter = fileInfo.getDelimiter();
+    StringBuilder columns = new StringBuilder();
+    for ( int i = 0; i < columnCount; i++ ) {
+      if ( i > 0 ) {
+        columns.append( delimiter );
+      }
+      columns.append( RAW_COLUMN ).append( i );
+    }
+    String enclosure = fileInfo.getEnclosure() != null ? fileInfo.getEnclosure() : ""; //$NON-NLS-1$
+    String options = "charset=" + fileInfo.getEncoding() + " fieldSeparator=" + delimiter //$NON-NLS-1$ //$NON-NLS-2$
+      + " fieldDelimiter=" + enclosure; //$NON-NLS-1$
+    String csvRead = "CSVREAD(" + literal( fileLocation ) + ", " + literal( columns.toString() ) + ", " //$NON-NLS-1$
+      + literal( options ) + ")"; //$NON-NLS-1$
+
+    // with the column names given, the header lines are read as rows
+    int headerRows = fileInfo.getHeaderRows();
+    return "(SELECT * FROM " + csvRead //$NON-NLS-1$
+      + ( headerRows > 0 ? " OFFSET " + headerRows + " ROWS" : "" ) + ") " + rawTable; //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  @Override
+  protected void dropSource( Statement statement, String rawTable ) {
+    // CSVREAD creates no table
+  }
+}
@@ -0,0 +1,84 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+/**
+ * Reads the file through a read only <code>TEXT TABLE</code> of HSQLDB. The database only opens a text table source
+ * from an absolute path when the JVM of the database has the <code>textdb.allow_full_path</code> system property set
+ * to true. Creating the text table commits the transaction, which is why the loader opens its source before it
+ * deletes the rows of the table.
+ */
+public class HypersonicCsvBulkLoader extends CsvBulkLoader {
+
+  @Override
+  public boolean canLoad( ModelInfo modelInfo ) {
+    if ( !super.canLoad( modelInfo ) ) {
+      return false;
+    }
+    // a text table skips one header line at most, and only knows double quotes as enclosures
+    CsvFileInfo fileInfo = modelInfo.getFileInfo();
+    return fileInfo.getHeaderRows() <= 1 && ( isEmpty( fileInfo.getEnclosure() ) || "\"".equals( fileInfo
+      .getEnclosure() ) ); //$NON-NLS-1$
+  }
+
+  @Override
+  protected String openSource( Connection connection, Statement statement, String rawTable, CsvFileInfo fileInfo,
+                               int columnCount, String fileLocation ) throws SQLException {
+    statement.execute( "CREATE TEXT TABLE " + rawTable + " (" //$NON-NLS-1$ //$NON-NLS-2$
+      + getRawColumns( columnCount, "LONGVARCHAR" ) + ")" ); //$NON-NLS-1$ //$NON-NLS-2$
+    String source = fileLocation
+      + ";fs=" + getSeparator( fileInfo.getDelimiter().charAt( 0 ) ) //$NON-NLS-1$
+      + ";encoding=" + fileInfo.getEncoding() //$NON-NLS-1$
+      + ";ignore_first=" + ( fileInfo.getHeaderRows() > 0 ) //$NON-NLS-1$
+      + ";quoted=" + !isEmpty( fileInfo.getEnclosure() ); //$NON-NLS-1$
+    statement.execute( "SET TABLE " + rawTable + " SOURCE " + literal( source ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    statement.execute( "SET TABLE " + rawTable + " READONLY TRUE" ); //$NON-NLS-1$ //$NON-NLS-2$
+    return rawTable;
+  }
+
+  @Override
+  protected void dropSource( Statement statement, String rawTable ) throws SQLException {
+    statement.execute( "DROP TABLE " + rawTable + " IF EXISTS" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * Returns a field separator the way a text table source names it
+   *
+   * @param delimiter
+   * @return
+   */
+  static String getSeparator( char delimiter ) {
+    switch ( delimiter ) {
+      case ';':
+        return "\\semi"; //$NON-NLS-1$
+      case '\t':
+        return "\\t"; //$NON-NLS-1$
+      case ' ':
+        return "\\space"; //$NON-NLS-1$
+      case '"':
+        return "\\quote"; //$NON-NLS-1$
+      case '\'':
+        return "\\apos"; //$NON-NLS-1$
+      default:
+        return String.valueOf( delimiter );
+    }
+  }
+}
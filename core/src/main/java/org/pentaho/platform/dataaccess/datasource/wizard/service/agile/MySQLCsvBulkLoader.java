@@ -0,0 +1,107 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+
+/**
+ * Sends the file to MySQL with <code>LOAD DATA LOCAL INFILE</code>. Both the server and the driver of the staging
+ * connection have to allow local files (<code>local_infile</code> and <code>allowLoadLocalInfile</code>). The load runs
+ * in the strict SQL mode, in which a value MySQL can not convert fails the load instead of becoming 0.
+ */
+public class MySQLCsvBulkLoader extends CsvBulkLoader {
+
+  private static final String STRICT_MODE = "STRICT_ALL_TABLES"; //$NON-NLS-1$
+
+  // the SQL mode of the session before the load
+  private String sqlMode;
+
+  @Override
+  protected String openSource( Connection connection, Statement statement, String rawTable, CsvFileInfo fileInfo,
+                               int columnCount, String fileLocation ) throws SQLException, IOException {
+    try ( ResultSet rs = statement.executeQuery( "SELECT @@SESSION.sql_mode" ) ) { //$NON-NLS-1$
+      sqlMode = rs.next() && rs.getString( 1 ) != null ? rs.getString( 1 ) : ""; //$NON-NLS-1$
+    }
+    statement.execute( "SET SESSION sql_mode = " //$NON-NLS-1$
+      + literal( sqlMode.isEmpty() ? STRICT_MODE : sqlMode + "," + STRICT_MODE ) ); //$NON-NLS-1$
+    statement.execute( "CREATE TEMPORARY TABLE " + rawTable + " (" //$NON-NLS-1$ //$NON-NLS-2$
+      + getRawColumns( columnCount, "TEXT" ) + ")" ); //$NON-NLS-1$ //$NON-NLS-2$
+    boolean utf8 = StandardCharsets.UTF_8.equals( Charset.forName( fileInfo.getEncoding() ) );
+    statement.execute( "LOAD DATA LOCAL INFILE " //$NON-NLS-1$
+      // MySQL takes forward slashes on every platform, and a backslash would start an escape sequence
+      + literal( fileLocation.replace( '\\', '/' ) )
+      + " INTO TABLE " + rawTable //$NON-NLS-1$
+      + " CHARACTER SET " + ( utf8 ? "utf8mb4" : "ascii" ) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      + " FIELDS TERMINATED BY " + literal( fileInfo.getDelimiter() ) //$NON-NLS-1$
+      + ( isEmpty( fileInfo.getEnclosure() ) ? "" //$NON-NLS-1$
+        : " OPTIONALLY ENCLOSED BY " + literal( fileInfo.getEnclosure() ) ) //$NON-NLS-1$
+      + " ESCAPED BY ''" //$NON-NLS-1$
+      + " LINES TERMINATED BY " + literal( getLineSeparator( fileLocation ) ) //$NON-NLS-1$
+      + ( fileInfo.getHeaderRows() > 0
+        ? " IGNORE " + fileInfo.getHeaderRows() + " LINES" : "" ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    return rawTable;
+  }
+
+  @Override
+  protected void dropSource( Statement statement, String rawTable ) throws SQLException {
+    try {
+      statement.execute( "DROP TEMPORARY TABLE IF EXISTS " + rawTable ); //$NON-NLS-1$
+    } finally {
+      if ( sqlMode != null ) {
+        // the connection may go back to a pool
+        statement.execute( "SET SESSION sql_mode = " + literal( sqlMode ) ); //$NON-NLS-1$
+        sqlMode = null;
+      }
+    }
+  }
+
+  @Override
+  protected String castToNumber( String value, ColumnInfo column ) {
+    // MySQL has no cast to BIGINT or, before 8.0.17, to DOUBLE
+    return "CAST(" + value + " AS " //$NON-NLS-1$ //$NON-NLS-2$
+      + ( column.getPrecision() <= 0 ? "SIGNED" : "DECIMAL(65, 30)" ) + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+  }
+
+  /**
+   * Returns the line separator of the first line of a file
+   *
+   * @param fileLocation
+   * @return
+   * @throws IOException
+   */
+  static String getLineSeparator( String fileLocation ) throws IOException {
+    try ( InputStream in = new BufferedInputStream( new FileInputStream( fileLocation ) ) ) {
+      int previous = -1;
+      for ( int b = in.read(); b >= 0; b = in.read() ) {
+        if ( b == '\n' ) {
+          return previous == '\r' ? "\r\n" : "\n"; //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        previous = b;
+      }
+    }
+    return "\n"; //$NON-NLS-1$
+  }
+}
@@ -13,6 +13,9 @@
 
 package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransListener;
 import org.pentaho.di.trans.step.StepInterface;
@@ -20,7 +23,7 @@ import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransfo
 
 public class PdiTransListener implements TransListener, Runnable {
 
-  private StepInterface step;
+  private List<StepInterface> steps;
 
   private Trans trans;
 
@@ -31,7 +34,18 @@ public class PdiTransListener implements TransListener, Runnable {
   private long rowsDone = 0;
 
   public PdiTransListener( Trans trans, StepInterface step, FileTransformStats transformStats ) {
-    this.step = step;
+    this( trans, Collections.singletonList( step ), transformStats );
+  }
+
+  /**
+   * Reports the progress of all the copies of a step
+   *
+   * @param trans
+   * @param steps
+   * @param transformStats
+   */
+  public PdiTransListener( Trans trans, List<StepInterface> steps, FileTransformStats transformStats ) {
+    this.steps = steps;
     this.trans = trans;
     this.transformStats = transformStats;
   }
@@ -48,7 +62,7 @@ public class PdiTransListener implements TransListener, Runnable {
 
     while ( !finished && !trans.isFinished() ) {
       try {
-        rowsDone = step.getLinesOutput();
+        rowsDone = getLinesOutput();
         transformStats.setTotalRecords( rowsDone );
         Thread.sleep( 250 );
       } catch ( InterruptedException e ) {
@@ -65,15 +79,40 @@ public class PdiTransListener implements TransListener, Runnable {
       //Do Nothing
     }
     transformStats.setRowsFinished( true );
-    transformStats.setTotalRecords( step.getLinesRead() );
+    long linesRead = getLinesRead();
+    transformStats.setTotalRecords( linesRead );
 
     // there seems to be an issue with trans.getErrors() reporting 0 - figure it out on our own instead
     //    transformStats.setErrorCount(errorCount);
-    transformStats.setErrorCount( step.getLinesRead() - step.getLinesWritten() );
+    transformStats.setErrorCount( linesRead - getLinesWritten() );
 
     finished = true;
   }
 
+  private long getLinesOutput() {
+    long lines = 0;
+    for ( StepInterface step : steps ) {
+      lines += step.getLinesOutput();
+    }
+    return lines;
+  }
+
+  private long getLinesRead() {
+    long lines = 0;
+    for ( StepInterface step : steps ) {
+      lines += step.getLinesRead();
+    }
+    return lines;
+  }
+
+  private long getLinesWritten() {
+    long lines = 0;
+    for ( StepInterface step : steps ) {
+      lines += step.getLinesWritten();
+    }
+    return lines;
+  }
+
   public void transFinished( Trans trans ) {
     doFinish();
   }
@@ -0,0 +1,76 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+/**
+ * Streams the file to PostgreSQL with <code>COPY ... FROM STDIN</code>, so the file does not have to be on the host of
+ * the database. The copy API of the driver is looked up at runtime, as the driver is not a dependency of the plugin.
+ */
+public class PostgreSQLCsvBulkLoader extends CsvBulkLoader {
+
+  private static final String PG_CONNECTION = "org.postgresql.PGConnection"; //$NON-NLS-1$
+
+  @Override
+  public boolean canLoad( ModelInfo modelInfo ) {
+    // the CSV format of COPY always has an enclosure
+    return super.canLoad( modelInfo ) && !isEmpty( modelInfo.getFileInfo().getEnclosure() );
+  }
+
+  @Override
+  protected String openSource( Connection connection, Statement statement, String rawTable, CsvFileInfo fileInfo,
+                               int columnCount, String fileLocation ) throws SQLException, IOException {
+    statement.execute( "CREATE TEMPORARY TABLE " + rawTable + " (" //$NON-NLS-1$ //$NON-NLS-2$
+      + getRawColumns( columnCount, "TEXT" ) + ") ON COMMIT DROP" ); //$NON-NLS-1$ //$NON-NLS-2$
+    String copy = "COPY " + rawTable + " FROM STDIN WITH (FORMAT csv, DELIMITER " //$NON-NLS-1$ //$NON-NLS-2$
+      + literal( fileInfo.getDelimiter() ) + ", QUOTE " + literal( fileInfo.getEnclosure() ) + ")"; //$NON-NLS-1$
+    try ( BufferedReader reader = openReader( fileLocation, fileInfo.getEncoding() ) ) {
+      for ( int i = 0; i < fileInfo.getHeaderRows(); i++ ) {
+        reader.readLine();
+      }
+      copyIn( connection, copy, reader );
+    }
+    return rawTable;
+  }
+
+  private static long copyIn( Connection connection, String sql, Reader reader ) throws SQLException, IOException {
+    try {
+      Class<?> pgConnection = Class.forName( PG_CONNECTION );
+      Object copyManager = pgConnection.getMethod( "getCopyAPI" ).invoke( connection.unwrap( pgConnection ) );
+      Object rows = copyManager.getClass().getMethod( "copyIn", String.class, Reader.class ) //$NON-NLS-1$
+        .invoke( copyManager, sql, reader );
+      return (Long) rows;
+    } catch ( InvocationTargetException e ) {
+      Throwable cause = e.getCause();
+      if ( cause instanceof SQLException ) {
+        throw (SQLException) cause;
+      } else if ( cause instanceof IOException ) {
+        throw (IOException) cause;
+      }
+      throw new SQLException( cause );
+    } catch ( ReflectiveOperationException e ) {
+      throw new SQLException( "The connection does not support COPY", e ); //$NON-NLS-1$
+    }
+  }
+}
@@ -0,0 +1,318 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBase;
+import org.pentaho.di.trans.RowProducer;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.steps.injector.InjectorMeta;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
+import org.pentaho.metadata.model.IPhysicalColumn;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvTransformGeneratorException;
+import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
+
+/**
+ * Stages the rows of a metadata query result set into a database table. The rows are injected into the transformation
+ * as they are read, so the result set is never held in memory. The columns of the table are named
+ * <code>COL0</code>...<code>COLn</code> in the order of the result set, followed by {@link #ROW_INDEX_COLUMN} that
+ * keeps the order of the rows.
+ */
+public class ResultSetTransformGenerator extends StagingTransformGenerator {
+
+  private static final long serialVersionUID = 4710283348823904161L;
+
+  private static final String INJECTOR = "injector"; //$NON-NLS-1$
+
+  private static final String TABLE_OUTPUT = "output"; //$NON-NLS-1$
+
+  public static final String COLUMN_PREFIX = "COL"; //$NON-NLS-1$
+
+  public static final String ROW_INDEX_COLUMN = "ROW_INDEX"; //$NON-NLS-1$
+
+  private static final Log log = LogFactory.getLog( ResultSetTransformGenerator.class );
+
+  private final DatabaseMeta targetDatabaseMeta;
+
+  private final RowMetaInterface rowMeta;
+
+  private final Class<?>[] valueTypes;
+
+  public ResultSetTransformGenerator( IPentahoMetaData metaData ) {
+    this( metaData, AgileHelper.getDatabaseMeta() );
+  }
+
+  /**
+   * @param metaData           the metadata of the result sets to load, may be null to only drop tables
+   * @param targetDatabaseMeta
+   */
+  public ResultSetTransformGenerator( IPentahoMetaData metaData, DatabaseMeta targetDatabaseMeta ) {
+    super( targetDatabaseMeta );
+    this.targetDatabaseMeta = targetDatabaseMeta;
+    this.rowMeta = createRowMeta( metaData );
+    this.valueTypes = new Class<?>[ Math.max( 0, rowMeta.size() - 1 ) ];
+  }
+
+  /**
+   * Returns the name of the column that holds a column of the result set
+   *
+   * @param index
+   * @return
+   */
+  public static String getColumnName( int index ) {
+    return COLUMN_PREFIX + index;
+  }
+
+  /**
+   * Returns the Kettle type that a column of the given metadata type is staged as
+   *
+   * @param dataType
+   * @return
+   */
+  public static int getValueType( DataType dataType ) {
+    if ( dataType == null ) {
+      return ValueMetaInterface.TYPE_STRING;
+    }
+    switch ( dataType ) {
+      case NUMERIC:
+        return ValueMetaInterface.TYPE_BIGNUMBER;
+      case DATE:
+        return ValueMetaInterface.TYPE_DATE;
+      case BOOLEAN:
+        return ValueMetaInterface.TYPE_BOOLEAN;
+      default:
+        return ValueMetaInterface.TYPE_STRING;
+    }
+  }
+
+  /**
+   * Converts a value of the result set to the type of its column
+   *
+   * @param value
+   * @param type  the Kettle type of the column
+   * @return
+   */
+  public static Object convertValue( Object value, int type ) {
+    if ( value == null ) {
+      return null;
+    }
+    switch ( type ) {
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        if ( value instanceof BigDecimal ) {
+          return value;
+        }
+        return value instanceof Number || value instanceof String ? new BigDecimal( value.toString().trim() ) : null;
+      case ValueMetaInterface.TYPE_DATE:
+        return value instanceof Date ? new Date( ( (Date) value ).getTime() ) : null;
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return value instanceof Boolean ? value : Boolean.valueOf( value.toString() );
+      default:
+        return value.toString();
+    }
+  }
+
+  /**
+   * Converts a staged value back to the type the result set had, see {@link #getValueTypes()}. Numbers are staged as
+   * big numbers and dates as timestamps, whatever their type in the result set was.
+   *
+   * @param value     the value read from the table
+   * @param valueType the type of the values of the column in the result set, or null if it is not known
+   * @return
+   */
+  public static Object restoreValue( Object value, Class<?> valueType ) {
+    if ( value == null || valueType == null || valueType.isInstance( value ) ) {
+      return value;
+    }
+    if ( value instanceof Number ) {
+      Number number = (Number) value;
+      if ( valueType == Long.class ) {
+        return number.longValue();
+      } else if ( valueType == Integer.class ) {
+        return number.intValue();
+      } else if ( valueType == Short.class ) {
+        return number.shortValue();
+      } else if ( valueType == Byte.class ) {
+        return number.byteValue();
+      } else if ( valueType == Double.class ) {
+        return number.doubleValue();
+      } else if ( valueType == Float.class ) {
+        return number.floatValue();
+      } else if ( valueType == BigInteger.class ) {
+        return value instanceof BigDecimal ? ( (BigDecimal) value ).toBigInteger()
+          : BigInteger.valueOf( number.longValue() );
+      }
+    } else if ( value instanceof Date ) {
+      long time = ( (Date) value ).getTime();
+      if ( valueType == Timestamp.class ) {
+        return new Timestamp( time );
+      } else if ( valueType == java.sql.Date.class ) {
+        return new java.sql.Date( time );
+      } else if ( valueType == Time.class ) {
+        return new Time( time );
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Returns the type of the values of each column of the last result set loaded, taken from the first value that is not
+   * null, or null for a column that only has nulls. The tables keep numbers as big numbers, so the types are needed to
+   * read the values back as they were, see {@link #restoreValue}.
+   *
+   * @return
+   */
+  public Class<?>[] getValueTypes() {
+    return valueTypes.clone();
+  }
+
+  /**
+   * Creates or alters the table to fit the result set, replaces the rows of the table with the rows of the result set
+   * and closes the result set
+   *
+   * @param resultSet
+   * @param session
+   * @return the number of rows written
+   * @throws CsvTransformGeneratorException
+   */
+  public int loadResultSet( IPentahoResultSet resultSet, IPentahoSession session )
+    throws CsvTransformGeneratorException {
+    if ( getTableName() == null ) {
+      throw new IllegalArgumentException( "Table name cannot be null" ); //$NON-NLS-1$
+    }
+    try {
+      createOrModifyTable( session );
+      setTransformStats( new FileTransformStats() );
+      errorRowCount = 0;
+      Arrays.fill( valueTypes, null );
+
+      Trans trans = createTransform( true );
+      TableOutputMeta meta = (TableOutputMeta) trans.getTransMeta().findStep( TABLE_OUTPUT ).getStepMetaInterface();
+      meta.setDatabaseMeta( targetDatabaseMeta );
+      meta.setTruncateTable( true );
+      int rows = 0;
+      try {
+        prepareTransform( trans, session );
+        RowProducer producer = trans.addRowProducer( INJECTOR, 0 );
+        trans.startThreads();
+        try {
+          Object[] row = resultSet.next();
+          while ( row != null && !trans.isStopped() ) {
+            producer.putRow( rowMeta, convertRow( row, rows ) );
+            rows++;
+            row = resultSet.next();
+          }
+        } finally {
+          producer.finished();
+        }
+        trans.waitUntilFinished();
+        trans.cleanup();
+      } catch ( CsvTransformGeneratorException e ) {
+        throw e;
+      } catch ( Exception e ) {
+        String message = "Could not load the result set into " + getTableName(); //$NON-NLS-1$
+        error( message, e );
+        throw new CsvTransformGeneratorException( message, e, e.getMessage() );
+      }
+      if ( trans.getErrors() > 0 || errorRowCount > 0 ) {
+        throw new CsvTransformGeneratorException( "Could not load the result set into " + getTableName() //$NON-NLS-1$
+          + ": " + errorRowCount + " rows rejected" ); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      return rows;
+    } finally {
+      resultSet.closeConnection();
+    }
+  }
+
+  public RowMetaInterface getRowMeta() {
+    return rowMeta;
+  }
+
+  @Override
+  protected StepMeta[] getSteps( TransMeta transMeta, int copies ) {
+    InjectorMeta injectorMeta = new InjectorMeta();
+    int count = rowMeta.size();
+    injectorMeta.allocate( count );
+    String[] names = new String[ count ];
+    int[] types = new int[ count ];
+    int[] lengths = new int[ count ];
+    int[] precisions = new int[ count ];
+    for ( int i = 0; i < count; i++ ) {
+      ValueMetaInterface valueMeta = rowMeta.getValueMeta( i );
+      names[ i ] = valueMeta.getName();
+      types[ i ] = valueMeta.getType();
+      lengths[ i ] = valueMeta.getLength();
+      precisions[ i ] = valueMeta.getPrecision();
+    }
+    injectorMeta.setFieldname( names );
+    injectorMeta.setType( types );
+    injectorMeta.setLength( lengths );
+    injectorMeta.setPrecision( precisions );
+
+    StepMeta injectorStepMeta = new StepMeta( INJECTOR, INJECTOR, injectorMeta );
+    transMeta.addStep( injectorStepMeta );
+    return new StepMeta[] { injectorStepMeta };
+  }
+
+  @Override
+  protected String[] getIndexedColumnNames() {
+    return new String[ 0 ];
+  }
+
+  @Override
+  public Log getLogger() {
+    return log;
+  }
+
+  private Object[] convertRow( Object[] row, long index ) {
+    Object[] values = new Object[ rowMeta.size() ];
+    int columns = values.length - 1;
+    for ( int i = 0; i < columns && i < row.length; i++ ) {
+      if ( valueTypes[ i ] == null && row[ i ] != null ) {
+        valueTypes[ i ] = row[ i ].getClass();
+      }
+      values[ i ] = convertValue( row[ i ], rowMeta.getValueMeta( i ).getType() );
+    }
+    values[ columns ] = index;
+    return values;
+  }
+
+  private static RowMetaInterface createRowMeta( IPentahoMetaData metaData ) {
+    RowMeta rowMeta = new RowMeta();
+    int count = metaData == null ? 0 : metaData.getColumnCount();
+    for ( int i = 0; i < count; i++ ) {
+      Object dataType = metaData.getAttribute( 0, i, IPhysicalColumn.DATATYPE_PROPERTY );
+      int type = getValueType( dataType instanceof DataType ? (DataType) dataType : null );
+      rowMeta.addValueMeta( new ValueMetaBase( getColumnName( i ), type ) );
+    }
+    rowMeta.addValueMeta( new ValueMetaBase( ROW_INDEX_COLUMN, ValueMetaInterface.TYPE_INTEGER ) );
+    return rowMeta;
+  }
+}
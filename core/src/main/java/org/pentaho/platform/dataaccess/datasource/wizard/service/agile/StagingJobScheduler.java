@@ -0,0 +1,194 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
+
+/**
+ * Runs the jobs that load and model staging tables. At most a limited number of jobs run at the same time, and only one
+ * job at a time uses a staging table; the other jobs wait in the order they were submitted. A waiting job starts as
+ * soon as a job slot is free and its table is not in use, so a job for a busy table does not hold back the jobs behind
+ * it for other tables.
+ */
+public class StagingJobScheduler {
+
+  private static StagingJobScheduler instance;
+
+  private final int maxJobs;
+
+  private final ReentrantLock lock = new ReentrantLock( true );
+
+  private final Condition changed = lock.newCondition();
+
+  private final List<Ticket> queue = new ArrayList<Ticket>();
+
+  private final Set<String> runningTables = new HashSet<String>();
+
+  public static synchronized StagingJobScheduler getInstance() {
+    if ( instance == null ) {
+      instance = new StagingJobScheduler( AgileHelper.getStagingMaxJobs() );
+    }
+    return instance;
+  }
+
+  /**
+   * @param maxJobs the number of jobs that run at the same time
+   */
+  public StagingJobScheduler( int maxJobs ) {
+    this.maxJobs = Math.max( 1, maxJobs );
+  }
+
+  /**
+   * Runs a job in the thread of the caller, once a job slot and the staging table are free
+   *
+   * @param tableName the staging table the job uses
+   * @param stats     the statistics of the load, which get the position of the job in the queue while it waits; may be
+   *                  null
+   * @param job
+   * @return the result of the job
+   * @throws InterruptedException if the caller is interrupted while the job waits; the job does not run
+   * @throws Exception            what the job throws
+   */
+  public <T> T run( String tableName, FileTransformStats stats, Callable<T> job ) throws Exception {
+    Ticket ticket = new Ticket( getKey( tableName ), stats );
+    lock.lock();
+    try {
+      queue.add( ticket );
+      updatePositions();
+      try {
+        while ( !canStart( ticket ) ) {
+          changed.await();
+        }
+      } catch ( InterruptedException e ) {
+        queue.remove( ticket );
+        ticket.setPosition( 0 );
+        updatePositions();
+        changed.signalAll();
+        throw e;
+      }
+      queue.remove( ticket );
+      runningTables.add( ticket.table );
+      ticket.setPosition( 0 );
+      updatePositions();
+      // a free slot may let the next job for another table start as well
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      return job.call();
+    } finally {
+      lock.lock();
+      try {
+        runningTables.remove( ticket.table );
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Returns the position in the queue of the first job waiting for a staging table
+   *
+   * @param tableName
+   * @return the position, starting at 1, 0 if a job for the table is running and none waits, or -1 if there is no job
+   * for the table
+   */
+  public int getQueuePosition( String tableName ) {
+    String key = getKey( tableName );
+    lock.lock();
+    try {
+      for ( int i = 0; i < queue.size(); i++ ) {
+        if ( queue.get( i ).table.equals( key ) ) {
+          return i + 1;
+        }
+      }
+      return runningTables.contains( key ) ? 0 : -1;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getRunningJobCount() {
+    lock.lock();
+    try {
+      return runningTables.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getQueuedJobCount() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Tells whether a job can start: a slot is free and the job is the first in the queue whose table is not in use
+   */
+  private boolean canStart( Ticket ticket ) {
+    if ( runningTables.size() >= maxJobs ) {
+      return false;
+    }
+    for ( Ticket waiting : queue ) {
+      if ( !runningTables.contains( waiting.table ) ) {
+        return waiting == ticket;
+      }
+    }
+    return false;
+  }
+
+  private void updatePositions() {
+    for ( int i = 0; i < queue.size(); i++ ) {
+      queue.get( i ).setPosition( i + 1 );
+    }
+  }
+
+  private static String getKey( String tableName ) {
+    // the staging databases do not tell apart names that only differ in case unless they are quoted
+    return tableName == null ? "" : tableName.toUpperCase( Locale.ENGLISH ); //$NON-NLS-1$
+  }
+
+  private static class Ticket {
+
+    private final String table;
+
+    private final FileTransformStats stats;
+
+    Ticket( String table, FileTransformStats stats ) {
+      this.table = table;
+      this.stats = stats;
+    }
+
+    void setPosition( int position ) {
+      if ( stats != null ) {
+        stats.setQueuePosition( position );
+      }
+    }
+  }
+}
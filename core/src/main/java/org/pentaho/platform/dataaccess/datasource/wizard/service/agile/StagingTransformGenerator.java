@@ -62,13 +62,30 @@ public abstract class StagingTransformGenerator extends PentahoBase {
 
   private static final Log log = LogFactory.getLog( StagingTransformGenerator.class );
 
+  /**
+   * The approximate number of bytes of a JDBC batch, which limits the number of rows of a batch of wide rows
+   */
+  private static final int BATCH_BYTES = 1024 * 1024;
+
+  private static final int MIN_BATCH_SIZE = 50;
+
+  // the size of a column that is not a string, in the estimate of the width of a row
+  private static final int FIXED_COLUMN_WIDTH = 16;
+
   private DatabaseMeta targetDatabaseMeta;
 
   private String tableName = null;
 
   private FileTransformStats transformStats;
 
-  protected abstract StepMeta[] getSteps( TransMeta transMeta );
+  /**
+   * Creates the steps that read the rows of the load, in the order of their hops
+   *
+   * @param transMeta
+   * @param copies    the number of copies the steps run in, see {@link #getLoadCopies()}
+   * @return
+   */
+  protected abstract StepMeta[] getSteps( TransMeta transMeta, int copies );
 
   protected abstract String[] getIndexedColumnNames();
 
@@ -201,8 +218,7 @@ public abstract class StagingTransformGenerator extends PentahoBase {
         getStackTraceAsString( e2 ) ); //$NON-NLS-1$
     }
 
-    StepInterface step = trans.findRunThread( TABLE_OUTPUT );
-    PdiTransListener listener = new PdiTransListener( trans, step, transformStats );
+    PdiTransListener listener = new PdiTransListener( trans, trans.findStepInterfaces( TABLE_OUTPUT ), transformStats );
     // start the listener in a thread
     Thread listenerThread = new Thread( listener );
     listenerThread.start();
@@ -260,7 +276,10 @@ public abstract class StagingTransformGenerator extends PentahoBase {
 
   public void cancelLoad( IPentahoSession session ) {
     Trans trans = (Trans) session.getAttribute( TRANS_SESSION_ATTR );
-    trans.stopAll();
+    // a bulk load runs no transformation
+    if ( trans != null ) {
+      trans.stopAll();
+    }
   }
 
   protected StepMeta addDummyStep( TransMeta transMeta, String stepName ) {
@@ -274,12 +293,20 @@ public abstract class StagingTransformGenerator extends PentahoBase {
 
   protected StepMeta addTableOutputStep( TransMeta transMeta, String tableOutputStepName, String modelName ) {
     TableOutputMeta tableOutputMeta = new TableOutputMeta();
-    tableOutputMeta.setCommitSize( 1000 );
+    int batchSize =
+      canInsertInBatches( targetDatabaseMeta ) ? getBatchSize( AgileHelper.getStagingBatchSize(), getRowWidth() ) : 0;
+    if ( batchSize > 0 ) {
+      // the table output sends a batch when it commits, so each batch is committed on its own
+      tableOutputMeta.setCommitSize( batchSize );
+      tableOutputMeta.setUseBatchUpdate( true );
+    } else {
+      tableOutputMeta.setCommitSize( AgileHelper.getStagingCommitSize() );
+      tableOutputMeta.setUseBatchUpdate( false );
+    }
     tableOutputMeta.setIgnoreErrors( true );
     tableOutputMeta.setPartitioningEnabled( false );
     tableOutputMeta.setSchemaName( AgileHelper.getSchemaName() );
     tableOutputMeta.setTableName( getTableName() );
-    tableOutputMeta.setUseBatchUpdate( false );
 
     StepMeta tableOutputStepMeta = new StepMeta( tableOutputStepName, tableOutputStepName, tableOutputMeta );
 
@@ -287,6 +314,68 @@ public abstract class StagingTransformGenerator extends PentahoBase {
     return tableOutputStepMeta;
   }
 
+  /**
+   * Tells whether the table output can insert the rows into a database in JDBC batches. When a batch fails, the table
+   * output commits the rows whose update count is positive and sends the others to error handling, so the driver has to
+   * go on after a rejected row and mark it {@link java.sql.Statement#EXECUTE_FAILED}: a driver that stops at the first
+   * failure loses the rows after it, and one that returns {@link java.sql.Statement#SUCCESS_NO_INFO} gets inserted rows
+   * reported as rejected. Of the staging databases only H2 does both.
+   *
+   * @param databaseMeta
+   * @return
+   */
+  static boolean canInsertInBatches( DatabaseMeta databaseMeta ) {
+    // the plugin id of the staging database is the dialect AgileHelper detected
+    return databaseMeta != null && "H2".equalsIgnoreCase( databaseMeta.getPluginId() ); //$NON-NLS-1$
+  }
+
+  /**
+   * Returns the number of rows of a JDBC batch: the configured size, made smaller for rows so wide that a batch would
+   * hold much more than {@link #BATCH_BYTES}
+   *
+   * @param maxBatchSize the configured batch size, 0 to insert the rows one at a time
+   * @param rowWidth     the estimated number of bytes of a row, 0 if unknown
+   * @return
+   */
+  static int getBatchSize( int maxBatchSize, int rowWidth ) {
+    if ( maxBatchSize <= 0 || rowWidth <= 0 ) {
+      return Math.max( 0, maxBatchSize );
+    }
+    return Math.min( maxBatchSize, Math.max( MIN_BATCH_SIZE, BATCH_BYTES / rowWidth ) );
+  }
+
+  /**
+   * Estimates the number of bytes of a row from the columns of the model, or returns 0 if there is no model
+   *
+   * @return
+   */
+  protected int getRowWidth() {
+    if ( modelInfo == null || modelInfo.getColumns() == null ) {
+      return 0;
+    }
+    int width = 0;
+    for ( ColumnInfo column : modelInfo.getColumns() ) {
+      if ( column == null || column.isIgnore() ) {
+        continue;
+      }
+      if ( column.getDataType() == DataType.STRING ) {
+        width += Math.max( column.getLength(), 1 );
+      } else {
+        width += FIXED_COLUMN_WIDTH;
+      }
+    }
+    return width;
+  }
+
+  /**
+   * Returns the number of copies the steps of a load run in, each copy handling a part of the rows
+   *
+   * @return
+   */
+  protected int getLoadCopies() {
+    return 1;
+  }
+
   protected void createHop( StepMeta fromStep, StepMeta toStep, TransMeta transMeta ) {
     TransHopMeta hopMeta = new TransHopMeta();
     hopMeta.setFromStep( fromStep );
@@ -302,8 +391,8 @@ public abstract class StagingTransformGenerator extends PentahoBase {
 
     if ( tableOutputStep != null ) {
       StepErrorMeta tableOutputErrorMeta = new StepErrorMeta( trans.getTransMeta(), tableOutputStep.getStepMeta() ) {
-        public void addErrorRowData( Object[] row, int startIndex, long nrErrors, String errorDescriptions,
-                                     String fieldNames, String errorCodes ) {
+        public synchronized void addErrorRowData( Object[] row, int startIndex, long nrErrors,
+                                                  String errorDescriptions, String fieldNames, String errorCodes ) {
           // don't overwhelm the user with too many errors
           if ( errorRowCount < maxErrorRows ) {
             StringBuffer sb = new StringBuffer();
@@ -385,7 +474,9 @@ public abstract class StagingTransformGenerator extends PentahoBase {
   private TransMeta createTransMeta( boolean doOutput ) {
     TransMeta transMeta = new TransMeta();
 
-    StepMeta[] steps = getSteps( transMeta );
+    // a preview reads the rows with a single copy of each step
+    int copies = doOutput ? getLoadCopies() : 1;
+    StepMeta[] steps = getSteps( transMeta, copies );
 
     StepMeta lastStep = steps[ steps.length - 1 ];
 
@@ -395,6 +486,14 @@ public abstract class StagingTransformGenerator extends PentahoBase {
       tableStepMeta = addTableOutputStep( transMeta, TABLE_OUTPUT, tableName );
       createHop( lastStep, tableStepMeta, transMeta );
       lastStep = tableStepMeta;
+
+      if ( copies > 1 ) {
+        // with as many copies on both ends of each hop, every copy of the input feeds its own copy of the output
+        for ( StepMeta step : steps ) {
+          step.setCopies( copies );
+        }
+        tableStepMeta.setCopies( copies );
+      }
     }
 
     // we need to create a dummy step as a sink, otherwise the transform won't execute anything
@@ -500,6 +599,10 @@ public abstract class StagingTransformGenerator extends PentahoBase {
     }
   }
 
+  DatabaseMeta getTargetDatabaseMeta() {
+    return targetDatabaseMeta;
+  }
+
   Database getDatabase( final DatabaseMeta databaseMeta ) {
     return new Database( databaseMeta );
   }
@@ -49,7 +49,7 @@ public class TableInputTransformGenerator extends StagingTransformGenerator {
   }
 
   @Override
-  protected StepMeta[] getSteps( TransMeta transMeta ) {
+  protected StepMeta[] getSteps( TransMeta transMeta, int copies ) {
 
     StepMeta[] steps = new StepMeta[ 1 ];
     steps[ 0 ] = createInputStep( transMeta );
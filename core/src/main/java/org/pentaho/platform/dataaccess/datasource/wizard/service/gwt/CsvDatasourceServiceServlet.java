@@ -51,6 +51,11 @@ public class CsvDatasourceServiceServlet extends RemoteServiceServlet implements
     return serviceImpl.getEncoding( fileName );
   }
 
+  public int getQueuePosition( String fileName ) {
+    CsvDatasourceServiceImpl serviceImpl = new CsvDatasourceServiceImpl();
+    return serviceImpl.getQueuePosition( fileName );
+  }
+
   @Override
   public FileTransformStats generateDomain( DatasourceDTO datasourceDto ) throws Exception {
     CsvDatasourceServiceImpl serviceImpl = new CsvDatasourceServiceImpl();
@@ -37,5 +37,7 @@ public interface ICsvDatasourceService extends RemoteService {
 
   public String getEncoding( String fileName ) throws Exception;
 
+  public int getQueuePosition( String fileName );
+
   public BogoPojo gwtWorkaround( BogoPojo pojo );
 }
@@ -37,6 +37,8 @@ public interface ICsvDatasourceServiceAsync {
 
   public void getEncoding( String fileName, AsyncCallback<String> callback );
 
+  public void getQueuePosition( String fileName, AsyncCallback<Integer> callback );
+
   public void gwtWorkaround( BogoPojo pojo, AsyncCallback<BogoPojo> callback );
 
 }
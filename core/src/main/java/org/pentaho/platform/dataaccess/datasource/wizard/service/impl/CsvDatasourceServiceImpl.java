@@ -18,6 +18,7 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.modeler.geo.GeoContext;
 import org.pentaho.agilebi.modeler.gwt.GwtModelerWorkspaceHelper;
 import org.pentaho.agilebi.modeler.models.JoinFieldModel;
 import org.pentaho.agilebi.modeler.models.JoinRelationshipModel;
@@ -39,6 +40,7 @@ import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.DatasourceServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.CsvTransformGenerator;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingJobScheduler;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.gwt.ICsvDatasourceService;
 import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
 import org.pentaho.platform.dataaccess.metadata.messages.Messages;
@@ -65,8 +67,6 @@ import java.util.List;
 
 @SuppressWarnings( "unchecked" )
 public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasourceService {
-  public static final byte[] lock = new byte[ 0 ];
-
   private static final long serialVersionUID = 2498165533158485182L;
 
   private Log logger = LogFactory.getLog( CsvDatasourceServiceImpl.class );
@@ -74,14 +74,12 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
   private ModelerService modelerService = new ModelerService();
   private DSWDatasourceServiceImpl datasourceService = new DSWDatasourceServiceImpl();
 
-  private ModelerWorkspace modelerWorkspace;
+  private GeoContext geoContext;
 
   public CsvDatasourceServiceImpl() {
     super();
-    modelerWorkspace = new ModelerWorkspace( new GwtModelerWorkspaceHelper() );
-
     try {
-      modelerWorkspace.setGeoContext( datasourceService.getGeoContext() );
+      geoContext = datasourceService.getGeoContext();
     } catch ( DatasourceServiceException e ) {
       logger.warn( "Could not get a GeoContext, auto-modeling will not use be able to auto detect geographies", e );
     }
@@ -114,7 +112,10 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
     fileName = FilenameUtils.getName( fileName );
     try {
       int headerRows = isFirstRowHeader ? 1 : 0;
-      modelInfo = new CsvUtils().generateFields( "", fileName, AgileHelper.getCsvSampleRowSize(),
+      CsvUtils csvUtils = new CsvUtils();
+      csvUtils.setFullProfile( AgileHelper.isCsvFullProfile() );
+      csvUtils.setProfileTimeBudget( AgileHelper.getCsvProfileTimeBudget() );
+      modelInfo = csvUtils.generateFields( "", fileName, AgileHelper.getCsvSampleRowSize(),
         delimiter, enclosure, headerRows, true, true, encoding ); //$NON-NLS-1$
     } catch ( FileNotFoundException e ) {
       logger.error( e );
@@ -141,75 +142,107 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
 
   public FileTransformStats generateDomain( DatasourceDTO datasourceDto ) throws Exception {
     checkPermissions();
-    synchronized ( lock ) {
-      ModelInfo modelInfo = datasourceDto.getCsvModelInfo();
-      IPentahoSession pentahoSession = null;
-      try {
-        pentahoSession = PentahoSessionHolder.getSession();
-        KettleSystemListener.environmentInit( pentahoSession );
-
-        String statsKey =
-          FileTransformStats.class.getSimpleName() + "_" + modelInfo.getFileInfo().getTmpFilename(); //$NON-NLS-1$
-
-        FileTransformStats stats = new FileTransformStats();
-        pentahoSession.setAttribute( statsKey, stats );
-        CsvTransformGenerator csvTransformGenerator =
-          new CsvTransformGenerator( modelInfo, AgileHelper.getDatabaseMeta() );
-        csvTransformGenerator.setTransformStats( stats );
-
-
-        try {
-          csvTransformGenerator.dropTable( modelInfo.getStageTableName() );
-        } catch ( CsvTransformGeneratorException e ) {
-          // this is ok, the table may not have existed.
-          logger.info( "Could not drop table before staging" ); //$NON-NLS-1$
-        }
-        csvTransformGenerator.createOrModifyTable( pentahoSession );
-
-        // no longer need to truncate the table since we dropped it a few lines up, so just pass false
-        csvTransformGenerator.loadTable( false, pentahoSession, true );
-
-        ArrayList<String> combinedErrors = new ArrayList<String>( modelInfo.getCsvInputErrors() );
-        combinedErrors.addAll( modelInfo.getTableOutputErrors() );
-        if ( stats.getErrors() != null && stats.getErrors().size() > 0 ) {
-          stats.getErrors().addAll( combinedErrors );
-        } else {
-          stats.setErrors( combinedErrors );
-        }
-
-        // wait until it it done
-        while ( !stats.isRowsFinished() ) {
-          Thread.sleep( 200 );
-        }
-
-        modelerWorkspace.setDomain( modelerService.generateCSVDomain( modelInfo ) );
-        modelerWorkspace.getWorkspaceHelper().autoModelFlat( modelerWorkspace );
-        modelerWorkspace.getWorkspaceHelper().autoModelRelationalFlat( modelerWorkspace );
-        modelerWorkspace.setModelName( modelInfo.getDatasourceName() );
-        modelerWorkspace.getWorkspaceHelper().populateDomain( modelerWorkspace );
-        Domain workspaceDomain = modelerWorkspace.getDomain();
-
-        XStream xstream = SerializationService.createXStreamWithAllowedTypes(null, null);
-        String serializedDto = xstream.toXML( datasourceDto );
-        workspaceDomain.getLogicalModels().get( 0 ).setProperty( "datasourceModel", serializedDto );
-        workspaceDomain.getLogicalModels().get( 0 ).setProperty( "DatasourceType", "CSV" );
-        prepareForSerialization( workspaceDomain );
-
-        modelerService.serializeModels( workspaceDomain, modelerWorkspace.getModelName() );
-        stats.setDomain( modelerWorkspace.getDomain() );
-
-        return stats;
-      } catch ( Exception e ) {
-        logger.error( e.getMessage() );
-        throw e;
-      } finally {
-        if ( pentahoSession != null ) {
-          pentahoSession.destroy();
-        }
+    ModelInfo modelInfo = datasourceDto.getCsvModelInfo();
+    IPentahoSession pentahoSession = null;
+    try {
+      pentahoSession = PentahoSessionHolder.getSession();
+
+      FileTransformStats stats = new FileTransformStats();
+      pentahoSession.setAttribute( getStatsKey( modelInfo.getFileInfo().getTmpFilename() ), stats );
+
+      // imports into other staging tables run at the same time, up to the limit of the scheduler
+      final IPentahoSession session = pentahoSession;
+      return StagingJobScheduler.getInstance().run( modelInfo.getStageTableName(), stats,
+        () -> stageAndModel( datasourceDto, modelInfo, session, stats ) );
+    } catch ( Exception e ) {
+      logger.error( e.getMessage() );
+      throw e;
+    } finally {
+      if ( pentahoSession != null ) {
+        pentahoSession.destroy();
       }
     }
   }
 
+  /**
+   * Returns the position of the import of a file in the queue of staging jobs, while {@link #generateDomain} waits for
+   * its turn in another request of the session
+   *
+   * @param fileName the name of the staged file
+   * @return the position, starting at 1, 0 once the import is not waiting, or -1 if the session has no import of the
+   * file
+   */
+  public int getQueuePosition( String fileName ) {
+    checkPermissions();
+    IPentahoSession pentahoSession = PentahoSessionHolder.getSession();
+    Object stats =
+      pentahoSession != null ? pentahoSession.getAttribute( getStatsKey( FilenameUtils.getName( fileName ) ) ) : null;
+    return stats instanceof FileTransformStats ? ( (FileTransformStats) stats ).getQueuePosition() : -1;
+  }
+
+  private static String getStatsKey( String fileName ) {
+    return FileTransformStats.class.getSimpleName() + "_" + fileName; //$NON-NLS-1$
+  }
+
+  private FileTransformStats stageAndModel( DatasourceDTO datasourceDto, ModelInfo modelInfo,
+                                            IPentahoSession pentahoSession, FileTransformStats stats )
+    throws Exception {
+    KettleSystemListener.environmentInit( pentahoSession );
+
+    CsvTransformGenerator csvTransformGenerator =
+      new CsvTransformGenerator( modelInfo, AgileHelper.getDatabaseMeta() );
+    csvTransformGenerator.setTransformStats( stats );
+    csvTransformGenerator.setBulkLoad( AgileHelper.isStagingBulkLoad() );
+
+
+    try {
+      csvTransformGenerator.dropTable( modelInfo.getStageTableName() );
+    } catch ( CsvTransformGeneratorException e ) {
+      // this is ok, the table may not have existed.
+      logger.info( "Could not drop table before staging" ); //$NON-NLS-1$
+    }
+    csvTransformGenerator.createOrModifyTable( pentahoSession );
+
+    // no longer need to truncate the table since we dropped it a few lines up, so just pass false
+    csvTransformGenerator.loadTable( false, pentahoSession, true );
+
+    ArrayList<String> combinedErrors = new ArrayList<String>( modelInfo.getCsvInputErrors() );
+    combinedErrors.addAll( modelInfo.getTableOutputErrors() );
+    if ( stats.getErrors() != null && stats.getErrors().size() > 0 ) {
+      stats.getErrors().addAll( combinedErrors );
+    } else {
+      stats.setErrors( combinedErrors );
+    }
+
+    // wait until it it done
+    while ( !stats.isRowsFinished() ) {
+      Thread.sleep( 200 );
+    }
+
+    // a workspace of its own, as the imports into other staging tables are modeled at the same time
+    ModelerWorkspace modelerWorkspace = new ModelerWorkspace( new GwtModelerWorkspaceHelper() );
+    if ( geoContext != null ) {
+      modelerWorkspace.setGeoContext( geoContext );
+    }
+    modelerWorkspace.setDomain( modelerService.generateCSVDomain( modelInfo ) );
+    modelerWorkspace.getWorkspaceHelper().autoModelFlat( modelerWorkspace );
+    modelerWorkspace.getWorkspaceHelper().autoModelRelationalFlat( modelerWorkspace );
+    modelerWorkspace.setModelName( modelInfo.getDatasourceName() );
+    modelerWorkspace.getWorkspaceHelper().populateDomain( modelerWorkspace );
+    Domain workspaceDomain = modelerWorkspace.getDomain();
+
+    XStream xstream = SerializationService.createXStreamWithAllowedTypes(null, null);
+    String serializedDto = xstream.toXML( datasourceDto );
+    workspaceDomain.getLogicalModels().get( 0 ).setProperty( "datasourceModel", serializedDto );
+    workspaceDomain.getLogicalModels().get( 0 ).setProperty( "DatasourceType", "CSV" );
+    prepareForSerialization( workspaceDomain );
+
+    modelerService.serializeModels( workspaceDomain, modelerWorkspace.getModelName() );
+    stats.setDomain( modelerWorkspace.getDomain() );
+
+    return stats;
+  }
+
   protected void prepareForSerialization( Domain domain ) throws IOException {
 
     /*
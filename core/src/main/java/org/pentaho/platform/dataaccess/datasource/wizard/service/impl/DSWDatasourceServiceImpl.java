@@ -19,7 +19,6 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
@@ -69,6 +68,9 @@ import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.Data
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.UtilHtmlSanitizer;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.messages.Messages;
 import org.pentaho.platform.dataaccess.datasource.wizard.sources.query.QueryDatasourceSummary;
+import org.pentaho.platform.dataaccess.metadata.service.MetadataDomainEvents;
+import org.pentaho.platform.dataaccess.metadata.service.ModelVisibilityIndex;
+import org.pentaho.platform.dataaccess.metadata.service.QueryResultCache;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.connection.PentahoConnectionFactory;
@@ -227,6 +229,7 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
       if ( logicalModelRep != null && !logicalModelRep.getId().equals( logicalModel.getId() ) ) {
         getMetadataDomainRepository().removeModel( domainId, logicalModelRep.getId() );
       }
+      MetadataDomainEvents.domainChanged( domainId );
 
       // get updated domain
       domain = getMetadataDomainRepository().getDomain( domainId );
@@ -449,6 +452,7 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
     String domainName = domain.getId();
     try {
       getMetadataDomainRepository().storeDomain( domain, overwrite );
+      MetadataDomainEvents.domainChanged( domainName );
       return true;
     } catch ( DomainStorageException dse ) {
       logger.error( Messages.getErrorString(
@@ -485,38 +489,28 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
         .getErrorString( "DatasourceServiceImpl.ERROR_0001_PERMISSION_DENIED" ) ); //$NON-NLS-1$
     }
     List<LogicalModelSummary> logicalModelSummaries = new ArrayList<LogicalModelSummary>();
-    for ( String domainId : getMetadataDomainRepository().getDomainIds() ) {
-      Domain domain;
+    IMetadataDomainRepository repository = getMetadataDomainRepository();
+    String identity = QueryResultCache.getUserIdentity();
+    for ( String domainId : repository.getDomainIds() ) {
+      ModelVisibilityIndex.DomainEntry domain;
       try {
-        domain = getMetadataDomainRepository().getDomain( domainId );
+        domain = ModelVisibilityIndex.getInstance().getDomain( repository, identity, domainId );
       } catch ( Exception e ) {
         logger.error(
           Messages.getErrorString( "DatasourceServiceImpl.ERROR_0022_UNABLE_TO_PROCESS_LOGICAL_MODEL", domainId ), e );
         continue;
       }
-
-      String locale = LocaleHelper.getLocale().toString();
-      String[] locales = new String[ domain.getLocales().size() ];
-      for ( int i = 0; i < domain.getLocales().size(); i++ ) {
-        locales[ i ] = domain.getLocales().get( i ).getCode();
+      if ( domain == null ) {
+        continue;
       }
-      locale = LocaleHelper.getClosestLocale( locale, locales );
-
-      for ( LogicalModel model : domain.getLogicalModels() ) {
-        String vis = (String) model.getProperty( LM_PROP_VISIBLE );
-        if ( vis != null ) {
-          String[] visibleContexts = vis.split( "," );
-          boolean visibleToContext = false;
-          for ( String c : visibleContexts ) {
-            if ( StringUtils.isNotEmpty( c.trim() ) && c.trim().equals( context ) ) {
-              visibleToContext = true;
-              break;
-            }
-          }
-          if ( !visibleToContext ) {
-            continue;
-          }
+
+      String locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
+
+      for ( ModelVisibilityIndex.ModelEntry modelEntry : domain.getModels() ) {
+        if ( !modelEntry.isListedIn( context ) ) {
+          continue;
         }
+        LogicalModel model = modelEntry.getModel();
         logicalModelSummaries.add( new LogicalModelSummary( domainId, model.getId(), model.getName( locale ) ) );
       }
     }
@@ -571,19 +565,18 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
   }
 
   public List<String> listDatasourceNames() throws IOException {
-    synchronized ( CsvDatasourceServiceImpl.lock ) {
-      IPentahoUrlFactory urlFactory = new SimpleUrlFactory( "" ); //$NON-NLS-1$
-      PMDUIComponent component = new PMDUIComponent( urlFactory, new ArrayList() );
-      component.validate( PentahoSessionHolder.getSession(), null );
-      component.setAction( PMDUIComponent.ACTION_LIST_MODELS );
-      Document document = component.getXmlContent();
-
-      ArrayList<String> datasourceNames = new ArrayList<>();
-      for ( Node node : document.selectNodes( "//model_name" ) ) {
-        datasourceNames.add( node.getText() );
-      }
-      return datasourceNames;
+    // the models are listed as they are; a CSV import that is still staging is not listed yet
+    IPentahoUrlFactory urlFactory = new SimpleUrlFactory( "" ); //$NON-NLS-1$
+    PMDUIComponent component = new PMDUIComponent( urlFactory, new ArrayList() );
+    component.validate( PentahoSessionHolder.getSession(), null );
+    component.setAction( PMDUIComponent.ACTION_LIST_MODELS );
+    Document document = component.getXmlContent();
+
+    ArrayList<String> datasourceNames = new ArrayList<>();
+    for ( Node node : document.selectNodes( "//model_name" ) ) {
+      datasourceNames.add( node.getText() );
     }
+    return datasourceNames;
   }
 
   @Override
@@ -20,6 +20,9 @@ import org.pentaho.platform.api.engine.IPlatformReadyListener;
 import org.pentaho.platform.api.engine.IPluginLifecycleListener;
 import org.pentaho.platform.api.engine.IPluginResourceLoader;
 import org.pentaho.platform.api.engine.PluginLifecycleException;
+import org.pentaho.platform.dataaccess.metadata.service.MaterializedQueryManager;
+import org.pentaho.platform.dataaccess.metadata.service.QueryJobManager;
+import org.pentaho.platform.dataaccess.metadata.service.QueryMetrics;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.security.SecurityHelper;
 import org.pentaho.platform.repository2.unified.lifecycle.DelegatingBackingRepositoryLifecycleManager;
@@ -65,10 +68,19 @@ public class DataAccessLifecycleListener implements IPluginLifecycleListener, IP
           .get( DelegatingBackingRepositoryLifecycleManager.class, "backingRepositoryLifecycleManager", null );
       manager.addLifeCycleManager( AgileMartDatasourceLifecycleManager.getInstance() );
     }
+
+    // materialized queries are not kept across restarts, so the tables of the previous run are dropped
+    try {
+      MaterializedQueryManager.getInstance().dropOrphanedTables();
+    } catch ( Throwable t ) {
+      log.warn( t.getMessage(), t );
+    }
   }
 
   @Override
   public void unLoaded() throws PluginLifecycleException {
+    QueryJobManager.shutdownInstance();
+    QueryMetrics.unregisterInstance();
   }
 
 }
@@ -37,6 +37,8 @@ public class FileTransformStats implements Serializable, IDatasourceSummary {
   private long errorCount = 0;
   private Domain domain;
   private boolean showModeler;
+  // set by the thread of the waiting load, read by the requests that poll its status
+  private volatile int queuePosition = 0;
 
   public FileTransformStats() {
   }
@@ -154,4 +156,15 @@ public class FileTransformStats implements Serializable, IDatasourceSummary {
     return showModeler;
   }
 
+  /**
+   * Returns the position of the load in the queue of staging jobs, starting at 1, or 0 once it is not waiting
+   */
+  public int getQueuePosition() {
+    return queuePosition;
+  }
+
+  public void setQueuePosition( int queuePosition ) {
+    this.queuePosition = queuePosition;
+  }
+
 }
@@ -28,6 +28,28 @@ public class Category implements ICategory, Serializable {
   private String id, name, description;
   private Column[] columns = new Column[ 0 ];
 
+  public Category() {
+  }
+
+  /**
+   * Creates a deep copy of a category
+   *
+   * @param category
+   */
+  public Category( Category category ) {
+    this.id = category.id;
+    this.name = category.name;
+    this.description = category.description;
+    if ( category.columns != null ) {
+      this.columns = new Column[ category.columns.length ];
+      for ( int i = 0; i < columns.length; i++ ) {
+        columns[ i ] = category.columns[ i ] == null ? null : new Column( category.columns[ i ] );
+      }
+    } else {
+      this.columns = null;
+    }
+  }
+
   /**
    * Returns the id of the category
    */
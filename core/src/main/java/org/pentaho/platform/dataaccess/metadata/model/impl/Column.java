@@ -34,6 +34,29 @@ public class Column implements IColumn {
   private String formatMask;
   private boolean hiddenForUser;
 
+  public Column() {
+  }
+
+  /**
+   * Creates a copy of a column
+   *
+   * @param column
+   */
+  public Column( Column column ) {
+    this.id = column.id;
+    this.name = column.name;
+    this.description = column.description;
+    this.type = column.type;
+    this.aggTypes = column.aggTypes == null ? null : column.aggTypes.clone();
+    this.defaultAggType = column.defaultAggType;
+    this.selectedAggType = column.selectedAggType;
+    this.fieldType = column.fieldType;
+    this.category = column.category;
+    this.getHorizontalAlignment = column.getHorizontalAlignment;
+    this.formatMask = column.formatMask;
+    this.hiddenForUser = column.hiddenForUser;
+  }
+
   @Override
   public String getHorizontalAlignment() {
     return getHorizontalAlignment;
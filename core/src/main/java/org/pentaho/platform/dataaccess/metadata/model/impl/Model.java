@@ -31,6 +31,29 @@ public class Model implements IModel {
 
   private String id, name, domainId, description;
 
+  public Model() {
+  }
+
+  /**
+   * Creates a deep copy of a model, so the copy can be changed without changing the original
+   *
+   * @param model
+   */
+  public Model( Model model ) {
+    this.id = model.id;
+    this.name = model.name;
+    this.domainId = model.domainId;
+    this.description = model.description;
+    if ( model.categories != null ) {
+      this.categories = new Category[ model.categories.length ];
+      for ( int i = 0; i < categories.length; i++ ) {
+        categories[ i ] = model.categories[ i ] == null ? null : new Category( model.categories[ i ] );
+      }
+    } else {
+      this.categories = null;
+    }
+  }
+
   /**
    * Returns an array of categories for the model
    *
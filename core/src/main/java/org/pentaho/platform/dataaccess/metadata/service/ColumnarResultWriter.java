@@ -0,0 +1,285 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.metadata.model.IPhysicalColumn;
+import org.pentaho.metadata.model.concept.Concept;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.metadata.model.concept.types.LocalizedString;
+
+/**
+ * Writes a result set in a compact, column oriented binary format. The rows are written in blocks, so a live result set
+ * is streamed without being held in memory. All numbers are big endian.
+ *
+ * <pre>
+ * header  : magic "PCR" version(byte) columnCount(int) { name(string) type(string) label(string) } * columnCount
+ * block   : rowCount(int) { encoding(byte) [nulls(bitmap) values] } * columnCount
+ * end     : 0(int)
+ * string  : length(int, -1 for null) utf8 bytes
+ * bitmap  : (rowCount + 7) / 8 bytes, bit i of byte i / 8 is set when row i is null (resp. true)
+ * values  : LONG and DATE rowCount longs, DOUBLE rowCount doubles, BOOLEAN a bitmap,
+ *           STRING a dictionary, dictSize(int) string * dictSize, then rowCount indexes of 1, 2 or 4 bytes
+ *           depending on the dictionary size, DECIMAL rowCount strings holding the decimal text of the numbers
+ * </pre>
+ *
+ * The encoding of a column is chosen for each block from the values in the block; a block where the column is always
+ * null only has the NULL encoding byte. No number loses precision: LONG values are at most 2^53 in magnitude, so a
+ * client that holds numbers as doubles reads them exactly, and a block with larger integers or with
+ * {@link BigDecimal} values is written as DECIMAL.
+ */
+public class ColumnarResultWriter {
+
+  /**
+   * The media type clients send in the Accept header to receive this format
+   */
+  public static final String MEDIA_TYPE = "application/vnd.pentaho.columnar"; //$NON-NLS-1$
+
+  static final byte VERSION = 2;
+
+  static final byte NULL = 0;
+  static final byte LONG = 1;
+  static final byte DOUBLE = 2;
+  static final byte BOOLEAN = 3;
+  static final byte DATE = 4;
+  static final byte STRING = 5;
+  static final byte DECIMAL = 6;
+
+  /**
+   * The largest integer that a double holds exactly, and so the largest magnitude of a LONG value
+   */
+  static final long MAX_EXACT_LONG = 1L << 53;
+
+  static final int DEFAULT_BLOCK_SIZE = 4096;
+
+  private final int blockSize;
+
+  public ColumnarResultWriter() {
+    this( DEFAULT_BLOCK_SIZE );
+  }
+
+  /**
+   * @param blockSize the maximum number of rows in a block
+   */
+  public ColumnarResultWriter( int blockSize ) {
+    this.blockSize = Math.max( 1, blockSize );
+  }
+
+  /**
+   * Writes a result set, the result set is read but not closed
+   *
+   * @param resultSet
+   * @param locale    the locale of the column labels
+   * @param output
+   * @return the number of rows written
+   * @throws IOException
+   */
+  public int write( IPentahoResultSet resultSet, String locale, OutputStream output ) throws IOException {
+    DataOutputStream out = new DataOutputStream( output );
+    IPentahoMetaData metaData = resultSet.getMetaData();
+    int columnCount = resultSet.getColumnCount();
+
+    out.writeByte( 'P' );
+    out.writeByte( 'C' );
+    out.writeByte( 'R' );
+    out.writeByte( VERSION );
+    out.writeInt( columnCount );
+    for ( int i = 0; i < columnCount; i++ ) {
+      Object header = metaData.getColumnHeaders()[ 0 ][ i ];
+      writeString( out, header == null ? null : header.toString() );
+      DataType type = (DataType) metaData.getAttribute( 0, i, IPhysicalColumn.DATATYPE_PROPERTY );
+      writeString( out, type == null ? null : type.getName().toUpperCase() );
+      LocalizedString name = (LocalizedString) metaData.getAttribute( 0, i, Concept.NAME_PROPERTY );
+      writeString( out, name == null || locale == null ? null : name.getString( locale ) );
+    }
+    // let the client see the columns before the first row is fetched
+    out.flush();
+
+    Object[][] block = new Object[ blockSize ][];
+    int totalRows = 0;
+    Object[] row = resultSet.next();
+    while ( row != null ) {
+      int rowCount = 0;
+      while ( row != null && rowCount < blockSize ) {
+        block[ rowCount++ ] = row;
+        row = resultSet.next();
+      }
+      totalRows += rowCount;
+      out.writeInt( rowCount );
+      for ( int i = 0; i < columnCount; i++ ) {
+        writeColumn( out, block, rowCount, i );
+      }
+      out.flush();
+    }
+    out.writeInt( 0 );
+    out.flush();
+    return totalRows;
+  }
+
+  private static void writeColumn( DataOutputStream out, Object[][] block, int rowCount, int column )
+    throws IOException {
+    byte encoding = getEncoding( block, rowCount, column );
+    out.writeByte( encoding );
+    if ( encoding == NULL ) {
+      return;
+    }
+    byte[] nulls = new byte[ ( rowCount + 7 ) / 8 ];
+    for ( int i = 0; i < rowCount; i++ ) {
+      if ( block[ i ][ column ] == null ) {
+        nulls[ i >> 3 ] |= 1 << ( i & 7 );
+      }
+    }
+    out.write( nulls );
+
+    switch ( encoding ) {
+      case LONG:
+        for ( int i = 0; i < rowCount; i++ ) {
+          Object value = block[ i ][ column ];
+          out.writeLong( value == null ? 0 : ( (Number) value ).longValue() );
+        }
+        break;
+      case DOUBLE:
+        for ( int i = 0; i < rowCount; i++ ) {
+          Object value = block[ i ][ column ];
+          out.writeDouble( value == null ? 0 : ( (Number) value ).doubleValue() );
+        }
+        break;
+      case DATE:
+        for ( int i = 0; i < rowCount; i++ ) {
+          Object value = block[ i ][ column ];
+          out.writeLong( value == null ? 0 : ( (Date) value ).getTime() );
+        }
+        break;
+      case DECIMAL:
+        for ( int i = 0; i < rowCount; i++ ) {
+          Object value = block[ i ][ column ];
+          writeString( out, value == null ? null : value.toString() );
+        }
+        break;
+      case BOOLEAN:
+        byte[] values = new byte[ ( rowCount + 7 ) / 8 ];
+        for ( int i = 0; i < rowCount; i++ ) {
+          if ( Boolean.TRUE.equals( block[ i ][ column ] ) ) {
+            values[ i >> 3 ] |= 1 << ( i & 7 );
+          }
+        }
+        out.write( values );
+        break;
+      default:
+        writeStrings( out, block, rowCount, column );
+    }
+  }
+
+  private static void writeStrings( DataOutputStream out, Object[][] block, int rowCount, int column )
+    throws IOException {
+    Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    String[] entries = new String[ rowCount ];
+    int[] indexes = new int[ rowCount ];
+    for ( int i = 0; i < rowCount; i++ ) {
+      Object value = block[ i ][ column ];
+      if ( value != null ) {
+        String string = value.toString();
+        Integer index = dictionary.get( string );
+        if ( index == null ) {
+          index = dictionary.size();
+          dictionary.put( string, index );
+          entries[ index ] = string;
+        }
+        indexes[ i ] = index;
+      }
+    }
+    int size = dictionary.size();
+    out.writeInt( size );
+    for ( int i = 0; i < size; i++ ) {
+      writeString( out, entries[ i ] );
+    }
+    for ( int i = 0; i < rowCount; i++ ) {
+      if ( size <= 0x100 ) {
+        out.writeByte( indexes[ i ] );
+      } else if ( size <= 0x10000 ) {
+        out.writeShort( indexes[ i ] );
+      } else {
+        out.writeInt( indexes[ i ] );
+      }
+    }
+  }
+
+  static byte getEncoding( Object[][] block, int rowCount, int column ) {
+    byte encoding = NULL;
+    for ( int i = 0; i < rowCount; i++ ) {
+      Object value = block[ i ][ column ];
+      if ( value == null ) {
+        continue;
+      }
+      byte valueEncoding = getEncoding( value );
+      if ( encoding == NULL ) {
+        encoding = valueEncoding;
+      } else if ( encoding != valueEncoding ) {
+        if ( !isNumber( encoding ) || !isNumber( valueEncoding ) ) {
+          return STRING;
+        }
+        // the LONG values are exact as doubles, anything else with a DECIMAL value has to be written as text
+        encoding = encoding == DECIMAL || valueEncoding == DECIMAL ? DECIMAL : DOUBLE;
+      }
+    }
+    return encoding;
+  }
+
+  private static boolean isNumber( byte encoding ) {
+    return encoding == LONG || encoding == DOUBLE || encoding == DECIMAL;
+  }
+
+  private static byte getEncoding( Object value ) {
+    if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ) {
+      long longValue = ( (Number) value ).longValue();
+      return longValue >= -MAX_EXACT_LONG && longValue <= MAX_EXACT_LONG ? LONG : DECIMAL;
+    }
+    if ( value instanceof BigInteger ) {
+      return ( (BigInteger) value ).bitLength() <= 53 ? LONG : DECIMAL;
+    }
+    if ( value instanceof BigDecimal ) {
+      return DECIMAL;
+    }
+    if ( value instanceof Number ) {
+      return DOUBLE;
+    }
+    if ( value instanceof Date ) {
+      return DATE;
+    }
+    if ( value instanceof Boolean ) {
+      return BOOLEAN;
+    }
+    return STRING;
+  }
+
+  private static void writeString( DataOutputStream out, String value ) throws IOException {
+    if ( value == null ) {
+      out.writeInt( -1 );
+      return;
+    }
+    byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+}
@@ -0,0 +1,134 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.List;
+
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Column;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Condition;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Order;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Parameter;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Query;
+
+/**
+ * A full query compiled from a thin query by {@link MetadataServiceUtil#convertQuery}. The selections, constraints and
+ * orders only depend on the structure of the thin query, so they are shared by every thin query with the same
+ * {@link #fingerprint}; the parameter values are bound for each execution by {@link #bind}.
+ */
+public class CompiledQuery {
+
+  private final org.pentaho.metadata.query.model.Query query;
+
+  public CompiledQuery( org.pentaho.metadata.query.model.Query query ) {
+    this.query = query;
+  }
+
+  /**
+   * Returns the domain the query was compiled from
+   *
+   * @return
+   */
+  public Domain getDomain() {
+    return query.getDomain();
+  }
+
+  /**
+   * Creates a full query for the given thin query, which must have the same fingerprint as the one this query was
+   * compiled from. The returned query can be modified without affecting the compiled query.
+   *
+   * @param src
+   * @return
+   */
+  public org.pentaho.metadata.query.model.Query bind( Query src ) {
+    org.pentaho.metadata.query.model.Query dest =
+      new org.pentaho.metadata.query.model.Query( query.getDomain(), query.getLogicalModel() );
+    dest.getSelections().addAll( query.getSelections() );
+    dest.getConstraints().addAll( query.getConstraints() );
+    dest.getOrders().addAll( query.getOrders() );
+    if ( src.getDisableDistinct() != null ) {
+      dest.setDisableDistinct( src.getDisableDistinct() );
+    }
+
+    List<org.pentaho.metadata.query.model.Parameter> parameters = query.getParameters();
+    Parameter[] values = src.getParameters();
+    for ( int i = 0; i < values.length; i++ ) {
+      org.pentaho.metadata.query.model.Parameter parameter = parameters.get( i );
+      String[] value = values[ i ].getValue();
+      dest.getParameters().add(
+        new org.pentaho.metadata.query.model.Parameter( parameter.getName(), parameter.getType(), value[ 0 ] ) );
+    }
+    return dest;
+  }
+
+  /**
+   * Returns a key that is the same for two thin queries only if they compile to the same selections, constraints,
+   * orders and parameter definitions. Parameter values are not part of the key.
+   *
+   * @param src
+   * @return
+   */
+  public static String fingerprint( Query src ) {
+    StringBuilder sb = new StringBuilder();
+    append( sb, src.getDomainName() );
+    append( sb, src.getModelId() );
+    append( sb, src.getDisableDistinct() == null ? null : src.getDisableDistinct().toString() );
+
+    sb.append( 'S' ).append( src.getColumns().length );
+    for ( Column column : src.getColumns() ) {
+      append( sb, column.getId() );
+      append( sb, column.getSelectedAggType() );
+    }
+
+    sb.append( 'C' ).append( src.getConditions().length );
+    for ( Condition condition : src.getConditions() ) {
+      append( sb, condition.getColumn() );
+      append( sb, condition.getCategory() );
+      append( sb, condition.getOperator() );
+      append( sb, condition.getCombinationType() );
+      append( sb, condition.getSelectedAggType() );
+      sb.append( condition.isParameterized() ? 'T' : 'F' );
+      String[] value = condition.getValue();
+      if ( value == null ) {
+        sb.append( '-' );
+      } else {
+        sb.append( value.length );
+        for ( String v : value ) {
+          append( sb, v );
+        }
+      }
+    }
+
+    sb.append( 'O' ).append( src.getOrders().length );
+    for ( Order order : src.getOrders() ) {
+      append( sb, order.getColumn() );
+      append( sb, order.getOrderType() );
+    }
+
+    sb.append( 'P' ).append( src.getParameters().length );
+    for ( Parameter parameter : src.getParameters() ) {
+      append( sb, parameter.getColumn() );
+      append( sb, parameter.getName() );
+    }
+    return sb.toString();
+  }
+
+  private static void append( StringBuilder sb, String value ) {
+    // length prefixed, so that values containing separators cannot collide
+    if ( value == null ) {
+      sb.append( '-' );
+    } else {
+      sb.append( value.length() ).append( ':' ).append( value );
+    }
+  }
+}
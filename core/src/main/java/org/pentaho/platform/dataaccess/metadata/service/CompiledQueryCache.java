@@ -0,0 +1,31 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+/**
+ * A bounded cache of the queries compiled by {@link MetadataServiceUtil#compileQuery}, keyed by the
+ * {@link CompiledQuery#fingerprint} of the thin query. Queries are dropped when their domain changes.
+ */
+public class CompiledQueryCache extends DomainVersionedCache<String, CompiledQuery> {
+
+  private static final CompiledQueryCache INSTANCE =
+    new CompiledQueryCache( MetadataServiceSettings.getCompiledQueryCacheSize() );
+
+  public static CompiledQueryCache getInstance() {
+    return INSTANCE;
+  }
+
+  public CompiledQueryCache( int maxEntries ) {
+    super( maxEntries );
+  }
+}
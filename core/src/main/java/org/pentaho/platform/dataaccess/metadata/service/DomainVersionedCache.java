@@ -0,0 +1,220 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, least recently used cache of values derived from a metadata domain. Every domain has a version that is
+ * bumped when the domain is stored or removed (see {@link MetadataDomainEvents}); a cached value is only returned while
+ * the version it was built from is still current, and while it is younger than the optional time to live.
+ * <p>
+ * The size of the cache is the sum of the {@link #weigh weights} of its values, which is the number of values unless a
+ * subclass weighs them differently.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class DomainVersionedCache<K, V> {
+
+  private final long maxWeight;
+
+  private final long timeToLive;
+
+  private long weight;
+
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>( 16, 0.75f, true );
+
+  private final Map<String, Long> versions = new HashMap<String, Long>();
+
+  private long flushVersion;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  public DomainVersionedCache( int maxEntries ) {
+    this( maxEntries, 0 );
+  }
+
+  /**
+   * @param maxWeight  the maximum total weight of the cached values, 0 disables the cache
+   * @param timeToLive the time in milliseconds a value is kept, 0 keeps values until they are evicted
+   */
+  public DomainVersionedCache( long maxWeight, long timeToLive ) {
+    this.maxWeight = maxWeight;
+    this.timeToLive = timeToLive;
+  }
+
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  /**
+   * Returns the current version of a domain. Callers read it before building a value and pass it to {@link #put}, so
+   * a value built while the domain was being replaced is never served.
+   *
+   * @param domainId
+   * @return
+   */
+  public synchronized long getVersion( String domainId ) {
+    Long version = versions.get( domainId );
+    return version == null ? flushVersion : version;
+  }
+
+  /**
+   * Returns the cached value, or null if there is none for the current version of the domain
+   *
+   * @param domainId
+   * @param key
+   * @return
+   */
+  public synchronized V get( String domainId, K key ) {
+    Entry<V> entry = entries.get( key );
+    if ( entry != null && ( entry.version != getVersion( domainId ) || isExpired( entry ) ) ) {
+      remove( key );
+      entry = null;
+    }
+    if ( entry == null ) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+   * Caches a value that was built from the given version of the domain
+   *
+   * @param domainId
+   * @param key
+   * @param version
+   * @param value
+   */
+  public synchronized void put( String domainId, K key, long version, V value ) {
+    if ( maxWeight <= 0 || value == null || version != getVersion( domainId ) ) {
+      return;
+    }
+    long valueWeight = weigh( value );
+    if ( valueWeight > maxWeight ) {
+      return;
+    }
+    remove( key );
+    entries.put( key, new Entry<V>( domainId, value, version, valueWeight, currentTimeMillis() ) );
+    weight += valueWeight;
+
+    // evict the least recently used values until the cache fits again
+    Iterator<Entry<V>> values = entries.values().iterator();
+    while ( weight > maxWeight && values.hasNext() ) {
+      weight -= values.next().weight;
+      values.remove();
+    }
+  }
+
+  /**
+   * Drops every value of a domain
+   *
+   * @param domainId
+   */
+  public synchronized void invalidate( String domainId ) {
+    versions.put( domainId, getVersion( domainId ) + 1 );
+    Iterator<Entry<V>> values = entries.values().iterator();
+    while ( values.hasNext() ) {
+      Entry<V> entry = values.next();
+      if ( entry.domainId.equals( domainId ) ) {
+        weight -= entry.weight;
+        values.remove();
+      }
+    }
+  }
+
+  /**
+   * Drops every value of every domain
+   */
+  public synchronized void invalidateAll() {
+    long version = flushVersion;
+    for ( Long domainVersion : versions.values() ) {
+      version = Math.max( version, domainVersion );
+    }
+    flushVersion = version + 1;
+    versions.clear();
+    entries.clear();
+    weight = 0;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the total weight of the cached values
+   *
+   * @return
+   */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  /**
+   * Returns the weight of a value, 1 by default
+   *
+   * @param value
+   * @return
+   */
+  protected long weigh( V value ) {
+    return 1;
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private boolean isExpired( Entry<V> entry ) {
+    return timeToLive > 0 && currentTimeMillis() - entry.created >= timeToLive;
+  }
+
+  private void remove( K key ) {
+    Entry<V> entry = entries.remove( key );
+    if ( entry != null ) {
+      weight -= entry.weight;
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  private static final class Entry<V> {
+    private final String domainId;
+    private final V value;
+    private final long version;
+    private final long weight;
+    private final long created;
+
+    Entry( String domainId, V value, long version, long weight, long created ) {
+      this.domainId = domainId;
+      this.value = value;
+      this.version = version;
+      this.weight = weight;
+      this.created = created;
+    }
+  }
+}
@@ -0,0 +1,580 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.platform.dataaccess.metadata.messages.Messages;
+
+/**
+ * Keeps the results of selected thin queries in tables of the staging database. A materialized query is refreshed on
+ * a schedule, and a query whose MQL matches it is answered from its table instead of the source database. Each query
+ * has two tables: a refresh loads the table that is not being read and then switches to it, so readers never see a
+ * partial result. When the domain of a query changes, the query is no longer answered from its table until it has
+ * been refreshed.
+ * <p/>
+ * Materialized queries are shared by all users, so queries of models with row level security are not materialized.
+ * The definitions are only kept in memory, so materialized queries have to be registered again after a restart. The
+ * tables left by the queries of a previous run are dropped by {@link #dropOrphanedTables} when the plugin is ready.
+ */
+public class MaterializedQueryManager {
+
+  public enum State {
+    PENDING, READY, STALE, FAILED
+  }
+
+  private static final Log logger = LogFactory.getLog( MaterializedQueryManager.class );
+
+  private static final String TABLE_PREFIX = "MQ_"; //$NON-NLS-1$
+
+  private static final Pattern TABLE_NAME = Pattern.compile( TABLE_PREFIX + "[0-9A-F]{16}_[AB]" ); //$NON-NLS-1$
+
+  private static final ThreadLocal<Boolean> REFRESHING = new ThreadLocal<Boolean>();
+
+  private static MaterializedQueryManager instance;
+
+  private final Store store;
+
+  private final ScheduledExecutorService executor;
+
+  private final int minInterval;
+
+  private final Map<String, MaterializedQuery> queries = new ConcurrentHashMap<String, MaterializedQuery>();
+
+  private final Map<String, MaterializedQuery> keys = new ConcurrentHashMap<String, MaterializedQuery>();
+
+  public static synchronized MaterializedQueryManager getInstance() {
+    if ( instance == null ) {
+      int threads = MetadataServiceSettings.getMaterializedQueryThreads();
+      ScheduledThreadPoolExecutor executor = null;
+      if ( threads > 0 ) {
+        executor = new ScheduledThreadPoolExecutor( threads, new RefreshThreadFactory() );
+        executor.setRemoveOnCancelPolicy( true );
+      }
+      instance = new MaterializedQueryManager( new StagingMaterializedQueryStore(), executor,
+        MetadataServiceSettings.getMaterializedQueryMinInterval() );
+    }
+    return instance;
+  }
+
+  /**
+   * @param store       loads, reads and drops the tables
+   * @param executor    refreshes the queries, null to only refresh them when {@link #refreshNow} is called
+   * @param minInterval the minimum number of seconds between two scheduled refreshes of a query
+   */
+  MaterializedQueryManager( Store store, ScheduledExecutorService executor, int minInterval ) {
+    this.store = store;
+    this.executor = executor;
+    this.minInterval = Math.max( 1, minInterval );
+  }
+
+  /**
+   * Returns the key that a query is materialized under
+   *
+   * @param domainId
+   * @param modelId
+   * @param mql      the MQL of the query, including its parameter values
+   * @return
+   */
+  public static String createKey( String domainId, String modelId, String mql ) {
+    return QueryResultCache.createKey( domainId, modelId, mql, null, "" ); //$NON-NLS-1$
+  }
+
+  /**
+   * Returns the id of the materialized query of a thin query, which is also the base name of its tables
+   *
+   * @param json the thin query
+   * @return
+   */
+  public static String createId( String json ) {
+    UUID uuid = UUID.nameUUIDFromBytes( json.getBytes( StandardCharsets.UTF_8 ) );
+    String hex = uuid.toString().replace( "-", "" ); //$NON-NLS-1$ //$NON-NLS-2$
+    return TABLE_PREFIX + hex.substring( 0, 16 ).toUpperCase( Locale.ROOT );
+  }
+
+  /**
+   * Returns false if queries cannot be materialized because the refresh pool is disabled
+   *
+   * @return
+   */
+  public boolean isAvailable() {
+    return executor != null;
+  }
+
+  /**
+   * Returns true if there is a materialized query that queries could be answered from
+   *
+   * @return
+   */
+  public boolean isEnabled() {
+    return !keys.isEmpty();
+  }
+
+  /**
+   * Returns true if there is a materialized query of a model that queries could be answered from, so the key of a
+   * query is only built when the query could be materialized
+   *
+   * @param domainId
+   * @param modelId
+   * @return
+   */
+  public boolean isEnabled( String domainId, String modelId ) {
+    for ( MaterializedQuery query : keys.values() ) {
+      if ( query.domainId.equals( domainId ) && query.modelId.equals( modelId ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Materializes a thin query, or changes the refresh interval of a query that is already materialized. The query is
+   * loaded as soon as a refresh thread is free.
+   *
+   * @param json     the thin query
+   * @param domainId the domain of the query
+   * @param modelId  the model of the query
+   * @param interval the number of seconds between two refreshes
+   * @return the id of the materialized query
+   */
+  public String register( String json, String domainId, String modelId, int interval ) {
+    String id = createId( json );
+    MaterializedQuery query;
+    synchronized ( this ) {
+      query = queries.get( id );
+      if ( query == null ) {
+        query = new MaterializedQuery( id, json, domainId, modelId );
+        queries.put( id, query );
+      }
+      query.interval = Math.max( minInterval, interval );
+      if ( query.future != null ) {
+        query.future.cancel( false );
+      }
+      if ( executor != null ) {
+        final MaterializedQuery scheduled = query;
+        query.future =
+          executor.scheduleWithFixedDelay( () -> refreshNow( scheduled ), 0, query.interval, TimeUnit.SECONDS );
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Refreshes a materialized query as soon as a refresh thread is free
+   *
+   * @param id
+   * @return false if the query does not exist
+   */
+  public boolean refresh( String id ) {
+    final MaterializedQuery query = id == null ? null : queries.get( id );
+    if ( query == null ) {
+      return false;
+    }
+    if ( executor != null ) {
+      executor.execute( () -> refreshNow( query ) );
+    }
+    return true;
+  }
+
+  /**
+   * Stops materializing a query and drops its tables
+   *
+   * @param id
+   * @return false if the query does not exist
+   */
+  public boolean remove( String id ) {
+    MaterializedQuery query;
+    synchronized ( this ) {
+      query = id == null ? null : queries.remove( id );
+      if ( query == null ) {
+        return false;
+      }
+      query.removed = true;
+      if ( query.key != null ) {
+        keys.remove( query.key, query );
+      }
+      if ( query.future != null ) {
+        query.future.cancel( false );
+      }
+    }
+    // wait for a running refresh before dropping its table
+    synchronized ( query.refreshLock ) {
+      for ( String table : query.tables ) {
+        try {
+          store.drop( table );
+        } catch ( Exception e ) {
+          logger.warn( Messages.getErrorString( "MetadataService.ERROR_0019_MATERIALIZED_TABLE_NOT_DROPPED",
+            table ), e ); //$NON-NLS-1$
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the materialized result of a query, or null if the query is not materialized or its table is not up to
+   * date. Queries run by a refresh are never answered from a table.
+   *
+   * @param key      the key of the query, see {@link #createKey}
+   * @param rowLimit An optional row limit, -1 or null means all rows
+   * @return
+   */
+  public IPentahoResultSet getResultSet( String key, Integer rowLimit ) {
+    if ( REFRESHING.get() != null ) {
+      return null;
+    }
+    MaterializedQuery query = keys.get( key );
+    if ( query == null ) {
+      return null;
+    }
+    String table;
+    IPentahoMetaData metaData;
+    Class<?>[] valueTypes;
+    synchronized ( this ) {
+      if ( query.state != State.READY ) {
+        return null;
+      }
+      table = query.tables[ query.active ];
+      metaData = query.metaData;
+      valueTypes = query.valueTypes;
+    }
+    try {
+      return store.read( table, metaData, valueTypes, rowLimit );
+    } catch ( Exception e ) {
+      logger.warn( Messages.getErrorString( "MetadataService.ERROR_0020_MATERIALIZED_TABLE_NOT_READ", table ), e );
+      return null;
+    }
+  }
+
+  /**
+   * Stops answering the queries of a domain from their tables, and refreshes them
+   *
+   * @param domainId
+   */
+  public void invalidate( String domainId ) {
+    for ( MaterializedQuery query : queries.values() ) {
+      if ( domainId.equals( query.domainId ) ) {
+        invalidate( query );
+      }
+    }
+  }
+
+  /**
+   * Stops answering all queries from their tables, and refreshes them
+   */
+  public void invalidateAll() {
+    for ( MaterializedQuery query : queries.values() ) {
+      invalidate( query );
+    }
+  }
+
+  /**
+   * Drops the tables that no registered query loads, as soon as a refresh thread is free. The definitions do not
+   * survive a restart, so these are the tables of the queries of a previous run.
+   */
+  public void dropOrphanedTables() {
+    if ( executor != null ) {
+      executor.execute( this::dropOrphanedTablesNow );
+    }
+  }
+
+  /**
+   * Returns the state of a materialized query: its id, domain, model, refresh interval, state, the time of its last
+   * refresh, its number of rows, the table it is read from and the error of its last refresh
+   *
+   * @param id
+   * @return null if the query does not exist
+   */
+  public Map<String, Object> getStatus( String id ) {
+    MaterializedQuery query = id == null ? null : queries.get( id );
+    return query == null ? null : query.getStatus();
+  }
+
+  /**
+   * Returns the state of all materialized queries, see {@link #getStatus(String)}
+   *
+   * @return
+   */
+  public List<Map<String, Object>> getStatus() {
+    List<Map<String, Object>> status = new ArrayList<Map<String, Object>>();
+    for ( MaterializedQuery query : queries.values() ) {
+      status.add( query.getStatus() );
+    }
+    return status;
+  }
+
+  /**
+   * Loads a materialized query into the table that is not being read, and switches to it
+   *
+   * @param id
+   * @return false if the query does not exist or could not be loaded
+   */
+  boolean refreshNow( String id ) {
+    MaterializedQuery query = id == null ? null : queries.get( id );
+    return query != null && refreshNow( query );
+  }
+
+  /**
+   * Drops the tables that no registered query loads
+   *
+   * @return the number of tables dropped
+   */
+  int dropOrphanedTablesNow() {
+    List<String> tables;
+    try {
+      tables = store.listTables( TABLE_PREFIX );
+    } catch ( Exception e ) {
+      logger.warn( Messages.getErrorString( "MetadataService.ERROR_0023_MATERIALIZED_TABLES_NOT_LISTED" ), e );
+      return 0;
+    }
+    int dropped = 0;
+    for ( String table : tables ) {
+      if ( !TABLE_NAME.matcher( table ).matches() ) {
+        continue;
+      }
+      // holds the lock so that a query registered meanwhile is not loaded before its old table is dropped
+      synchronized ( this ) {
+        if ( queries.containsKey( table.substring( 0, table.length() - 2 ) ) ) {
+          continue;
+        }
+        try {
+          store.drop( table );
+          dropped++;
+        } catch ( Exception e ) {
+          logger.warn( Messages.getErrorString( "MetadataService.ERROR_0019_MATERIALIZED_TABLE_NOT_DROPPED",
+            table ), e ); //$NON-NLS-1$
+        }
+      }
+    }
+    return dropped;
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private boolean refreshNow( MaterializedQuery query ) {
+    synchronized ( query.refreshLock ) {
+      int generation;
+      int target;
+      synchronized ( this ) {
+        if ( query.removed ) {
+          return false;
+        }
+        generation = query.generation;
+        target = 1 - query.active;
+      }
+      Snapshot snapshot;
+      REFRESHING.set( Boolean.TRUE );
+      try {
+        snapshot = store.load( query.json, query.tables[ target ] );
+      } catch ( Exception e ) {
+        logger.error( Messages.getErrorString( "MetadataService.ERROR_0018_MATERIALIZATION_FAILED", query.id ), e );
+        synchronized ( this ) {
+          query.state = State.FAILED;
+          query.error = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+        return false;
+      } finally {
+        REFRESHING.remove();
+      }
+      boolean stale;
+      synchronized ( this ) {
+        if ( query.removed ) {
+          return false;
+        }
+        if ( query.key != null && !query.key.equals( snapshot.key ) ) {
+          keys.remove( query.key, query );
+        }
+        query.key = snapshot.key;
+        keys.put( snapshot.key, query );
+        query.metaData = snapshot.metaData;
+        query.valueTypes = snapshot.valueTypes;
+        query.rows = snapshot.rows;
+        query.active = target;
+        query.refreshed = currentTimeMillis();
+        query.error = null;
+        // the domain changed while the query was loading
+        stale = generation != query.generation;
+        query.state = stale ? State.STALE : State.READY;
+      }
+      if ( stale ) {
+        refresh( query.id );
+      }
+      return true;
+    }
+  }
+
+  private void invalidate( MaterializedQuery query ) {
+    synchronized ( this ) {
+      query.generation++;
+      if ( query.state == State.READY ) {
+        query.state = State.STALE;
+      }
+    }
+    refresh( query.id );
+  }
+
+  /**
+   * Loads, reads and drops the tables of materialized queries
+   */
+  interface Store {
+
+    /**
+     * Executes a thin query and replaces the rows of a table with its result
+     *
+     * @param json  the thin query
+     * @param table the table to load
+     * @return the key, metadata and number of rows of the result
+     * @throws Exception
+     */
+    Snapshot load( String json, String table ) throws Exception;
+
+    /**
+     * Reads the rows of a table in the order they were loaded, with the values converted back to their types in the
+     * result the table was loaded with
+     *
+     * @param table
+     * @param metaData   the metadata of the result the table was loaded with
+     * @param valueTypes the type of the values of each column of the result, null when it is not known
+     * @param rowLimit   An optional row limit, -1 or null means all rows
+     * @return
+     * @throws Exception
+     */
+    IPentahoResultSet read( String table, IPentahoMetaData metaData, Class<?>[] valueTypes, Integer rowLimit )
+      throws Exception;
+
+    /**
+     * Drops a table if it exists
+     *
+     * @param table
+     * @throws Exception
+     */
+    void drop( String table ) throws Exception;
+
+    /**
+     * Returns the names of the tables whose name starts with a prefix, in upper case
+     *
+     * @param prefix the upper case prefix
+     * @return
+     * @throws Exception
+     */
+    List<String> listTables( String prefix ) throws Exception;
+  }
+
+  /**
+   * What a refresh has loaded into a table
+   */
+  static final class Snapshot {
+    private final String key;
+    private final IPentahoMetaData metaData;
+    private final Class<?>[] valueTypes;
+    private final int rows;
+
+    /**
+     * @param key      the key of the query, see {@link #createKey}
+     * @param metaData the metadata of the result
+     * @param rows     the number of rows loaded
+     */
+    Snapshot( String key, IPentahoMetaData metaData, int rows ) {
+      this( key, metaData, null, rows );
+    }
+
+    /**
+     * @param key        the key of the query, see {@link #createKey}
+     * @param metaData   the metadata of the result
+     * @param valueTypes the type of the values of each column of the result, or null if they are not known
+     * @param rows       the number of rows loaded
+     */
+    Snapshot( String key, IPentahoMetaData metaData, Class<?>[] valueTypes, int rows ) {
+      this.key = key;
+      this.metaData = metaData;
+      this.valueTypes = valueTypes;
+      this.rows = rows;
+    }
+  }
+
+  private final class MaterializedQuery {
+    private final String id;
+    private final String json;
+    private final String domainId;
+    private final String modelId;
+    private final String[] tables;
+    private final Object refreshLock = new Object();
+    private int interval;
+    private ScheduledFuture<?> future;
+    private String key;
+    private IPentahoMetaData metaData;
+    private Class<?>[] valueTypes;
+    private State state = State.PENDING;
+    private int active = 1;
+    private int generation;
+    private int rows;
+    private long refreshed;
+    private String error;
+    private boolean removed;
+
+    MaterializedQuery( String id, String json, String domainId, String modelId ) {
+      this.id = id;
+      this.json = json;
+      this.domainId = domainId;
+      this.modelId = modelId;
+      this.tables = new String[] { id + "_A", id + "_B" }; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    Map<String, Object> getStatus() {
+      synchronized ( MaterializedQueryManager.this ) {
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put( "id", id ); //$NON-NLS-1$
+        status.put( "domainId", domainId ); //$NON-NLS-1$
+        status.put( "modelId", modelId ); //$NON-NLS-1$
+        status.put( "interval", interval ); //$NON-NLS-1$
+        status.put( "state", state.name() ); //$NON-NLS-1$
+        status.put( "refreshed", refreshed == 0 ? null : refreshed ); //$NON-NLS-1$
+        status.put( "rows", rows ); //$NON-NLS-1$
+        status.put( "table", refreshed == 0 ? null : tables[ active ] ); //$NON-NLS-1$
+        status.put( "error", error ); //$NON-NLS-1$
+        return status;
+      }
+    }
+  }
+
+  private static final class RefreshThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread( Runnable runnable ) {
+      Thread thread = new Thread( runnable, "metadata-materialized-query-" + count.incrementAndGet() ); //$NON-NLS-1$
+      thread.setDaemon( true );
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+/**
+ * Entry point for the code that stores, imports or removes metadata domains, so that everything the metadata service
+ * keeps about a domain is dropped as soon as the domain changes.
+ */
+public class MetadataDomainEvents {
+
+  private MetadataDomainEvents() {
+  }
+
+  /**
+   * Called after a domain has been stored, imported or removed, or its access control list has changed
+   *
+   * @param domainId
+   */
+  public static void domainChanged( String domainId ) {
+    if ( domainId == null ) {
+      domainsFlushed();
+      return;
+    }
+    ThinModelCache.getInstance().invalidate( domainId );
+    CompiledQueryCache.getInstance().invalidate( domainId );
+    QueryResultCache.getInstance().invalidate( domainId );
+    ModelVisibilityIndex.getInstance().invalidate( domainId );
+    MaterializedQueryManager.getInstance().invalidate( domainId );
+  }
+
+  /**
+   * Called after the metadata repository has been flushed, or when it is not known which domains have changed
+   */
+  public static void domainsFlushed() {
+    ThinModelCache.getInstance().invalidateAll();
+    CompiledQueryCache.getInstance().invalidateAll();
+    QueryResultCache.getInstance().invalidateAll();
+    ModelVisibilityIndex.getInstance().invalidateAll();
+    MaterializedQueryManager.getInstance().invalidateAll();
+  }
+}
@@ -16,20 +16,46 @@ package org.pentaho.platform.dataaccess.metadata.service;
 import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
 import static jakarta.ws.rs.core.MediaType.APPLICATION_XML;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.commons.connection.marshal.MarshallableResultSet;
 import org.pentaho.metadata.model.Domain;
@@ -37,6 +63,7 @@ import org.pentaho.metadata.model.LogicalModel;
 import org.pentaho.metadata.query.model.util.QueryXmlHelper;
 import org.pentaho.metadata.repository.IMetadataDomainRepository;
 import org.pentaho.platform.api.engine.ILogger;
+import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.dataaccess.datasource.utils.DataAccessPermissionUtil;
 import org.pentaho.platform.dataaccess.metadata.messages.Messages;
 import org.pentaho.platform.dataaccess.metadata.model.impl.Model;
@@ -49,6 +76,8 @@ import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.plugin.action.pentahometadata.MetadataQueryComponent;
 import org.pentaho.platform.util.messages.LocaleHelper;
 import org.pentaho.pms.core.exception.PentahoMetadataException;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import flexjson.JSONSerializer;
 
@@ -63,6 +92,13 @@ public class MetadataService extends PentahoBase {
 
   private static final long serialVersionUID = 8481450224870463494L;
 
+  private static final String TEXT_CSV = "text/csv"; //$NON-NLS-1$
+
+  private static final String APPLICATION_NDJSON = "application/x-ndjson"; //$NON-NLS-1$
+
+  // the columnar format is only chosen over JSON when the client asks for it
+  private static final String COLUMNAR_SOURCE_QUALITY = ";qs=0.5"; //$NON-NLS-1$
+
   private Log logger = LogFactory.getLog( MetadataService.class );
 
   public MetadataService() {
@@ -91,6 +127,116 @@ public class MetadataService extends PentahoBase {
     return response;
   }
 
+  /**
+   * Returns the number of running and waiting queries of each database connection, and the number of queries that have
+   * been admitted or rejected. Only users that can manage data sources see the statistics.
+   *
+   * @return
+   */
+  @GET
+  @Path( "/getQueryConnectionStatistics" )
+  @Produces( { APPLICATION_JSON } )
+  public String getQueryConnectionStatistics() {
+    if ( !hasManageAccess() ) {
+      return null;
+    }
+    return new JSONObject( QueryBulkhead.getInstance().getStatistics() ).toString();
+  }
+
+  /**
+   * Returns the metrics of the metadata queries of each domain and model: the number of queries, rows and bytes, and
+   * the latency histograms of the whole request and of each phase (parse, convert, xml, execute, marshal and
+   * serialize). Only users that can manage data sources see the metrics.
+   *
+   * @return
+   */
+  @GET
+  @Path( "/getQueryMetrics" )
+  @Produces( { APPLICATION_JSON } )
+  public String getQueryMetrics() {
+    if ( !hasManageAccess() ) {
+      return null;
+    }
+    return QueryMetrics.getInstance().getStatisticsJson();
+  }
+
+  /**
+   * Materializes a JSON query: the query is run on a schedule into a table of the staging database, and identical
+   * queries are answered from that table until the domain of the query changes. Registering a query again changes its
+   * refresh interval. Only users that can manage data sources can materialize queries.
+   *
+   * @param json     the thin query
+   * @param interval the number of seconds between two refreshes
+   * @return the state of the materialized query, see {@link #getMaterializedQueries()}
+   */
+  @POST
+  @Path( "/materializeJsonQuery" )
+  @Produces( { APPLICATION_JSON } )
+  public String materializeJsonQuery( @QueryParam( "json" ) String json, @QueryParam( "interval" ) int interval ) {
+    if ( !hasManageAccess() ) {
+      return null;
+    }
+    MaterializedQueryManager manager = MaterializedQueryManager.getInstance();
+    if ( !manager.isAvailable() ) {
+      error( Messages.getErrorString( "MetadataService.ERROR_0017_MATERIALIZATION_DISABLED" ) ); //$NON-NLS-1$
+      return null;
+    }
+    org.pentaho.metadata.query.model.Query query = getQueryFromJson( json );
+    if ( query == null ) {
+      return null;
+    }
+    LogicalModel model = query.getLogicalModel();
+    if ( !QueryResultCache.getSecurityIdentity( model ).isEmpty() ) {
+      error( Messages.getErrorString( "MetadataService.ERROR_0021_ROW_LEVEL_SECURITY", model.getId() ) ); //$NON-NLS-1$
+      return null;
+    }
+    String id = manager.register( json, query.getDomain().getId(), model.getId(), interval );
+    return new JSONObject( manager.getStatus( id ) ).toString();
+  }
+
+  /**
+   * Returns the state of the materialized queries: their id, domain, model, refresh interval, state (PENDING, READY,
+   * STALE or FAILED), the time of their last refresh, their number of rows, their table and the error of their last
+   * refresh. Only users that can manage data sources see the materialized queries.
+   *
+   * @return
+   */
+  @GET
+  @Path( "/getMaterializedQueries" )
+  @Produces( { APPLICATION_JSON } )
+  public String getMaterializedQueries() {
+    if ( !hasManageAccess() ) {
+      return null;
+    }
+    return new JSONArray( MaterializedQueryManager.getInstance().getStatus() ).toString();
+  }
+
+  /**
+   * Refreshes a materialized query as soon as possible
+   *
+   * @param id the id of the materialized query
+   * @return false if the materialized query cannot be found
+   */
+  @POST
+  @Path( "/refreshMaterializedQuery" )
+  @Produces( { APPLICATION_JSON } )
+  public boolean refreshMaterializedQuery( @QueryParam( "id" ) String id ) {
+    return hasManageAccess() && MaterializedQueryManager.getInstance().refresh( id );
+  }
+
+  /**
+   * Stops materializing a query and drops its tables
+   *
+   * @param id the id of the materialized query
+   * @return false if the materialized query cannot be found
+   */
+  @DELETE
+  @Path( "/removeMaterializedQuery" )
+  @Produces( { APPLICATION_JSON } )
+  public boolean removeMaterializedQuery( @QueryParam( "id" ) String id ) {
+    return hasManageAccess() && MaterializedQueryManager.getInstance().remove( id );
+  }
+
   /**
    * Returns a list of the available business models
    *
@@ -147,9 +293,7 @@ public class MetadataService extends PentahoBase {
   public String listBusinessModelsJson( String domainName, String context ) throws IOException {
 
     ModelInfo[] models = listBusinessModels( domainName, context );
-    JSONSerializer serializer = new JSONSerializer();
-    String json = serializer.deepSerialize( models );
-    return json;
+    return ThinModelJsonCodec.writeModelInfos( models );
   }
 
   /**
@@ -165,31 +309,22 @@ public class MetadataService extends PentahoBase {
 
     IMetadataDomainRepository repo = getMetadataRepository();
 
-    Domain domainObject = repo.getDomain( domain );
-    if ( domainObject == null ) {
+    ModelVisibilityIndex.DomainEntry domainEntry =
+      ModelVisibilityIndex.getInstance().getDomain( repo, QueryResultCache.getUserIdentity(), domain );
+    if ( domainEntry == null ) {
       // the domain does not exist
       return;
     }
 
     // find the best locale
-    String locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domainObject.getLocaleCodes() );
+    String locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domainEntry.getLocaleCodes() );
 
     // iterate over all of the models in this domain
-    for ( LogicalModel model : domainObject.getLogicalModels() ) {
-      String vis = (String) model.getProperty( "visible" );
-      if ( vis != null ) {
-        String[] visibleContexts = vis.split( "," );
-        boolean visibleToContext = false;
-        for ( String c : visibleContexts ) {
-          if ( StringUtils.isEmpty( context ) || c.equals( context ) ) {
-            visibleToContext = true;
-            break;
-          }
-        }
-        if ( !visibleToContext ) {
-          continue;
-        }
+    for ( ModelVisibilityIndex.ModelEntry modelEntry : domainEntry.getModels() ) {
+      if ( !modelEntry.isVisible( context ) ) {
+        continue;
       }
+      LogicalModel model = modelEntry.getModel();
       // create a new ModelInfo object and give it the envelope information about the model
       ModelInfo modelInfo = new ModelInfo();
       modelInfo.setDomainId( domain );
@@ -237,6 +372,15 @@ public class MetadataService extends PentahoBase {
       return null;
     }
 
+    // the thin model only depends on the domain version and the locale resolved for it
+    ThinModelCache cache = ThinModelCache.getInstance();
+    String locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
+    long version = cache.getVersion( domainId );
+    Model thinModel = cache.get( domainId, modelId, locale, domain );
+    if ( thinModel != null ) {
+      return thinModel;
+    }
+
     LogicalModel model = domain.findLogicalModel( modelId );
 
     if ( model == null ) {
@@ -248,7 +392,8 @@ public class MetadataService extends PentahoBase {
     // create the thin metadata model and return it
     MetadataServiceUtil util = getMetadataServiceUtil();
     util.setDomain( domain );
-    Model thinModel = util.createThinModel( model, domainId );
+    thinModel = util.createThinModel( model, domainId );
+    cache.put( domainId, modelId, locale, version, domain, thinModel );
     return thinModel;
 
   }
@@ -264,9 +409,7 @@ public class MetadataService extends PentahoBase {
   public String loadModelJson( String domainId, String modelId ) {
 
     Model model = loadModel( domainId, modelId );
-    JSONSerializer serializer = new JSONSerializer();
-    String json = serializer.deepSerialize( model );
-    return json;
+    return ThinModelJsonCodec.writeModel( model );
   }
 
   /**
@@ -277,12 +420,21 @@ public class MetadataService extends PentahoBase {
    * @return
    */
   public MarshallableResultSet doQuery( Query query, Integer rowLimit ) {
-
-    MetadataServiceUtil util = getMetadataServiceUtil();
-    org.pentaho.metadata.query.model.Query fullQuery = util.convertQuery( query );
-    QueryXmlHelper helper = new QueryXmlHelper();
-    String xml = helper.toXML( fullQuery );
-    return doXmlQuery( xml, rowLimit );
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      MetadataServiceUtil util = getMetadataServiceUtil();
+      long start = System.nanoTime();
+      org.pentaho.metadata.query.model.Query fullQuery = util.convertQuery( query );
+      metrics.record( QueryMetrics.Phase.CONVERT, start );
+      start = System.nanoTime();
+      QueryXmlHelper helper = new QueryXmlHelper();
+      String xml = helper.toXML( fullQuery );
+      metrics.record( QueryMetrics.Phase.XML, start );
+      return doXmlQuery( xml, rowLimit );
+    } finally {
+      metrics.end( trace );
+    }
   }
 
   /**
@@ -292,13 +444,17 @@ public class MetadataService extends PentahoBase {
    * @return
    */
   public MarshallableResultSet doXmlQuery( String xml, Integer rowLimit ) {
-    IPentahoResultSet resultSet = executeQuery( xml, rowLimit );
-    if ( resultSet == null ) {
-      return null;
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      IPentahoResultSet resultSet = executeQuery( xml, rowLimit );
+      if ( resultSet == null ) {
+        return null;
+      }
+      return marshal( resultSet );
+    } finally {
+      metrics.end( trace );
     }
-    MarshallableResultSet result = getMarshallableResultSet();
-    result.setResultSet( resultSet );
-    return result;
   }
 
   /**
@@ -308,13 +464,21 @@ public class MetadataService extends PentahoBase {
    * @return
    */
   public String doXmlQueryToJson( String xml, int rowLimit ) {
-    MarshallableResultSet resultSet = doXmlQuery( xml, rowLimit );
-    if ( resultSet == null ) {
-      return null;
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      MarshallableResultSet resultSet = doXmlQuery( xml, rowLimit );
+      if ( resultSet == null ) {
+        return null;
+      }
+      long start = System.nanoTime();
+      JSONSerializer serializer = new JSONSerializer();
+      String json = serializer.deepSerialize( resultSet );
+      recordSerialization( start, json );
+      return json;
+    } finally {
+      metrics.end( trace );
     }
-    JSONSerializer serializer = new JSONSerializer();
-    String json = serializer.deepSerialize( resultSet );
-    return json;
   }
 
   /**
@@ -323,113 +487,1213 @@ public class MetadataService extends PentahoBase {
    * @param rowLimit
    * @return
    */
+  public String doXmlQueryToCdaJson( String xml, int rowLimit ) {
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      IPentahoResultSet resultSet = executeQuery( xml, rowLimit );
+      if ( resultSet == null ) {
+        return null;
+      }
+      String json = null;
+      try {
+        MetadataServiceUtil util = getMetadataServiceUtil();
+        Domain domain = util.getDomainObject( xml );
+        util.setDomain( domain );
+        String locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
+        long start = System.nanoTime();
+        json = util.createCdaJson( resultSet, locale );
+        recordSerialization( start, json );
+      } catch ( JSONException e ) {
+        error( Messages.getErrorString( "MetadataService.ERROR_0007_JSON_ERROR" ), e ); //$NON-NLS-1$
+      } catch ( PentahoMetadataException e ) {
+        error( Messages.getErrorString( "MetadataService.ERROR_0007_BAD_QUERY_DOMAIN" ), e ); //$NON-NLS-1$
+      }
+      return json;
+    } finally {
+      metrics.end( trace );
+    }
+  }
+
+  /**
+   * Executes a XML query and streams a CDA compatible JSON serialization of the result set. The query is executed
+   * against a live, forward-only result set and each row is written to the response as it is read, so the rows are
+   * never held in memory.
+   *
+   * @param rowLimit An optional row limit, -1 means all rows
+   * @return
+   */
   @GET
   @Path( "/doXmlQueryToCdaJson" )
   @Produces( { APPLICATION_JSON } )
-  public String doXmlQueryToCdaJson( @QueryParam( "xml" ) String xml,
-                                     @QueryParam( "rowLimit" ) int rowLimit ) {
-    IPentahoResultSet resultSet = executeQuery( xml, rowLimit );
-    if ( resultSet == null ) {
-      return null;
+  public StreamingOutput streamXmlQueryToCdaJson( @QueryParam( "xml" ) String xml,
+                                                  @QueryParam( "rowLimit" ) int rowLimit ) {
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      if ( xml == null ) {
+        return null;
+      }
+      String locale;
+      try {
+        Domain domain = getMetadataServiceUtil().getDomainObject( xml );
+        locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
+      } catch ( PentahoMetadataException e ) {
+        error( Messages.getErrorString( "MetadataService.ERROR_0007_BAD_QUERY_DOMAIN" ), e ); //$NON-NLS-1$
+        return null;
+      }
+      IPentahoResultSet resultSet = executeQuery( xml, rowLimit, true );
+      if ( resultSet == null ) {
+        return null;
+      }
+      return createCdaJsonStreamingOutput( resultSet, locale );
+    } finally {
+      metrics.end( trace );
     }
-    String json = null;
+  }
+
+  /**
+   * Executes a XML query and streams the result set in the binary format of {@link ColumnarResultWriter}. This is
+   * returned instead of CDA JSON when the client accepts {@link ColumnarResultWriter#MEDIA_TYPE} but not JSON; its
+   * lower source quality keeps JSON the answer to clients that accept any type.
+   *
+   * @param rowLimit An optional row limit, -1 means all rows
+   * @return
+   */
+  @GET
+  @Path( "/doXmlQueryToCdaJson" )
+  @Produces( { ColumnarResultWriter.MEDIA_TYPE + COLUMNAR_SOURCE_QUALITY } )
+  public StreamingOutput streamXmlQueryToColumnar( @QueryParam( "xml" ) String xml,
+                                                   @QueryParam( "rowLimit" ) int rowLimit ) {
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
     try {
-      MetadataServiceUtil util = getMetadataServiceUtil();
-      Domain domain = util.getDomainObject( xml );
-      util.setDomain( domain );
-      String locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
-      json = util.createCdaJson( resultSet, locale );
-    } catch ( JSONException e ) {
-      error( Messages.getErrorString( "MetadataService.ERROR_0007_JSON_ERROR" ), e ); //$NON-NLS-1$
-    } catch ( PentahoMetadataException e ) {
-      error( Messages.getErrorString( "MetadataService.ERROR_0007_BAD_QUERY_DOMAIN" ), e ); //$NON-NLS-1$
+      if ( xml == null ) {
+        return null;
+      }
+      String locale;
+      try {
+        Domain domain = getMetadataServiceUtil().getDomainObject( xml );
+        locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
+      } catch ( PentahoMetadataException e ) {
+        error( Messages.getErrorString( "MetadataService.ERROR_0007_BAD_QUERY_DOMAIN" ), e ); //$NON-NLS-1$
+        return null;
+      }
+      IPentahoResultSet resultSet = executeQuery( xml, rowLimit, true );
+      if ( resultSet == null ) {
+        return null;
+      }
+      return createColumnarStreamingOutput( resultSet, locale );
+    } finally {
+      metrics.end( trace );
     }
-    return json;
   }
 
   /**
-   * Executes a XML query and returns a serializable result set
+   * Creates the output that writes a live result set as CDA JSON. The result set and its connection are closed once
+   * the output has been written.
+   *
+   * @param resultSet
+   * @param locale
+   * @return
+   */
+  protected StreamingOutput createCdaJsonStreamingOutput( final IPentahoResultSet resultSet, final String locale ) {
+    final MetadataServiceUtil util = getMetadataServiceUtil();
+    final QueryMetrics metrics = QueryMetrics.getInstance();
+    final QueryMetrics.Trace trace = metrics.detach();
+    return new StreamingOutput() {
+      public void write( OutputStream output ) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream( output );
+        long start = System.nanoTime();
+        try {
+          Writer writer = new BufferedWriter( new OutputStreamWriter( counter, StandardCharsets.UTF_8 ) );
+          int rows = util.writeCdaJson( resultSet, locale, writer );
+          recordSerialization( trace, start, rows, counter.getByteCount() );
+        } catch ( JSONException e ) {
+          error( Messages.getErrorString( "MetadataService.ERROR_0007_JSON_ERROR" ), e ); //$NON-NLS-1$
+          throw new IOException( e );
+        } finally {
+          resultSet.closeConnection();
+          metrics.complete( trace );
+        }
+      }
+    };
+  }
+
+  /**
+   * Creates the output that writes a live result set in the binary format of {@link ColumnarResultWriter}. The result
+   * set and its connection are closed once the output has been written.
+   *
+   * @param resultSet
+   * @param locale
+   * @return
+   */
+  protected StreamingOutput createColumnarStreamingOutput( final IPentahoResultSet resultSet, final String locale ) {
+    final QueryMetrics metrics = QueryMetrics.getInstance();
+    final QueryMetrics.Trace trace = metrics.detach();
+    return new StreamingOutput() {
+      public void write( OutputStream output ) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream( output );
+        long start = System.nanoTime();
+        try {
+          int rows = new ColumnarResultWriter().write( resultSet, locale, new BufferedOutputStream( counter ) );
+          recordSerialization( trace, start, rows, counter.getByteCount() );
+        } finally {
+          resultSet.closeConnection();
+          metrics.complete( trace );
+        }
+      }
+    };
+  }
+
+  /**
+   * Executes a JSON query and returns a serializable result set
    *
    * @param rowLimit An optional row limit, -1 or null means all rows
    * @return
    */
   public MarshallableResultSet doJsonQuery( String json, Integer rowLimit ) {
-
-    // return the results
-    return doXmlQuery( getQueryXmlFromJson( json ), rowLimit );
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      org.pentaho.metadata.query.model.Query query = getQueryFromJson( json );
+      if ( query == null ) {
+        return null;
+      }
+      IPentahoResultSet resultSet = executeQuery( query, rowLimit, false );
+      if ( resultSet == null ) {
+        return null;
+      }
+      return marshal( resultSet );
+    } finally {
+      metrics.end( trace );
+    }
   }
 
   /**
-   * Executes a XML query and returns a JSON serialization of the result set
+   * Executes a JSON query and returns a JSON serialization of the result set
    *
    * @param rowLimit
    * @return
    */
   public String doJsonQueryToJson( String json, int rowLimit ) {
-    // return the results
-    return doXmlQueryToJson( getQueryXmlFromJson( json ), rowLimit );
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      MarshallableResultSet resultSet = doJsonQuery( json, rowLimit );
+      if ( resultSet == null ) {
+        return null;
+      }
+      long start = System.nanoTime();
+      JSONSerializer serializer = new JSONSerializer();
+      String result = serializer.deepSerialize( resultSet );
+      recordSerialization( start, result );
+      return result;
+    } finally {
+      metrics.end( trace );
+    }
   }
 
   /**
-   * Executes a XML query and returns a CDA compatible JSON serialization of the result set
+   * Executes a JSON query and returns a CDA compatible JSON serialization of the result set
    *
    * @param rowLimit
    * @return
    */
+  public String doJsonQueryToCdaJson( String json, int rowLimit ) {
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      org.pentaho.metadata.query.model.Query query = getQueryFromJson( json );
+      if ( query == null ) {
+        return null;
+      }
+      IPentahoResultSet resultSet = executeQuery( query, rowLimit, false );
+      if ( resultSet == null ) {
+        return null;
+      }
+      try {
+        MetadataServiceUtil util = getMetadataServiceUtil();
+        Domain domain = query.getDomain();
+        util.setDomain( domain );
+        String locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
+        long start = System.nanoTime();
+        String result = util.createCdaJson( resultSet, locale );
+        recordSerialization( start, result );
+        return result;
+      } catch ( JSONException e ) {
+        error( Messages.getErrorString( "MetadataService.ERROR_0007_JSON_ERROR" ), e ); //$NON-NLS-1$
+      }
+      return null;
+    } finally {
+      metrics.end( trace );
+    }
+  }
+
+  /**
+   * Executes a JSON query and streams a CDA compatible JSON serialization of the result set
+   *
+   * @param rowLimit An optional row limit, -1 means all rows
+   * @return
+   */
   @GET
   @Path( "/doJsonQueryToCdaJson" )
   @Produces( { APPLICATION_JSON } )
-  public String doJsonQueryToCdaJson( @QueryParam( "json" ) String json,
-                                      @QueryParam( "rowLimit" ) int rowLimit ) {
-    // return the results
-    return doXmlQueryToCdaJson( getQueryXmlFromJson( json ), rowLimit );
+  public StreamingOutput streamJsonQueryToCdaJson( @QueryParam( "json" ) String json,
+                                                   @QueryParam( "rowLimit" ) int rowLimit ) {
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      org.pentaho.metadata.query.model.Query query = getQueryFromJson( json );
+      if ( query == null ) {
+        return null;
+      }
+      Domain domain = query.getDomain();
+      String locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
+      IPentahoResultSet resultSet = executeQuery( query, rowLimit, true );
+      if ( resultSet == null ) {
+        return null;
+      }
+      return createCdaJsonStreamingOutput( resultSet, locale );
+    } finally {
+      metrics.end( trace );
+    }
   }
 
+  /**
+   * Executes a JSON query and streams the result set in the binary format of {@link ColumnarResultWriter}. This is
+   * returned instead of CDA JSON when the client accepts {@link ColumnarResultWriter#MEDIA_TYPE} but not JSON; its
+   * lower source quality keeps JSON the answer to clients that accept any type.
+   *
+   * @param rowLimit An optional row limit, -1 means all rows
+   * @return
+   */
+  @GET
+  @Path( "/doJsonQueryToCdaJson" )
+  @Produces( { ColumnarResultWriter.MEDIA_TYPE + COLUMNAR_SOURCE_QUALITY } )
+  public StreamingOutput streamJsonQueryToColumnar( @QueryParam( "json" ) String json,
+                                                    @QueryParam( "rowLimit" ) int rowLimit ) {
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    QueryMetrics.Trace trace = metrics.begin();
+    try {
+      org.pentaho.metadata.query.model.Query query = getQueryFromJson( json );
+      if ( query == null ) {
+        return null;
+      }
+      Domain domain = query.getDomain();
+      String locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
+      IPentahoResultSet resultSet = executeQuery( query, rowLimit, true );
+      if ( resultSet == null ) {
+        return null;
+      }
+      return createColumnarStreamingOutput( resultSet, locale );
+    } finally {
+      metrics.end( trace );
+    }
+  }
 
   /**
-   * Executes a XML query and returns a native result set
+   * Executes a JSON query and streams the result set as CSV. The rows are written as they are read from a live,
+   * forward-only result set, and the response is gzip compressed when the client accepts it.
    *
-   * @param query
-   * @param rowLimit An optional row limit, -1 or null means all rows
+   * @param rowLimit       An optional row limit, -1 means all rows
+   * @param acceptEncoding the Accept-Encoding header of the request
    * @return
    */
-  protected IPentahoResultSet executeQuery( String query, Integer rowLimit ) {
-    // create a component to execute the query
-    MetadataQueryComponent dataComponent = new MetadataQueryComponent();
-    dataComponent.setQuery( query );
-    dataComponent.setLive( false );
-    dataComponent.setUseForwardOnlyResultSet( true );
-    if ( rowLimit != null && rowLimit > -1 ) {
-      // set the row limit
-      dataComponent.setMaxRows( rowLimit );
+  @GET
+  @Path( "/doJsonQueryToCsv" )
+  @Produces( { TEXT_CSV } )
+  public Response streamJsonQueryToCsv( @QueryParam( "json" ) String json, @QueryParam( "rowLimit" ) int rowLimit,
+                                        @HeaderParam( HttpHeaders.ACCEPT_ENCODING ) String acceptEncoding ) {
+    final MetadataServiceUtil util = getMetadataServiceUtil();
+    return streamJsonQuery( json, rowLimit, acceptEncoding, util::writeCsv );
+  }
+
+  /**
+   * Executes a JSON query and streams the result set as newline delimited JSON, one object per row. The rows are
+   * written as they are read from a live, forward-only result set, and the response is gzip compressed when the client
+   * accepts it.
+   *
+   * @param rowLimit       An optional row limit, -1 means all rows
+   * @param acceptEncoding the Accept-Encoding header of the request
+   * @return
+   */
+  @GET
+  @Path( "/doJsonQueryToNdjson" )
+  @Produces( { APPLICATION_NDJSON } )
+  public Response streamJsonQueryToNdjson( @QueryParam( "json" ) String json, @QueryParam( "rowLimit" ) int rowLimit,
+                                           @HeaderParam( HttpHeaders.ACCEPT_ENCODING ) String acceptEncoding ) {
+    final MetadataServiceUtil util = getMetadataServiceUtil();
+    return streamJsonQuery( json, rowLimit, acceptEncoding, ( resultSet, writer ) -> {
+      try {
+        return util.writeNdjson( resultSet, writer );
+      } catch ( JSONException e ) {
+        error( Messages.getErrorString( "MetadataService.ERROR_0007_JSON_ERROR" ), e ); //$NON-NLS-1$
+        throw new IOException( e );
+      }
+    } );
+  }
+
+  /**
+   * Executes a JSON query against a live result set and returns a response that writes it with the given writer. The
+   * response has no content length, so it is sent with chunked transfer encoding.
+   *
+   * @param json
+   * @param rowLimit
+   * @param acceptEncoding
+   * @param resultSetWriter
+   * @return
+   */
+  private Response streamJsonQuery( String json, int rowLimit, String acceptEncoding,
+                                    final ResultSetWriter resultSetWriter ) {
+    final QueryMetrics metrics = QueryMetrics.getInstance();
+    final QueryMetrics.Trace trace;
+    final IPentahoResultSet resultSet;
+    QueryMetrics.Trace started = metrics.begin();
+    try {
+      org.pentaho.metadata.query.model.Query query = getQueryFromJson( json );
+      if ( query == null ) {
+        return null;
+      }
+      resultSet = executeQuery( query, rowLimit, true );
+      if ( resultSet == null ) {
+        return null;
+      }
+      trace = metrics.detach();
+    } finally {
+      metrics.end( started );
     }
-    if ( dataComponent.execute() ) {
-      return dataComponent.getResultSet();
+    final boolean gzip = acceptsGzip( acceptEncoding );
+    StreamingOutput entity = new StreamingOutput() {
+      public void write( OutputStream output ) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream( output );
+        OutputStream stream = gzip ? new GZIPOutputStream( counter, 8192 ) : counter;
+        long start = System.nanoTime();
+        try {
+          Writer writer = new BufferedWriter( new OutputStreamWriter( stream, StandardCharsets.UTF_8 ) );
+          int rows = resultSetWriter.write( resultSet, writer );
+          if ( gzip ) {
+            ( (GZIPOutputStream) stream ).finish();
+          }
+          recordSerialization( trace, start, rows, counter.getByteCount() );
+        } finally {
+          resultSet.closeConnection();
+          metrics.complete( trace );
+        }
+      }
+    };
+    Response.ResponseBuilder response = Response.ok( entity );
+    if ( gzip ) {
+      response.header( HttpHeaders.CONTENT_ENCODING, "gzip" ); //$NON-NLS-1$
+      response.header( HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING );
     }
-    return null;
+    return response.build();
   }
 
   /**
-   * Converts a JSON query into a full Query object by going via a thin Query object
+   * Tells whether an Accept-Encoding header accepts gzip. A coding with a quality of 0 is not acceptable, and the
+   * wildcard coding only stands for gzip when gzip is not listed on its own.
    *
-   * @param json
+   * @param acceptEncoding the Accept-Encoding header of the request, or null
    * @return
    */
-  protected String getQueryXmlFromJson( String json ) {
-    MetadataServiceUtil util = getMetadataServiceUtil();
-    Query query = util.deserializeJsonQuery( json );
+  static boolean acceptsGzip( String acceptEncoding ) {
+    if ( acceptEncoding == null ) {
+      return false;
+    }
+    Boolean gzip = null;
+    Boolean any = null;
+    for ( String token : acceptEncoding.split( "," ) ) { //$NON-NLS-1$
+      String[] parts = token.split( ";" ); //$NON-NLS-1$
+      String coding = parts[ 0 ].trim().toLowerCase( Locale.ENGLISH );
+      boolean acceptable = true;
+      for ( int i = 1; i < parts.length; i++ ) {
+        String parameter = parts[ i ].trim().toLowerCase( Locale.ENGLISH );
+        if ( parameter.startsWith( "q=" ) ) { //$NON-NLS-1$
+          try {
+            acceptable = Double.parseDouble( parameter.substring( 2 ).trim() ) > 0;
+          } catch ( NumberFormatException e ) {
+            acceptable = false;
+          }
+        }
+      }
+      if ( "gzip".equals( coding ) || "x-gzip".equals( coding ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+        gzip = acceptable;
+      } else if ( "*".equals( coding ) ) { //$NON-NLS-1$
+        any = acceptable;
+      }
+    }
+    if ( gzip != null ) {
+      return gzip;
+    }
+    return any != null && any;
+  }
+
+  /**
+   * Writes a result set to a response and returns the number of rows written
+   */
+  private interface ResultSetWriter {
+    int write( IPentahoResultSet resultSet, Writer writer ) throws IOException;
+  }
+
+  /**
+   * Executes a batch of JSON queries and returns their results as CDA compatible JSON, keyed by the ids of the queries.
+   * The request is a JSON array of objects with an "id", a thin "query" and an optional "rowLimit". Each domain is
+   * loaded once for the batch, and the queries run at the same time on the {@link QueryBatchExecutor}. A query that
+   * fails has an object with an "error" message as its result, the other queries are not affected. Queries that share
+   * an id are not run; the id gets an error as its result.
+   *
+   * @param json
+   * @return a JSON object with the result of each query, or null if the request cannot be read
+   */
+  @POST
+  @Path( "/doJsonQueriesToCdaJson" )
+  @Consumes( { APPLICATION_JSON } )
+  @Produces( { APPLICATION_JSON } )
+  public String doJsonQueriesToCdaJson( String json ) {
+    JSONArray requests;
     try {
-      // convert the thin query model into a full one
-      org.pentaho.metadata.query.model.Query fullQuery = util.convertQuery( query );
+      requests = new JSONArray( json );
+    } catch ( JSONException e ) {
+      error( Messages.getErrorString( "MetadataService.ERROR_0007_BAD_JSON", json ), e ); //$NON-NLS-1$
+      return null;
+    }
+    int maxSize = MetadataServiceSettings.getQueryBatchMaxSize();
+    if ( requests.length() > maxSize ) {
+      error( Messages.getErrorString( "MetadataService.ERROR_0015_BATCH_TOO_LARGE", //$NON-NLS-1$
+        String.valueOf( maxSize ) ) );
+      return null;
+    }
+    Map<String, Integer> idCounts = new HashMap<String, Integer>();
+    for ( int i = 0; i < requests.length(); i++ ) {
+      idCounts.merge( getBatchId( requests.optJSONObject( i ), i ), 1, Integer::sum );
+    }
 
-      // get the XML for the query
-      QueryXmlHelper helper = new QueryXmlHelper();
-      String xml = helper.toXML( fullQuery );
-      return xml;
-    } catch ( Exception e ) {
-      error( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ), e ); //$NON-NLS-1$
+    MetadataServiceUtil util = getMetadataServiceUtil();
+    IMetadataDomainRepository repository = getMetadataRepository();
+    Map<String, Domain> domains = new HashMap<String, Domain>();
+    Map<String, String> results = new LinkedHashMap<String, String>();
+    List<String> ids = new ArrayList<String>();
+    List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+    for ( int i = 0; i < requests.length(); i++ ) {
+      JSONObject request = requests.optJSONObject( i );
+      String id = getBatchId( request, i );
+      if ( idCounts.get( id ) > 1 ) {
+        String message = Messages.getErrorString( "MetadataService.ERROR_0022_DUPLICATE_QUERY_ID", id ); //$NON-NLS-1$
+        results.put( id, createBatchError( message ) );
+        continue;
+      }
+      JSONObject queryJson = request == null ? null : request.optJSONObject( "query" ); //$NON-NLS-1$
+      Query thinQuery = queryJson == null ? null : util.deserializeJsonQuery( queryJson.toString() );
+      if ( thinQuery == null ) {
+        results.put( id, createBatchError( Messages.getErrorString( "MetadataService.ERROR_0007_BAD_JSON", //$NON-NLS-1$
+          String.valueOf( queryJson ) ) ) );
+        continue;
+      }
+      final int rowLimit = request.optInt( "rowLimit", -1 ); //$NON-NLS-1$
+      final org.pentaho.metadata.query.model.Query query;
+      final String locale;
+      try {
+        String domainId = thinQuery.getDomainName();
+        if ( !domains.containsKey( domainId ) ) {
+          // the repository checks that the current user can access the domain
+          domains.put( domainId, domainId == null ? null : repository.getDomain( domainId ) );
+        }
+        Domain domain = domains.get( domainId );
+        if ( domain == null ) {
+          String message = Messages.getErrorString( "MetadataService.ERROR_0005_DOMAIN_NOT_FOUND", //$NON-NLS-1$
+            domainId );
+          error( message );
+          results.put( id, createBatchError( message ) );
+          continue;
+        }
+        query = util.compileQuery( thinQuery, domain );
+        locale = LocaleHelper.getClosestLocale( LocaleHelper.getLocale().toString(), domain.getLocaleCodes() );
+      } catch ( Exception e ) {
+        error( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ), e ); //$NON-NLS-1$
+        results.put( id, createBatchError( e.getMessage() ) );
+        continue;
+      }
+      // reserve the position of the result
+      results.put( id, null );
+      ids.add( id );
+      tasks.add( inCallerContext( () -> {
+        QueryMetrics metrics = QueryMetrics.getInstance();
+        QueryMetrics.Trace trace = metrics.begin();
+        try {
+          IPentahoResultSet resultSet = executeQuery( query, rowLimit, false );
+          if ( resultSet == null ) {
+            return createBatchError( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ) ); //$NON-NLS-1$
+          }
+          long start = System.nanoTime();
+          StringWriter writer = new StringWriter();
+          getMetadataServiceUtil().writeCdaJson( resultSet, locale, writer );
+          String result = writer.toString();
+          recordSerialization( start, result );
+          return result;
+        } finally {
+          metrics.end( trace );
+        }
+      } ) );
+    }
+
+    List<Future<String>> futures = QueryBatchExecutor.getInstance().submitAll( tasks );
+    for ( int i = 0; i < futures.size(); i++ ) {
+      String result;
+      try {
+        result = futures.get( i ).get();
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        result = createBatchError( e.toString() );
+      } catch ( ExecutionException e ) {
+        error( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ), e.getCause() ); //$NON-NLS-1$
+        result = createBatchError( String.valueOf( e.getCause().getMessage() ) );
+      }
+      results.put( ids.get( i ), result );
+    }
+
+    StringBuilder sb = new StringBuilder( "{" ); //$NON-NLS-1$
+    for ( Map.Entry<String, String> result : results.entrySet() ) {
+      if ( sb.length() > 1 ) {
+        sb.append( ',' );
+      }
+      sb.append( JSONObject.quote( result.getKey() ) ).append( ':' ).append( result.getValue() );
+    }
+    return sb.append( '}' ).toString();
+  }
+
+  /**
+   * Returns the id of a query of a batch, which is its position when the request has no id
+   */
+  private static String getBatchId( JSONObject request, int position ) {
+    String defaultId = String.valueOf( position );
+    return request == null ? defaultId : request.optString( "id", defaultId ); //$NON-NLS-1$
+  }
+
+  private static String createBatchError( String message ) {
+    return "{\"error\":" + JSONObject.quote( message ) + "}"; //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * Executes a XML query and opens a server side cursor over its result, see {@link #fetchPage}
+   *
+   * @param xml
+   * @return the id of the cursor, or null if the query failed
+   */
+  public String openXmlQuery( final String xml ) {
+    if ( xml == null ) {
+      return null;
+    }
+    return openQuery( () -> executeQuery( xml, null, true ) );
+  }
+
+  /**
+   * Executes a JSON query and opens a server side cursor over its result, see {@link #fetchPage}
+   *
+   * @param json
+   * @return the id of the cursor, or null if the query failed
+   */
+  @POST
+  @Path( "/openJsonQuery" )
+  @Produces( { APPLICATION_JSON } )
+  public String openJsonQuery( @QueryParam( "json" ) String json ) {
+    final org.pentaho.metadata.query.model.Query query = getQueryFromJson( json );
+    if ( query == null ) {
+      return null;
+    }
+    return openQuery( () -> executeQuery( query, null, true ) );
+  }
+
+  /**
+   * Reads a page of rows from a cursor opened by this session. Reading the pages in order only reads each row once; a
+   * page before the last one read executes the query again. A page with fewer than size rows is the last one.
+   *
+   * @param cursorId the id returned by {@link #openXmlQuery} or {@link #openJsonQuery}
+   * @param offset   the index of the first row of the page
+   * @param size     the maximum number of rows of the page
+   * @return
+   */
+  public MarshallableResultSet fetchPage( String cursorId, int offset, int size ) {
+    IPentahoResultSet page;
+    try {
+      page = QueryCursorManager.getInstance().fetch( getSessionId(), cursorId, offset, size );
+    } catch ( IllegalArgumentException e ) {
+      error( e.getMessage() );
+      return null;
+    }
+    if ( page == null ) {
+      error( Messages.getErrorString( "MetadataService.ERROR_0009_CURSOR_NOT_FOUND", cursorId ) ); //$NON-NLS-1$
+      return null;
+    }
+    MarshallableResultSet result = getMarshallableResultSet();
+    result.setResultSet( page );
+    return result;
+  }
+
+  /**
+   * Reads a page of rows from a cursor and returns a JSON serialization of the rows
+   *
+   * @param cursorId
+   * @param offset
+   * @param size
+   * @return
+   */
+  @GET
+  @Path( "/fetchPage" )
+  @Produces( { APPLICATION_JSON } )
+  public String fetchPageToJson( @QueryParam( "cursor" ) String cursorId, @QueryParam( "offset" ) int offset,
+                                 @QueryParam( "size" ) int size ) {
+    MarshallableResultSet resultSet = fetchPage( cursorId, offset, size );
+    if ( resultSet == null ) {
+      return null;
+    }
+    JSONSerializer serializer = new JSONSerializer();
+    return serializer.deepSerialize( resultSet );
+  }
+
+  /**
+   * Closes a cursor opened by this session and releases its connection
+   *
+   * @param cursorId
+   * @return false if the cursor cannot be found
+   */
+  @DELETE
+  @Path( "/closeQuery" )
+  @Produces( { APPLICATION_JSON } )
+  public boolean closeQuery( @QueryParam( "cursor" ) String cursorId ) {
+    return QueryCursorManager.getInstance().close( getSessionId(), cursorId );
+  }
+
+  /**
+   * Submits a thin query to run asynchronously, see {@link #getJobStatus}
+   *
+   * @param query
+   * @param rowLimit An optional row limit, -1 or null means all rows
+   * @return the id of the job, or null if the query cannot be submitted
+   */
+  public String submitQuery( Query query, final Integer rowLimit ) {
+    final org.pentaho.metadata.query.model.Query fullQuery;
+    try {
+      fullQuery = getMetadataServiceUtil().compileQuery( query );
+    } catch ( Exception e ) {
+      error( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ), e ); //$NON-NLS-1$
+      return null;
+    }
+    return submitJob( () -> executeQuery( fullQuery, rowLimit, false ) );
+  }
+
+  /**
+   * Submits a XML query to run asynchronously, see {@link #getJobStatus}
+   *
+   * @param xml
+   * @param rowLimit An optional row limit, -1 or null means all rows
+   * @return the id of the job, or null if the query cannot be submitted
+   */
+  public String submitXmlQuery( final String xml, final Integer rowLimit ) {
+    if ( xml == null ) {
+      return null;
+    }
+    return submitJob( () -> executeQuery( xml, rowLimit ) );
+  }
+
+  /**
+   * Submits a JSON query to run asynchronously, see {@link #getJobStatus}
+   *
+   * @param json
+   * @param rowLimit An optional row limit, -1 means all rows
+   * @return the id of the job, or null if the query cannot be submitted
+   */
+  @POST
+  @Path( "/submitJsonQuery" )
+  @Produces( { APPLICATION_JSON } )
+  public String submitJsonQuery( @QueryParam( "json" ) String json, @QueryParam( "rowLimit" ) final int rowLimit ) {
+    final org.pentaho.metadata.query.model.Query query = getQueryFromJson( json );
+    if ( query == null ) {
+      return null;
+    }
+    return submitJob( () -> executeQuery( query, rowLimit, false ) );
+  }
+
+  /**
+   * Returns the status of a job submitted by this session: QUEUED, RUNNING, FINISHED, FAILED or CANCELLED. With a wait
+   * time the call returns as soon as the job is done, or when the wait time has elapsed.
+   *
+   * @param jobId
+   * @param wait  the maximum time in milliseconds to wait for the job to be done, capped at one minute
+   * @return the status, or null if the job cannot be found
+   */
+  @GET
+  @Path( "/jobStatus" )
+  @Produces( { APPLICATION_JSON } )
+  public String getJobStatus( @QueryParam( "job" ) String jobId, @QueryParam( "wait" ) long wait ) {
+    QueryJobManager.Status status;
+    try {
+      status = QueryJobManager.getInstance().waitFor( getSessionId(), jobId, Math.min( Math.max( wait, 0 ), 60000L ) );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      status = QueryJobManager.getInstance().getStatus( getSessionId(), jobId );
+    }
+    if ( status == null ) {
+      error( Messages.getErrorString( "MetadataService.ERROR_0014_JOB_NOT_FOUND", jobId ) ); //$NON-NLS-1$
+      return null;
+    }
+    return status.name();
+  }
+
+  /**
+   * Returns the result of a finished job submitted by this session
+   *
+   * @param jobId
+   * @return the result, or null if the job cannot be found or has not finished
+   */
+  public MarshallableResultSet getJobResult( String jobId ) {
+    IPentahoResultSet resultSet = QueryJobManager.getInstance().getResult( getSessionId(), jobId );
+    if ( resultSet == null ) {
+      return null;
+    }
+    MarshallableResultSet result = getMarshallableResultSet();
+    result.setResultSet( resultSet );
+    return result;
+  }
+
+  /**
+   * Returns a JSON serialization of the result of a finished job submitted by this session
+   *
+   * @param jobId
+   * @return
+   */
+  @GET
+  @Path( "/jobResult" )
+  @Produces( { APPLICATION_JSON } )
+  public String getJobResultToJson( @QueryParam( "job" ) String jobId ) {
+    MarshallableResultSet resultSet = getJobResult( jobId );
+    if ( resultSet == null ) {
+      return null;
+    }
+    JSONSerializer serializer = new JSONSerializer();
+    return serializer.deepSerialize( resultSet );
+  }
+
+  /**
+   * Cancels a job submitted by this session
+   *
+   * @param jobId
+   * @return false if the job cannot be found or is already done
+   */
+  @DELETE
+  @Path( "/cancelJob" )
+  @Produces( { APPLICATION_JSON } )
+  public boolean cancelJob( @QueryParam( "job" ) String jobId ) {
+    return QueryJobManager.getInstance().cancel( getSessionId(), jobId );
+  }
+
+  /**
+   * Submits a query to the job manager. The query runs with the session and security context of the caller.
+   *
+   * @param query
+   * @return
+   */
+  private String submitJob( final Supplier<IPentahoResultSet> query ) {
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    try {
+      return QueryJobManager.getInstance().submit( getSessionId(), session == null ? null : session.getName(),
+        inCallerContext( () -> {
+          QueryMetrics metrics = QueryMetrics.getInstance();
+          QueryMetrics.Trace trace = metrics.begin();
+          try {
+            return query.get();
+          } finally {
+            metrics.end( trace );
+          }
+        } ) );
+    } catch ( IllegalStateException e ) {
+      error( e.getMessage() );
+      return null;
+    }
+  }
+
+  /**
+   * Wraps a task so it runs with the Pentaho session and security context of the calling thread, whichever thread
+   * runs it. The context of the thread that runs the task is restored afterwards.
+   *
+   * @param task
+   * @return
+   */
+  private <T> Callable<T> inCallerContext( final Callable<T> task ) {
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    final SecurityContext securityContext = SecurityContextHolder.getContext();
+    return () -> {
+      IPentahoSession previousSession = PentahoSessionHolder.getSession();
+      SecurityContext previousContext = SecurityContextHolder.getContext();
+      PentahoSessionHolder.setSession( session );
+      SecurityContextHolder.setContext( securityContext );
+      try {
+        return task.call();
+      } finally {
+        if ( previousSession == null ) {
+          PentahoSessionHolder.removeSession();
+        } else {
+          PentahoSessionHolder.setSession( previousSession );
+        }
+        SecurityContextHolder.setContext( previousContext );
+      }
+    };
+  }
+
+
+  private String openQuery( Supplier<IPentahoResultSet> query ) {
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    try {
+      return QueryCursorManager.getInstance().open( getSessionId(), session == null ? null : session.getName(), query );
+    } catch ( IllegalStateException e ) {
+      error( e.getMessage() );
+      return null;
+    }
+  }
+
+  private String getSessionId() {
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    return session == null ? null : session.getId();
+  }
+
+
+  /**
+   * Executes a XML query and returns a native result set
+   *
+   * @param query
+   * @param rowLimit An optional row limit, -1 or null means all rows
+   * @return
+   */
+  protected IPentahoResultSet executeQuery( String query, Integer rowLimit ) {
+    return executeQuery( query, rowLimit, false );
+  }
+
+  /**
+   * Executes a XML query and returns a native result set. A live result set keeps its connection open until the
+   * caller has read it and called {@link IPentahoResultSet#closeConnection()}.
+   *
+   * @param query
+   * @param rowLimit An optional row limit, -1 or null means all rows
+   * @param live     true to return a live, forward-only result set instead of an in-memory copy
+   * @return
+   */
+  protected IPentahoResultSet executeQuery( String query, Integer rowLimit, boolean live ) {
+    // create a component to execute the query
+    MetadataQueryComponent dataComponent = new MetadataQueryComponent();
+    dataComponent.setQuery( query );
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    metrics.setMql( query );
+    boolean shared = !live && isSharedQuery();
+    // the query is parsed when it is shared or limited by connection, otherwise the metrics look its model up
+    if ( !shared && !QueryBulkhead.getInstance().isEnabled() ) {
+      if ( metrics.current() != null ) {
+        setMetricsModel( metrics, query );
+      }
+      return executeQuery( dataComponent, null, rowLimit, live );
+    }
+    org.pentaho.metadata.query.model.Query fullQuery;
+    try {
+      long start = System.nanoTime();
+      fullQuery = new QueryXmlHelper().fromXML( getMetadataRepository(), query );
+      metrics.record( QueryMetrics.Phase.XML, start );
+    } catch ( PentahoMetadataException e ) {
+      error( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ), e ); //$NON-NLS-1$
+      return null;
+    }
+    metrics.setQuery( fullQuery );
+    if ( !shared ) {
+      return executeQuery( dataComponent, QueryBulkhead.getConnectionKey( fullQuery ), rowLimit, live );
+    }
+    return executeSharedQuery( dataComponent, fullQuery, query, rowLimit );
+  }
+
+  /**
+   * Sets the domain and model of a MQL query in the metrics of the current request, if the model exists, so the
+   * statistics are not kept for the ids of any request
+   *
+   * @param metrics
+   * @param mql
+   */
+  private void setMetricsModel( QueryMetrics metrics, String mql ) {
+    String domainId = QueryMetrics.getMqlElement( mql, "domain_id" ); //$NON-NLS-1$
+    String modelId = QueryMetrics.getMqlElement( mql, "model_id" ); //$NON-NLS-1$
+    Domain domain = domainId == null ? null : getMetadataRepository().getDomain( domainId );
+    if ( domain != null && modelId != null && domain.findLogicalModel( modelId ) != null ) {
+      metrics.setModel( domainId, modelId );
+    }
+  }
+
+  /**
+   * Executes a full query and returns a native result set. The default values of the query parameters are passed to
+   * the component as inputs, so they are converted to the parameter types before they are bound to the statement.
+   *
+   * @param query
+   * @param rowLimit An optional row limit, -1 or null means all rows
+   * @param live     true to return a live, forward-only result set instead of an in-memory copy
+   * @return
+   */
+  protected IPentahoResultSet executeQuery( org.pentaho.metadata.query.model.Query query, Integer rowLimit,
+                                            boolean live ) {
+    MetadataQueryComponent dataComponent = new MetadataQueryComponent();
+    dataComponent.setQueryObject( query );
+    Map<String, Object> inputs = new HashMap<String, Object>();
+    for ( org.pentaho.metadata.query.model.Parameter parameter : query.getParameters() ) {
+      if ( parameter.getDefaultValue() != null ) {
+        inputs.put( parameter.getName(), parameter.getDefaultValue() );
+      }
+    }
+    dataComponent.setInputs( inputs );
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    metrics.setQuery( query );
+    boolean shared = !live && isSharedQuery();
+    boolean materialized = isMaterializable( query );
+    if ( !shared && !materialized ) {
+      return executeQuery( dataComponent, QueryBulkhead.getConnectionKey( query ), rowLimit, live );
+    }
+    long start = System.nanoTime();
+    String mql = new QueryXmlHelper().toXML( query );
+    metrics.record( QueryMetrics.Phase.XML, start );
+    metrics.setMql( mql );
+    if ( materialized ) {
+      IPentahoResultSet resultSet = getMaterializedResultSet( query, mql, rowLimit );
+      if ( resultSet != null ) {
+        return resultSet;
+      }
+    }
+    if ( !shared ) {
+      return executeQuery( dataComponent, QueryBulkhead.getConnectionKey( query ), rowLimit, live );
+    }
+    return executeSharedQuery( dataComponent, query, mql, rowLimit );
+  }
+
+  /**
+   * Returns true if a query could be answered from a materialized query: its model has one, and no row level security.
+   * This is checked before the MQL of the query is generated to look it up.
+   *
+   * @param query
+   * @return
+   */
+  private boolean isMaterializable( org.pentaho.metadata.query.model.Query query ) {
+    MaterializedQueryManager manager = MaterializedQueryManager.getInstance();
+    if ( !manager.isEnabled() || query.getDomain() == null || query.getLogicalModel() == null ) {
+      return false;
+    }
+    LogicalModel model = query.getLogicalModel();
+    return manager.isEnabled( query.getDomain().getId(), model.getId() )
+      && QueryResultCache.getSecurityIdentity( model ).isEmpty();
+  }
+
+  /**
+   * Returns the result of a query from the table of its materialized query, or null if the query is not materialized
+   * or its table is not up to date. The caller checks that the query is materializable.
+   *
+   * @param query
+   * @param mql      the MQL of the query
+   * @param rowLimit An optional row limit, -1 or null means all rows
+   * @return
+   */
+  private IPentahoResultSet getMaterializedResultSet( org.pentaho.metadata.query.model.Query query, String mql,
+                                                     Integer rowLimit ) {
+    LogicalModel model = query.getLogicalModel();
+    String key = MaterializedQueryManager.createKey( query.getDomain().getId(), model.getId(), mql );
+    IPentahoResultSet resultSet = MaterializedQueryManager.getInstance().getResultSet( key, rowLimit );
+    if ( resultSet != null ) {
+      QueryMetrics.getInstance().setRows( resultSet.getRowCount() );
+    }
+    return resultSet;
+  }
+
+  /**
+   * Returns true if the in-memory results of queries are shared through the {@link QueryResultCache} or the
+   * {@link QueryCoalescer}
+   *
+   * @return
+   */
+  private boolean isSharedQuery() {
+    return QueryResultCache.getInstance().isEnabled() || QueryCoalescer.getInstance().isEnabled();
+  }
+
+  /**
+   * Returns the cached result of a query, or the result of an identical query that is running, or executes the query
+   * and caches its result
+   *
+   * @param dataComponent the component to execute the query with
+   * @param query         the query
+   * @param mql           the MQL of the query
+   * @param rowLimit      An optional row limit, -1 or null means all rows
+   * @return
+   */
+  private IPentahoResultSet executeSharedQuery( final MetadataQueryComponent dataComponent,
+                                                org.pentaho.metadata.query.model.Query query, String mql,
+                                                final Integer rowLimit ) {
+    LogicalModel model = query.getLogicalModel();
+    final String domainId = query.getDomain().getId();
+    final String key = QueryResultCache.createKey( domainId, model.getId(), mql, rowLimit,
+      QueryResultCache.getSecurityIdentity( model ) );
+    final QueryResultCache cache = QueryResultCache.getInstance();
+    final boolean cacheable = cache.isEnabled() && QueryResultCache.isCacheable( model );
+    final long version = cache.getVersion( domainId );
+    final String connection = QueryBulkhead.getConnectionKey( query );
+    if ( cacheable ) {
+      IPentahoResultSet resultSet = cache.getResultSet( domainId, key );
+      if ( resultSet != null ) {
+        QueryMetrics.getInstance().setRows( resultSet.getRowCount() );
+        return resultSet;
+      }
+    }
+    return QueryCoalescer.getInstance().execute( key, () -> {
+      IPentahoResultSet resultSet = executeQuery( dataComponent, connection, rowLimit, false );
+      if ( resultSet == null ) {
+        return null;
+      }
+      QueryResultCache.CachedResult result = new QueryResultCache.CachedResult( resultSet );
+      if ( cacheable ) {
+        cache.put( domainId, key, version, result );
+      }
+      return result;
+    } );
+  }
+
+  /**
+   * Executes a query once the {@link QueryBulkhead} admits it. A live result set gives its slot back when the statement
+   * has been executed, not when the result set is closed. A query that runs as a {@link QueryJobManager} job is read
+   * through a live result set and copied into memory, so cancelling the job stops the copy. The component does not give
+   * access to the statement while it executes, so a job cancelled before its query returns waits for the database.
+   *
+   * @param dataComponent the component to execute the query with
+   * @param connection    the connection the query runs against, or null if it is not known
+   * @param rowLimit      An optional row limit, -1 or null means all rows
+   * @param live          true to return a live, forward-only result set instead of an in-memory copy
+   * @return
+   * @throws QueryRejectedException if the connection is too busy to run the query
+   */
+  private IPentahoResultSet executeQuery( final MetadataQueryComponent dataComponent, String connection,
+                                          final Integer rowLimit, final boolean live ) {
+    return QueryBulkhead.getInstance().execute( connection, () -> {
+      boolean cancellable = !live && QueryJobManager.isJobThread();
+      dataComponent.setLive( live || cancellable );
+      dataComponent.setUseForwardOnlyResultSet( true );
+      if ( rowLimit != null && rowLimit > -1 ) {
+        // set the row limit
+        dataComponent.setMaxRows( rowLimit );
+      }
+      QueryMetrics metrics = QueryMetrics.getInstance();
+      long start = System.nanoTime();
+      boolean executed = dataComponent.execute();
+      metrics.record( QueryMetrics.Phase.EXECUTE, start );
+      if ( executed ) {
+        IPentahoResultSet resultSet = dataComponent.getResultSet();
+        if ( cancellable && resultSet != null ) {
+          resultSet = copyCancellable( resultSet );
+        }
+        if ( !live && resultSet != null ) {
+          metrics.setRows( resultSet.getRowCount() );
+        }
+        return resultSet;
+      }
+      return null;
+    } );
+  }
+
+  /**
+   * Copies a live result set into memory, closing its connection if the job that runs the query is cancelled so the
+   * copy stops fetching rows
+   */
+  private IPentahoResultSet copyCancellable( final IPentahoResultSet liveResultSet ) {
+    QueryJobManager.onCancel( liveResultSet::closeConnection );
+    try {
+      return liveResultSet.memoryCopy();
+    } finally {
+      liveResultSet.closeConnection();
+    }
+  }
+
+  /**
+   * Converts a JSON query into a full Query object by going via a thin Query object
+   *
+   * @param json
+   * @return
+   */
+  protected String getQueryXmlFromJson( String json ) {
+    org.pentaho.metadata.query.model.Query fullQuery = getQueryFromJson( json );
+    if ( fullQuery == null ) {
+      return null;
+    }
+    // get the XML for the query
+    QueryXmlHelper helper = new QueryXmlHelper();
+    return helper.toXML( fullQuery );
+  }
+
+  /**
+   * Converts a JSON query into a full Query object by going via a thin Query object. The structure of the query is
+   * compiled once and reused by later queries that only differ in their parameter values.
+   *
+   * @param json
+   * @return
+   */
+  protected org.pentaho.metadata.query.model.Query getQueryFromJson( String json ) {
+    MetadataServiceUtil util = getMetadataServiceUtil();
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    long start = System.nanoTime();
+    Query query = util.deserializeJsonQuery( json );
+    if ( query == null ) {
+      return null;
+    }
+    metrics.record( QueryMetrics.Phase.PARSE, start );
+    try {
+      // convert the thin query model into a full one
+      start = System.nanoTime();
+      org.pentaho.metadata.query.model.Query fullQuery = util.compileQuery( query );
+      metrics.record( QueryMetrics.Phase.CONVERT, start );
+      // the model is recorded once it has been resolved
+      metrics.setQuery( fullQuery );
+      return fullQuery;
+    } catch ( Exception e ) {
+      error( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ), e ); //$NON-NLS-1$
+    }
+    return null;
+  }
+
+  /**
+   * Copies a result set into a serializable one, and records the time it took in the metrics of the current request
+   *
+   * @param resultSet
+   * @return
+   */
+  private MarshallableResultSet marshal( IPentahoResultSet resultSet ) {
+    long start = System.nanoTime();
+    MarshallableResultSet result = getMarshallableResultSet();
+    result.setResultSet( resultSet );
+    QueryMetrics.getInstance().record( QueryMetrics.Phase.MARSHAL, start );
+    return result;
+  }
+
+  /**
+   * Records the serialization of the result of the current request
+   *
+   * @param start  the value of {@link System#nanoTime()} when the serialization started
+   * @param result the serialized result
+   */
+  private void recordSerialization( long start, String result ) {
+    QueryMetrics metrics = QueryMetrics.getInstance();
+    metrics.record( QueryMetrics.Phase.SERIALIZE, start );
+    metrics.addBytes( QueryMetrics.getUtf8Length( result ) );
+  }
+
+  /**
+   * Records the serialization of a streamed result in the trace of its request
+   *
+   * @param trace the trace detached from the request, may be null
+   * @param start the value of {@link System#nanoTime()} when the serialization started
+   * @param rows  the number of rows written
+   * @param bytes the number of bytes written
+   */
+  private static void recordSerialization( QueryMetrics.Trace trace, long start, int rows, long bytes ) {
+    if ( trace != null ) {
+      trace.record( QueryMetrics.Phase.SERIALIZE, start );
+      trace.setRows( rows );
+      trace.addBytes( bytes );
     }
-    return null;
   }
 
   /**
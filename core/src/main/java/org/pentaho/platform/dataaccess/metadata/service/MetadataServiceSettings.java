@@ -0,0 +1,334 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+
+/**
+ * Reads the metadata service tuning options from the data access plugin settings.xml
+ */
+public class MetadataServiceSettings {
+
+  private static final String SETTINGS_FILE = "data-access/settings.xml"; //$NON-NLS-1$
+  private static final String THIN_MODEL_CACHE_SIZE = "data-access-thin-model-cache-size"; //$NON-NLS-1$
+  private static final String COMPILED_QUERY_CACHE_SIZE = "data-access-compiled-query-cache-size"; //$NON-NLS-1$
+  private static final String QUERY_RESULT_CACHE_SIZE = "data-access-query-result-cache-mb"; //$NON-NLS-1$
+  private static final String QUERY_RESULT_CACHE_TTL = "data-access-query-result-cache-ttl"; //$NON-NLS-1$
+  private static final String QUERY_CURSOR_IDLE_TIMEOUT = "data-access-query-cursor-idle-timeout"; //$NON-NLS-1$
+  private static final String QUERY_CURSOR_MAX_PER_USER = "data-access-query-cursor-max-per-user"; //$NON-NLS-1$
+  private static final String MODEL_INDEX_SIZE = "data-access-model-index-size"; //$NON-NLS-1$
+  private static final String MODEL_INDEX_TTL = "data-access-model-index-ttl"; //$NON-NLS-1$
+  private static final String QUERY_JOB_THREADS = "data-access-query-job-threads"; //$NON-NLS-1$
+  private static final String QUERY_JOB_QUEUE_SIZE = "data-access-query-job-queue-size"; //$NON-NLS-1$
+  private static final String QUERY_JOB_MAX_PER_USER = "data-access-query-job-max-per-user"; //$NON-NLS-1$
+  private static final String QUERY_JOB_MAX_PER_SESSION = "data-access-query-job-max-per-session"; //$NON-NLS-1$
+  private static final String QUERY_JOB_TTL = "data-access-query-job-ttl"; //$NON-NLS-1$
+  private static final String QUERY_COALESCING = "data-access-query-coalescing"; //$NON-NLS-1$
+  private static final String QUERY_BATCH_THREADS = "data-access-query-batch-threads"; //$NON-NLS-1$
+  private static final String QUERY_BATCH_MAX_SIZE = "data-access-query-batch-max-size"; //$NON-NLS-1$
+  private static final String QUERY_BULKHEAD_MAX_CONCURRENT =
+    "data-access-query-connection-max-concurrent"; //$NON-NLS-1$
+  private static final String QUERY_BULKHEAD_MAX_WAITING = "data-access-query-connection-max-waiting"; //$NON-NLS-1$
+  private static final String QUERY_BULKHEAD_WAIT_TIMEOUT = "data-access-query-connection-wait-timeout"; //$NON-NLS-1$
+  private static final String QUERY_BULKHEAD_RETRY_AFTER = "data-access-query-connection-retry-after"; //$NON-NLS-1$
+  private static final String QUERY_METRICS = "data-access-query-metrics"; //$NON-NLS-1$
+  private static final String SLOW_QUERY_THRESHOLD = "data-access-slow-query-threshold"; //$NON-NLS-1$
+  private static final String MATERIALIZED_QUERY_THREADS = "data-access-materialized-query-threads"; //$NON-NLS-1$
+  private static final String MATERIALIZED_QUERY_MIN_INTERVAL =
+    "data-access-materialized-query-min-interval"; //$NON-NLS-1$
+
+  private static final int DEFAULT_THIN_MODEL_CACHE_SIZE = 500;
+  private static final int DEFAULT_COMPILED_QUERY_CACHE_SIZE = 1000;
+  private static final int DEFAULT_QUERY_RESULT_CACHE_SIZE = 0;
+  private static final int DEFAULT_QUERY_RESULT_CACHE_TTL = 300;
+  private static final int DEFAULT_QUERY_CURSOR_IDLE_TIMEOUT = 300;
+  private static final int DEFAULT_QUERY_CURSOR_MAX_PER_USER = 5;
+  private static final int DEFAULT_MODEL_INDEX_SIZE = 5000;
+  private static final int DEFAULT_MODEL_INDEX_TTL = 60;
+  private static final int DEFAULT_QUERY_JOB_THREADS = 4;
+  private static final int DEFAULT_QUERY_JOB_QUEUE_SIZE = 100;
+  private static final int DEFAULT_QUERY_JOB_MAX_PER_USER = 2;
+  private static final int DEFAULT_QUERY_JOB_MAX_PER_SESSION = 10;
+  private static final int DEFAULT_QUERY_JOB_TTL = 600;
+  private static final boolean DEFAULT_QUERY_COALESCING = false;
+  private static final int DEFAULT_QUERY_BATCH_THREADS = 8;
+  private static final int DEFAULT_QUERY_BATCH_MAX_SIZE = 50;
+  private static final int DEFAULT_QUERY_BULKHEAD_MAX_CONCURRENT = 0;
+  private static final int DEFAULT_QUERY_BULKHEAD_MAX_WAITING = 20;
+  private static final int DEFAULT_QUERY_BULKHEAD_WAIT_TIMEOUT = 30;
+  private static final int DEFAULT_QUERY_BULKHEAD_RETRY_AFTER = 5;
+  private static final boolean DEFAULT_QUERY_METRICS = true;
+  private static final int DEFAULT_SLOW_QUERY_THRESHOLD = 0;
+  private static final int DEFAULT_MATERIALIZED_QUERY_THREADS = 1;
+  private static final int DEFAULT_MATERIALIZED_QUERY_MIN_INTERVAL = 60;
+
+  private static final Log logger = LogFactory.getLog( MetadataServiceSettings.class );
+
+  private MetadataServiceSettings() {
+  }
+
+  /**
+   * Returns the maximum number of thin models kept by the {@link ThinModelCache}, 0 disables the cache
+   *
+   * @return
+   */
+  public static int getThinModelCacheSize() {
+    return getIntSetting( THIN_MODEL_CACHE_SIZE, DEFAULT_THIN_MODEL_CACHE_SIZE );
+  }
+
+  /**
+   * Returns the maximum number of compiled queries kept by the {@link CompiledQueryCache}, 0 disables the cache
+   *
+   * @return
+   */
+  public static int getCompiledQueryCacheSize() {
+    return getIntSetting( COMPILED_QUERY_CACHE_SIZE, DEFAULT_COMPILED_QUERY_CACHE_SIZE );
+  }
+
+  /**
+   * Returns the maximum size in megabytes of the query results kept by the {@link QueryResultCache}, 0 (the default)
+   * disables the cache
+   *
+   * @return
+   */
+  public static int getQueryResultCacheSize() {
+    return getIntSetting( QUERY_RESULT_CACHE_SIZE, DEFAULT_QUERY_RESULT_CACHE_SIZE );
+  }
+
+  /**
+   * Returns the number of seconds a query result is kept by the {@link QueryResultCache}
+   *
+   * @return
+   */
+  public static int getQueryResultCacheTtl() {
+    return getIntSetting( QUERY_RESULT_CACHE_TTL, DEFAULT_QUERY_RESULT_CACHE_TTL );
+  }
+
+  /**
+   * Returns the number of seconds after which a paged query cursor that has not been read is closed
+   *
+   * @return
+   */
+  public static int getQueryCursorIdleTimeout() {
+    return getIntSetting( QUERY_CURSOR_IDLE_TIMEOUT, DEFAULT_QUERY_CURSOR_IDLE_TIMEOUT );
+  }
+
+  /**
+   * Returns the maximum number of paged query cursors a user can keep open
+   *
+   * @return
+   */
+  public static int getQueryCursorMaxPerUser() {
+    return getIntSetting( QUERY_CURSOR_MAX_PER_USER, DEFAULT_QUERY_CURSOR_MAX_PER_USER );
+  }
+
+  /**
+   * Returns the maximum number of domains kept by the {@link ModelVisibilityIndex}, 0 disables the index
+   *
+   * @return
+   */
+  public static int getModelIndexSize() {
+    return getIntSetting( MODEL_INDEX_SIZE, DEFAULT_MODEL_INDEX_SIZE );
+  }
+
+  /**
+   * Returns the number of seconds the {@link ModelVisibilityIndex} remembers whether a user can read a domain, 60 by
+   * default, 0 to remember it until the domain or its access control list changes
+   *
+   * @return
+   */
+  public static int getModelIndexTtl() {
+    return getIntSetting( MODEL_INDEX_TTL, DEFAULT_MODEL_INDEX_TTL );
+  }
+
+  /**
+   * Returns the number of asynchronous queries that run at the same time
+   *
+   * @return
+   */
+  public static int getQueryJobThreads() {
+    return Math.max( 1, getIntSetting( QUERY_JOB_THREADS, DEFAULT_QUERY_JOB_THREADS ) );
+  }
+
+  /**
+   * Returns the number of asynchronous queries that can wait for a thread
+   *
+   * @return
+   */
+  public static int getQueryJobQueueSize() {
+    return getIntSetting( QUERY_JOB_QUEUE_SIZE, DEFAULT_QUERY_JOB_QUEUE_SIZE );
+  }
+
+  /**
+   * Returns the number of queued or running asynchronous queries a user can have
+   *
+   * @return
+   */
+  public static int getQueryJobMaxPerUser() {
+    return getIntSetting( QUERY_JOB_MAX_PER_USER, DEFAULT_QUERY_JOB_MAX_PER_USER );
+  }
+
+  /**
+   * Returns the number of asynchronous queries, finished or not, a session keeps; a new query drops the results of the
+   * oldest finished ones
+   *
+   * @return
+   */
+  public static int getQueryJobMaxPerSession() {
+    return getIntSetting( QUERY_JOB_MAX_PER_SESSION, DEFAULT_QUERY_JOB_MAX_PER_SESSION );
+  }
+
+  /**
+   * Returns the number of seconds the result of a finished asynchronous query is kept
+   *
+   * @return
+   */
+  public static int getQueryJobTtl() {
+    return getIntSetting( QUERY_JOB_TTL, DEFAULT_QUERY_JOB_TTL );
+  }
+
+  /**
+   * Returns whether identical metadata queries that run at the same time share one execution, see
+   * {@link QueryCoalescer}; false by default
+   *
+   * @return
+   */
+  public static boolean isQueryCoalescingEnabled() {
+    return getBooleanSetting( QUERY_COALESCING, DEFAULT_QUERY_COALESCING );
+  }
+
+  /**
+   * Returns the number of queries of batch requests that run at the same time on the {@link QueryBatchExecutor}
+   *
+   * @return
+   */
+  public static int getQueryBatchThreads() {
+    return Math.max( 1, getIntSetting( QUERY_BATCH_THREADS, DEFAULT_QUERY_BATCH_THREADS ) );
+  }
+
+  /**
+   * Returns the maximum number of queries in a batch request
+   *
+   * @return
+   */
+  public static int getQueryBatchMaxSize() {
+    return getIntSetting( QUERY_BATCH_MAX_SIZE, DEFAULT_QUERY_BATCH_MAX_SIZE );
+  }
+
+  /**
+   * Returns the number of metadata queries that run at the same time against a database connection, see
+   * {@link QueryBulkhead}. 0 (the default) disables the limit.
+   *
+   * @return
+   */
+  public static int getQueryBulkheadMaxConcurrent() {
+    return getIntSetting( QUERY_BULKHEAD_MAX_CONCURRENT, DEFAULT_QUERY_BULKHEAD_MAX_CONCURRENT );
+  }
+
+  /**
+   * Returns the number of metadata queries that can wait for a busy database connection
+   *
+   * @return
+   */
+  public static int getQueryBulkheadMaxWaiting() {
+    return getIntSetting( QUERY_BULKHEAD_MAX_WAITING, DEFAULT_QUERY_BULKHEAD_MAX_WAITING );
+  }
+
+  /**
+   * Returns the number of seconds a metadata query waits for a busy database connection before it is rejected
+   *
+   * @return
+   */
+  public static int getQueryBulkheadWaitTimeout() {
+    return getIntSetting( QUERY_BULKHEAD_WAIT_TIMEOUT, DEFAULT_QUERY_BULKHEAD_WAIT_TIMEOUT );
+  }
+
+  /**
+   * Returns the number of seconds after which the client of a rejected metadata query is told to try again
+   *
+   * @return
+   */
+  public static int getQueryBulkheadRetryAfter() {
+    return getIntSetting( QUERY_BULKHEAD_RETRY_AFTER, DEFAULT_QUERY_BULKHEAD_RETRY_AFTER );
+  }
+
+  /**
+   * Returns whether the phases of metadata queries are measured, see {@link QueryMetrics}
+   *
+   * @return
+   */
+  public static boolean isQueryMetricsEnabled() {
+    return getBooleanSetting( QUERY_METRICS, DEFAULT_QUERY_METRICS );
+  }
+
+  /**
+   * Returns the number of milliseconds after which a metadata query is written to the slow query log. 0 (the default)
+   * disables the log.
+   *
+   * @return
+   */
+  public static int getSlowQueryThreshold() {
+    return getIntSetting( SLOW_QUERY_THRESHOLD, DEFAULT_SLOW_QUERY_THRESHOLD );
+  }
+
+  /**
+   * Returns the number of threads that refresh the {@link MaterializedQueryManager materialized queries}, 0 disables
+   * materialized queries
+   *
+   * @return
+   */
+  public static int getMaterializedQueryThreads() {
+    return getIntSetting( MATERIALIZED_QUERY_THREADS, DEFAULT_MATERIALIZED_QUERY_THREADS );
+  }
+
+  /**
+   * Returns the minimum number of seconds between two scheduled refreshes of a materialized query
+   *
+   * @return
+   */
+  public static int getMaterializedQueryMinInterval() {
+    return getIntSetting( MATERIALIZED_QUERY_MIN_INTERVAL, DEFAULT_MATERIALIZED_QUERY_MIN_INTERVAL );
+  }
+
+  protected static boolean getBooleanSetting( String name, boolean defaultValue ) {
+    String value = getSetting( name );
+    if ( value == null || value.trim().length() == 0 ) {
+      return defaultValue;
+    }
+    return Boolean.parseBoolean( value.trim() );
+  }
+
+  protected static int getIntSetting( String name, int defaultValue ) {
+    String value = getSetting( name );
+    if ( value == null || value.trim().length() == 0 ) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt( value.trim() );
+    } catch ( NumberFormatException e ) {
+      logger.warn( "Invalid value '" + value + "' for setting " + name + ", using " + defaultValue ); //$NON-NLS-1$
+      return defaultValue;
+    }
+  }
+
+  private static String getSetting( String name ) {
+    try {
+      return PentahoSystem.getSystemSetting( SETTINGS_FILE, name, null );
+    } catch ( Exception e ) {
+      logger.debug( "Error getting data access setting " + name, e ); //$NON-NLS-1$
+      return null;
+    }
+  }
+}
@@ -13,19 +13,30 @@
 
 package org.pentaho.platform.dataaccess.metadata.service;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.pentaho.commons.connection.IPentahoMetaData;
 import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.metadata.model.Domain;
 import org.pentaho.metadata.model.IPhysicalColumn;
 import org.pentaho.metadata.model.LogicalColumn;
 import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.LogicalTable;
 import org.pentaho.metadata.model.concept.Concept;
 import org.pentaho.metadata.model.concept.types.AggregationType;
 import org.pentaho.metadata.model.concept.types.Alignment;
@@ -53,8 +64,6 @@ import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.util.messages.LocaleHelper;
 import org.pentaho.pms.core.exception.PentahoMetadataException;
 
-import flexjson.JSONDeserializer;
-
 /**
  * This class provides utility functions used by the MetadataService
  *
@@ -70,6 +79,23 @@ public class MetadataServiceUtil extends PentahoBase {
 
   private org.pentaho.metadata.model.Domain domain;
 
+  /**
+   * Models with at least this many columns build their categories in parallel
+   */
+  static final int PARALLEL_COLUMN_THRESHOLD = 2000;
+
+  /**
+   * The aggregation names of columns, by default aggregation and list of possible aggregations
+   */
+  private static final Map<AggregationType, Map<List<AggregationType>, String[]>> AGG_TYPES =
+    new EnumMap<AggregationType, Map<List<AggregationType>, String[]>>( AggregationType.class );
+
+  static {
+    for ( AggregationType aggType : AggregationType.values() ) {
+      AGG_TYPES.put( aggType, new ConcurrentHashMap<List<AggregationType>, String[]>() );
+    }
+  }
+
   /**
    * Returns the full domain object used by this class
    *
@@ -109,40 +135,61 @@ public class MetadataServiceUtil extends PentahoBase {
    * @return
    */
   public Model createThinModel( LogicalModel m, String domainId ) {
+    // resolve the locale once, it is the same for every element of the model
+    final String locale = getLocale();
+
     // create the model object
     Model model = new Model();
-    model.setName( m.getName( getLocale() ) );
+    model.setName( m.getName( locale ) );
     model.setId( m.getId() );
     model.setDomainId( domainId );
-    model.setDescription( m.getDescription( getLocale() ) );
+    model.setDescription( m.getDescription( locale ) );
     // add the categories to the model
-    List<Category> categories = new ArrayList<Category>();
-    for ( org.pentaho.metadata.model.Category cat : m.getCategories() ) {
-      categories.add( createCategory( m, cat ) );
+    List<org.pentaho.metadata.model.Category> fullCategories = m.getCategories();
+    Category[] categories;
+    if ( countColumns( fullCategories ) >= PARALLEL_COLUMN_THRESHOLD ) {
+      // very wide models are built one category per task, the order of the categories is kept
+      categories = fullCategories.parallelStream().map( cat -> createCategory( m, cat, locale ) )
+        .toArray( Category[]::new );
+    } else {
+      categories = new Category[ fullCategories.size() ];
+      for ( int i = 0; i < categories.length; i++ ) {
+        categories[ i ] = createCategory( m, fullCategories.get( i ), locale );
+      }
     }
-    model.setCategories( categories.toArray( new Category[ categories.size() ] ) );
+    model.setCategories( categories );
 
     return model;
 
   }
 
+  private static int countColumns( List<org.pentaho.metadata.model.Category> categories ) {
+    int count = 0;
+    for ( org.pentaho.metadata.model.Category cat : categories ) {
+      count += cat.getLogicalColumns().size();
+    }
+    return count;
+  }
+
   /**
    * Creates a lightweight, serializable category objects from a logical model category
    *
    * @param m
    * @param c
+   * @param locale
    * @return
    */
-  private Category createCategory( LogicalModel m, org.pentaho.metadata.model.Category c ) {
+  private Category createCategory( LogicalModel m, org.pentaho.metadata.model.Category c, String locale ) {
     // create a thin category object
     Category cat = new Category();
-    cat.setName( c.getName( getLocale() ) );
+    cat.setName( c.getName( locale ) );
     cat.setId( c.getId() );
-    List<Column> columns = new ArrayList<Column>();
-    for ( LogicalColumn col : c.getLogicalColumns() ) {
-      columns.add( createColumn( m, col, c ) );
+    List<LogicalColumn> logicalColumns = c.getLogicalColumns();
+    Column[] columns = new Column[ logicalColumns.size() ];
+    for ( int i = 0; i < columns.length; i++ ) {
+      columns[ i ] = createColumn( m, logicalColumns.get( i ), c, locale );
     }
-    cat.setColumns( columns.toArray( new Column[ columns.size() ] ) );
+    cat.setColumns( columns );
 
     return cat;
   }
@@ -152,11 +199,13 @@ public class MetadataServiceUtil extends PentahoBase {
    *
    * @param m
    * @param c
+   * @param locale
    * @return
    */
-  private Column createColumn( LogicalModel m, LogicalColumn c, org.pentaho.metadata.model.Category category ) {
+  private Column createColumn( LogicalModel m, LogicalColumn c, org.pentaho.metadata.model.Category category,
+                               String locale ) {
     Column col = new Column();
-    col.setName( c.getName( getLocale() ) );
+    col.setName( c.getName( locale ) );
     col.setId( c.getId() );
     if ( c.getFieldType() != null ) {
       col.setFieldType( c.getFieldType().name() );
@@ -167,24 +216,11 @@ public class MetadataServiceUtil extends PentahoBase {
     col.setType( c.getDataType().getName().toUpperCase() );
     col.setCategory( category.getId() );
     // set the aggregation fields for the column
-    List<AggregationType> possibleAggs = c.getAggregationList();
-    List<String> aggTypes = new ArrayList<String>();
-    if ( possibleAggs != null ) {
-      for ( AggregationType agg : possibleAggs ) {
-        aggTypes.add( agg.name() );
-      }
-    }
-
-    // There might be a default agg, but no agg list. If so, add it to the list.
-
     AggregationType defaultAggType = AggregationType.NONE;
     if ( c.getAggregationType() != null ) {
       defaultAggType = c.getAggregationType();
     }
-    if ( !aggTypes.contains( defaultAggType ) ) {
-      aggTypes.add( defaultAggType.name() );
-    }
-    col.setAggTypes( aggTypes.toArray( new String[ aggTypes.size() ] ) );
+    col.setAggTypes( getAggTypes( c.getAggregationList(), defaultAggType ) );
     col.setDefaultAggType( defaultAggType.name() );
     col.setSelectedAggType( defaultAggType.name() );
 
@@ -215,6 +251,33 @@ public class MetadataServiceUtil extends PentahoBase {
     return col;
   }
 
+  /**
+   * Returns the names of the aggregations of a column: the possible aggregations followed by the default one. The names
+   * are built once for the same aggregations, and every column gets a copy of its own.
+   *
+   * @param possibleAggs
+   * @param defaultAggType
+   * @return
+   */
+  static String[] getAggTypes( List<AggregationType> possibleAggs, AggregationType defaultAggType ) {
+    List<AggregationType> key = possibleAggs == null ? Collections.<AggregationType>emptyList() : possibleAggs;
+    Map<List<AggregationType>, String[]> aggTypesByList = AGG_TYPES.get( defaultAggType );
+    String[] aggTypes = aggTypesByList.get( key );
+    if ( aggTypes == null ) {
+      aggTypes = new String[ key.size() + 1 ];
+      for ( int i = 0; i < key.size(); i++ ) {
+        aggTypes[ i ] = key.get( i ).name();
+      }
+      // There might be a default agg, but no agg list, so the default is always added to the list.
+      aggTypes[ key.size() ] = defaultAggType.name();
+      String[] existing = aggTypesByList.putIfAbsent( new ArrayList<AggregationType>( key ), aggTypes );
+      if ( existing != null ) {
+        aggTypes = existing;
+      }
+    }
+    return aggTypes.clone();
+  }
+
   /**
    * Returns a CDA JSON representation of a query result set
    *
@@ -262,6 +325,186 @@ public class MetadataServiceUtil extends PentahoBase {
     return json.toString();
   }
 
+  /**
+   * Writes a CDA JSON representation of a query result set to the writer. Unlike {@link #createCdaJson}, the rows
+   * are read from the result set with {@link IPentahoResultSet#next()} and written one at a time, so the result set
+   * can be a live, forward-only one and is never held in memory as a whole.
+   *
+   * @param resultSet
+   * @param locale
+   * @param writer
+   * @return the number of rows written
+   * @throws IOException
+   * @throws JSONException
+   */
+  public int writeCdaJson( final IPentahoResultSet resultSet, String locale, Writer writer )
+    throws IOException, JSONException {
+    if ( resultSet == null ) {
+      return 0;
+    }
+    final IPentahoMetaData metaData = resultSet.getMetaData();
+    final int columnCount = resultSet.getColumnCount();
+
+    // Generate the metadata
+    writer.write( "{\"metadata\":[" ); //$NON-NLS-1$
+    for ( int i = 0; i < columnCount; i++ ) {
+      if ( i > 0 ) {
+        writer.write( ',' );
+      }
+      writer.write( "{\"colName\":" ); //$NON-NLS-1$
+      writer.write( JSONObject.valueToString( metaData.getColumnHeaders()[ 0 ][ i ] ) );
+      DataType type = (DataType) metaData.getAttribute( 0, i, IPhysicalColumn.DATATYPE_PROPERTY );
+      writer.write( ",\"colType\":" ); //$NON-NLS-1$
+      writer.write( JSONObject.quote( type.getName().toUpperCase() ) );
+      writer.write( ",\"colIndex\":" ); //$NON-NLS-1$
+      writer.write( Integer.toString( i ) );
+      LocalizedString name = (LocalizedString) metaData.getAttribute( 0, i, Concept.NAME_PROPERTY );
+      if ( name != null && locale != null && name.getString( locale ) != null ) {
+        writer.write( ",\"colLabel\":" ); //$NON-NLS-1$
+        writer.write( JSONObject.quote( name.getString( locale ) ) );
+      }
+      writer.write( '}' );
+    }
+    writer.write( "],\"resultset\":[" ); //$NON-NLS-1$
+    // let the client see the metadata before the first row is fetched
+    writer.flush();
+
+    // add the rows of data
+    int rowCount = 0;
+    Object[] row = resultSet.next();
+    boolean firstRow = true;
+    while ( row != null ) {
+      if ( !firstRow ) {
+        writer.write( ',' );
+      }
+      firstRow = false;
+      writer.write( '[' );
+      for ( int colIdx = 0; colIdx < columnCount; colIdx++ ) {
+        if ( colIdx > 0 ) {
+          writer.write( ',' );
+        }
+        writer.write( JSONObject.valueToString( row[ colIdx ] ) );
+      }
+      writer.write( ']' );
+      rowCount++;
+      row = resultSet.next();
+    }
+    writer.write( "]}" ); //$NON-NLS-1$
+    writer.flush();
+    return rowCount;
+  }
+
+  /**
+   * Writes a query result set to the writer as CSV (RFC 4180), with a header line of column names. The rows are read
+   * with {@link IPentahoResultSet#next()} and written one at a time. Null values are written as empty fields and dates
+   * as ISO-8601 instants.
+   *
+   * @param resultSet
+   * @param writer
+   * @return the number of rows written
+   * @throws IOException
+   */
+  public int writeCsv( final IPentahoResultSet resultSet, Writer writer ) throws IOException {
+    if ( resultSet == null ) {
+      return 0;
+    }
+    final int columnCount = resultSet.getColumnCount();
+    Object[] headers = resultSet.getMetaData().getColumnHeaders()[ 0 ];
+    for ( int i = 0; i < columnCount; i++ ) {
+      if ( i > 0 ) {
+        writer.write( ',' );
+      }
+      writeCsvField( headers[ i ], writer );
+    }
+    writer.write( "\r\n" ); //$NON-NLS-1$
+    writer.flush();
+
+    int rowCount = 0;
+    Object[] row = resultSet.next();
+    while ( row != null ) {
+      for ( int colIdx = 0; colIdx < columnCount; colIdx++ ) {
+        if ( colIdx > 0 ) {
+          writer.write( ',' );
+        }
+        writeCsvField( row[ colIdx ], writer );
+      }
+      writer.write( "\r\n" ); //$NON-NLS-1$
+      rowCount++;
+      row = resultSet.next();
+    }
+    writer.flush();
+    return rowCount;
+  }
+
+  /**
+   * Writes a query result set to the writer as newline delimited JSON, one object per row keyed by the column names.
+   * The rows are read with {@link IPentahoResultSet#next()} and written one at a time. Dates are written as ISO-8601
+   * instants.
+   *
+   * @param resultSet
+   * @param writer
+   * @return the number of rows written
+   * @throws IOException
+   * @throws JSONException
+   */
+  public int writeNdjson( final IPentahoResultSet resultSet, Writer writer ) throws IOException, JSONException {
+    if ( resultSet == null ) {
+      return 0;
+    }
+    final int columnCount = resultSet.getColumnCount();
+    Object[] headers = resultSet.getMetaData().getColumnHeaders()[ 0 ];
+    String[] keys = new String[ columnCount ];
+    for ( int i = 0; i < columnCount; i++ ) {
+      keys[ i ] = JSONObject.quote( String.valueOf( headers[ i ] ) ) + ':';
+    }
+
+    int rowCount = 0;
+    Object[] row = resultSet.next();
+    while ( row != null ) {
+      writer.write( '{' );
+      for ( int colIdx = 0; colIdx < columnCount; colIdx++ ) {
+        if ( colIdx > 0 ) {
+          writer.write( ',' );
+        }
+        writer.write( keys[ colIdx ] );
+        Object value = row[ colIdx ];
+        if ( value instanceof Date ) {
+          writer.write( JSONObject.quote( formatDate( (Date) value ) ) );
+        } else {
+          writer.write( JSONObject.valueToString( value ) );
+        }
+      }
+      writer.write( "}\n" ); //$NON-NLS-1$
+      rowCount++;
+      row = resultSet.next();
+    }
+    writer.flush();
+    return rowCount;
+  }
+
+  private static void writeCsvField( Object value, Writer writer ) throws IOException {
+    if ( value == null ) {
+      return;
+    }
+    String text = value instanceof Date ? formatDate( (Date) value ) : value.toString();
+    boolean quote = false;
+    for ( int i = 0; i < text.length() && !quote; i++ ) {
+      char c = text.charAt( i );
+      quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+    }
+    if ( !quote ) {
+      writer.write( text );
+      return;
+    }
+    writer.write( '"' );
+    writer.write( text.replace( "\"", "\"\"" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    writer.write( '"' );
+  }
+
+  private static String formatDate( Date date ) {
+    return Instant.ofEpochMilli( date.getTime() ).toString();
+  }
+
   /**
    * Returns the full domain obejct for a XML MQL query
    *
@@ -289,20 +532,56 @@ public class MetadataServiceUtil extends PentahoBase {
     Domain fullDomain = domainRepository.getDomain( src.getDomainName() );
     LogicalModel logicalModel = fullDomain.findLogicalModel( src.getModelId() );
 
+    // index the columns, categories and parameters once, so the conversion is linear in the size of the query
+    Map<String, LogicalColumn> logicalColumns = new HashMap<String, LogicalColumn>();
+    for ( LogicalTable table : logicalModel.getLogicalTables() ) {
+      for ( LogicalColumn logicalColumn : table.getLogicalColumns() ) {
+        if ( !logicalColumns.containsKey( logicalColumn.getId() ) ) {
+          logicalColumns.put( logicalColumn.getId(), logicalColumn );
+        }
+      }
+    }
+    Map<String, org.pentaho.metadata.model.Category> categories =
+      new HashMap<String, org.pentaho.metadata.model.Category>();
+    for ( org.pentaho.metadata.model.Category category : logicalModel.getCategories() ) {
+      for ( LogicalColumn logicalColumn : category.getLogicalColumns() ) {
+        if ( !categories.containsKey( logicalColumn.getId() ) ) {
+          categories.put( logicalColumn.getId(), category );
+        }
+      }
+    }
+    // the last parameter of a column names the parameter of its conditions
+    Map<String, String> paramNames = new HashMap<String, String>();
+    for ( Parameter parameter : src.getParameters() ) {
+      paramNames.put( parameter.getColumn(), parameter.getName() == null ? parameter.getColumn() : parameter.getName() );
+    }
+
     // create a new full query object
     org.pentaho.metadata.query.model.Query dest =
       new org.pentaho.metadata.query.model.Query( fullDomain, logicalModel );
 
     // now add the selections
     List<Selection> selections = dest.getSelections();
+    Map<String, List<Selection>> selectionsByColumn = new HashMap<String, List<Selection>>();
     for ( Column column : src.getColumns() ) {
       // get the objects needed for the selection
-      LogicalColumn logicalColumn = logicalModel.findLogicalColumn( column.getId() );
-      org.pentaho.metadata.model.Category category = getCategory( column.getId(), logicalModel );
+      LogicalColumn logicalColumn = findLogicalColumn( column.getId(), logicalModel, logicalColumns );
+      org.pentaho.metadata.model.Category category = categories.get( column.getId() );
+      if ( category == null ) {
+        category = getCategory( column.getId(), logicalModel );
+      }
       AggregationType aggregationType = AggregationType.valueOf( column.getSelectedAggType() );
       // create a selection and add it to the list
       Selection selection = new Selection( category, logicalColumn, aggregationType );
       selections.add( selection );
+      if ( logicalColumn != null ) {
+        List<Selection> columnSelections = selectionsByColumn.get( logicalColumn.getId() );
+        if ( columnSelections == null ) {
+          columnSelections = new ArrayList<Selection>( 1 );
+          selectionsByColumn.put( logicalColumn.getId(), columnSelections );
+        }
+        columnSelections.add( selection );
+      }
     }
 
     // now add the filters
@@ -310,13 +589,8 @@ public class MetadataServiceUtil extends PentahoBase {
     for ( Condition condition : src.getConditions() ) {
       org.pentaho.metadata.query.model.CombinationType combinationType =
         CombinationType.valueOf( condition.getCombinationType() );
-      LogicalColumn logicalColumn = logicalModel.findLogicalColumn( condition.getColumn() );
-      String paramName = null;
-      for ( Parameter parameter : src.getParameters() ) {
-        if ( parameter.getColumn().equals( condition.getColumn() ) ) {
-          paramName = parameter.getName() == null ? parameter.getColumn() : parameter.getName();
-        }
-      }
+      LogicalColumn logicalColumn = findLogicalColumn( condition.getColumn(), logicalModel, logicalColumns );
+      String paramName = paramNames.get( condition.getColumn() );
       //      condition.setParameterized(parameterized);
       String formula = condition.getCondition( logicalColumn.getDataType().name(), paramName );
       Constraint constraint = new Constraint( combinationType, formula );
@@ -331,14 +605,16 @@ public class MetadataServiceUtil extends PentahoBase {
     // now add the sorting information
     List<org.pentaho.metadata.query.model.Order> orders = dest.getOrders();
     for ( Order order : src.getOrders() ) {
-      // find the selection
-      for ( Selection selection : selections ) {
-        if ( selection.getLogicalColumn().getId().equals( order.getColumn() ) ) {
-          Type type = Type.valueOf( order.getOrderType() );
-          org.pentaho.metadata.query.model.Order fullOrder =
-            new org.pentaho.metadata.query.model.Order( selection, type );
-          orders.add( fullOrder );
-        }
+      // find the selections of the column
+      List<Selection> columnSelections = selectionsByColumn.get( order.getColumn() );
+      if ( columnSelections == null ) {
+        continue;
+      }
+      for ( Selection selection : columnSelections ) {
+        Type type = Type.valueOf( order.getOrderType() );
+        org.pentaho.metadata.query.model.Order fullOrder =
+          new org.pentaho.metadata.query.model.Order( selection, type );
+        orders.add( fullOrder );
       }
     }
 
@@ -346,7 +622,7 @@ public class MetadataServiceUtil extends PentahoBase {
     List<org.pentaho.metadata.query.model.Parameter> parameters = dest.getParameters();
     for ( Parameter parameter : src.getParameters() ) {
       // find the column for this parameter
-      LogicalColumn logicalColumn = logicalModel.findLogicalColumn( parameter.getColumn() );
+      LogicalColumn logicalColumn = findLogicalColumn( parameter.getColumn(), logicalModel, logicalColumns );
       DataType type = logicalColumn.getDataType();
       String[] value = parameter.getValue();
       org.pentaho.metadata.query.model.Parameter fullParam =
@@ -356,6 +632,61 @@ public class MetadataServiceUtil extends PentahoBase {
     return dest;
   }
 
+  private static LogicalColumn findLogicalColumn( String columnId, LogicalModel logicalModel,
+                                                 Map<String, LogicalColumn> logicalColumns ) {
+    LogicalColumn logicalColumn = logicalColumns.get( columnId );
+    return logicalColumn != null ? logicalColumn : logicalModel.findLogicalColumn( columnId );
+  }
+
+  /**
+   * Converts a thin query model into a full query, reusing the selections, constraints and orders compiled for an
+   * earlier query with the same structure. Only the parameter values of the thin query are bound to the result.
+   *
+   * @param src
+   * @return
+   */
+  public org.pentaho.metadata.query.model.Query compileQuery( Query src ) {
+    // the domain lookup also checks that the current user can still access the domain
+    Domain domain = getMetadataRepository().getDomain( src.getDomainName() );
+    if ( domain == null ) {
+      throw new IllegalArgumentException( Messages.getErrorString( "MetadataService.ERROR_0005_DOMAIN_NOT_FOUND",
+        src.getDomainName() ) ); //$NON-NLS-1$
+    }
+    return compile( src, domain );
+  }
+
+  /**
+   * Compiles a thin query like {@link #compileQuery(Query)}, for a caller that has already loaded the domain of the
+   * query from the repository for the current user
+   *
+   * @param src
+   * @param domain the domain of the query, or null if it cannot be found or loaded
+   * @return
+   */
+  public org.pentaho.metadata.query.model.Query compileQuery( Query src, Domain domain ) {
+    if ( domain == null || !domain.getId().equals( src.getDomainName() ) ) {
+      throw new IllegalArgumentException( Messages.getErrorString( "MetadataService.ERROR_0005_DOMAIN_NOT_FOUND",
+        src.getDomainName() ) ); //$NON-NLS-1$
+    }
+    return compile( src, domain );
+  }
+
+  /**
+   * Compiles a thin query, or binds it to the query compiled for the same structure if that query was compiled from
+   * the given domain object. A domain the repository reloaded without the plugin being told is compiled again.
+   */
+  private org.pentaho.metadata.query.model.Query compile( Query src, Domain domain ) {
+    CompiledQueryCache cache = CompiledQueryCache.getInstance();
+    String fingerprint = CompiledQuery.fingerprint( src );
+    long version = cache.getVersion( src.getDomainName() );
+    CompiledQuery compiled = cache.get( src.getDomainName(), fingerprint );
+    if ( compiled == null || compiled.getDomain() != domain ) {
+      compiled = new CompiledQuery( convertQuery( src ) );
+      cache.put( src.getDomainName(), fingerprint, version, compiled );
+    }
+    return compiled.bind( src );
+  }
+
   /**
    * Returns the full category object for a given column within the logical model
    *
@@ -381,13 +712,7 @@ public class MetadataServiceUtil extends PentahoBase {
   public Query deserializeJsonQuery( String json ) {
     try {
       // convert the json query into a thin query model
-      ClassLoader oldLoader = Thread.currentThread().getContextClassLoader();
-      try {
-        Thread.currentThread().setContextClassLoader( getClass().getClassLoader() );
-        return new JSONDeserializer<Query>().deserialize( json );
-      } finally {
-        Thread.currentThread().setContextClassLoader( oldLoader );
-      }
+      return ThinModelJsonCodec.readQuery( json );
     } catch ( Exception e ) {
       error( Messages.getErrorString( "MetadataService.ERROR_0007_BAD_JSON", json ), e ); //$NON-NLS-1$
       return null;
@@ -0,0 +1,191 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.repository.IMetadataDomainRepository;
+
+/**
+ * An in-memory index of the logical models of the metadata domains and the contexts they are visible in, used to list
+ * the available models without loading and walking every domain on each request.
+ * <p>
+ * Domains are indexed the first time they are listed and dropped when they are stored or removed (see
+ * {@link MetadataDomainEvents}). Whether a user can read a domain is still decided by the repository; the answer is
+ * remembered per user, roles and domain until the domain or its access control list changes, so listing the models
+ * does not load every domain again, and a user whose roles changed is checked again. The time to live bounds how long
+ * an answer is kept, for domains and access control lists changed outside of the data access plugin; the domain is
+ * re-indexed if the repository returns a different domain object when the answer is refreshed.
+ */
+public class ModelVisibilityIndex {
+
+  /**
+   * The logical model property holding the comma separated list of contexts the model is visible in
+   */
+  public static final String VISIBLE_PROPERTY = "visible"; //$NON-NLS-1$
+
+  private static final ModelVisibilityIndex INSTANCE =
+    new ModelVisibilityIndex( MetadataServiceSettings.getModelIndexSize(),
+      MetadataServiceSettings.getModelIndexTtl() * 1000L );
+
+  private final DomainVersionedCache<String, DomainEntry> domains;
+
+  private final DomainVersionedCache<String, Boolean> access;
+
+  public static ModelVisibilityIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param maxDomains the maximum number of domains kept in the index, 0 disables the index
+   * @param accessTimeToLive the time in milliseconds the access of a user to a domain is remembered, 0 until the domain
+   *                         changes
+   */
+  public ModelVisibilityIndex( int maxDomains, long accessTimeToLive ) {
+    domains = new DomainVersionedCache<String, DomainEntry>( maxDomains, 0 );
+    access = new DomainVersionedCache<String, Boolean>( maxDomains * 20L, accessTimeToLive );
+  }
+
+  /**
+   * Returns the indexed models of a domain, indexing the domain if needed
+   *
+   * @param repo     the repository of the current user
+   * @param identity the current user and roles, see {@link QueryResultCache#getUserIdentity()}
+   * @param domainId
+   * @return the domain entry, or null if the domain does not exist or the user cannot read it
+   */
+  public DomainEntry getDomain( IMetadataDomainRepository repo, String identity, String domainId ) {
+    String accessKey =
+      ( identity == null ? "-" : identity.length() + ":" + identity ) + domainId; //$NON-NLS-1$ //$NON-NLS-2$
+    long version = domains.getVersion( domainId );
+    DomainEntry entry = domains.get( domainId, domainId );
+    Boolean canRead = access.get( domainId, accessKey );
+    if ( canRead != null && !canRead ) {
+      return null;
+    }
+    if ( canRead != null && entry != null ) {
+      return entry;
+    }
+
+    Domain domain = repo.getDomain( domainId );
+    access.put( domainId, accessKey, version, domain != null );
+    if ( domain == null ) {
+      return null;
+    }
+    if ( entry == null || entry.domain != domain ) {
+      entry = new DomainEntry( domain );
+      domains.put( domainId, domainId, version, entry );
+    }
+    return entry;
+  }
+
+  public void invalidate( String domainId ) {
+    domains.invalidate( domainId );
+    access.invalidate( domainId );
+  }
+
+  public void invalidateAll() {
+    domains.invalidateAll();
+    access.invalidateAll();
+  }
+
+  /**
+   * The indexed models of a domain
+   */
+  public static final class DomainEntry {
+    private final Domain domain;
+    private final String[] localeCodes;
+    private final List<ModelEntry> models;
+
+    DomainEntry( Domain domain ) {
+      this.domain = domain;
+      this.localeCodes = domain.getLocaleCodes();
+      List<ModelEntry> entries = new ArrayList<ModelEntry>();
+      for ( LogicalModel model : domain.getLogicalModels() ) {
+        entries.add( new ModelEntry( model ) );
+      }
+      this.models = Collections.unmodifiableList( entries );
+    }
+
+    public String getDomainId() {
+      return domain.getId();
+    }
+
+    public String[] getLocaleCodes() {
+      return localeCodes;
+    }
+
+    public List<ModelEntry> getModels() {
+      return models;
+    }
+  }
+
+  /**
+   * A logical model and the contexts it is visible in
+   */
+  public static final class ModelEntry {
+    private final LogicalModel model;
+    private final Set<String> contexts;
+    private final Set<String> trimmedContexts;
+
+    ModelEntry( LogicalModel model ) {
+      this.model = model;
+      String visible = (String) model.getProperty( VISIBLE_PROPERTY );
+      if ( visible == null ) {
+        contexts = null;
+        trimmedContexts = null;
+      } else {
+        contexts = new HashSet<String>();
+        trimmedContexts = new HashSet<String>();
+        for ( String context : visible.split( "," ) ) { //$NON-NLS-1$
+          contexts.add( context );
+          if ( StringUtils.isNotEmpty( context.trim() ) ) {
+            trimmedContexts.add( context.trim() );
+          }
+        }
+      }
+    }
+
+    public LogicalModel getModel() {
+      return model;
+    }
+
+    /**
+     * Returns true if the model has no visibility restriction, no context is given or the model is visible in the
+     * context
+     *
+     * @param context
+     * @return
+     */
+    public boolean isVisible( String context ) {
+      return contexts == null || StringUtils.isEmpty( context ) || contexts.contains( context );
+    }
+
+    /**
+     * Returns true if the model has no visibility restriction or lists the context, ignoring surrounding whitespace
+     *
+     * @param context
+     * @return
+     */
+    public boolean isListedIn( String context ) {
+      return trimmedContexts == null || ( context != null && trimmedContexts.contains( context ) );
+    }
+  }
+}
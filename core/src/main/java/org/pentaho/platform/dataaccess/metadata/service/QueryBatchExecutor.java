@@ -0,0 +1,70 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the queries of a batch request at the same time on a bounded pool of threads shared by all batches. When every
+ * thread is busy, the thread of the request runs the query itself, so a batch never waits in a queue and the number
+ * of queries running for batches is bounded by the pool size plus the number of batch requests.
+ */
+public class QueryBatchExecutor {
+
+  private static QueryBatchExecutor instance;
+
+  private final ThreadPoolExecutor executor;
+
+  public static synchronized QueryBatchExecutor getInstance() {
+    if ( instance == null ) {
+      instance = new QueryBatchExecutor( MetadataServiceSettings.getQueryBatchThreads() );
+    }
+    return instance;
+  }
+
+  /**
+   * @param threads the number of batch queries that run on the pool at the same time
+   */
+  public QueryBatchExecutor( int threads ) {
+    final AtomicInteger count = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+      runnable -> {
+        Thread thread = new Thread( runnable, "metadata-query-batch-" + count.incrementAndGet() ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      }, new ThreadPoolExecutor.CallerRunsPolicy() );
+    this.executor.allowCoreThreadTimeOut( true );
+  }
+
+  /**
+   * Starts the tasks and returns their futures in the same order. Tasks that do not get a thread of the pool have
+   * already run in the calling thread when this method returns.
+   *
+   * @param tasks
+   * @return
+   */
+  public <T> List<Future<T>> submitAll( List<Callable<T>> tasks ) {
+    List<Future<T>> futures = new ArrayList<Future<T>>( tasks.size() );
+    for ( Callable<T> task : tasks ) {
+      futures.add( executor.submit( task ) );
+    }
+    return futures;
+  }
+}
@@ -0,0 +1,178 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.pentaho.metadata.model.IPhysicalModel;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.query.model.Query;
+import org.pentaho.platform.dataaccess.metadata.messages.Messages;
+
+/**
+ * Limits the number of metadata queries that run at the same time against each database connection, so a slow
+ * connection cannot take every request thread. A query that finds its connection busy waits in a bounded queue for a
+ * limited time; when the queue is full or the wait times out it is rejected with a {@link QueryRejectedException}.
+ */
+public class QueryBulkhead {
+
+  private static QueryBulkhead instance;
+
+  private final int maxConcurrent;
+
+  private final int maxWaiting;
+
+  private final long waitTimeout;
+
+  private final int retryAfter;
+
+  private final Map<String, Compartment> compartments = new ConcurrentHashMap<String, Compartment>();
+
+  public static synchronized QueryBulkhead getInstance() {
+    if ( instance == null ) {
+      instance = new QueryBulkhead( MetadataServiceSettings.getQueryBulkheadMaxConcurrent(),
+        MetadataServiceSettings.getQueryBulkheadMaxWaiting(),
+        MetadataServiceSettings.getQueryBulkheadWaitTimeout() * 1000L,
+        MetadataServiceSettings.getQueryBulkheadRetryAfter() );
+    }
+    return instance;
+  }
+
+  /**
+   * @param maxConcurrent the number of queries that run at the same time against a connection, 0 disables the limit
+   * @param maxWaiting    the number of queries that can wait for a busy connection
+   * @param waitTimeout   the time in milliseconds a query waits for a busy connection
+   * @param retryAfter    the number of seconds after which a rejected client is told to try again
+   */
+  public QueryBulkhead( int maxConcurrent, int maxWaiting, long waitTimeout, int retryAfter ) {
+    this.maxConcurrent = maxConcurrent;
+    this.maxWaiting = maxWaiting;
+    this.waitTimeout = waitTimeout;
+    this.retryAfter = retryAfter;
+  }
+
+  public boolean isEnabled() {
+    return maxConcurrent > 0;
+  }
+
+  /**
+   * Runs a query once its connection has a free slot
+   *
+   * @param connection the connection the query runs against, see {@link #getConnectionKey}; null runs the query
+   *                   without a limit
+   * @param query
+   * @return the result of the query
+   * @throws QueryRejectedException if the connection stays busy
+   */
+  public <T> T execute( String connection, Supplier<T> query ) {
+    if ( !isEnabled() || connection == null ) {
+      return query.get();
+    }
+    Compartment compartment = compartments.computeIfAbsent( connection, key -> new Compartment( maxConcurrent ) );
+    compartment.acquire( connection );
+    try {
+      return query.get();
+    } finally {
+      compartment.permits.release();
+    }
+  }
+
+  /**
+   * Returns the statistics of each connection: the number of running and waiting queries, and the number of queries
+   * that have been admitted, rejected because the queue was full, and rejected because they waited too long
+   *
+   * @return
+   */
+  public Map<String, Map<String, Long>> getStatistics() {
+    Map<String, Map<String, Long>> statistics = new TreeMap<String, Map<String, Long>>();
+    for ( Map.Entry<String, Compartment> entry : compartments.entrySet() ) {
+      Compartment compartment = entry.getValue();
+      Map<String, Long> values = new TreeMap<String, Long>();
+      values.put( "running", (long) ( maxConcurrent - compartment.permits.availablePermits() ) ); //$NON-NLS-1$
+      values.put( "waiting", (long) compartment.waiting.get() ); //$NON-NLS-1$
+      values.put( "admitted", compartment.admitted.get() ); //$NON-NLS-1$
+      values.put( "rejected", compartment.rejected.get() ); //$NON-NLS-1$
+      values.put( "timedOut", compartment.timedOut.get() ); //$NON-NLS-1$
+      statistics.put( entry.getKey(), values );
+    }
+    return statistics;
+  }
+
+  /**
+   * Returns the key of the connection a query runs against: the connection name of a SQL physical model, otherwise the
+   * id of the physical model or of the domain
+   *
+   * @param query
+   * @return
+   */
+  public static String getConnectionKey( Query query ) {
+    LogicalModel model = query.getLogicalModel();
+    IPhysicalModel physicalModel = model == null ? null : model.getPhysicalModel();
+    if ( physicalModel instanceof SqlPhysicalModel ) {
+      SqlPhysicalModel sqlModel = (SqlPhysicalModel) physicalModel;
+      if ( sqlModel.getDatasource() != null && sqlModel.getDatasource().getDatabaseName() != null ) {
+        return sqlModel.getDatasource().getDatabaseName();
+      }
+    }
+    if ( physicalModel != null && physicalModel.getId() != null ) {
+      return physicalModel.getId();
+    }
+    return query.getDomain() == null ? null : query.getDomain().getId();
+  }
+
+  private final class Compartment {
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    Compartment( int maxConcurrent ) {
+      this.permits = new Semaphore( maxConcurrent, true );
+    }
+
+    void acquire( String connection ) {
+      if ( !permits.tryAcquire() ) {
+        if ( waiting.incrementAndGet() > maxWaiting ) {
+          waiting.decrementAndGet();
+          rejected.incrementAndGet();
+          throw new QueryRejectedException( Messages.getErrorString( "MetadataService.ERROR_0016_CONNECTION_BUSY",
+            connection ), retryAfter ); //$NON-NLS-1$
+        }
+        boolean acquired;
+        try {
+          acquired = permits.tryAcquire( waitTimeout, TimeUnit.MILLISECONDS );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          acquired = false;
+        } finally {
+          waiting.decrementAndGet();
+        }
+        if ( !acquired ) {
+          timedOut.incrementAndGet();
+          throw new QueryRejectedException( Messages.getErrorString( "MetadataService.ERROR_0016_CONNECTION_BUSY",
+            connection ), retryAfter ); //$NON-NLS-1$
+        }
+      }
+      admitted.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.commons.connection.IPentahoResultSet;
+
+/**
+ * Lets identical metadata queries that run at the same time share one execution. The first caller of a key executes
+ * the query; callers that arrive while it runs wait for it and get their own copy of the rows. The key is built like a
+ * {@link QueryResultCache} key, so only callers with the same row level security share a result. Coalescing is off
+ * unless it is enabled in the settings.
+ */
+public class QueryCoalescer {
+
+  private static final Log logger = LogFactory.getLog( QueryCoalescer.class );
+
+  private static final QueryCoalescer INSTANCE =
+    new QueryCoalescer( MetadataServiceSettings.isQueryCoalescingEnabled() );
+
+  private final boolean enabled;
+
+  private final Map<String, CompletableFuture<QueryResultCache.CachedResult>> inFlight =
+    new ConcurrentHashMap<String, CompletableFuture<QueryResultCache.CachedResult>>();
+
+  private final AtomicLong executions = new AtomicLong();
+
+  private final AtomicLong coalesced = new AtomicLong();
+
+  public static QueryCoalescer getInstance() {
+    return INSTANCE;
+  }
+
+  public QueryCoalescer( boolean enabled ) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Executes a query, or waits for the execution of an identical query that is already running
+   *
+   * @param key   identifies the query, see {@link QueryResultCache#createKey}
+   * @param query executes the query and reads its rows, returns null if the query fails
+   * @return a new result set over the rows, or null if the query failed
+   */
+  public IPentahoResultSet execute( String key, Supplier<QueryResultCache.CachedResult> query ) {
+    QueryResultCache.CachedResult result;
+    if ( !enabled ) {
+      executions.incrementAndGet();
+      result = query.get();
+    } else {
+      CompletableFuture<QueryResultCache.CachedResult> future = new CompletableFuture<QueryResultCache.CachedResult>();
+      CompletableFuture<QueryResultCache.CachedResult> running = inFlight.putIfAbsent( key, future );
+      if ( running != null ) {
+        coalesced.incrementAndGet();
+        if ( logger.isDebugEnabled() ) {
+          logger.debug( "Waiting for a running execution of the same query, " + coalesced.get() //$NON-NLS-1$
+            + " executions saved" ); //$NON-NLS-1$
+        }
+        result = join( running );
+      } else {
+        executions.incrementAndGet();
+        try {
+          result = query.get();
+          future.complete( result );
+        } catch ( RuntimeException | Error e ) {
+          future.completeExceptionally( e );
+          throw e;
+        } finally {
+          inFlight.remove( key, future );
+        }
+      }
+    }
+    return result == null ? null : result.newResultSet();
+  }
+
+  /**
+   * Returns the number of queries that have been executed
+   *
+   * @return
+   */
+  public long getExecutionCount() {
+    return executions.get();
+  }
+
+  /**
+   * Returns the number of queries that have not been executed because they waited for an identical query
+   *
+   * @return
+   */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  /**
+   * Returns the number of queries running at this moment
+   *
+   * @return
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  private static QueryResultCache.CachedResult join( CompletableFuture<QueryResultCache.CachedResult> future ) {
+    try {
+      return future.join();
+    } catch ( CompletionException e ) {
+      if ( e.getCause() instanceof RuntimeException ) {
+        throw (RuntimeException) e.getCause();
+      }
+      if ( e.getCause() instanceof Error ) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
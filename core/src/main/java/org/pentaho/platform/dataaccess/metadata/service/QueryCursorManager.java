@@ -0,0 +1,259 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.platform.dataaccess.metadata.messages.Messages;
+
+/**
+ * Keeps the open query cursors of the paged query API of the {@link MetadataService}. A cursor holds a live,
+ * forward-only result set that belongs to the session that opened it. Pages are read by moving the cursor forward; a
+ * page before the current position re-executes the query. Cursors that have not been read for the idle timeout are
+ * closed, and a user can only keep a limited number of cursors open.
+ */
+public class QueryCursorManager {
+
+  private static QueryCursorManager instance;
+
+  private final long idleTimeout;
+
+  private final int maxCursorsPerUser;
+
+  private final Map<String, QueryCursor> cursors = new ConcurrentHashMap<String, QueryCursor>();
+
+  public static synchronized QueryCursorManager getInstance() {
+    if ( instance == null ) {
+      instance = new QueryCursorManager( MetadataServiceSettings.getQueryCursorIdleTimeout() * 1000L,
+        MetadataServiceSettings.getQueryCursorMaxPerUser() );
+      instance.startReaper();
+    }
+    return instance;
+  }
+
+  /**
+   * @param idleTimeout       the time in milliseconds after which a cursor that has not been read is closed
+   * @param maxCursorsPerUser the maximum number of cursors a user can keep open
+   */
+  public QueryCursorManager( long idleTimeout, int maxCursorsPerUser ) {
+    this.idleTimeout = idleTimeout;
+    this.maxCursorsPerUser = maxCursorsPerUser;
+  }
+
+  /**
+   * Executes a query and opens a cursor over its result
+   *
+   * @param sessionId the session the cursor belongs to
+   * @param user      the user the cursor is counted against
+   * @param query     executes the query and returns a live result set, or null if the query fails. It is called again
+   *                  when a page before the current position is read.
+   * @return the id of the cursor, or null if the query failed
+   * @throws IllegalStateException if the user already has the maximum number of cursors open
+   */
+  public String open( String sessionId, String user, Supplier<IPentahoResultSet> query ) {
+    closeIdleCursors();
+    QueryCursor cursor = new QueryCursor( UUID.randomUUID().toString(), sessionId, user, query );
+    synchronized ( this ) {
+      if ( getCursorCount( user ) >= maxCursorsPerUser ) {
+        throw new IllegalStateException( Messages.getErrorString( "MetadataService.ERROR_0010_TOO_MANY_CURSORS",
+          String.valueOf( maxCursorsPerUser ) ) ); //$NON-NLS-1$
+      }
+      // register the cursor before the query runs, so that concurrent opens are counted
+      cursors.put( cursor.id, cursor );
+    }
+    boolean opened = false;
+    try {
+      opened = cursor.open();
+    } finally {
+      if ( !opened ) {
+        cursors.remove( cursor.id );
+      }
+    }
+    return opened ? cursor.id : null;
+  }
+
+  /**
+   * Reads a page of rows from a cursor
+   *
+   * @param sessionId the session reading the cursor
+   * @param cursorId
+   * @param offset    the index of the first row of the page
+   * @param size      the maximum number of rows of the page
+   * @return an in-memory result set with the rows of the page, which has fewer than size rows at the end of the result,
+   * or null if the cursor does not exist, has been closed or belongs to another session
+   */
+  public IPentahoResultSet fetch( String sessionId, String cursorId, int offset, int size ) {
+    if ( offset < 0 || size <= 0 ) {
+      throw new IllegalArgumentException( Messages.getErrorString( "MetadataService.ERROR_0011_BAD_PAGE", //$NON-NLS-1$
+        String.valueOf( offset ), String.valueOf( size ) ) );
+    }
+    QueryCursor cursor = getCursor( sessionId, cursorId );
+    return cursor == null ? null : cursor.fetch( offset, size );
+  }
+
+  /**
+   * Closes a cursor and its connection
+   *
+   * @param sessionId the session closing the cursor
+   * @param cursorId
+   * @return false if the cursor does not exist or belongs to another session
+   */
+  public boolean close( String sessionId, String cursorId ) {
+    QueryCursor cursor = getCursor( sessionId, cursorId );
+    if ( cursor == null ) {
+      return false;
+    }
+    cursors.remove( cursorId );
+    cursor.close();
+    return true;
+  }
+
+  /**
+   * Closes the cursors that have not been read for the idle timeout
+   */
+  public void closeIdleCursors() {
+    long now = currentTimeMillis();
+    Iterator<QueryCursor> iterator = cursors.values().iterator();
+    while ( iterator.hasNext() ) {
+      QueryCursor cursor = iterator.next();
+      if ( cursor.isIdle( now ) ) {
+        iterator.remove();
+        cursor.close();
+      }
+    }
+  }
+
+  public int getCursorCount() {
+    return cursors.size();
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private int getCursorCount( String user ) {
+    int count = 0;
+    for ( QueryCursor cursor : cursors.values() ) {
+      if ( user == null ? cursor.user == null : user.equals( cursor.user ) ) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private QueryCursor getCursor( String sessionId, String cursorId ) {
+    QueryCursor cursor = cursorId == null ? null : cursors.get( cursorId );
+    if ( cursor == null || !( sessionId == null ? cursor.sessionId == null : sessionId.equals( cursor.sessionId ) ) ) {
+      return null;
+    }
+    return cursor;
+  }
+
+  private void startReaper() {
+    if ( idleTimeout <= 0 ) {
+      return;
+    }
+    ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor( runnable -> {
+      Thread thread = new Thread( runnable, "metadata-query-cursor-reaper" ); //$NON-NLS-1$
+      thread.setDaemon( true );
+      return thread;
+    } );
+    long period = Math.max( 1000L, Math.min( idleTimeout / 2, 60000L ) );
+    reaper.scheduleWithFixedDelay( this::closeIdleCursors, period, period, TimeUnit.MILLISECONDS );
+  }
+
+  private final class QueryCursor {
+    private final String id;
+    private final String sessionId;
+    private final String user;
+    private final Supplier<IPentahoResultSet> query;
+    private IPentahoResultSet resultSet;
+    private int position;
+    private boolean exhausted;
+    private boolean closed;
+    private long lastAccess;
+
+    QueryCursor( String id, String sessionId, String user, Supplier<IPentahoResultSet> query ) {
+      this.id = id;
+      this.sessionId = sessionId;
+      this.user = user;
+      this.query = query;
+      this.lastAccess = currentTimeMillis();
+    }
+
+    synchronized boolean open() {
+      resultSet = query.get();
+      position = 0;
+      exhausted = false;
+      lastAccess = currentTimeMillis();
+      return resultSet != null;
+    }
+
+    synchronized IPentahoResultSet fetch( int offset, int size ) {
+      if ( closed ) {
+        return null;
+      }
+      try {
+        if ( offset < position ) {
+          // the cursor is forward only, so going back means running the query again
+          closeResultSet();
+          if ( !open() ) {
+            return null;
+          }
+        }
+        MemoryResultSet page = new MemoryResultSet( resultSet.getMetaData() );
+        while ( !exhausted && position < (long) offset + size ) {
+          Object[] row = resultSet.next();
+          if ( row == null ) {
+            exhausted = true;
+          } else {
+            if ( position >= offset ) {
+              page.addRow( row );
+            }
+            position++;
+          }
+        }
+        return page;
+      } finally {
+        lastAccess = currentTimeMillis();
+      }
+    }
+
+    synchronized boolean isIdle( long now ) {
+      return idleTimeout > 0 && now - lastAccess >= idleTimeout;
+    }
+
+    synchronized void close() {
+      if ( !closed ) {
+        closed = true;
+        closeResultSet();
+      }
+    }
+
+    private void closeResultSet() {
+      if ( resultSet != null ) {
+        resultSet.closeConnection();
+        resultSet = null;
+      }
+    }
+  }
+}
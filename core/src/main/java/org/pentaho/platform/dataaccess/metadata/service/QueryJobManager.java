@@ -0,0 +1,473 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.platform.dataaccess.metadata.messages.Messages;
+
+/**
+ * Runs the asynchronous queries of the {@link MetadataService} on a bounded pool of worker threads, so long queries do
+ * not hold a web container thread. The pool size is the global concurrency limit, and a user can only have a limited
+ * number of queued or running jobs. A job belongs to the session that submitted it; its result is kept in memory until
+ * the job is removed or has been finished for the time to live, and a session keeps a limited number of jobs: a new job
+ * drops the oldest finished jobs of the session. Cancelling a running job runs the actions its query registered with
+ * {@link #onCancel(Runnable)}; the metadata queries use it to stop fetching their result, not to interrupt the database
+ * while it executes the statement. The threads of the manager stop with {@link #shutdown()}.
+ */
+public class QueryJobManager {
+
+  public enum Status {
+    QUEUED, RUNNING, FINISHED, FAILED, CANCELLED
+  }
+
+  private static final Log logger = LogFactory.getLog( QueryJobManager.class );
+
+  private static QueryJobManager instance;
+
+  private final ThreadPoolExecutor executor;
+
+  private ScheduledExecutorService reaper;
+
+  private final int maxJobsPerUser;
+
+  private final int maxJobsPerSession;
+
+  private final long timeToLive;
+
+  private final Map<String, QueryJob> jobs = new ConcurrentHashMap<String, QueryJob>();
+
+  private static final ThreadLocal<QueryJob> CURRENT_JOB = new ThreadLocal<QueryJob>();
+
+  public static synchronized QueryJobManager getInstance() {
+    if ( instance == null ) {
+      instance = new QueryJobManager( MetadataServiceSettings.getQueryJobThreads(),
+        MetadataServiceSettings.getQueryJobQueueSize(), MetadataServiceSettings.getQueryJobMaxPerUser(),
+        MetadataServiceSettings.getQueryJobMaxPerSession(), MetadataServiceSettings.getQueryJobTtl() * 1000L );
+      instance.startReaper();
+    }
+    return instance;
+  }
+
+  /**
+   * Shuts down the shared instance, if it was created, so the plugin does not leave its threads behind when it is
+   * unloaded
+   */
+  public static synchronized void shutdownInstance() {
+    if ( instance != null ) {
+      instance.shutdown();
+      instance = null;
+    }
+  }
+
+  /**
+   * @param threads        the number of queries that run at the same time
+   * @param queueSize      the number of queries that can wait for a thread
+   * @param maxJobsPerUser the number of queued or running queries a user can have
+   * @param timeToLive     the time in milliseconds a finished job is kept
+   */
+  public QueryJobManager( int threads, int queueSize, int maxJobsPerUser, long timeToLive ) {
+    this( threads, queueSize, maxJobsPerUser, Integer.MAX_VALUE, timeToLive );
+  }
+
+  /**
+   * @param threads           the number of queries that run at the same time
+   * @param queueSize         the number of queries that can wait for a thread
+   * @param maxJobsPerUser    the number of queued or running queries a user can have
+   * @param maxJobsPerSession the number of jobs, finished or not, a session keeps
+   * @param timeToLive        the time in milliseconds a finished job is kept
+   */
+  public QueryJobManager( int threads, int queueSize, int maxJobsPerUser, int maxJobsPerSession, long timeToLive ) {
+    this.maxJobsPerUser = maxJobsPerUser;
+    this.maxJobsPerSession = Math.max( 1, maxJobsPerSession );
+    this.timeToLive = timeToLive;
+    this.executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<Runnable>( Math.max( 1, queueSize ) ), new WorkerThreadFactory() );
+    this.executor.allowCoreThreadTimeOut( true );
+  }
+
+  /**
+   * Submits a query
+   *
+   * @param sessionId the session the job belongs to
+   * @param user      the user the job is counted against
+   * @param query     executes the query and returns its result, or null if the query fails
+   * @return the id of the job
+   * @throws IllegalStateException if the user has too many jobs or the queue is full
+   */
+  public String submit( String sessionId, String user, Callable<IPentahoResultSet> query ) {
+    removeExpiredJobs();
+    QueryJob job = new QueryJob( UUID.randomUUID().toString(), sessionId, user, query );
+    synchronized ( this ) {
+      if ( getActiveJobCount( user ) >= maxJobsPerUser ) {
+        throw new IllegalStateException( Messages.getErrorString( "MetadataService.ERROR_0012_TOO_MANY_JOBS",
+          String.valueOf( maxJobsPerUser ) ) ); //$NON-NLS-1$
+      }
+      removeOldestFinishedJobs( sessionId );
+      jobs.put( job.id, job );
+    }
+    try {
+      job.future = executor.submit( job );
+    } catch ( RejectedExecutionException e ) {
+      jobs.remove( job.id );
+      throw new IllegalStateException( Messages.getErrorString( "MetadataService.ERROR_0013_JOB_QUEUE_FULL" ), e );
+    }
+    return job.id;
+  }
+
+  /**
+   * Returns the status of a job, or null if the job does not exist or belongs to another session
+   *
+   * @param sessionId
+   * @param jobId
+   * @return
+   */
+  public Status getStatus( String sessionId, String jobId ) {
+    QueryJob job = getJob( sessionId, jobId );
+    return job == null ? null : job.getStatus();
+  }
+
+  /**
+   * Waits until a job is done or the timeout elapses, and returns the status of the job
+   *
+   * @param sessionId
+   * @param jobId
+   * @param timeout   the maximum time to wait in milliseconds
+   * @return the status of the job, or null if the job does not exist or belongs to another session
+   * @throws InterruptedException
+   */
+  public Status waitFor( String sessionId, String jobId, long timeout ) throws InterruptedException {
+    QueryJob job = getJob( sessionId, jobId );
+    return job == null ? null : job.waitFor( timeout );
+  }
+
+  /**
+   * Returns a new result set over the result of a finished job
+   *
+   * @param sessionId
+   * @param jobId
+   * @return the result, or null if the job does not exist, belongs to another session or has not finished
+   */
+  public IPentahoResultSet getResult( String sessionId, String jobId ) {
+    QueryJob job = getJob( sessionId, jobId );
+    return job == null ? null : job.getResult();
+  }
+
+  /**
+   * Cancels a job. A queued job will not run; a running job is interrupted and its result discarded, but the query
+   * keeps its worker until the database returns.
+   *
+   * @param sessionId
+   * @param jobId
+   * @return false if the job does not exist, belongs to another session or is already done
+   */
+  public boolean cancel( String sessionId, String jobId ) {
+    QueryJob job = getJob( sessionId, jobId );
+    return job != null && job.cancel();
+  }
+
+  /**
+   * Removes a job and its result
+   *
+   * @param sessionId
+   * @param jobId
+   * @return false if the job does not exist or belongs to another session
+   */
+  public boolean remove( String sessionId, String jobId ) {
+    QueryJob job = getJob( sessionId, jobId );
+    if ( job == null ) {
+      return false;
+    }
+    job.cancel();
+    jobs.remove( jobId );
+    return true;
+  }
+
+  /**
+   * Registers an action that stops the query of the job that runs in the current thread, such as closing its result
+   * set. The action runs when the job is cancelled, or right away if it already is. Outside of a job it does
+   * nothing.
+   *
+   * @param action
+   */
+  public static void onCancel( Runnable action ) {
+    QueryJob job = CURRENT_JOB.get();
+    if ( job != null ) {
+      job.onCancel( action );
+    }
+  }
+
+  /**
+   * Tells whether the current thread runs a job
+   *
+   * @return
+   */
+  public static boolean isJobThread() {
+    return CURRENT_JOB.get() != null;
+  }
+
+  /**
+   * Cancels the jobs that are not done and stops the reaper and the worker threads. Jobs submitted afterwards are
+   * rejected.
+   */
+  public void shutdown() {
+    ScheduledExecutorService reaper;
+    synchronized ( this ) {
+      reaper = this.reaper;
+      this.reaper = null;
+    }
+    if ( reaper != null ) {
+      reaper.shutdownNow();
+    }
+    executor.shutdown();
+    for ( QueryJob job : jobs.values() ) {
+      job.cancel();
+    }
+    executor.shutdownNow();
+  }
+
+  /**
+   * Removes the jobs that have been done for longer than the time to live
+   */
+  public void removeExpiredJobs() {
+    long now = currentTimeMillis();
+    Iterator<QueryJob> iterator = jobs.values().iterator();
+    while ( iterator.hasNext() ) {
+      if ( iterator.next().isExpired( now ) ) {
+        iterator.remove();
+      }
+    }
+  }
+
+  public int getJobCount() {
+    return jobs.size();
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private int getActiveJobCount( String user ) {
+    int count = 0;
+    for ( QueryJob job : jobs.values() ) {
+      if ( ( user == null ? job.user == null : user.equals( job.user ) ) && !job.isDone() ) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Removes the oldest finished jobs of a session until it has room for one more job
+   */
+  private void removeOldestFinishedJobs( String sessionId ) {
+    List<QueryJob> sessionJobs = new ArrayList<QueryJob>();
+    for ( QueryJob job : jobs.values() ) {
+      if ( sessionId == null ? job.sessionId == null : sessionId.equals( job.sessionId ) ) {
+        sessionJobs.add( job );
+      }
+    }
+    int excess = sessionJobs.size() - maxJobsPerSession + 1;
+    if ( excess <= 0 ) {
+      return;
+    }
+    sessionJobs.sort( ( a, b ) -> Long.compare( a.submitted, b.submitted ) );
+    for ( QueryJob job : sessionJobs ) {
+      if ( excess <= 0 ) {
+        break;
+      }
+      if ( job.isDone() ) {
+        jobs.remove( job.id );
+        excess--;
+      }
+    }
+  }
+
+  private QueryJob getJob( String sessionId, String jobId ) {
+    QueryJob job = jobId == null ? null : jobs.get( jobId );
+    if ( job == null || !( sessionId == null ? job.sessionId == null : sessionId.equals( job.sessionId ) ) ) {
+      return null;
+    }
+    return job;
+  }
+
+  private synchronized void startReaper() {
+    if ( timeToLive <= 0 || reaper != null ) {
+      return;
+    }
+    reaper = Executors.newSingleThreadScheduledExecutor( runnable -> {
+      Thread thread = new Thread( runnable, "metadata-query-job-reaper" ); //$NON-NLS-1$
+      thread.setDaemon( true );
+      return thread;
+    } );
+    long period = Math.max( 1000L, Math.min( timeToLive / 2, 60000L ) );
+    reaper.scheduleWithFixedDelay( this::removeExpiredJobs, period, period, TimeUnit.MILLISECONDS );
+  }
+
+  private static final class WorkerThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread( Runnable runnable ) {
+      Thread thread = new Thread( runnable, "metadata-query-job-" + count.incrementAndGet() ); //$NON-NLS-1$
+      thread.setDaemon( true );
+      return thread;
+    }
+  }
+
+  private final class QueryJob implements Callable<Void> {
+    private final String id;
+    private final String sessionId;
+    private final String user;
+    private final Callable<IPentahoResultSet> query;
+    private final long submitted = System.nanoTime();
+    private final List<Runnable> cancelActions = new ArrayList<Runnable>();
+    private volatile Future<?> future;
+    private Status status = Status.QUEUED;
+    private QueryResultCache.CachedResult result;
+    private long finished;
+
+    QueryJob( String id, String sessionId, String user, Callable<IPentahoResultSet> query ) {
+      this.id = id;
+      this.sessionId = sessionId;
+      this.user = user;
+      this.query = query;
+    }
+
+    @Override
+    public Void call() {
+      synchronized ( this ) {
+        if ( status != Status.QUEUED ) {
+          return null;
+        }
+        status = Status.RUNNING;
+      }
+      IPentahoResultSet resultSet = null;
+      CURRENT_JOB.set( this );
+      try {
+        resultSet = query.call();
+      } catch ( Exception e ) {
+        if ( getStatus() != Status.CANCELLED ) {
+          logger.error( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ), e ); //$NON-NLS-1$
+        }
+      } finally {
+        CURRENT_JOB.remove();
+      }
+      if ( resultSet != null && getStatus() == Status.CANCELLED ) {
+        // nobody is going to read the result
+        resultSet.closeConnection();
+        return null;
+      }
+      QueryResultCache.CachedResult jobResult = null;
+      if ( resultSet != null ) {
+        jobResult = new QueryResultCache.CachedResult( resultSet );
+      }
+      synchronized ( this ) {
+        if ( status == Status.RUNNING ) {
+          result = jobResult;
+          done( jobResult == null ? Status.FAILED : Status.FINISHED );
+        }
+      }
+      return null;
+    }
+
+    synchronized Status getStatus() {
+      return status;
+    }
+
+    synchronized Status waitFor( long timeout ) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeout;
+      long remaining = timeout;
+      while ( !isDone() && remaining > 0 ) {
+        wait( remaining );
+        remaining = deadline - System.currentTimeMillis();
+      }
+      return status;
+    }
+
+    synchronized IPentahoResultSet getResult() {
+      return result == null ? null : result.newResultSet();
+    }
+
+    boolean cancel() {
+      Future<?> jobFuture;
+      List<Runnable> actions;
+      synchronized ( this ) {
+        if ( isDone() ) {
+          return false;
+        }
+        done( Status.CANCELLED );
+        jobFuture = future;
+        actions = new ArrayList<Runnable>( cancelActions );
+        cancelActions.clear();
+      }
+      for ( Runnable action : actions ) {
+        runCancelAction( action );
+      }
+      if ( jobFuture != null ) {
+        jobFuture.cancel( true );
+      }
+      return true;
+    }
+
+    void onCancel( Runnable action ) {
+      synchronized ( this ) {
+        if ( status != Status.CANCELLED ) {
+          cancelActions.add( action );
+          return;
+        }
+      }
+      runCancelAction( action );
+    }
+
+    private void runCancelAction( Runnable action ) {
+      try {
+        action.run();
+      } catch ( RuntimeException e ) {
+        logger.debug( "Could not stop the query of a cancelled job", e ); //$NON-NLS-1$
+      }
+    }
+
+    synchronized boolean isDone() {
+      return status != Status.QUEUED && status != Status.RUNNING;
+    }
+
+    synchronized boolean isExpired( long now ) {
+      return isDone() && timeToLive > 0 && now - finished >= timeToLive;
+    }
+
+    private void done( Status doneStatus ) {
+      status = doneStatus;
+      finished = currentTimeMillis();
+      notifyAll();
+    }
+  }
+}
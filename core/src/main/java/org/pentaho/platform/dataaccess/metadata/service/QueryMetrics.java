@@ -0,0 +1,611 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONObject;
+import org.pentaho.metadata.query.model.Query;
+import org.pentaho.metadata.query.model.util.QueryXmlHelper;
+
+/**
+ * Measures where the time of metadata queries goes. Each request is followed by a {@link Trace} bound to its thread,
+ * which records the time spent in each {@link Phase}, the rows returned and the bytes written. When the request ends,
+ * the trace is added to the latency histograms of its domain and model, and a query slower than the threshold is
+ * written with its timings and MQL to the slow query log, the {@link #SLOW_QUERY_LOG} category.
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+
+  public static final String OBJECT_NAME = "org.pentaho.platform.dataaccess:type=QueryMetrics"; //$NON-NLS-1$
+
+  public static final String SLOW_QUERY_LOG = "org.pentaho.platform.dataaccess.metadata.SlowQueryLog"; //$NON-NLS-1$
+
+  /**
+   * The upper bounds in milliseconds of the histogram buckets, the last bucket has no bound
+   */
+  static final long[] BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+  /**
+   * The number of models that statistics are kept for; once it is reached, the queries of other models are counted as
+   * unknown
+   */
+  static final int MAX_MODELS = 1000;
+
+  private static final String UNKNOWN = "?"; //$NON-NLS-1$
+
+  private static final String UNKNOWN_MODEL = UNKNOWN + "/" + UNKNOWN; //$NON-NLS-1$
+
+  private static final Log logger = LogFactory.getLog( QueryMetrics.class );
+
+  private static final Log slowQueryLogger = LogFactory.getLog( SLOW_QUERY_LOG );
+
+  private static QueryMetrics instance;
+
+  /**
+   * The phases of a metadata query
+   */
+  public enum Phase {
+    PARSE, CONVERT, XML, EXECUTE, MARSHAL, SERIALIZE;
+
+    public String getKey() {
+      return name().toLowerCase( Locale.ROOT );
+    }
+  }
+
+  private final boolean enabled;
+
+  private volatile long slowQueryThreshold;
+
+  private final ThreadLocal<Trace> traces = new ThreadLocal<Trace>();
+
+  private final Map<String, ModelMetrics> models = new ConcurrentHashMap<String, ModelMetrics>();
+
+  private final AtomicLong slowQueries = new AtomicLong();
+
+  public static synchronized QueryMetrics getInstance() {
+    if ( instance == null ) {
+      instance = new QueryMetrics( MetadataServiceSettings.isQueryMetricsEnabled(),
+        MetadataServiceSettings.getSlowQueryThreshold() );
+      instance.register();
+    }
+    return instance;
+  }
+
+  /**
+   * Unregisters the MBean of the shared instance, if it was created, so the plugin does not leave it behind when it is
+   * unloaded
+   */
+  public static synchronized void unregisterInstance() {
+    if ( instance != null ) {
+      instance.unregister();
+      instance = null;
+    }
+  }
+
+  /**
+   * @param enabled            false to measure nothing
+   * @param slowQueryThreshold the number of milliseconds after which a query is written to the slow query log, 0
+   *                           disables the log
+   */
+  public QueryMetrics( boolean enabled, long slowQueryThreshold ) {
+    this.enabled = enabled;
+    this.slowQueryThreshold = slowQueryThreshold;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Starts following a request in the current thread. A request that starts inside another one is part of it, so
+   * null is returned and the outer request ends the trace.
+   *
+   * @return the trace to pass to {@link #end}, or null
+   */
+  public Trace begin() {
+    if ( !enabled || traces.get() != null ) {
+      return null;
+    }
+    Trace trace = new Trace();
+    traces.set( trace );
+    return trace;
+  }
+
+  /**
+   * Ends a request started by {@link #begin} and records its trace, unless the trace has been detached
+   *
+   * @param trace the trace returned by {@link #begin}, may be null
+   */
+  public void end( Trace trace ) {
+    if ( trace == null ) {
+      return;
+    }
+    if ( traces.get() == trace ) {
+      traces.remove();
+    }
+    if ( !trace.detached ) {
+      complete( trace );
+    }
+  }
+
+  /**
+   * Detaches the trace of the current request from its thread, so the request can be finished elsewhere, for example
+   * by the output that streams its result. The trace is then recorded by {@link #complete}.
+   *
+   * @return the trace, or null if the thread does not follow a request
+   */
+  public Trace detach() {
+    Trace trace = traces.get();
+    if ( trace != null ) {
+      traces.remove();
+      trace.detached = true;
+    }
+    return trace;
+  }
+
+  /**
+   * Adds a finished trace to the statistics and writes it to the slow query log if it took too long
+   *
+   * @param trace may be null
+   */
+  public void complete( Trace trace ) {
+    if ( trace == null || trace.completed ) {
+      return;
+    }
+    trace.completed = true;
+    long elapsed = System.nanoTime() - trace.start;
+    String key = ( trace.domainId == null ? UNKNOWN : trace.domainId ) + "/" //$NON-NLS-1$
+      + ( trace.modelId == null ? UNKNOWN : trace.modelId );
+    // one entry is left for the unknown model
+    if ( !models.containsKey( key ) && models.size() >= MAX_MODELS - 1 ) {
+      key = UNKNOWN_MODEL;
+    }
+    models.computeIfAbsent( key, k -> new ModelMetrics() ).add( trace, elapsed );
+
+    long threshold = slowQueryThreshold;
+    if ( threshold > 0 && elapsed >= TimeUnit.MILLISECONDS.toNanos( threshold ) ) {
+      slowQueries.incrementAndGet();
+      if ( slowQueryLogger.isWarnEnabled() ) {
+        slowQueryLogger.warn( formatSlowQuery( key, trace, elapsed ) );
+      }
+    }
+  }
+
+  /**
+   * Returns the trace of the request that the current thread follows, or null
+   *
+   * @return
+   */
+  public Trace current() {
+    return traces.get();
+  }
+
+  /**
+   * Adds the time since start to a phase of the current request
+   *
+   * @param phase
+   * @param start the value of {@link System#nanoTime()} when the phase started
+   */
+  public void record( Phase phase, long start ) {
+    Trace trace = traces.get();
+    if ( trace != null ) {
+      trace.record( phase, start );
+    }
+  }
+
+  /**
+   * Sets the query of the current request
+   *
+   * @param query
+   */
+  public void setQuery( Query query ) {
+    Trace trace = traces.get();
+    if ( trace != null ) {
+      trace.setQuery( query );
+    }
+  }
+
+  /**
+   * Sets the domain and model of the current request, when the full query is not known yet. The caller makes sure the
+   * model exists, so the statistics are not kept for the ids of any request.
+   *
+   * @param domainId
+   * @param modelId
+   */
+  public void setModel( String domainId, String modelId ) {
+    Trace trace = traces.get();
+    if ( trace != null ) {
+      trace.setModel( domainId, modelId );
+    }
+  }
+
+  /**
+   * Sets the MQL of the current request
+   *
+   * @param mql
+   */
+  public void setMql( String mql ) {
+    Trace trace = traces.get();
+    if ( trace != null ) {
+      trace.setMql( mql );
+    }
+  }
+
+  /**
+   * Sets the number of rows returned by the current request
+   *
+   * @param rows
+   */
+  public void setRows( long rows ) {
+    Trace trace = traces.get();
+    if ( trace != null ) {
+      trace.setRows( rows );
+    }
+  }
+
+  /**
+   * Adds to the number of bytes written by the current request
+   *
+   * @param bytes
+   */
+  public void addBytes( long bytes ) {
+    Trace trace = traces.get();
+    if ( trace != null ) {
+      trace.addBytes( bytes );
+    }
+  }
+
+  /**
+   * Returns the statistics of each domain and model: the number of queries, rows and bytes, and the latency histogram
+   * of the whole request and of each phase
+   *
+   * @return
+   */
+  public Map<String, Object> getStatistics() {
+    Map<String, Object> statistics = new TreeMap<String, Object>();
+    statistics.put( "slowQueryThreshold", slowQueryThreshold ); //$NON-NLS-1$
+    statistics.put( "slowQueries", slowQueries.get() ); //$NON-NLS-1$
+    Map<String, Object> modelStatistics = new TreeMap<String, Object>();
+    for ( Map.Entry<String, ModelMetrics> entry : models.entrySet() ) {
+      modelStatistics.put( entry.getKey(), entry.getValue().toMap() );
+    }
+    statistics.put( "models", modelStatistics ); //$NON-NLS-1$
+    return statistics;
+  }
+
+  @Override
+  public long getQueryCount() {
+    long count = 0;
+    for ( ModelMetrics model : models.values() ) {
+      count += model.queries.get();
+    }
+    return count;
+  }
+
+  @Override
+  public long getSlowQueryCount() {
+    return slowQueries.get();
+  }
+
+  @Override
+  public long getSlowQueryThreshold() {
+    return slowQueryThreshold;
+  }
+
+  @Override
+  public void setSlowQueryThreshold( long slowQueryThreshold ) {
+    this.slowQueryThreshold = slowQueryThreshold;
+  }
+
+  @Override
+  public String getStatisticsJson() {
+    return new JSONObject( getStatistics() ).toString();
+  }
+
+  @Override
+  public void reset() {
+    models.clear();
+    slowQueries.set( 0 );
+  }
+
+  /**
+   * Returns the number of bytes of a string encoded as UTF-8, without encoding it
+   *
+   * @param value
+   * @return
+   */
+  public static long getUtf8Length( CharSequence value ) {
+    if ( value == null ) {
+      return 0;
+    }
+    long length = 0;
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      if ( c < 0x80 ) {
+        length++;
+      } else if ( c < 0x800 ) {
+        length += 2;
+      } else if ( Character.isHighSurrogate( c ) && i + 1 < value.length()
+        && Character.isLowSurrogate( value.charAt( i + 1 ) ) ) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private void register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean( this, new ObjectName( OBJECT_NAME ) );
+    } catch ( InstanceAlreadyExistsException e ) {
+      logger.debug( "The query metrics MBean is already registered", e ); //$NON-NLS-1$
+    } catch ( Exception e ) {
+      logger.warn( "Unable to register the query metrics MBean", e ); //$NON-NLS-1$
+    }
+  }
+
+  private void unregister() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean( new ObjectName( OBJECT_NAME ) );
+    } catch ( InstanceNotFoundException e ) {
+      logger.debug( "The query metrics MBean is not registered", e ); //$NON-NLS-1$
+    } catch ( Exception e ) {
+      logger.warn( "Unable to unregister the query metrics MBean", e ); //$NON-NLS-1$
+    }
+  }
+
+  private static String formatSlowQuery( String key, Trace trace, long elapsed ) {
+    StringBuilder message = new StringBuilder( "Slow metadata query on " ); //$NON-NLS-1$
+    message.append( key ).append( ": " ).append( toMillis( elapsed ) ).append( " ms" ); //$NON-NLS-1$ //$NON-NLS-2$
+    for ( Phase phase : Phase.values() ) {
+      if ( trace.counts[ phase.ordinal() ] > 0 ) {
+        message.append( ", " ).append( phase.getKey() ).append( ' ' ) //$NON-NLS-1$
+          .append( toMillis( trace.nanos[ phase.ordinal() ] ) ).append( " ms" ); //$NON-NLS-1$
+      }
+    }
+    if ( trace.rows >= 0 ) {
+      message.append( ", " ).append( trace.rows ).append( " rows" ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    message.append( ", " ).append( trace.bytes ).append( " bytes" ); //$NON-NLS-1$ //$NON-NLS-2$
+    String mql = trace.getMql();
+    if ( mql != null ) {
+      message.append( "\n" ).append( mql ); //$NON-NLS-1$
+    }
+    return message.toString();
+  }
+
+  /**
+   * Returns the text of the first element of a MQL document with the given name, or null
+   *
+   * @param mql
+   * @param element
+   * @return
+   */
+  static String getMqlElement( String mql, String element ) {
+    String start = "<" + element + ">"; //$NON-NLS-1$ //$NON-NLS-2$
+    int from = mql.indexOf( start );
+    if ( from < 0 ) {
+      return null;
+    }
+    from += start.length();
+    int to = mql.indexOf( "</" + element + ">", from ); //$NON-NLS-1$ //$NON-NLS-2$
+    return to < 0 ? null : StringEscapeUtils.unescapeXml( mql.substring( from, to ).trim() );
+  }
+
+  private static double toMillis( long nanos ) {
+    return Math.round( nanos / 1000.0 ) / 1000.0;
+  }
+
+  /**
+   * The measures of one request
+   */
+  public static final class Trace {
+    private final long start = System.nanoTime();
+    private final long[] nanos = new long[ Phase.values().length ];
+    private final int[] counts = new int[ Phase.values().length ];
+    private String domainId;
+    private String modelId;
+    private Query query;
+    private String mql;
+    private long rows = -1;
+    private long bytes;
+    private boolean detached;
+    private boolean completed;
+
+    Trace() {
+    }
+
+    /**
+     * Adds the time since start to a phase
+     *
+     * @param phase
+     * @param start the value of {@link System#nanoTime()} when the phase started
+     */
+    public void record( Phase phase, long start ) {
+      nanos[ phase.ordinal() ] += System.nanoTime() - start;
+      counts[ phase.ordinal() ]++;
+    }
+
+    public void setQuery( Query query ) {
+      this.query = query;
+      if ( query != null ) {
+        setModel( query.getDomain() == null ? null : query.getDomain().getId(),
+          query.getLogicalModel() == null ? null : query.getLogicalModel().getId() );
+      }
+    }
+
+    public void setModel( String domainId, String modelId ) {
+      this.domainId = domainId;
+      this.modelId = modelId;
+    }
+
+    public void setMql( String mql ) {
+      this.mql = mql;
+    }
+
+    public void setRows( long rows ) {
+      this.rows = rows;
+    }
+
+    public void addBytes( long bytes ) {
+      this.bytes += bytes;
+    }
+
+    long getNanos( Phase phase ) {
+      return nanos[ phase.ordinal() ];
+    }
+
+    /**
+     * Returns the MQL of the query; it is only generated when a query that has no MQL yet is logged
+     */
+    String getMql() {
+      if ( mql == null && query != null ) {
+        try {
+          mql = new QueryXmlHelper().toXML( query );
+        } catch ( Exception e ) {
+          logger.debug( "Unable to generate the MQL of a slow query", e ); //$NON-NLS-1$
+        }
+      }
+      return mql;
+    }
+  }
+
+  /**
+   * The statistics of the queries of one model
+   */
+  private static final class ModelMetrics {
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Histogram total = new Histogram();
+    private final Histogram[] phases = new Histogram[ Phase.values().length ];
+
+    ModelMetrics() {
+      for ( int i = 0; i < phases.length; i++ ) {
+        phases[ i ] = new Histogram();
+      }
+    }
+
+    void add( Trace trace, long elapsed ) {
+      queries.incrementAndGet();
+      if ( trace.rows > 0 ) {
+        rows.addAndGet( trace.rows );
+      }
+      bytes.addAndGet( trace.bytes );
+      total.add( elapsed );
+      for ( int i = 0; i < phases.length; i++ ) {
+        if ( trace.counts[ i ] > 0 ) {
+          phases[ i ].add( trace.nanos[ i ] );
+        }
+      }
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> map = new TreeMap<String, Object>();
+      map.put( "queries", queries.get() ); //$NON-NLS-1$
+      map.put( "rows", rows.get() ); //$NON-NLS-1$
+      map.put( "bytes", bytes.get() ); //$NON-NLS-1$
+      map.put( "latency", total.toMap() ); //$NON-NLS-1$
+      Map<String, Object> phaseMap = new TreeMap<String, Object>();
+      for ( Phase phase : Phase.values() ) {
+        Histogram histogram = phases[ phase.ordinal() ];
+        if ( histogram.count.get() > 0 ) {
+          phaseMap.put( phase.getKey(), histogram.toMap() );
+        }
+      }
+      map.put( "phases", phaseMap ); //$NON-NLS-1$
+      return map;
+    }
+  }
+
+  /**
+   * A latency histogram with fixed buckets, see {@link QueryMetrics#BUCKETS}
+   */
+  static final class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS.length + 1 );
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void add( long nanos ) {
+      long millis = TimeUnit.NANOSECONDS.toMillis( nanos );
+      int bucket = 0;
+      while ( bucket < BUCKETS.length && millis >= BUCKETS[ bucket ] ) {
+        bucket++;
+      }
+      buckets.incrementAndGet( bucket );
+      count.incrementAndGet();
+      sum.addAndGet( nanos );
+      max.accumulateAndGet( nanos, Math::max );
+    }
+
+    /**
+     * Returns the upper bound in milliseconds of the bucket that holds the given percentile, or the maximum if it is
+     * in the last bucket
+     *
+     * @param percentile between 0 and 100
+     * @return
+     */
+    double getPercentile( double percentile ) {
+      long total = count.get();
+      if ( total == 0 ) {
+        return 0;
+      }
+      long rank = (long) Math.ceil( total * percentile / 100 );
+      long seen = 0;
+      for ( int i = 0; i < BUCKETS.length; i++ ) {
+        seen += buckets.get( i );
+        if ( seen >= rank ) {
+          return Math.min( BUCKETS[ i ], toMillis( max.get() ) );
+        }
+      }
+      return toMillis( max.get() );
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      long total = count.get();
+      map.put( "count", total ); //$NON-NLS-1$
+      map.put( "totalMs", toMillis( sum.get() ) ); //$NON-NLS-1$
+      map.put( "meanMs", total == 0 ? 0 : toMillis( sum.get() / total ) ); //$NON-NLS-1$
+      map.put( "maxMs", toMillis( max.get() ) ); //$NON-NLS-1$
+      map.put( "p50Ms", getPercentile( 50 ) ); //$NON-NLS-1$
+      map.put( "p95Ms", getPercentile( 95 ) ); //$NON-NLS-1$
+      map.put( "p99Ms", getPercentile( 99 ) ); //$NON-NLS-1$
+      Map<String, Long> bucketMap = new LinkedHashMap<String, Long>();
+      for ( int i = 0; i < BUCKETS.length; i++ ) {
+        bucketMap.put( String.valueOf( BUCKETS[ i ] ), buckets.get( i ) );
+      }
+      bucketMap.put( "+Inf", buckets.get( BUCKETS.length ) ); //$NON-NLS-1$
+      map.put( "buckets", bucketMap ); //$NON-NLS-1$
+      return map;
+    }
+  }
+}
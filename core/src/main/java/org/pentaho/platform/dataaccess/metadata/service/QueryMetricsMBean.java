@@ -0,0 +1,46 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+/**
+ * The JMX view of the {@link QueryMetrics}, registered as {@link QueryMetrics#OBJECT_NAME}
+ */
+public interface QueryMetricsMBean {
+
+  /**
+   * Returns the number of metadata queries that have been measured
+   */
+  long getQueryCount();
+
+  /**
+   * Returns the number of metadata queries written to the slow query log
+   */
+  long getSlowQueryCount();
+
+  /**
+   * Returns the number of milliseconds after which a query is written to the slow query log, 0 if it is disabled
+   */
+  long getSlowQueryThreshold();
+
+  void setSlowQueryThreshold( long slowQueryThreshold );
+
+  /**
+   * Returns the latency histograms, rows and bytes of each model as JSON, see {@link QueryMetrics#getStatistics()}
+   */
+  String getStatisticsJson();
+
+  /**
+   * Clears the statistics
+   */
+  void reset();
+}
@@ -0,0 +1,45 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Thrown when a metadata query is not admitted because its connection is busy. The REST layer turns it into a
+ * 429 Too Many Requests response with a Retry-After header.
+ */
+public class QueryRejectedException extends WebApplicationException {
+
+  private static final long serialVersionUID = -4529516372513095402L;
+
+  public static final int TOO_MANY_REQUESTS = 429;
+
+  private final int retryAfter;
+
+  /**
+   * @param message
+   * @param retryAfter the number of seconds after which the client can try again
+   */
+  public QueryRejectedException( String message, int retryAfter ) {
+    super( message, Response.status( TOO_MANY_REQUESTS ).header( HttpHeaders.RETRY_AFTER, retryAfter )
+      .type( MediaType.TEXT_PLAIN ).entity( message ).build() );
+    this.retryAfter = retryAfter;
+  }
+
+  public int getRetryAfter() {
+    return retryAfter;
+  }
+}
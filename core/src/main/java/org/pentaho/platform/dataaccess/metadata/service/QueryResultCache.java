@@ -0,0 +1,222 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.concept.security.RowLevelSecurity;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.security.SecurityHelper;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * An optional cache of the in-memory result sets returned by {@link MetadataService#executeQuery}. Results are keyed by
+ * the MQL of the query (which includes the parameter values), the row limit and the row level security identity of the
+ * caller, expire after a time to live and are evicted by their estimated size in bytes. A model can opt out by setting
+ * the {@link #CACHE_PROPERTY} property to false.
+ */
+public class QueryResultCache extends DomainVersionedCache<String, QueryResultCache.CachedResult> {
+
+  /**
+   * The logical model property that disables the cache for the queries of the model when set to false
+   */
+  public static final String CACHE_PROPERTY = "data_access_result_cache"; //$NON-NLS-1$
+
+  private static final QueryResultCache INSTANCE =
+    new QueryResultCache( MetadataServiceSettings.getQueryResultCacheSize() * 1024L * 1024L,
+      MetadataServiceSettings.getQueryResultCacheTtl() * 1000L );
+
+  public static QueryResultCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param maxBytes   the maximum estimated size of the cached results, 0 disables the cache
+   * @param timeToLive the time in milliseconds a result is kept
+   */
+  public QueryResultCache( long maxBytes, long timeToLive ) {
+    super( maxBytes, timeToLive );
+  }
+
+  public boolean isEnabled() {
+    return getMaxWeight() > 0;
+  }
+
+  /**
+   * Returns a new result set over a cached result, or null if the result is not cached
+   *
+   * @param domainId
+   * @param key
+   * @return
+   */
+  public IPentahoResultSet getResultSet( String domainId, String key ) {
+    CachedResult result = get( domainId, key );
+    return result == null ? null : result.newResultSet();
+  }
+
+  @Override
+  protected long weigh( CachedResult value ) {
+    return value.bytes;
+  }
+
+  /**
+   * Returns false if the model has opted out of the cache
+   *
+   * @param model
+   * @return
+   */
+  public static boolean isCacheable( LogicalModel model ) {
+    Object value = model.getProperty( CACHE_PROPERTY );
+    return value == null || !"false".equalsIgnoreCase( value.toString().trim() ); //$NON-NLS-1$
+  }
+
+  /**
+   * Creates the key of a query result
+   *
+   * @param domainId
+   * @param modelId
+   * @param mql      the MQL of the query, including its parameter values
+   * @param rowLimit
+   * @param identity the row level security identity of the caller, see {@link #getSecurityIdentity}
+   * @return
+   */
+  public static String createKey( String domainId, String modelId, String mql, Integer rowLimit, String identity ) {
+    StringBuilder sb = new StringBuilder();
+    sb.append( domainId.length() ).append( ':' ).append( domainId );
+    sb.append( modelId.length() ).append( ':' ).append( modelId );
+    sb.append( rowLimit == null || rowLimit < 0 ? -1 : rowLimit ).append( ':' );
+    sb.append( identity.length() ).append( ':' ).append( identity );
+    sb.append( mql );
+    return sb.toString();
+  }
+
+  /**
+   * Returns the identity that row level security resolves the query of the current user with. Models without row
+   * level security share their results between all users.
+   *
+   * @param model
+   * @return
+   */
+  public static String getSecurityIdentity( LogicalModel model ) {
+    RowLevelSecurity security = model.getRowLevelSecurity();
+    if ( security == null || security.getType() == RowLevelSecurity.Type.NONE ) {
+      return ""; //$NON-NLS-1$
+    }
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    Authentication auth = SecurityHelper.getInstance().getAuthentication( session, true );
+    List<String> roles = new ArrayList<String>();
+    String user = session == null ? null : session.getName();
+    if ( auth != null ) {
+      user = auth.getName();
+      for ( GrantedAuthority role : auth.getAuthorities() ) {
+        roles.add( role.getAuthority() );
+      }
+    }
+    return getSecurityIdentity( user, roles );
+  }
+
+  /**
+   * Returns the name and roles of the authenticated user of the current thread, or the session name if nobody is
+   * authenticated
+   *
+   * @return
+   */
+  public static String getUserIdentity() {
+    Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+    if ( auth == null ) {
+      IPentahoSession session = PentahoSessionHolder.getSession();
+      return getSecurityIdentity( session == null ? null : session.getName(), Collections.<String>emptyList() );
+    }
+    List<String> roles = new ArrayList<String>();
+    for ( GrantedAuthority role : auth.getAuthorities() ) {
+      roles.add( role.getAuthority() );
+    }
+    return getSecurityIdentity( auth.getName(), roles );
+  }
+
+  static String getSecurityIdentity( String user, Collection<String> roles ) {
+    List<String> sortedRoles = new ArrayList<String>( roles );
+    Collections.sort( sortedRoles );
+    StringBuilder sb = new StringBuilder();
+    sb.append( user == null ? "-" : user.length() + ":" + user ); //$NON-NLS-1$ //$NON-NLS-2$
+    for ( String role : sortedRoles ) {
+      sb.append( role.length() ).append( ':' ).append( role );
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The rows of a query result and their estimated size
+   */
+  static final class CachedResult {
+    private final IPentahoMetaData metaData;
+    private final List<Object[]> rows = new ArrayList<Object[]>();
+    private long bytes;
+
+    CachedResult( IPentahoResultSet resultSet ) {
+      metaData = resultSet.getMetaData();
+      try {
+        Object[] row = resultSet.next();
+        while ( row != null ) {
+          rows.add( row );
+          bytes += estimateSize( row );
+          row = resultSet.next();
+        }
+      } finally {
+        resultSet.close();
+      }
+    }
+
+    /**
+     * Returns a result set over copies of the rows, so a caller that changes a row does not change it for the others
+     */
+    IPentahoResultSet newResultSet() {
+      MemoryResultSet resultSet = new MemoryResultSet( metaData );
+      for ( Object[] row : rows ) {
+        resultSet.addRow( row.clone() );
+      }
+      return resultSet;
+    }
+
+    long getBytes() {
+      return bytes;
+    }
+
+    private static long estimateSize( Object[] row ) {
+      long size = 16 + 8L * row.length;
+      for ( Object value : row ) {
+        if ( value == null ) {
+          continue;
+        } else if ( value instanceof String ) {
+          size += 40 + 2L * ( (String) value ).length();
+        } else if ( value instanceof Number || value instanceof Date || value instanceof Boolean ) {
+          size += 24;
+        } else {
+          size += 64;
+        }
+      }
+      return size;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.metadata.model.IPhysicalColumn;
+import org.pentaho.metadata.model.concept.Concept;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.metadata.query.model.util.QueryXmlHelper;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.ResultSetTransformGenerator;
+import org.pentaho.platform.dataaccess.metadata.messages.Messages;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+import org.pentaho.platform.engine.security.SecurityHelper;
+
+/**
+ * Keeps the tables of materialized queries in the staging database configured by <code>data-access-staging-jndi</code>.
+ * The queries are executed as the system user through the {@link MetadataService}, and loaded with a
+ * {@link ResultSetTransformGenerator}.
+ */
+class StagingMaterializedQueryStore implements MaterializedQueryManager.Store {
+
+  private volatile DatabaseMeta databaseMeta;
+
+  @Override
+  public MaterializedQueryManager.Snapshot load( final String json, final String table ) throws Exception {
+    return SecurityHelper.getInstance().runAsSystem( () -> {
+      MetadataService service = new MetadataService();
+      org.pentaho.metadata.query.model.Query query = service.getQueryFromJson( json );
+      if ( query == null ) {
+        throw new IllegalArgumentException( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ) );
+      }
+      String key = MaterializedQueryManager.createKey( query.getDomain().getId(), query.getLogicalModel().getId(),
+        new QueryXmlHelper().toXML( query ) );
+      DatabaseMeta target = getDatabaseMeta();
+      IPentahoResultSet resultSet = service.executeQuery( query, null, true );
+      if ( resultSet == null ) {
+        throw new IllegalStateException( Messages.getErrorString( "MetadataService.ERROR_0008_BAD_QUERY" ) );
+      }
+      // the metadata of a live result set may not outlive its connection
+      IPentahoMetaData metaData = copyMetaData( resultSet.getMetaData() );
+      ResultSetTransformGenerator generator = new ResultSetTransformGenerator( metaData, target );
+      generator.setTableName( table );
+      IPentahoSession session = PentahoSessionHolder.getSession();
+      int rows = generator.loadResultSet( resultSet, session != null ? session
+        : new StandaloneSession( "materialized-query" ) ); //$NON-NLS-1$
+      return new MaterializedQueryManager.Snapshot( key, metaData, generator.getValueTypes(), rows );
+    } );
+  }
+
+  @Override
+  public IPentahoResultSet read( String table, IPentahoMetaData metaData, Class<?>[] valueTypes, Integer rowLimit )
+    throws Exception {
+    DatabaseMeta meta = getDatabaseMeta();
+    int count = metaData.getColumnCount();
+    int[] types = new int[ count ];
+    StringBuilder sql = new StringBuilder( "SELECT " ); //$NON-NLS-1$
+    for ( int i = 0; i < count; i++ ) {
+      Object type = metaData.getAttribute( 0, i, IPhysicalColumn.DATATYPE_PROPERTY );
+      types[ i ] = ResultSetTransformGenerator.getValueType( type instanceof DataType ? (DataType) type : null );
+      sql.append( i == 0 ? "" : ", " ).append( meta.quoteField( ResultSetTransformGenerator.getColumnName( i ) ) );
+    }
+    sql.append( " FROM " ).append( meta.getQuotedSchemaTableCombination( AgileHelper.getSchemaName(), table ) );
+    sql.append( " ORDER BY " ).append( meta.quoteField( ResultSetTransformGenerator.ROW_INDEX_COLUMN ) );
+
+    MemoryResultSet result = new MemoryResultSet( metaData );
+    try ( Connection connection = AgileHelper.getConnection( AgileHelper.getJndiName() );
+          Statement statement = connection.createStatement() ) {
+      if ( rowLimit != null && rowLimit > -1 ) {
+        statement.setMaxRows( rowLimit );
+      }
+      try ( ResultSet resultSet = statement.executeQuery( sql.toString() ) ) {
+        while ( resultSet.next() ) {
+          Object[] row = new Object[ count ];
+          for ( int i = 0; i < count; i++ ) {
+            Object value = getValue( resultSet, i + 1, types[ i ] );
+            row[ i ] = valueTypes == null || i >= valueTypes.length ? value
+              : ResultSetTransformGenerator.restoreValue( value, valueTypes[ i ] );
+          }
+          result.addRow( row );
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void drop( String table ) throws Exception {
+    new ResultSetTransformGenerator( null, getDatabaseMeta() ).dropTable( table );
+  }
+
+  @Override
+  public List<String> listTables( String prefix ) throws Exception {
+    List<String> tables = new ArrayList<String>();
+    try ( Connection connection = AgileHelper.getConnection( AgileHelper.getJndiName() );
+          ResultSet resultSet = connection.getMetaData().getTables( null, AgileHelper.getSchemaName(), null,
+            new String[] { "TABLE" } ) ) { //$NON-NLS-1$
+      while ( resultSet.next() ) {
+        // some databases keep unquoted names in lower case
+        String table = resultSet.getString( "TABLE_NAME" ).toUpperCase( Locale.ROOT ); //$NON-NLS-1$
+        if ( table.startsWith( prefix ) ) {
+          tables.add( table );
+        }
+      }
+    }
+    return tables;
+  }
+
+  private DatabaseMeta getDatabaseMeta() {
+    if ( databaseMeta == null ) {
+      // finding the dialect takes a connection
+      databaseMeta = AgileHelper.getDatabaseMeta();
+    }
+    return databaseMeta;
+  }
+
+  private static Object getValue( ResultSet resultSet, int column, int type ) throws Exception {
+    Object value;
+    switch ( type ) {
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        value = resultSet.getBigDecimal( column );
+        break;
+      case ValueMetaInterface.TYPE_DATE:
+        Timestamp timestamp = resultSet.getTimestamp( column );
+        value = timestamp == null ? null : new java.util.Date( timestamp.getTime() );
+        break;
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        value = resultSet.getBoolean( column );
+        break;
+      default:
+        value = resultSet.getString( column );
+        break;
+    }
+    return resultSet.wasNull() ? null : value;
+  }
+
+  /**
+   * Copies the column headers and the column attributes that the result writers use
+   *
+   * @param metaData
+   * @return
+   */
+  static IPentahoMetaData copyMetaData( IPentahoMetaData metaData ) {
+    int count = metaData.getColumnCount();
+    Object[] headers = new Object[ count ];
+    final Object[] dataTypes = new Object[ count ];
+    final Object[] names = new Object[ count ];
+    for ( int i = 0; i < count; i++ ) {
+      headers[ i ] = metaData.getColumnHeaders()[ 0 ][ i ];
+      dataTypes[ i ] = metaData.getAttribute( 0, i, IPhysicalColumn.DATATYPE_PROPERTY );
+      names[ i ] = metaData.getAttribute( 0, i, Concept.NAME_PROPERTY );
+    }
+    return new MemoryMetaData( new Object[][] { headers }, null ) {
+      @Override
+      public Object getAttribute( int rowNo, int columnNo, String attributeName ) {
+        if ( IPhysicalColumn.DATATYPE_PROPERTY.equals( attributeName ) ) {
+          return dataTypes[ columnNo ];
+        } else if ( Concept.NAME_PROPERTY.equals( attributeName ) ) {
+          return names[ columnNo ];
+        }
+        return null;
+      }
+    };
+  }
+}
@@ -0,0 +1,107 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Model;
+
+/**
+ * A bounded cache of the thin models built by {@link MetadataServiceUtil#createThinModel}. Models are keyed by domain
+ * id, model id and the locale resolved for the domain, and are dropped when the domain changes. A model is only
+ * returned for the domain object it was built from, so a domain the repository reloaded without the plugin being told
+ * is not answered with a stale model. The models are mutable, so every caller gets a copy of its own.
+ */
+public class ThinModelCache extends DomainVersionedCache<ThinModelCache.Key, ThinModelCache.CachedModel> {
+
+  private static final ThinModelCache INSTANCE = new ThinModelCache( MetadataServiceSettings.getThinModelCacheSize() );
+
+  public static ThinModelCache getInstance() {
+    return INSTANCE;
+  }
+
+  public ThinModelCache( int maxEntries ) {
+    super( maxEntries );
+  }
+
+  /**
+   * Returns a copy of the cached thin model, or null if there is none for the current version of the domain or it was
+   * built from another domain object
+   *
+   * @param domainId
+   * @param modelId
+   * @param locale
+   * @param domain   the domain the repository returned for the id
+   * @return
+   */
+  public Model get( String domainId, String modelId, String locale, Domain domain ) {
+    CachedModel cached = get( domainId, new Key( domainId, modelId, locale ) );
+    return cached == null || cached.domain != domain ? null : new Model( cached.model );
+  }
+
+  /**
+   * Caches a copy of a thin model that was built from the given version of the domain
+   *
+   * @param domainId
+   * @param modelId
+   * @param locale
+   * @param version
+   * @param domain   the domain the model was built from
+   * @param model
+   */
+  public void put( String domainId, String modelId, String locale, long version, Domain domain, Model model ) {
+    put( domainId, new Key( domainId, modelId, locale ), version, new CachedModel( domain, new Model( model ) ) );
+  }
+
+  static final class CachedModel {
+    private final Domain domain;
+    private final Model model;
+
+    CachedModel( Domain domain, Model model ) {
+      this.domain = domain;
+      this.model = model;
+    }
+  }
+
+  static final class Key {
+    private final String domainId;
+    private final String modelId;
+    private final String locale;
+
+    Key( String domainId, String modelId, String locale ) {
+      this.domainId = domainId;
+      this.modelId = modelId;
+      this.locale = locale;
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+      if ( this == o ) {
+        return true;
+      }
+      if ( !( o instanceof Key ) ) {
+        return false;
+      }
+      Key other = (Key) o;
+      return domainId.equals( other.domainId ) && modelId.equals( other.modelId )
+        && ( locale == null ? other.locale == null : locale.equals( other.locale ) );
+    }
+
+    @Override
+    public int hashCode() {
+      int result = domainId.hashCode();
+      result = 31 * result + modelId.hashCode();
+      result = 31 * result + ( locale == null ? 0 : locale.hashCode() );
+      return result;
+    }
+  }
+}
@@ -0,0 +1,769 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import org.pentaho.platform.dataaccess.metadata.model.impl.Category;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Column;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Condition;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Model;
+import org.pentaho.platform.dataaccess.metadata.model.impl.ModelInfo;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Order;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Parameter;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Query;
+
+/**
+ * Reads and writes the thin metadata model as JSON without reflection. The JSON is the same as the one written and
+ * read by flexjson: every bean property is written in alphabetical order, including the "class" property and null
+ * values. When reading, the type of each object is given by its position in the model, so the "class" property and
+ * unknown properties are ignored.
+ */
+public class ThinModelJsonCodec {
+
+  private static final String CLASS = "class"; //$NON-NLS-1$
+
+  private ThinModelJsonCodec() {
+  }
+
+  /**
+   * Reads a thin query from its JSON representation
+   *
+   * @param json
+   * @return the query, or null if the JSON is the null literal
+   * @throws IllegalArgumentException if the JSON is malformed
+   */
+  public static Query readQuery( String json ) {
+    JsonReader reader = new JsonReader( json );
+    Query query = reader.readObject( Query::new, ThinModelJsonCodec::readQuery );
+    reader.end();
+    return query;
+  }
+
+  public static String writeQuery( Query query ) {
+    JsonWriter writer = new JsonWriter();
+    writeQuery( writer, query );
+    return writer.toString();
+  }
+
+  public static String writeModel( Model model ) {
+    JsonWriter writer = new JsonWriter();
+    writeModel( writer, model );
+    return writer.toString();
+  }
+
+  public static String writeModelInfos( ModelInfo[] models ) {
+    JsonWriter writer = new JsonWriter();
+    if ( models == null ) {
+      writer.nullValue();
+    } else {
+      writer.beginArray();
+      for ( ModelInfo model : models ) {
+        writer.separator();
+        writeModelInfo( writer, model );
+      }
+      writer.endArray();
+    }
+    return writer.toString();
+  }
+
+  private static void readQuery( JsonReader reader, Query query, String name ) {
+    switch ( name ) {
+      case "columns": //$NON-NLS-1$
+        query.setColumns(
+          reader.readArray( r -> r.readObject( Column::new, ThinModelJsonCodec::readColumn ),
+          Column[]::new ) );
+        break;
+      case "conditions": //$NON-NLS-1$
+        query.setConditions(
+          reader.readArray( r -> r.readObject( Condition::new, ThinModelJsonCodec::readCondition ),
+          Condition[]::new ) );
+        break;
+      case "orders": //$NON-NLS-1$
+        query.setOrders(
+          reader.readArray( r -> r.readObject( Order::new, ThinModelJsonCodec::readOrder ),
+          Order[]::new ) );
+        break;
+      case "parameters": //$NON-NLS-1$
+        query.setParameters(
+          reader.readArray( r -> r.readObject( Parameter::new, ThinModelJsonCodec::readParameter ),
+          Parameter[]::new ) );
+        break;
+      case "domainName": //$NON-NLS-1$
+        query.setDomainName( reader.readString() );
+        break;
+      case "modelId": //$NON-NLS-1$
+        query.setModelId( reader.readString() );
+        break;
+      case "disableDistinct": //$NON-NLS-1$
+        query.setDisableDistinct( reader.readBoolean() );
+        break;
+      case "defaultParameterMap": //$NON-NLS-1$
+        query.setDefaultParameterMap( reader.readStringMap() );
+        break;
+      default:
+        reader.skipValue();
+    }
+  }
+
+  private static void readColumn( JsonReader reader, Column column, String name ) {
+    switch ( name ) {
+      case "id": //$NON-NLS-1$
+        column.setId( reader.readString() );
+        break;
+      case "name": //$NON-NLS-1$
+        column.setName( reader.readString() );
+        break;
+      case "description": //$NON-NLS-1$
+        column.setDescription( reader.readString() );
+        break;
+      case "type": //$NON-NLS-1$
+        column.setType( reader.readString() );
+        break;
+      case "aggTypes": //$NON-NLS-1$
+        column.setAggTypes( reader.readStringArray() );
+        break;
+      case "defaultAggType": //$NON-NLS-1$
+        column.setDefaultAggType( reader.readString() );
+        break;
+      case "selectedAggType": //$NON-NLS-1$
+        column.setSelectedAggType( reader.readString() );
+        break;
+      case "fieldType": //$NON-NLS-1$
+        column.setFieldType( reader.readString() );
+        break;
+      case "category": //$NON-NLS-1$
+        column.setCategory( reader.readString() );
+        break;
+      case "horizontalAlignment": //$NON-NLS-1$
+        column.setHorizontalAlignment( reader.readString() );
+        break;
+      case "formatMask": //$NON-NLS-1$
+        column.setFormatMask( reader.readString() );
+        break;
+      case "hiddenForUser": //$NON-NLS-1$
+        Boolean hiddenForUser = reader.readBoolean();
+        if ( hiddenForUser != null ) {
+          column.setHiddenForUser( hiddenForUser );
+        }
+        break;
+      default:
+        reader.skipValue();
+    }
+  }
+
+  private static void readCondition( JsonReader reader, Condition condition, String name ) {
+    switch ( name ) {
+      case "column": //$NON-NLS-1$
+        condition.setColumn( reader.readString() );
+        break;
+      case "category": //$NON-NLS-1$
+        condition.setCategory( reader.readString() );
+        break;
+      case "operator": //$NON-NLS-1$
+        condition.setOperator( reader.readString() );
+        break;
+      case "value": //$NON-NLS-1$
+        condition.setValue( reader.readStringArray() );
+        break;
+      case "combinationType": //$NON-NLS-1$
+        condition.setCombinationType( reader.readString() );
+        break;
+      case "parameterized": //$NON-NLS-1$
+        Boolean parameterized = reader.readBoolean();
+        if ( parameterized != null ) {
+          condition.setParameterized( parameterized );
+        }
+        break;
+      case "selectedAggType": //$NON-NLS-1$
+        condition.setSelectedAggType( reader.readString() );
+        break;
+      default:
+        reader.skipValue();
+    }
+  }
+
+  private static void readOrder( JsonReader reader, Order order, String name ) {
+    switch ( name ) {
+      case "column": //$NON-NLS-1$
+        order.setColumn( reader.readString() );
+        break;
+      case "category": //$NON-NLS-1$
+        order.setCategory( reader.readString() );
+        break;
+      case "orderType": //$NON-NLS-1$
+        order.setOrderType( reader.readString() );
+        break;
+      default:
+        reader.skipValue();
+    }
+  }
+
+  private static void readParameter( JsonReader reader, Parameter parameter, String name ) {
+    switch ( name ) {
+      case "column": //$NON-NLS-1$
+        parameter.setColumn( reader.readString() );
+        break;
+      case "name": //$NON-NLS-1$
+        parameter.setName( reader.readString() );
+        break;
+      case "type": //$NON-NLS-1$
+        parameter.setType( reader.readString() );
+        break;
+      case "value": //$NON-NLS-1$
+        parameter.setValue( reader.readStringArray() );
+        break;
+      case "defaultValue": //$NON-NLS-1$
+        parameter.setDefaultValue( reader.readStringArray() );
+        break;
+      default:
+        reader.skipValue();
+    }
+  }
+
+  private static void writeQuery( JsonWriter writer, Query query ) {
+    if ( query == null ) {
+      writer.nullValue();
+      return;
+    }
+    writer.beginObject();
+    writer.property( CLASS, Query.class.getName() );
+    writer.name( "columns" ); //$NON-NLS-1$
+    writer.array( query.getColumns(), ThinModelJsonCodec::writeColumn );
+    writer.name( "conditions" ); //$NON-NLS-1$
+    writer.array( query.getConditions(), ThinModelJsonCodec::writeCondition );
+    writer.name( "defaultParameterMap" ); //$NON-NLS-1$
+    writer.value( query.getDefaultParameterMap() );
+    writer.name( "disableDistinct" ); //$NON-NLS-1$
+    writer.value( query.getDisableDistinct() );
+    writer.property( "domainName", query.getDomainName() ); //$NON-NLS-1$
+    writer.property( "modelId", query.getModelId() ); //$NON-NLS-1$
+    writer.name( "orders" ); //$NON-NLS-1$
+    writer.array( query.getOrders(), ThinModelJsonCodec::writeOrder );
+    writer.name( "parameters" ); //$NON-NLS-1$
+    writer.array( query.getParameters(), ThinModelJsonCodec::writeParameter );
+    writer.endObject();
+  }
+
+  private static void writeColumn( JsonWriter writer, Column column ) {
+    writer.beginObject();
+    writer.name( "aggTypes" ); //$NON-NLS-1$
+    writer.value( column.getAggTypes() );
+    writer.property( "category", column.getCategory() ); //$NON-NLS-1$
+    writer.property( CLASS, Column.class.getName() );
+    writer.property( "defaultAggType", column.getDefaultAggType() ); //$NON-NLS-1$
+    writer.property( "description", column.getDescription() ); //$NON-NLS-1$
+    writer.property( "fieldType", column.getFieldType() ); //$NON-NLS-1$
+    writer.property( "formatMask", column.getFormatMask() ); //$NON-NLS-1$
+    writer.name( "hiddenForUser" ); //$NON-NLS-1$
+    writer.value( column.isHiddenForUser() );
+    writer.property( "horizontalAlignment", column.getHorizontalAlignment() ); //$NON-NLS-1$
+    writer.property( "id", column.getId() ); //$NON-NLS-1$
+    writer.property( "name", column.getName() ); //$NON-NLS-1$
+    writer.property( "selectedAggType", column.getSelectedAggType() ); //$NON-NLS-1$
+    writer.property( "type", column.getType() ); //$NON-NLS-1$
+    writer.endObject();
+  }
+
+  private static void writeCondition( JsonWriter writer, Condition condition ) {
+    writer.beginObject();
+    writer.property( "category", condition.getCategory() ); //$NON-NLS-1$
+    writer.property( CLASS, Condition.class.getName() );
+    writer.property( "column", condition.getColumn() ); //$NON-NLS-1$
+    writer.property( "combinationType", condition.getCombinationType() ); //$NON-NLS-1$
+    writer.property( "operator", condition.getOperator() ); //$NON-NLS-1$
+    writer.name( "parameterized" ); //$NON-NLS-1$
+    writer.value( condition.isParameterized() );
+    writer.property( "selectedAggType", condition.getSelectedAggType() ); //$NON-NLS-1$
+    writer.name( "value" ); //$NON-NLS-1$
+    writer.value( condition.getValue() );
+    writer.endObject();
+  }
+
+  private static void writeOrder( JsonWriter writer, Order order ) {
+    writer.beginObject();
+    writer.property( "category", order.getCategory() ); //$NON-NLS-1$
+    writer.property( CLASS, Order.class.getName() );
+    writer.property( "column", order.getColumn() ); //$NON-NLS-1$
+    writer.property( "orderType", order.getOrderType() ); //$NON-NLS-1$
+    writer.endObject();
+  }
+
+  private static void writeParameter( JsonWriter writer, Parameter parameter ) {
+    writer.beginObject();
+    writer.property( CLASS, Parameter.class.getName() );
+    writer.property( "column", parameter.getColumn() ); //$NON-NLS-1$
+    writer.name( "defaultValue" ); //$NON-NLS-1$
+    writer.value( parameter.getDefaultValue() );
+    writer.property( "name", parameter.getName() ); //$NON-NLS-1$
+    writer.property( "type", parameter.getType() ); //$NON-NLS-1$
+    writer.name( "value" ); //$NON-NLS-1$
+    writer.value( parameter.getValue() );
+    writer.endObject();
+  }
+
+  private static void writeModel( JsonWriter writer, Model model ) {
+    if ( model == null ) {
+      writer.nullValue();
+      return;
+    }
+    writer.beginObject();
+    writer.name( "categories" ); //$NON-NLS-1$
+    writer.array( model.getCategories(), ThinModelJsonCodec::writeCategory );
+    writer.property( CLASS, Model.class.getName() );
+    writer.property( "description", model.getDescription() ); //$NON-NLS-1$
+    writer.property( "domainId", model.getDomainId() ); //$NON-NLS-1$
+    writer.property( "id", model.getId() ); //$NON-NLS-1$
+    writer.property( "name", model.getName() ); //$NON-NLS-1$
+    writer.endObject();
+  }
+
+  private static void writeCategory( JsonWriter writer, Category category ) {
+    writer.beginObject();
+    writer.property( CLASS, Category.class.getName() );
+    writer.name( "columns" ); //$NON-NLS-1$
+    writer.array( category.getColumns(), ThinModelJsonCodec::writeColumn );
+    writer.property( "description", category.getDescription() ); //$NON-NLS-1$
+    writer.property( "id", category.getId() ); //$NON-NLS-1$
+    writer.property( "name", category.getName() ); //$NON-NLS-1$
+    writer.endObject();
+  }
+
+  private static void writeModelInfo( JsonWriter writer, ModelInfo model ) {
+    if ( model == null ) {
+      writer.nullValue();
+      return;
+    }
+    writer.beginObject();
+    writer.property( CLASS, ModelInfo.class.getName() );
+    writer.property( "domainId", model.getDomainId() ); //$NON-NLS-1$
+    writer.property( "modelDescription", model.getModelDescription() ); //$NON-NLS-1$
+    writer.property( "modelId", model.getModelId() ); //$NON-NLS-1$
+    writer.property( "modelName", model.getModelName() ); //$NON-NLS-1$
+    writer.endObject();
+  }
+
+  interface PropertyReader<T> {
+    void read( JsonReader reader, T bean, String name );
+  }
+
+  interface ValueReader<T> {
+    T read( JsonReader reader );
+  }
+
+  interface ObjectWriter<T> {
+    void write( JsonWriter writer, T bean );
+  }
+
+  /**
+   * A pull reader over a JSON string that binds values straight into the thin model beans
+   */
+  static final class JsonReader {
+    private final String json;
+    private int pos;
+
+    JsonReader( String json ) {
+      if ( json == null ) {
+        throw new IllegalArgumentException( "null JSON" ); //$NON-NLS-1$
+      }
+      this.json = json;
+    }
+
+    <T> T readObject( Supplier<T> factory, PropertyReader<T> properties ) {
+      if ( consumeNull() ) {
+        return null;
+      }
+      T bean = factory.get();
+      expect( '{' );
+      if ( peek() == '}' ) {
+        pos++;
+        return bean;
+      }
+      do {
+        String name = readQuoted();
+        expect( ':' );
+        properties.read( this, bean, name );
+      } while ( consume( ',' ) );
+      expect( '}' );
+      return bean;
+    }
+
+    <T> T[] readArray( ValueReader<T> element, IntFunction<T[]> arrayFactory ) {
+      if ( consumeNull() ) {
+        return null;
+      }
+      List<T> values = new ArrayList<T>();
+      if ( peek() != '[' ) {
+        values.add( element.read( this ) );
+        return values.toArray( arrayFactory.apply( 1 ) );
+      }
+      pos++;
+      if ( peek() == ']' ) {
+        pos++;
+        return arrayFactory.apply( 0 );
+      }
+      do {
+        values.add( element.read( this ) );
+      } while ( consume( ',' ) );
+      expect( ']' );
+      return values.toArray( arrayFactory.apply( values.size() ) );
+    }
+
+    String[] readStringArray() {
+      return readArray( JsonReader::readString, String[]::new );
+    }
+
+    /**
+     * Reads a string; numbers and booleans are read as their text so they bind to string properties like flexjson
+     * does
+     */
+    String readString() {
+      char c = peek();
+      if ( c == '"' ) {
+        return readQuoted();
+      }
+      if ( c == '{' || c == '[' ) {
+        throw error( "string expected" ); //$NON-NLS-1$
+      }
+      String literal = readLiteral();
+      return "null".equals( literal ) ? null : literal; //$NON-NLS-1$
+    }
+
+    Boolean readBoolean() {
+      String value = readString();
+      return value == null ? null : Boolean.valueOf( value );
+    }
+
+    Map<String, String> readStringMap() {
+      if ( consumeNull() ) {
+        return null;
+      }
+      Map<String, String> map = new HashMap<String, String>();
+      expect( '{' );
+      if ( peek() == '}' ) {
+        pos++;
+        return map;
+      }
+      do {
+        String name = readQuoted();
+        expect( ':' );
+        map.put( name, readString() );
+      } while ( consume( ',' ) );
+      expect( '}' );
+      return map;
+    }
+
+    void skipValue() {
+      char c = peek();
+      if ( c == '"' ) {
+        readQuoted();
+      } else if ( c == '{' || c == '[' ) {
+        char close = c == '{' ? '}' : ']';
+        pos++;
+        if ( peek() == close ) {
+          pos++;
+          return;
+        }
+        do {
+          if ( close == '}' ) {
+            readQuoted();
+            expect( ':' );
+          }
+          skipValue();
+        } while ( consume( ',' ) );
+        expect( close );
+      } else {
+        readLiteral();
+      }
+    }
+
+    void end() {
+      if ( peek() != 0 ) {
+        throw error( "unexpected content" ); //$NON-NLS-1$
+      }
+    }
+
+    private String readQuoted() {
+      expect( '"' );
+      StringBuilder builder = null;
+      int start = pos;
+      while ( true ) {
+        if ( pos >= json.length() ) {
+          throw error( "unterminated string" ); //$NON-NLS-1$
+        }
+        char c = json.charAt( pos++ );
+        if ( c == '"' ) {
+          if ( builder == null ) {
+            return json.substring( start, pos - 1 );
+          }
+          return builder.append( json, start, pos - 1 ).toString();
+        }
+        if ( c == '\\' ) {
+          if ( builder == null ) {
+            builder = new StringBuilder();
+          }
+          builder.append( json, start, pos - 1 );
+          builder.append( readEscape() );
+          start = pos;
+        }
+      }
+    }
+
+    private char readEscape() {
+      if ( pos >= json.length() ) {
+        throw error( "unterminated string" ); //$NON-NLS-1$
+      }
+      char c = json.charAt( pos++ );
+      switch ( c ) {
+        case 'b':
+          return '\b';
+        case 'f':
+          return '\f';
+        case 'n':
+          return '\n';
+        case 'r':
+          return '\r';
+        case 't':
+          return '\t';
+        case 'u':
+          if ( pos + 4 > json.length() ) {
+            throw error( "bad unicode escape" ); //$NON-NLS-1$
+          }
+          try {
+            char unicode = (char) Integer.parseInt( json.substring( pos, pos + 4 ), 16 );
+            pos += 4;
+            return unicode;
+          } catch ( NumberFormatException e ) {
+            throw error( "bad unicode escape" ); //$NON-NLS-1$
+          }
+        default:
+          return c;
+      }
+    }
+
+    private String readLiteral() {
+      int start = pos;
+      while ( pos < json.length() ) {
+        char c = json.charAt( pos );
+        if ( c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace( c ) ) {
+          break;
+        }
+        pos++;
+      }
+      if ( start == pos ) {
+        throw error( "value expected" ); //$NON-NLS-1$
+      }
+      return json.substring( start, pos );
+    }
+
+    private boolean consumeNull() {
+      if ( peek() == 'n' && json.startsWith( "null", pos ) ) { //$NON-NLS-1$
+        pos += 4;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean consume( char c ) {
+      if ( peek() == c ) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect( char c ) {
+      if ( peek() != c ) {
+        throw error( "'" + c + "' expected" ); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      pos++;
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it, or 0 at the end of the JSON
+     */
+    private char peek() {
+      while ( pos < json.length() && Character.isWhitespace( json.charAt( pos ) ) ) {
+        pos++;
+      }
+      return pos < json.length() ? json.charAt( pos ) : 0;
+    }
+
+    private IllegalArgumentException error( String message ) {
+      return new IllegalArgumentException( message + " at position " + pos ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Writes JSON into a string, keeping track of the separators between values
+   */
+  static final class JsonWriter {
+    private final StringBuilder builder = new StringBuilder( 1024 );
+    private boolean first = true;
+
+    void beginObject() {
+      builder.append( '{' );
+      first = true;
+    }
+
+    void endObject() {
+      builder.append( '}' );
+      first = false;
+    }
+
+    void beginArray() {
+      builder.append( '[' );
+      first = true;
+    }
+
+    void endArray() {
+      builder.append( ']' );
+      first = false;
+    }
+
+    /**
+     * Writes the comma that separates the next array element from the previous one
+     */
+    void separator() {
+      if ( !first ) {
+        builder.append( ',' );
+      }
+      first = false;
+    }
+
+    void name( String name ) {
+      separator();
+      quote( name );
+      builder.append( ':' );
+      first = true;
+    }
+
+    void property( String name, String value ) {
+      name( name );
+      value( value );
+    }
+
+    void nullValue() {
+      builder.append( "null" ); //$NON-NLS-1$
+      first = false;
+    }
+
+    void value( String value ) {
+      if ( value == null ) {
+        nullValue();
+      } else {
+        quote( value );
+        first = false;
+      }
+    }
+
+    void value( Boolean value ) {
+      if ( value == null ) {
+        nullValue();
+      } else {
+        builder.append( value.booleanValue() );
+        first = false;
+      }
+    }
+
+    void value( String[] values ) {
+      if ( values == null ) {
+        nullValue();
+        return;
+      }
+      beginArray();
+      for ( String value : values ) {
+        separator();
+        value( value );
+      }
+      endArray();
+    }
+
+    void value( Map<String, String> map ) {
+      if ( map == null ) {
+        nullValue();
+        return;
+      }
+      beginObject();
+      for ( Map.Entry<String, String> entry : new TreeMap<String, String>( map ).entrySet() ) {
+        property( entry.getKey(), entry.getValue() );
+      }
+      endObject();
+    }
+
+    <T> void array( T[] beans, ObjectWriter<T> element ) {
+      if ( beans == null ) {
+        nullValue();
+        return;
+      }
+      beginArray();
+      for ( T bean : beans ) {
+        separator();
+        if ( bean == null ) {
+          nullValue();
+        } else {
+          element.write( this, bean );
+        }
+      }
+      endArray();
+    }
+
+    private void quote( String value ) {
+      builder.append( '"' );
+      for ( int i = 0; i < value.length(); i++ ) {
+        char c = value.charAt( i );
+        switch ( c ) {
+          case '"':
+            builder.append( "\\\"" ); //$NON-NLS-1$
+            break;
+          case '\\':
+            builder.append( "\\\\" ); //$NON-NLS-1$
+            break;
+          case '\b':
+            builder.append( "\\b" ); //$NON-NLS-1$
+            break;
+          case '\f':
+            builder.append( "\\f" ); //$NON-NLS-1$
+            break;
+          case '\n':
+            builder.append( "\\n" ); //$NON-NLS-1$
+            break;
+          case '\r':
+            builder.append( "\\r" ); //$NON-NLS-1$
+            break;
+          case '\t':
+            builder.append( "\\t" ); //$NON-NLS-1$
+            break;
+          default:
+            if ( Character.isISOControl( c ) ) {
+              builder.append( String.format( "\\u%04x", (int) c ) ); //$NON-NLS-1$
+            } else {
+              builder.append( c );
+            }
+        }
+      }
+      builder.append( '"' );
+    }
+
+    @Override
+    public String toString() {
+      return builder.toString();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvParseException;
+
+public class ByteCsvTokenizerTest {
+
+  @Test
+  public void testIsSupported() {
+    assertTrue( ByteCsvTokenizer.isSupported( "UTF-8" ) );
+    assertTrue( ByteCsvTokenizer.isSupported( "utf-8" ) );
+    assertTrue( ByteCsvTokenizer.isSupported( "US-ASCII" ) );
+    assertFalse( ByteCsvTokenizer.isSupported( "UTF-16LE" ) );
+    assertFalse( ByteCsvTokenizer.isSupported( "ISO-8859-1" ) );
+    assertFalse( ByteCsvTokenizer.isSupported( "no such encoding" ) );
+    assertFalse( ByteCsvTokenizer.isSupported( null ) );
+  }
+
+  @Test
+  public void testColumns() throws Exception {
+    ByteCsvTokenizer tokenizer = tokenizer( "id;name\r\n1; caf\u00e9 \r\n2;\u00fcber;extra\r\n\r\n3;", 10 );
+    assertEquals( asList( "id;name", "1; caf\u00e9 ", "2;\u00fcber;extra", "", "3;" ), tokenizer.getLines() );
+
+    CsvColumns columns = tokenizer.tokenize( ";", null );
+    assertEquals( 5, columns.getRowCount() );
+    assertEquals( 3, columns.getColumnCount() );
+    assertEquals( asList( "1", "2", null, "3" ), columns.getColumn( 0, 1 ) );
+    assertEquals( asList( "caf\u00e9", "\u00fcber", null, null ), columns.getColumn( 1, 1 ) );
+    assertArrayEquals( new String[] { "id", "name", null }, columns.getRow( 0 ) );
+    assertArrayEquals( new String[] { "2", "\u00fcber", "extra" }, columns.getRow( 2 ) );
+  }
+
+  @Test
+  public void testEnclosedTokens() throws Exception {
+    CsvColumns columns = tokenizer( "\"a,b\",\"say \"\"hi\"\"\", \"x\"y\",\"\"\n", 10 ).tokenize( ",", "\"" );
+    assertArrayEquals( new String[] { "a,b", "say \"hi\"", "\"x\"y\"", "" }, columns.getRow( 0 ) );
+  }
+
+  @Test
+  public void testUnclosedEnclosure() throws Exception {
+    try {
+      tokenizer( "a,b\n\"c,d\n", 10 ).tokenize( ",", "\"" );
+      fail();
+    } catch ( CsvParseException e ) {
+      assertEquals( 2, e.getLineNumber() );
+      assertEquals( "\"c,d", e.getOffendingLine() );
+    }
+  }
+
+  @Test
+  public void testRowLimit() throws Exception {
+    assertEquals( asList( "a", "b" ), tokenizer( "a\rb\rc\r", 2 ).getLines() );
+    assertEquals( 0, tokenizer( "a\nb", 0 ).getLines().size() );
+  }
+
+  @Test
+  public void testMappedFile() throws Exception {
+    File file = File.createTempFile( "ByteCsvTokenizerTest", ".csv" );
+    file.deleteOnExit();
+    try ( FileOutputStream out = new FileOutputStream( file ) ) {
+      out.write( new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF } );
+      out.write( "col1|col2\n\u00e9|2\n".getBytes( StandardCharsets.UTF_8 ) );
+    }
+    ByteCsvTokenizer tokenizer = ByteCsvTokenizer.open( file.getAbsolutePath(), 10 );
+    assertEquals( asList( "col1|col2", "\u00e9|2" ), tokenizer.getLines() );
+    assertArrayEquals( new String[] { "\u00e9", "2" }, tokenizer.tokenize( "|", "\"" ).getRow( 1 ) );
+  }
+
+  @Test
+  public void testFileLargerThanFirstRead() throws Exception {
+    File file = File.createTempFile( "ByteCsvTokenizerTest", ".csv" );
+    file.deleteOnExit();
+    StringBuilder longValue = new StringBuilder();
+    while ( longValue.length() < ByteCsvTokenizer.READ_SIZE ) {
+      longValue.append( "0123456789" );
+    }
+    try ( FileOutputStream out = new FileOutputStream( file ) ) {
+      for ( int i = 0; i < 4; i++ ) {
+        out.write( ( i + "," + longValue + "\r\n" ).getBytes( StandardCharsets.UTF_8 ) );
+      }
+    }
+    // the second line does not fit in the first read
+    ByteCsvTokenizer tokenizer = ByteCsvTokenizer.open( file.getAbsolutePath(), 2 );
+    assertEquals( asList( "0," + longValue, "1," + longValue ), tokenizer.getLines() );
+    assertEquals( 2, ByteCsvTokenizer.open( file.getAbsolutePath(), 10 ).tokenize( ",", null ).getColumnCount() );
+    assertEquals( 4, ByteCsvTokenizer.open( file.getAbsolutePath(), 10 ).getLines().size() );
+    // the file is not held open or mapped
+    assertTrue( file.delete() );
+  }
+
+  private static ByteCsvTokenizer tokenizer( String contents, int rowLimit ) {
+    return new ByteCsvTokenizer( ByteBuffer.wrap( contents.getBytes( StandardCharsets.UTF_8 ) ), rowLimit );
+  }
+}
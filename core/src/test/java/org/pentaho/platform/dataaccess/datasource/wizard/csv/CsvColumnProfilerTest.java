@@ -0,0 +1,119 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class CsvColumnProfilerTest {
+
+  @Test
+  public void testStatistics() throws Exception {
+    CsvColumnProfiler profiler = profiler( ";", 1, 10 );
+    profiler.profile( new StringReader( "id;name;code\n1;b;x\n10;;y\n9;abc;\n-2;a;7" ) );
+
+    assertTrue( profiler.isComplete() );
+    assertEquals( 4, profiler.getRowCount() );
+    assertEquals( 3, profiler.getColumnCount() );
+
+    CsvColumnProfiler.ColumnStatistics id = profiler.getStatistics( 0 );
+    assertEquals( 0, id.getNullCount() );
+    assertEquals( 2, id.getMaxLength() );
+    assertEquals( "-2", id.getMin() );
+    assertEquals( "10", id.getMax() );
+    assertEquals( 4, id.getDistinctCount() );
+
+    CsvColumnProfiler.ColumnStatistics name = profiler.getStatistics( 1 );
+    assertEquals( 1, name.getNullCount() );
+    assertEquals( 3, name.getMaxLength() );
+    assertEquals( "a", name.getMin() );
+    assertEquals( "b", name.getMax() );
+
+    // one value that is not a number makes the column compare as strings
+    CsvColumnProfiler.ColumnStatistics code = profiler.getStatistics( 2 );
+    assertEquals( 1, code.getNullCount() );
+    assertEquals( "7", code.getMin() );
+    assertEquals( "y", code.getMax() );
+
+    assertNull( profiler.getStatistics( 3 ) );
+  }
+
+  @Test
+  public void testColumnThatShowsUpLate() throws Exception {
+    CsvColumnProfiler profiler = profiler( ",", 0, 10 );
+    profiler.profile( new StringReader( "1\r\n2\r\n3,4\r\n5" ) );
+
+    assertEquals( 2, profiler.getColumnCount() );
+    assertEquals( 3, profiler.getStatistics( 1 ).getNullCount() );
+
+    CsvColumns sample = profiler.getSample();
+    assertEquals( 4, sample.getRowCount() );
+    assertEquals( "4", sample.get( 2, 1 ) );
+    assertNull( sample.get( 3, 1 ) );
+  }
+
+  @Test
+  public void testReservoirSamplesTheWholeFile() throws Exception {
+    StringBuilder contents = new StringBuilder();
+    for ( int i = 0; i < 10000; i++ ) {
+      contents.append( i ).append( ',' ).append( i % 7 ).append( '\n' );
+    }
+    CsvColumnProfiler profiler = profiler( ",", 0, 100 );
+    profiler.profile( new StringReader( contents.toString() ) );
+
+    assertEquals( 10000, profiler.getRowCount() );
+    CsvColumns sample = profiler.getSample();
+    assertEquals( 100, sample.getRowCount() );
+    Set<String> rows = new HashSet<String>();
+    int late = 0;
+    for ( int row = 0; row < sample.getRowCount(); row++ ) {
+      rows.add( sample.get( row, 0 ) );
+      if ( Integer.parseInt( sample.get( row, 0 ) ) >= 5000 ) {
+        late++;
+      }
+    }
+    assertEquals( 100, rows.size() );
+    assertTrue( "late rows: " + late, late > 25 && late < 75 );
+
+    assertEquals( 7, profiler.getStatistics( 1 ).getDistinctCount() );
+    long distinct = profiler.getStatistics( 0 ).getDistinctCount();
+    assertTrue( "distinct: " + distinct, distinct > 9500 && distinct < 10500 );
+  }
+
+  @Test
+  public void testTimeBudget() throws Exception {
+    CsvColumnProfiler profiler = new CsvColumnProfiler( ",", "\"", 0, 10, 1, new Random( 1 ) );
+    Thread.sleep( 5 );
+    StringBuilder contents = new StringBuilder();
+    for ( int i = 0; i < 5000; i++ ) {
+      contents.append( i ).append( '\n' );
+    }
+    profiler.profile( new StringReader( contents.toString() ) );
+
+    assertFalse( profiler.isComplete() );
+    assertEquals( 1024, profiler.getRowCount() );
+  }
+
+  private static CsvColumnProfiler profiler( String delimiter, int headerRows, int reservoirSize ) {
+    return new CsvColumnProfiler( delimiter, "\"", headerRows, reservoirSize, 0, new Random( 1 ) );
+  }
+}
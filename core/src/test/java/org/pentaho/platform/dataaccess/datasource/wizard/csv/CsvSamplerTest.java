@@ -0,0 +1,89 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class CsvSamplerTest {
+
+  @Test
+  public void testDosLines() throws Exception {
+    CsvSampler sample = sample( "a;b\r\n1;2\r\n3;4\r\n", 10 );
+    assertEquals( asList( "a;b", "1;2", "3;4" ), sample.getLines() );
+  }
+
+  @Test
+  public void testUnixLines() throws Exception {
+    CsvSampler sample = sample( "a,b\n\n1,2", 10 );
+    assertEquals( asList( "a,b", "", "1,2" ), sample.getLines() );
+
+    sample = sample( "a|b\r1|2\r", 10 );
+    assertEquals( asList( "a|b", "1|2" ), sample.getLines() );
+  }
+
+  @Test
+  public void testRowLimit() throws Exception {
+    CsvSampler sample = sample( "a\r\nb\r\nc\r\n", 1 );
+    assertEquals( Collections.singletonList( "a" ), sample.getLines() );
+
+    sample = sample( "a\rb", 1 );
+    assertEquals( Collections.singletonList( "a" ), sample.getLines() );
+
+    assertEquals( 0, sample( "a\nb\n", 0 ).getLines().size() );
+  }
+
+  @Test
+  public void testNoLineEnding() throws Exception {
+    CsvSampler sample = sample( "a;b", 10 );
+    assertEquals( Collections.singletonList( "a;b" ), sample.getLines() );
+  }
+
+  @Test
+  public void testLineEndingAcrossBuffers() throws Exception {
+    StringBuilder line = new StringBuilder();
+    for ( int i = 0; i < 64 * 1024 - 1; i++ ) {
+      line.append( 'x' );
+    }
+    CsvSampler sample = sample( line + "\r\n1\r\n", 2 );
+    assertEquals( asList( line.toString(), "1" ), sample.getLines() );
+  }
+
+  @Test
+  public void testSkipsByteOrderMark() throws Exception {
+    File file = File.createTempFile( "CsvSamplerTest", ".csv" );
+    file.deleteOnExit();
+    try ( FileOutputStream out = new FileOutputStream( file ) ) {
+      out.write( new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF } );
+      out.write( "col1;col2\n\u00e9;2\n".getBytes( StandardCharsets.UTF_8 ) );
+    }
+    try {
+      CsvSampler sample = CsvSampler.sample( file.getAbsolutePath(), 10, "UTF-8" );
+      assertEquals( asList( "col1;col2", "\u00e9;2" ), sample.getLines() );
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static CsvSampler sample( String contents, int rowLimit ) throws Exception {
+    return CsvSampler.sample( new StringReader( contents ), rowLimit );
+  }
+}
@@ -23,7 +23,6 @@ import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.core.row.value.ValueMetaNone;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
 import org.pentaho.di.core.row.value.ValueMetaString;
-import org.pentaho.gwt.widgets.client.utils.string.StringTokenizer;
 import org.pentaho.metadata.model.concept.types.DataType;
 import org.pentaho.metadata.util.Util;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
@@ -53,7 +52,6 @@ import static org.mockito.Mockito.when;
  */
 public class CsvUtilsTest {
 
-  private static final int LINES_FOR_READ = 2;
 
   private static final String DELIMITER = ";";
   private static final int DEFAULT_INTEGER_SIZE = 15;
@@ -120,15 +118,6 @@ public class CsvUtilsTest {
             rowLimit, DELIMITER, enclosure, headerRows, true, true, "utf-8" );
   }
 
-  @Test
-  public void testGetLines() throws Exception {
-    prepareFile( new String[] { "col1", "col2" } );
-    String lines = utils.getLines( tempFile.getAbsolutePath(), LINES_FOR_READ, "UTF-8" );
-    StringTokenizer tokenizer = new StringTokenizer( lines, DELIMITER);
-    assertNotNull( lines );
-    assertEquals( LINES_FOR_READ, tokenizer.countTokens() );
-  }
-
   @Test
   public void generateFields_OneHeaderLine_OneDataLine() throws Exception {
     prepareFile( new String[] { "col1", "col2" }, new String[] { "1", "2" } );
@@ -147,6 +136,60 @@ public class CsvUtilsTest {
     assertEquals( "2", data[ 0 ].getCells()[ 1 ] );
   }
 
+  @Test
+  public void generateFields_WideFile_SameDetailsAsOneColumnAtATime() throws Exception {
+    String[] samples = { "12", "12.5", "2015-11-10", "text", "$7,100.43" };
+    String[] headers = new String[ 40 ];
+    String[][] data = new String[ 200 ][ headers.length ];
+    for ( int col = 0; col < headers.length; col++ ) {
+      headers[ col ] = "col" + col;
+      for ( int row = 0; row < data.length; row++ ) {
+        // a few columns turn into strings on their last row
+        data[ row ][ col ] = row == data.length - 1 && col % 7 == 0 ? "n/a" : samples[ col % samples.length ] + row % 3;
+      }
+    }
+    prepareFile( headers, data );
+
+    ColumnInfo[] columns = generateFields( data.length + 1, null, 1 ).getColumns();
+
+    assertEquals( headers.length, columns.length );
+    for ( int col = 0; col < headers.length; col++ ) {
+      List<String> values = new ArrayList<String>();
+      for ( String[] row : data ) {
+        values.add( row[ col ] );
+      }
+      ColumnInfo expected = new ColumnInfo();
+      utils.assumeColumnDetails( expected, values );
+      assertEquals( headers[ col ], expected.getDataType(), columns[ col ].getDataType() );
+      assertEquals( headers[ col ], expected.getFormat(), columns[ col ].getFormat() );
+      assertEquals( headers[ col ], expected.getLength(), columns[ col ].getLength() );
+      assertEquals( headers[ col ], expected.getPrecision(), columns[ col ].getPrecision() );
+    }
+  }
+
+  @Test
+  public void generateFields_FullProfile_UsesWholeFile() throws Exception {
+    prepareFile( new String[] { "id", "name" }, new String[] { "1", "a" }, new String[] { "2", "b" },
+      new String[] { "3", "" }, new String[] { "4", "a much longer value" } );
+
+    ColumnInfo[] columns = generateFields( 3, null, 1 ).getColumns();
+    assertEquals( -1, columns[ 1 ].getNullCount() );
+    assertTrue( columns[ 1 ].getLength() < 19 );
+
+    utils.setFullProfile( true );
+    ModelInfo info = generateFields( 3, null, 1 );
+    assertEquals( 2, info.getData().length );
+    columns = info.getColumns();
+    assertEquals( DataType.STRING, columns[ 1 ].getDataType() );
+    assertEquals( 19 + 9, columns[ 1 ].getLength() );
+    assertEquals( 1, columns[ 1 ].getNullCount() );
+    assertEquals( 3, columns[ 1 ].getDistinctCount() );
+    assertEquals( "a much longer value", columns[ 1 ].getMaxValue() );
+    assertEquals( 0, columns[ 0 ].getNullCount() );
+    assertEquals( "1", columns[ 0 ].getMinValue() );
+    assertEquals( "4", columns[ 0 ].getMaxValue() );
+  }
+
   @Test
   public void ColumnOfIntegerType_HasCorrectLength() {
     ColumnInfo columnInfo = new ColumnInfo();
@@ -0,0 +1,288 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettlePluginException;
+import org.pentaho.di.core.plugins.DatabasePluginType;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+public class CsvBulkLoaderTest {
+
+  private static final String CREATE_TABLE = "CREATE TABLE STAGED ( ID BIGINT, NAME VARCHAR(20), AMOUNT DOUBLE )";
+
+  private static final String CONTENTS = "id,name,amount,code\n"
+    + "1,\"Smith, J\",2.5,x\n"
+    + "2,,,y\n"
+    + "3, Doe ,10,z\n";
+
+  private static final String ALLOW_FULL_PATH = "textdb.allow_full_path";
+
+  private static String allowFullPath;
+
+  @BeforeClass
+  public static void setUpOnce() throws KettlePluginException {
+    // Register Natives to create a DatabaseMeta
+    DatabasePluginType.getInstance().searchPlugins();
+    // HSQLDB only reads text table sources from absolute paths with the property set
+    allowFullPath = System.setProperty( ALLOW_FULL_PATH, "true" );
+  }
+
+  @AfterClass
+  public static void tearDownOnce() {
+    if ( allowFullPath == null ) {
+      System.clearProperty( ALLOW_FULL_PATH );
+    } else {
+      System.setProperty( ALLOW_FULL_PATH, allowFullPath );
+    }
+  }
+
+  @Test
+  public void testLoaderOfDialect() {
+    assertTrue( CsvBulkLoader.forDialect( "H2" ) instanceof H2CsvBulkLoader );
+    assertTrue( CsvBulkLoader.forDialect( "Hypersonic" ) instanceof HypersonicCsvBulkLoader );
+    assertTrue( CsvBulkLoader.forDialect( "HYPERSONIC" ) instanceof HypersonicCsvBulkLoader );
+    assertTrue( CsvBulkLoader.forDialect( "POSTGRESQL" ) instanceof PostgreSQLCsvBulkLoader );
+    assertTrue( CsvBulkLoader.forDialect( "MySQL" ) instanceof MySQLCsvBulkLoader );
+    assertNull( CsvBulkLoader.forDialect( "ORACLE" ) );
+    assertNull( CsvBulkLoader.forDialect( null ) );
+  }
+
+  @Test
+  public void testCanLoad() {
+    CsvBulkLoader loader = new H2CsvBulkLoader();
+    ModelInfo modelInfo = createModel( "unused.csv" );
+    assertTrue( loader.canLoad( modelInfo ) );
+
+    // the dates are parsed with the masks of the transformation, unless the column is ignored
+    ColumnInfo date = column( "WHEN", DataType.DATE, 0 );
+    modelInfo.setColumns( new ColumnInfo[] { modelInfo.getColumns()[ 0 ], date } );
+    assertFalse( loader.canLoad( modelInfo ) );
+    date.setIgnore( true );
+    assertTrue( loader.canLoad( modelInfo ) );
+
+    modelInfo.getColumns()[ 0 ].setFormat( "#,##0" );
+    assertFalse( loader.canLoad( modelInfo ) );
+    modelInfo.getColumns()[ 0 ].setFormat( "#.##" );
+    assertTrue( loader.canLoad( modelInfo ) );
+
+    modelInfo.getFileInfo().setEncoding( "UTF-16" );
+    assertFalse( loader.canLoad( modelInfo ) );
+    modelInfo.getFileInfo().setEncoding( "UTF-8" );
+    modelInfo.getFileInfo().setDelimiter( "||" );
+    assertFalse( loader.canLoad( modelInfo ) );
+
+    modelInfo.getFileInfo().setDelimiter( "," );
+    // the transformation replaces the empty values with the if null value
+    modelInfo.getFileInfo().setIfNull( "---" );
+    assertFalse( loader.canLoad( modelInfo ) );
+    modelInfo.getFileInfo().setIfNull( "" );
+
+    modelInfo.getFileInfo().setHeaderRows( 2 );
+    assertTrue( loader.canLoad( modelInfo ) );
+    assertFalse( new HypersonicCsvBulkLoader().canLoad( modelInfo ) );
+  }
+
+  @Test
+  public void testInsertStatement() throws Exception {
+    ModelInfo modelInfo = createModel( "unused.csv" );
+    DatabaseMeta databaseMeta = databaseMeta( "H2" );
+    String sql = new H2CsvBulkLoader().getInsertStatement( databaseMeta, "STAGED", modelInfo.getColumns(), "RAW" );
+    // the ignored column is read, but not inserted
+    assertEquals( "INSERT INTO STAGED (" + databaseMeta.quoteField( "ID" ) + ", " + databaseMeta.quoteField( "NAME" )
+      + ", " + databaseMeta.quoteField( "AMOUNT" ) + ") SELECT CAST(NULLIF(TRIM(C0), '') AS BIGINT), "
+      + "NULLIF(TRIM(C1), ''), CAST(NULLIF(TRIM(C2), '') AS DOUBLE PRECISION) FROM RAW", sql );
+
+    sql = new MySQLCsvBulkLoader().getInsertStatement( databaseMeta, "STAGED", modelInfo.getColumns(), "RAW" );
+    assertEquals( "INSERT INTO STAGED (" + databaseMeta.quoteField( "ID" ) + ", " + databaseMeta.quoteField( "NAME" )
+      + ", " + databaseMeta.quoteField( "AMOUNT" ) + ") SELECT CAST(NULLIF(TRIM(C0), '') AS SIGNED), "
+      + "NULLIF(TRIM(C1), ''), CAST(NULLIF(TRIM(C2), '') AS DECIMAL(65, 30)) FROM RAW", sql );
+  }
+
+  @Test
+  public void testLoadH2() throws Exception {
+    File file = createFile( CONTENTS );
+    try ( Connection connection = DriverManager.getConnection( "jdbc:h2:mem:CsvBulkLoaderTest", "sa", "" ) ) {
+      execute( connection, CREATE_TABLE );
+      long rows = new H2CsvBulkLoader().load( connection, databaseMeta( "H2" ), null, "STAGED",
+        createModel( file.getName() ), file.getAbsolutePath(), false );
+
+      assertEquals( 3, rows );
+      assertLoaded( connection );
+    }
+  }
+
+  @Test
+  public void testLoadH2LeavesTableAsItWasOnError() throws Exception {
+    File file = createFile( CONTENTS + "4,Roe,ten,w\n" );
+    try ( Connection connection = DriverManager.getConnection( "jdbc:h2:mem:CsvBulkLoaderTestError", "sa", "" ) ) {
+      execute( connection, CREATE_TABLE );
+      execute( connection, "INSERT INTO STAGED VALUES ( 9, 'kept', 1 )" );
+      try {
+        new H2CsvBulkLoader().load( connection, databaseMeta( "H2" ), null, "STAGED", createModel( file.getName() ),
+          file.getAbsolutePath(), true );
+        fail( "ten is not a number" );
+      } catch ( SQLException e ) {
+        // expected
+      }
+      assertEquals( 1, count( connection ) );
+    }
+  }
+
+  @Test
+  public void testLoadHypersonic() throws Exception {
+    File file = createFile( CONTENTS );
+    try ( Connection connection = DriverManager.getConnection( hypersonicUrl(), "SA", "" ) ) {
+      execute( connection, CREATE_TABLE );
+      execute( connection, "INSERT INTO STAGED VALUES ( 9, 'truncated', 1 )" );
+      long rows = new HypersonicCsvBulkLoader().load( connection, databaseMeta( "HYPERSONIC" ), null, "STAGED",
+        createModel( file.getName() ), file.getAbsolutePath(), true );
+
+      assertEquals( 3, rows );
+      assertLoaded( connection );
+    }
+  }
+
+  @Test
+  public void testLoadHypersonicLeavesTableAsItWasOnError() throws Exception {
+    File file = createFile( CONTENTS + "4,Roe,ten,w\n" );
+    try ( Connection connection = DriverManager.getConnection( hypersonicUrl(), "SA", "" ) ) {
+      execute( connection, CREATE_TABLE );
+      execute( connection, "INSERT INTO STAGED VALUES ( 9, 'kept', 1 )" );
+      try {
+        // the text table is created before the rows are deleted, so it does not commit the delete
+        new HypersonicCsvBulkLoader().load( connection, databaseMeta( "HYPERSONIC" ), null, "STAGED",
+          createModel( file.getName() ), file.getAbsolutePath(), true );
+        fail( "ten is not a number" );
+      } catch ( SQLException e ) {
+        // expected
+      }
+      assertEquals( 1, count( connection ) );
+    }
+  }
+
+  @Test
+  public void testHypersonicSeparators() {
+    assertEquals( ",", HypersonicCsvBulkLoader.getSeparator( ',' ) );
+    assertEquals( "\\semi", HypersonicCsvBulkLoader.getSeparator( ';' ) );
+    assertEquals( "\\t", HypersonicCsvBulkLoader.getSeparator( '\t' ) );
+  }
+
+  private static void assertLoaded( Connection connection ) throws SQLException {
+    assertEquals( 3, count( connection ) );
+    try ( Statement statement = connection.createStatement();
+          ResultSet rs = statement.executeQuery( "SELECT ID, NAME, AMOUNT FROM STAGED ORDER BY ID" ) ) {
+      assertTrue( rs.next() );
+      assertEquals( 1L, rs.getLong( 1 ) );
+      assertEquals( "Smith, J", rs.getString( 2 ) );
+      assertEquals( 2.5, rs.getDouble( 3 ), 0 );
+      assertTrue( rs.next() );
+      assertEquals( 2L, rs.getLong( 1 ) );
+      assertNull( rs.getString( 2 ) );
+      assertNull( rs.getObject( 3 ) );
+      assertTrue( rs.next() );
+      assertEquals( 3L, rs.getLong( 1 ) );
+      assertEquals( "Doe", rs.getString( 2 ) );
+      assertEquals( 10.0, rs.getDouble( 3 ), 0 );
+      assertFalse( rs.next() );
+    }
+  }
+
+  private static long count( Connection connection ) throws SQLException {
+    try ( Statement statement = connection.createStatement();
+          ResultSet rs = statement.executeQuery( "SELECT COUNT(*) FROM STAGED" ) ) {
+      rs.next();
+      return rs.getLong( 1 );
+    }
+  }
+
+  private static void execute( Connection connection, String sql ) throws SQLException {
+    try ( Statement statement = connection.createStatement() ) {
+      statement.execute( sql );
+    }
+  }
+
+  private static File createFile( String contents ) throws Exception {
+    File file = File.createTempFile( "CsvBulkLoaderTest", ".csv" );
+    file.deleteOnExit();
+    try ( OutputStream out = new FileOutputStream( file ) ) {
+      out.write( contents.getBytes( StandardCharsets.UTF_8 ) );
+    }
+    return file;
+  }
+
+  private static String hypersonicUrl() throws Exception {
+    File database = File.createTempFile( "CsvBulkLoaderTest", "" );
+    database.delete();
+    return "jdbc:hsqldb:file:" + database.getAbsolutePath() + "/db;shutdown=true";
+  }
+
+  private static DatabaseMeta databaseMeta( String type ) {
+    DatabaseMeta databaseMeta = new DatabaseMeta();
+    databaseMeta.setDatabaseType( type );
+    return databaseMeta;
+  }
+
+  private static ModelInfo createModel( String fileName ) {
+    CsvFileInfo fileInfo = new CsvFileInfo();
+    fileInfo.setTmpFilename( fileName );
+    fileInfo.setEncoding( "UTF-8" );
+    fileInfo.setHeaderRows( 1 );
+    fileInfo.setDelimiter( "," );
+    fileInfo.setEnclosure( "\"" );
+    fileInfo.setNullStr( "" );
+    fileInfo.setIfNull( "" );
+
+    ColumnInfo code = column( "CODE", DataType.STRING, 0 );
+    code.setIgnore( true );
+    ModelInfo modelInfo = new ModelInfo();
+    modelInfo.setFileInfo( fileInfo );
+    modelInfo.setColumns( new ColumnInfo[] {
+      column( "ID", DataType.NUMERIC, 0 ), column( "NAME", DataType.STRING, 0 ),
+      column( "AMOUNT", DataType.NUMERIC, 2 ), code } );
+    modelInfo.setStageTableName( "STAGED" );
+    return modelInfo;
+  }
+
+  private static ColumnInfo column( String id, DataType dataType, int precision ) {
+    ColumnInfo column = new ColumnInfo();
+    column.setId( id );
+    column.setTitle( id );
+    column.setDataType( dataType );
+    column.setPrecision( precision );
+    column.setLength( 20 );
+    return column;
+  }
+}
@@ -0,0 +1,96 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+
+public class CsvTransformGeneratorTest {
+
+  private static final long MB = 1024 * 1024;
+
+  private CsvFileInfo fileInfo;
+
+  @Before
+  public void setUp() {
+    fileInfo = new CsvFileInfo();
+    fileInfo.setEncoding( "UTF-8" );
+    fileInfo.setEnclosure( "\"" );
+    fileInfo.setContents( asList( "id,name", "1,\"a, b\"", "2,\"say \"\"hi\"\"\"" ) );
+  }
+
+  @Test
+  public void testCopiesFollowFileSizeAndCores() {
+    assertEquals( 1, CsvTransformGenerator.getLoadCopies( MB, 8, 0, fileInfo ) );
+    assertEquals( 2, CsvTransformGenerator.getLoadCopies( 40 * MB, 8, 0, fileInfo ) );
+    assertEquals( 8, CsvTransformGenerator.getLoadCopies( 1024 * MB, 8, 0, fileInfo ) );
+    assertEquals( 4, CsvTransformGenerator.getLoadCopies( 1024 * MB, 8, 4, fileInfo ) );
+    assertEquals( 1, CsvTransformGenerator.getLoadCopies( 1024 * MB, 8, 1, fileInfo ) );
+  }
+
+  @Test
+  public void testOneCopyWhenLinesCanNotBeSplit() {
+    fileInfo.setEncoding( "UTF-16LE" );
+    assertEquals( 1, CsvTransformGenerator.getLoadCopies( 1024 * MB, 8, 0, fileInfo ) );
+
+    fileInfo.setEncoding( "UTF-8" );
+    assertFalse( CsvTransformGenerator.hasEnclosedLineBreaks( fileInfo ) );
+    fileInfo.setContents( asList( "id,name", "1,\"first line", "second line\"" ) );
+    assertTrue( CsvTransformGenerator.hasEnclosedLineBreaks( fileInfo ) );
+    assertEquals( 1, CsvTransformGenerator.getLoadCopies( 1024 * MB, 8, 0, fileInfo ) );
+
+    fileInfo.setEnclosure( "" );
+    assertFalse( CsvTransformGenerator.hasEnclosedLineBreaks( fileInfo ) );
+  }
+
+  @Test
+  public void testEnclosedLineBreakAfterTheSample() throws Exception {
+    fileInfo.setDelimiter( "," );
+    StringBuilder contents = new StringBuilder( "\ufeffid,name\r\n" );
+    for ( int i = 0; i < 20000; i++ ) {
+      contents.append( i ).append( ",\"a, \"\"b\"\"\"\r\n" );
+    }
+    // the sample only has the first lines, which are all complete
+    assertFalse( CsvTransformGenerator.hasEnclosedLineBreaks( fileInfo ) );
+    assertFalse( CsvTransformGenerator.hasEnclosedLineBreaks( createFile( contents ), fileInfo ) );
+
+    contents.append( "20000, \"first line\r\nsecond line\"\r\n20001,last\r\n" );
+    assertTrue( CsvTransformGenerator.hasEnclosedLineBreaks( createFile( contents ), fileInfo ) );
+
+    // an enclosure inside a value does not enclose it
+    assertFalse( CsvTransformGenerator.hasEnclosedLineBreaks( createFile( "1,5\" pipe\n2,\"x\"\n" ), fileInfo ) );
+
+    fileInfo.setEnclosure( "" );
+    assertFalse( CsvTransformGenerator.hasEnclosedLineBreaks( createFile( contents ), fileInfo ) );
+  }
+
+  private static File createFile( CharSequence contents ) throws IOException {
+    File file = File.createTempFile( "CsvTransformGeneratorTest", ".csv" );
+    file.deleteOnExit();
+    try ( FileOutputStream out = new FileOutputStream( file ) ) {
+      out.write( contents.toString().getBytes( StandardCharsets.UTF_8 ) );
+    }
+    return file;
+  }
+}
@@ -0,0 +1,185 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
+
+public class StagingJobSchedulerTest {
+
+  private static final long TIMEOUT = 10000;
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testJobsForSameTableRunOneAfterTheOther() throws Exception {
+    StagingJobScheduler scheduler = new StagingJobScheduler( 4 );
+    CountDownLatch release = new CountDownLatch( 1 );
+    Future<String> first = submit( scheduler, "SALES", null, release, "first" );
+    waitFor( scheduler, 1, 0 );
+
+    FileTransformStats stats = new FileTransformStats();
+    Future<String> second = submit( scheduler, "sales", stats, null, "second" );
+    waitFor( scheduler, 1, 1 );
+    assertEquals( 1, stats.getQueuePosition() );
+    assertEquals( 1, scheduler.getQueuePosition( "SALES" ) );
+    assertFalse( second.isDone() );
+
+    release.countDown();
+    assertEquals( "first", first.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    assertEquals( "second", second.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    assertEquals( 0, stats.getQueuePosition() );
+    assertEquals( -1, scheduler.getQueuePosition( "SALES" ) );
+  }
+
+  @Test
+  public void testJobsForOtherTablesRunAtTheSameTime() throws Exception {
+    StagingJobScheduler scheduler = new StagingJobScheduler( 2 );
+    CountDownLatch release = new CountDownLatch( 1 );
+    Future<String> first = submit( scheduler, "SALES", null, release, "first" );
+    Future<String> second = submit( scheduler, "ORDERS", null, release, "second" );
+    waitFor( scheduler, 2, 0 );
+    assertEquals( 0, scheduler.getQueuePosition( "SALES" ) );
+    assertEquals( 0, scheduler.getQueuePosition( "ORDERS" ) );
+
+    release.countDown();
+    assertEquals( "first", first.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    assertEquals( "second", second.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+  }
+
+  @Test
+  public void testJobsWaitForFreeSlotInOrder() throws Exception {
+    StagingJobScheduler scheduler = new StagingJobScheduler( 1 );
+    CountDownLatch releaseFirst = new CountDownLatch( 1 );
+    CountDownLatch releaseSecond = new CountDownLatch( 1 );
+    Future<String> first = submit( scheduler, "SALES", null, releaseFirst, "first" );
+    waitFor( scheduler, 1, 0 );
+
+    FileTransformStats secondStats = new FileTransformStats();
+    FileTransformStats thirdStats = new FileTransformStats();
+    Future<String> second = submit( scheduler, "ORDERS", secondStats, releaseSecond, "second" );
+    waitFor( scheduler, 1, 1 );
+    Future<String> third = submit( scheduler, "CUSTOMERS", thirdStats, null, "third" );
+    waitFor( scheduler, 1, 2 );
+    assertEquals( 1, secondStats.getQueuePosition() );
+    assertEquals( 2, thirdStats.getQueuePosition() );
+
+    releaseFirst.countDown();
+    assertEquals( "first", first.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    // the second job has the slot now, the third one moves up
+    waitFor( scheduler, 1, 1 );
+    assertEquals( 0, secondStats.getQueuePosition() );
+    assertEquals( 1, thirdStats.getQueuePosition() );
+    assertFalse( third.isDone() );
+
+    releaseSecond.countDown();
+    assertEquals( "second", second.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    assertEquals( "third", third.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+  }
+
+  @Test
+  public void testJobForBusyTableDoesNotHoldBackOtherTables() throws Exception {
+    StagingJobScheduler scheduler = new StagingJobScheduler( 2 );
+    CountDownLatch release = new CountDownLatch( 1 );
+    Future<String> first = submit( scheduler, "SALES", null, release, "first" );
+    waitFor( scheduler, 1, 0 );
+    Future<String> second = submit( scheduler, "SALES", null, null, "second" );
+    waitFor( scheduler, 1, 1 );
+
+    // queued behind the second job, but its table is free
+    Future<String> third = submit( scheduler, "ORDERS", null, null, "third" );
+    assertEquals( "third", third.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    assertFalse( second.isDone() );
+
+    release.countDown();
+    assertEquals( "first", first.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    assertEquals( "second", second.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+  }
+
+  @Test
+  public void testFailedJobFreesTable() throws Exception {
+    StagingJobScheduler scheduler = new StagingJobScheduler( 1 );
+    try {
+      scheduler.run( "SALES", null, () -> {
+        throw new IllegalStateException( "load failed" );
+      } );
+      fail( "the exception of the job is thrown" );
+    } catch ( IllegalStateException e ) {
+      assertEquals( "load failed", e.getMessage() );
+    }
+    assertEquals( 0, scheduler.getRunningJobCount() );
+    assertEquals( "next", scheduler.run( "SALES", null, () -> "next" ) );
+  }
+
+  @Test
+  public void testInterruptedJobLeavesQueue() throws Exception {
+    StagingJobScheduler scheduler = new StagingJobScheduler( 1 );
+    CountDownLatch release = new CountDownLatch( 1 );
+    Future<String> first = submit( scheduler, "SALES", null, release, "first" );
+    waitFor( scheduler, 1, 0 );
+    FileTransformStats stats = new FileTransformStats();
+    Future<String> second = submit( scheduler, "ORDERS", stats, null, "second" );
+    waitFor( scheduler, 1, 1 );
+
+    second.cancel( true );
+    waitFor( scheduler, 1, 0 );
+    assertEquals( 0, stats.getQueuePosition() );
+
+    release.countDown();
+    assertEquals( "first", first.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    assertTrue( second.isCancelled() );
+  }
+
+  private Future<String> submit( StagingJobScheduler scheduler, String table, FileTransformStats stats,
+                                 CountDownLatch release, String result ) {
+    return executor.submit( () -> scheduler.run( table, stats, () -> {
+      if ( release != null ) {
+        release.await();
+      }
+      return result;
+    } ) );
+  }
+
+  private static void waitFor( StagingJobScheduler scheduler, int running, int queued ) throws Exception {
+    long end = System.currentTimeMillis() + TIMEOUT;
+    while ( scheduler.getRunningJobCount() != running || scheduler.getQueuedJobCount() != queued ) {
+      if ( System.currentTimeMillis() > end ) {
+        fail( "running " + scheduler.getRunningJobCount() + ", queued " + scheduler.getQueuedJobCount() );
+      }
+      Thread.sleep( 10 );
+    }
+  }
+}
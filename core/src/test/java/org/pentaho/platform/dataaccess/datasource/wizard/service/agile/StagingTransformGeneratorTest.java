@@ -12,6 +12,14 @@
 
 package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
 
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -21,6 +29,11 @@ import org.pentaho.di.core.exception.KettlePluginException;
 import org.pentaho.di.core.plugins.DatabasePluginType;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.isNull;
@@ -89,4 +102,92 @@ public class StagingTransformGeneratorTest {
 
     verify( database, never() ).execStatement( anyString() );
   }
+
+  @Test
+  public void testBatchSizeFollowsRowWidth() {
+    assertEquals( 0, StagingTransformGenerator.getBatchSize( 0, 100 ) );
+    assertEquals( 1000, StagingTransformGenerator.getBatchSize( 1000, 0 ) );
+    assertEquals( 1000, StagingTransformGenerator.getBatchSize( 1000, 100 ) );
+    assertEquals( 104, StagingTransformGenerator.getBatchSize( 1000, 10000 ) );
+    assertEquals( 50, StagingTransformGenerator.getBatchSize( 1000, 1000000 ) );
+  }
+
+  @Test
+  public void testInsertsInBatchesIntoH2Only() {
+    assertTrue( StagingTransformGenerator.canInsertInBatches( databaseMeta( "H2" ) ) );
+    assertFalse( StagingTransformGenerator.canInsertInBatches( databaseMeta( "HYPERSONIC" ) ) );
+    assertFalse( StagingTransformGenerator.canInsertInBatches( databaseMeta( "MYSQL" ) ) );
+    assertFalse( StagingTransformGenerator.canInsertInBatches( databaseMeta( "ORACLE" ) ) );
+    assertFalse( StagingTransformGenerator.canInsertInBatches( null ) );
+  }
+
+  /**
+   * Given a JDBC batch that fails midway in a H2 table without a key.
+   * <br/>
+   * When the batch is committed after the failure, as the table output does,
+   * then only the rejected row should be missing, and its update count should be the only one that shows a failure.
+   */
+  @Test
+  public void shouldReportOnlyRejectedRowOfFailedBatchInH2() throws Exception {
+    Object[][] rows = { { 1L, "a" }, { 2L, "b" }, { 3L, "too long" }, { 4L, "d" }, { 5L, "e" } };
+    try ( Connection connection = DriverManager.getConnection( "jdbc:h2:mem:StagingTransformGeneratorTest", "sa",
+      "" ) ) {
+      execute( connection, "CREATE TABLE STAGED ( ID BIGINT, NAME VARCHAR(5) )" );
+
+      int[] updateCounts = executeBatch( connection, rows );
+      assertArrayEquals( new int[] { 1, 1, Statement.EXECUTE_FAILED, 1, 1 }, updateCounts );
+      assertEquals( 4, count( connection ) );
+      assertEquals( 0, count( connection, 3 ) );
+    }
+  }
+
+  /**
+   * Inserts rows in a JDBC batch, which fails, and commits the rows the database inserted the way the table output does
+   */
+  private static int[] executeBatch( Connection connection, Object[][] rows ) throws SQLException {
+    connection.setAutoCommit( false );
+    try ( PreparedStatement insert = connection.prepareStatement( "INSERT INTO STAGED VALUES ( ?, ? )" ) ) {
+      for ( Object[] row : rows ) {
+        insert.setLong( 1, (Long) row[ 0 ] );
+        insert.setString( 2, (String) row[ 1 ] );
+        insert.addBatch();
+      }
+      insert.executeBatch();
+      fail( "the batch has a value that is too long" );
+      return null;
+    } catch ( BatchUpdateException e ) {
+      connection.commit();
+      return e.getUpdateCounts();
+    } finally {
+      connection.setAutoCommit( true );
+    }
+  }
+
+  private static long count( Connection connection ) throws SQLException {
+    return count( connection, "SELECT COUNT(*) FROM STAGED" );
+  }
+
+  private static long count( Connection connection, long id ) throws SQLException {
+    return count( connection, "SELECT COUNT(*) FROM STAGED WHERE ID = " + id );
+  }
+
+  private static long count( Connection connection, String sql ) throws SQLException {
+    try ( Statement statement = connection.createStatement();
+          ResultSet rs = statement.executeQuery( sql ) ) {
+      rs.next();
+      return rs.getLong( 1 );
+    }
+  }
+
+  private static DatabaseMeta databaseMeta( String type ) {
+    DatabaseMeta databaseMeta = new DatabaseMeta();
+    databaseMeta.setDatabaseType( type );
+    return databaseMeta;
+  }
+
+  private static void execute( Connection connection, String sql ) throws SQLException {
+    try ( Statement statement = connection.createStatement() ) {
+      statement.execute( sql );
+    }
+  }
 }
@@ -160,6 +160,20 @@ public class CsvDatasourceServiceImplTest {
     }
   }
 
+  @Test
+  public void testQueuePosition() {
+    FileTransformStats stats = new FileTransformStats();
+    stats.setQueuePosition( 2 );
+    IPentahoSession session = mock( IPentahoSession.class );
+    when( session.getAttribute( "FileTransformStats_waiting.csv" ) ).thenReturn( stats );
+    PentahoSessionHolder.setSession( session );
+
+    assertEquals( 2, service.getQueuePosition( "waiting.csv" ) );
+    stats.setQueuePosition( 0 );
+    assertEquals( 0, service.getQueuePosition( "waiting.csv" ) );
+    assertEquals( -1, service.getQueuePosition( "other.csv" ) );
+  }
+
   @Test
   public void testNoPermissions() throws Exception {
     final ISystemSettings systemSettings = mock( ISystemSettings.class );
@@ -205,6 +219,13 @@ public class CsvDatasourceServiceImplTest {
         thrown = true;
       }
       assertTrue( thrown );
+      thrown = false;
+      try {
+        service.getQueuePosition( filename );
+      } catch ( SecurityException e ) {
+        thrown = true;
+      }
+      assertTrue( thrown );
     } finally {
       file.delete();
     }
@@ -54,6 +54,7 @@ import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.DatasourceServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.SqlQueriesNotSupportedException;
 import org.pentaho.platform.dataaccess.datasource.wizard.sources.query.QueryDatasourceSummary;
+import org.pentaho.platform.dataaccess.metadata.service.ModelVisibilityIndex;
 import org.pentaho.platform.engine.core.TestObjectFactory;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
@@ -135,6 +136,8 @@ public class DSWDatasourceServiceImplTest {
 
   @Before
   public void setUp() throws Exception {
+    ModelVisibilityIndex.getInstance().invalidateAll();
+
     SqlDataSource dataSource = new SqlDataSource();
     dataSource.setDatabaseName( CONNECTION_NAME );
     SqlPhysicalTable sqlTable = new SqlPhysicalTable();
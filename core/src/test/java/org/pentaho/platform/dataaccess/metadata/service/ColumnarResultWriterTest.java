@@ -0,0 +1,222 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.metadata.model.IPhysicalColumn;
+import org.pentaho.metadata.model.concept.types.DataType;
+
+public class ColumnarResultWriterTest {
+  private static final String[] COLUMNS = { "ID", "PRICE", "CATEGORY", "CREATED", "ACTIVE" };
+  private static final DataType[] TYPES =
+    { DataType.NUMERIC, DataType.NUMERIC, DataType.STRING, DataType.DATE, DataType.BOOLEAN };
+  private static final String[] CATEGORIES = { "Classic Cars", "Motorcycles", "Planes", "Ships", "Trains" };
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    List<Object[]> rows = createRows( 10000 );
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new ColumnarResultWriter( 4096 ).write( createResultSet( rows ), null, output );
+
+    List<String> headers = new ArrayList<String>();
+    List<String> types = new ArrayList<String>();
+    List<Object[]> decoded = decode( output.toByteArray(), headers, types );
+
+    Assert.assertArrayEquals( COLUMNS, headers.toArray() );
+    Assert.assertEquals( "NUMERIC", types.get( 0 ) );
+    Assert.assertEquals( rows.size(), decoded.size() );
+    for ( int i = 0; i < rows.size(); i++ ) {
+      Object[] row = rows.get( i );
+      Object[] expected = { row[ 0 ] == null ? null : ( (Integer) row[ 0 ] ).longValue(), row[ 1 ], row[ 2 ], row[ 3 ],
+        row[ 4 ] };
+      Assert.assertArrayEquals( expected, decoded.get( i ) );
+    }
+  }
+
+  @Test
+  public void testSmallerThanCdaJson() throws Exception {
+    List<Object[]> rows = createRows( 10000 );
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new ColumnarResultWriter().write( createResultSet( rows ), null, output );
+    StringWriter json = new StringWriter();
+    new MetadataServiceUtil().writeCdaJson( createResultSet( rows ), null, json );
+
+    Assert.assertTrue( output.size() * 2 < json.toString().getBytes( StandardCharsets.UTF_8 ).length );
+  }
+
+  @Test
+  public void testEmptyResult() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new ColumnarResultWriter().write( createResultSet( new ArrayList<Object[]>() ), null, output );
+    Assert.assertTrue( decode( output.toByteArray(), new ArrayList<String>(), new ArrayList<String>() ).isEmpty() );
+  }
+
+  @Test
+  public void testEncoding() {
+    Object[][] block = { { 1L, 1, "a", null }, { 2.5d, 2, 3, null } };
+    Assert.assertEquals( ColumnarResultWriter.DOUBLE, ColumnarResultWriter.getEncoding( block, 2, 0 ) );
+    Assert.assertEquals( ColumnarResultWriter.LONG, ColumnarResultWriter.getEncoding( block, 2, 1 ) );
+    Assert.assertEquals( ColumnarResultWriter.STRING, ColumnarResultWriter.getEncoding( block, 2, 2 ) );
+    Assert.assertEquals( ColumnarResultWriter.NULL, ColumnarResultWriter.getEncoding( block, 2, 3 ) );
+  }
+
+  @Test
+  public void testDecimalEncoding() {
+    long large = ColumnarResultWriter.MAX_EXACT_LONG + 1;
+    Object[][] block = { { new BigDecimal( "0.1" ), large, 1L, BigInteger.ONE.shiftLeft( 53 ) },
+      { 2.5d, 1L, 2.5d, BigInteger.ONE.shiftLeft( 52 ) } };
+    Assert.assertEquals( ColumnarResultWriter.DECIMAL, ColumnarResultWriter.getEncoding( block, 2, 0 ) );
+    Assert.assertEquals( ColumnarResultWriter.DECIMAL, ColumnarResultWriter.getEncoding( block, 2, 1 ) );
+    Assert.assertEquals( ColumnarResultWriter.DOUBLE, ColumnarResultWriter.getEncoding( block, 2, 2 ) );
+    Assert.assertEquals( ColumnarResultWriter.DECIMAL, ColumnarResultWriter.getEncoding( block, 2, 3 ) );
+    Assert.assertEquals( ColumnarResultWriter.LONG, ColumnarResultWriter.getEncoding( block, 1, 3 ) );
+  }
+
+  @Test
+  public void testNumbersKeepTheirPrecision() throws Exception {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    rows.add( new Object[] { new BigDecimal( "12345678901234567890.123456789" ), Long.MAX_VALUE, null, null, null } );
+    rows.add( new Object[] { null, 0.1d, null, null, null } );
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new ColumnarResultWriter().write( createResultSet( rows ), null, output );
+
+    List<Object[]> decoded = decode( output.toByteArray(), new ArrayList<String>(), new ArrayList<String>() );
+    Assert.assertEquals( "12345678901234567890.123456789", decoded.get( 0 )[ 0 ] );
+    Assert.assertNull( decoded.get( 1 )[ 0 ] );
+    Assert.assertEquals( new BigDecimal( Long.MAX_VALUE ), new BigDecimal( (String) decoded.get( 0 )[ 1 ] ) );
+    Assert.assertEquals( 0.1d, Double.parseDouble( (String) decoded.get( 1 )[ 1 ] ), 0 );
+  }
+
+  private List<Object[]> createRows( int count ) {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    for ( int i = 0; i < count; i++ ) {
+      rows.add( new Object[] { i % 97 == 0 ? null : i, i * 1.25d, CATEGORIES[ i % CATEGORIES.length ],
+        new Date( 1700000000000L + i * 60000L ), i % 3 == 0 } );
+    }
+    return rows;
+  }
+
+  private IPentahoResultSet createResultSet( List<Object[]> rows ) {
+    MemoryMetaData metaData = new MemoryMetaData( new Object[][] { COLUMNS }, null ) {
+      @Override
+      public Object getAttribute( int rowNo, int columnNo, String attributeName ) {
+        return IPhysicalColumn.DATATYPE_PROPERTY.equals( attributeName ) ? TYPES[ columnNo ] : null;
+      }
+    };
+    MemoryResultSet resultSet = new MemoryResultSet( metaData );
+    for ( Object[] row : rows ) {
+      resultSet.addRow( row );
+    }
+    return resultSet;
+  }
+
+  private List<Object[]> decode( byte[] bytes, List<String> headers, List<String> types ) throws IOException {
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+    Assert.assertEquals( 'P', in.readByte() );
+    Assert.assertEquals( 'C', in.readByte() );
+    Assert.assertEquals( 'R', in.readByte() );
+    Assert.assertEquals( ColumnarResultWriter.VERSION, in.readByte() );
+    int columnCount = in.readInt();
+    for ( int i = 0; i < columnCount; i++ ) {
+      headers.add( readString( in ) );
+      types.add( readString( in ) );
+      readString( in );
+    }
+    List<Object[]> rows = new ArrayList<Object[]>();
+    int rowCount = in.readInt();
+    while ( rowCount > 0 ) {
+      Object[][] block = new Object[ rowCount ][ columnCount ];
+      for ( int c = 0; c < columnCount; c++ ) {
+        byte encoding = in.readByte();
+        if ( encoding == ColumnarResultWriter.NULL ) {
+          continue;
+        }
+        byte[] nulls = readBitmap( in, rowCount );
+        Object[] values = new Object[ rowCount ];
+        if ( encoding == ColumnarResultWriter.BOOLEAN ) {
+          byte[] bits = readBitmap( in, rowCount );
+          for ( int r = 0; r < rowCount; r++ ) {
+            values[ r ] = isSet( bits, r );
+          }
+        } else if ( encoding == ColumnarResultWriter.STRING ) {
+          String[] dictionary = new String[ in.readInt() ];
+          for ( int d = 0; d < dictionary.length; d++ ) {
+            dictionary[ d ] = readString( in );
+          }
+          for ( int r = 0; r < rowCount; r++ ) {
+            int index = dictionary.length <= 0x100 ? in.readUnsignedByte()
+              : dictionary.length <= 0x10000 ? in.readUnsignedShort() : in.readInt();
+            values[ r ] = dictionary[ index ];
+          }
+        } else {
+          for ( int r = 0; r < rowCount; r++ ) {
+            if ( encoding == ColumnarResultWriter.DECIMAL ) {
+              values[ r ] = readString( in );
+            } else if ( encoding == ColumnarResultWriter.DOUBLE ) {
+              values[ r ] = in.readDouble();
+            } else if ( encoding == ColumnarResultWriter.DATE ) {
+              values[ r ] = new Date( in.readLong() );
+            } else {
+              values[ r ] = in.readLong();
+            }
+          }
+        }
+        for ( int r = 0; r < rowCount; r++ ) {
+          block[ r ][ c ] = isSet( nulls, r ) ? null : values[ r ];
+        }
+      }
+      for ( Object[] row : block ) {
+        rows.add( row );
+      }
+      rowCount = in.readInt();
+    }
+    Assert.assertEquals( -1, in.read() );
+    return rows;
+  }
+
+  private byte[] readBitmap( DataInputStream in, int rowCount ) throws IOException {
+    byte[] bitmap = new byte[ ( rowCount + 7 ) / 8 ];
+    in.readFully( bitmap );
+    return bitmap;
+  }
+
+  private boolean isSet( byte[] bitmap, int index ) {
+    return ( bitmap[ index >> 3 ] & ( 1 << ( index & 7 ) ) ) != 0;
+  }
+
+  private String readString( DataInputStream in ) throws IOException {
+    int length = in.readInt();
+    if ( length < 0 ) {
+      return null;
+    }
+    byte[] bytes = new byte[ length ];
+    in.readFully( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+}
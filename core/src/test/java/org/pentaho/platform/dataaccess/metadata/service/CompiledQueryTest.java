@@ -0,0 +1,104 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.metadata.query.model.CombinationType;
+import org.pentaho.metadata.query.model.Constraint;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Column;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Condition;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Parameter;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Query;
+
+public class CompiledQueryTest {
+  private static final String DOMAIN_ID = "DOMAIN_ID";
+  private static final String MODEL_ID = "MODEL_ID";
+  private static final String COLUMN_ID = "COLUMN_ID";
+
+  @Test
+  public void testFingerprintIgnoresParameterValues() {
+    Assert.assertEquals( CompiledQuery.fingerprint( createQuery( "a", "=" ) ),
+      CompiledQuery.fingerprint( createQuery( "b", "=" ) ) );
+  }
+
+  @Test
+  public void testFingerprintDependsOnStructure() {
+    Query query = createQuery( "a", "=" );
+    String fingerprint = CompiledQuery.fingerprint( query );
+
+    Assert.assertNotEquals( fingerprint, CompiledQuery.fingerprint( createQuery( "a", "<>" ) ) );
+
+    query.getColumns()[ 0 ].setSelectedAggType( "SUM" );
+    Assert.assertNotEquals( fingerprint, CompiledQuery.fingerprint( query ) );
+
+    query = createQuery( "a", "=" );
+    query.setDisableDistinct( Boolean.TRUE );
+    Assert.assertNotEquals( fingerprint, CompiledQuery.fingerprint( query ) );
+
+    query = createQuery( "a", "=" );
+    query.getParameters()[ 0 ].setName( "other" );
+    Assert.assertNotEquals( fingerprint, CompiledQuery.fingerprint( query ) );
+  }
+
+  @Test
+  public void testBind() {
+    org.pentaho.metadata.query.model.Query compiled =
+      new org.pentaho.metadata.query.model.Query( new Domain(), new LogicalModel() );
+    compiled.getConstraints().add( new Constraint( CombinationType.AND, "[CATEGORY.COLUMN_ID] = [param:COLUMN_ID]" ) );
+    compiled.getParameters().add( new org.pentaho.metadata.query.model.Parameter( COLUMN_ID, DataType.STRING, "a" ) );
+    CompiledQuery compiledQuery = new CompiledQuery( compiled );
+
+    org.pentaho.metadata.query.model.Query bound = compiledQuery.bind( createQuery( "b", "=" ) );
+
+    Assert.assertNotSame( compiled, bound );
+    Assert.assertSame( compiled.getDomain(), bound.getDomain() );
+    Assert.assertSame( compiled.getLogicalModel(), bound.getLogicalModel() );
+    Assert.assertEquals( compiled.getConstraints(), bound.getConstraints() );
+    Assert.assertEquals( 1, bound.getParameters().size() );
+    Assert.assertEquals( COLUMN_ID, bound.getParameters().get( 0 ).getName() );
+    Assert.assertEquals( DataType.STRING, bound.getParameters().get( 0 ).getType() );
+    Assert.assertEquals( "b", bound.getParameters().get( 0 ).getDefaultValue() );
+    // the compiled query keeps its own parameter value
+    Assert.assertEquals( "a", compiled.getParameters().get( 0 ).getDefaultValue() );
+  }
+
+  private Query createQuery( String parameterValue, String operator ) {
+    Column column = new Column();
+    column.setId( COLUMN_ID );
+    column.setSelectedAggType( "NONE" );
+
+    Condition condition = new Condition();
+    condition.setColumn( COLUMN_ID );
+    condition.setCategory( "CATEGORY" );
+    condition.setOperator( operator );
+    condition.setCombinationType( "AND" );
+    condition.setParameterized( true );
+    condition.setValue( new String[] { COLUMN_ID } );
+
+    Parameter parameter = new Parameter();
+    parameter.setColumn( COLUMN_ID );
+    parameter.setValue( new String[] { parameterValue } );
+
+    Query query = new Query();
+    query.setDomainName( DOMAIN_ID );
+    query.setModelId( MODEL_ID );
+    query.setColumns( new Column[] { column } );
+    query.setConditions( new Condition[] { condition } );
+    query.setParameters( new Parameter[] { parameter } );
+    return query;
+  }
+}
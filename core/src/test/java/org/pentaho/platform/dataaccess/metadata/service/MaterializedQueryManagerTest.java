@@ -0,0 +1,221 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.ResultSetTransformGenerator;
+
+public class MaterializedQueryManagerTest {
+  private static final String JSON = "{\"domainName\":\"steel-wheels\",\"modelId\":\"BV_ORDERS\"}";
+  private static final String KEY = MaterializedQueryManager.createKey( "steel-wheels", "BV_ORDERS", "<mql/>" );
+
+  private FakeStore store;
+  private MaterializedQueryManager manager;
+
+  @Before
+  public void setUp() {
+    store = new FakeStore();
+    manager = new MaterializedQueryManager( store, null, 60 );
+  }
+
+  @Test
+  public void testQueryIsAnsweredFromItsTable() {
+    String id = manager.register( JSON, "steel-wheels", "BV_ORDERS", 10 );
+    Assert.assertEquals( 60, manager.getStatus( id ).get( "interval" ) );
+    Assert.assertEquals( "PENDING", manager.getStatus( id ).get( "state" ) );
+    Assert.assertFalse( manager.isEnabled() );
+
+    Assert.assertTrue( manager.refreshNow( id ) );
+    Assert.assertTrue( manager.isEnabled() );
+    Assert.assertTrue( manager.isEnabled( "steel-wheels", "BV_ORDERS" ) );
+    Assert.assertFalse( manager.isEnabled( "steel-wheels", "BV_CUSTOMERS" ) );
+    Assert.assertFalse( manager.isEnabled( "sample-data", "BV_ORDERS" ) );
+    Map<String, Object> status = manager.getStatus( id );
+    Assert.assertEquals( "READY", status.get( "state" ) );
+    Assert.assertEquals( id + "_A", status.get( "table" ) );
+    Assert.assertEquals( 2, status.get( "rows" ) );
+    Assert.assertNotNull( status.get( "refreshed" ) );
+
+    IPentahoResultSet resultSet = manager.getResultSet( KEY, 1 );
+    Assert.assertEquals( 1, resultSet.getRowCount() );
+    Assert.assertEquals( id + "_A", resultSet.getValueAt( 0, 0 ) );
+    Assert.assertNull( manager.getResultSet( MaterializedQueryManager.createKey( "steel-wheels", "BV_ORDERS",
+      "<other/>" ), null ) );
+
+    // a refresh loads the other table
+    Assert.assertTrue( manager.refreshNow( id ) );
+    Assert.assertEquals( id + "_B", manager.getResultSet( KEY, null ).getValueAt( 0, 0 ) );
+    Assert.assertEquals( 2, store.loads.size() );
+  }
+
+  @Test
+  public void testDomainChangeStopsAnsweringUntilRefreshed() {
+    String id = manager.register( JSON, "steel-wheels", "BV_ORDERS", 300 );
+    manager.refreshNow( id );
+
+    manager.invalidate( "sample-data" );
+    Assert.assertNotNull( manager.getResultSet( KEY, null ) );
+
+    manager.invalidate( "steel-wheels" );
+    Assert.assertEquals( "STALE", manager.getStatus( id ).get( "state" ) );
+    Assert.assertNull( manager.getResultSet( KEY, null ) );
+
+    manager.refreshNow( id );
+    Assert.assertEquals( "READY", manager.getStatus( id ).get( "state" ) );
+    Assert.assertNotNull( manager.getResultSet( KEY, null ) );
+
+    manager.invalidateAll();
+    Assert.assertNull( manager.getResultSet( KEY, null ) );
+  }
+
+  @Test
+  public void testFailedRefreshIsNotAnswered() {
+    String id = manager.register( JSON, "steel-wheels", "BV_ORDERS", 300 );
+    manager.refreshNow( id );
+    store.failure = new IllegalStateException( "connection refused" );
+
+    Assert.assertFalse( manager.refreshNow( id ) );
+    Map<String, Object> status = manager.getStatus( id );
+    Assert.assertEquals( "FAILED", status.get( "state" ) );
+    Assert.assertEquals( "connection refused", status.get( "error" ) );
+    Assert.assertNull( manager.getResultSet( KEY, null ) );
+  }
+
+  @Test
+  public void testRemoveDropsTables() {
+    String id = manager.register( JSON, "steel-wheels", "BV_ORDERS", 300 );
+    manager.refreshNow( id );
+
+    Assert.assertTrue( manager.remove( id ) );
+    Assert.assertFalse( manager.remove( id ) );
+    Assert.assertFalse( manager.isEnabled() );
+    Assert.assertNull( manager.getResultSet( KEY, null ) );
+    Assert.assertNull( manager.getStatus( id ) );
+    Assert.assertEquals( 0, manager.getStatus().size() );
+    Assert.assertEquals( 2, store.drops.size() );
+    Assert.assertTrue( store.drops.contains( id + "_A" ) );
+    Assert.assertTrue( store.drops.contains( id + "_B" ) );
+    Assert.assertFalse( manager.refreshNow( id ) );
+  }
+
+  @Test
+  public void testDropOrphanedTables() {
+    String id = manager.register( JSON, "steel-wheels", "BV_ORDERS", 300 );
+    String orphan = MaterializedQueryManager.createId( JSON + " " );
+    store.tables.put( id + "_A", JSON );
+    store.tables.put( orphan + "_A", JSON );
+    store.tables.put( orphan + "_B", JSON );
+    store.tables.put( "MQ_OTHER", JSON );
+
+    Assert.assertEquals( 2, manager.dropOrphanedTablesNow() );
+    Assert.assertEquals( 2, store.drops.size() );
+    Assert.assertTrue( store.drops.contains( orphan + "_A" ) );
+    Assert.assertTrue( store.drops.contains( orphan + "_B" ) );
+  }
+
+  @Test
+  public void testValueTypesArePassedToTheStore() {
+    String id = manager.register( JSON, "steel-wheels", "BV_ORDERS", 300 );
+    manager.refreshNow( id );
+
+    manager.getResultSet( KEY, null );
+    Assert.assertArrayEquals( new Class<?>[] { String.class }, store.readValueTypes );
+  }
+
+  @Test
+  public void testRestoreValue() {
+    BigDecimal number = new BigDecimal( "42" );
+    Assert.assertEquals( 42L, ResultSetTransformGenerator.restoreValue( number, Long.class ) );
+    Assert.assertEquals( 42, ResultSetTransformGenerator.restoreValue( number, Integer.class ) );
+    Assert.assertEquals( 42.5d, ResultSetTransformGenerator.restoreValue( new BigDecimal( "42.5" ), Double.class ) );
+    Assert.assertEquals( BigInteger.valueOf( 42 ),
+      ResultSetTransformGenerator.restoreValue( number, BigInteger.class ) );
+    Assert.assertSame( number, ResultSetTransformGenerator.restoreValue( number, BigDecimal.class ) );
+    Assert.assertSame( number, ResultSetTransformGenerator.restoreValue( number, null ) );
+    Assert.assertNull( ResultSetTransformGenerator.restoreValue( null, Long.class ) );
+    Date date = new Date( 1000 );
+    Assert.assertEquals( new Timestamp( 1000 ), ResultSetTransformGenerator.restoreValue( date, Timestamp.class ) );
+  }
+
+  @Test
+  public void testCreateId() {
+    String id = MaterializedQueryManager.createId( JSON );
+    Assert.assertEquals( id, MaterializedQueryManager.createId( JSON ) );
+    Assert.assertNotEquals( id, MaterializedQueryManager.createId( JSON + " " ) );
+    Assert.assertTrue( id, id.matches( "MQ_[0-9A-F]{16}" ) );
+  }
+
+  private static final class FakeStore implements MaterializedQueryManager.Store {
+    private final List<String> loads = new ArrayList<String>();
+    private final List<String> drops = new ArrayList<String>();
+    private final Map<String, String> tables = new HashMap<String, String>();
+    private RuntimeException failure;
+    private Class<?>[] readValueTypes;
+
+    @Override
+    public MaterializedQueryManager.Snapshot load( String json, String table ) {
+      if ( failure != null ) {
+        throw failure;
+      }
+      loads.add( table );
+      tables.put( table, json );
+      IPentahoMetaData metaData = new MemoryMetaData( new Object[][] { { "BC_TABLE" } }, null );
+      return new MaterializedQueryManager.Snapshot( KEY, metaData, new Class<?>[] { String.class }, 2 );
+    }
+
+    @Override
+    public IPentahoResultSet read( String table, IPentahoMetaData metaData, Class<?>[] valueTypes,
+                                   Integer rowLimit ) {
+      Assert.assertTrue( tables.containsKey( table ) );
+      readValueTypes = valueTypes;
+      MemoryResultSet resultSet = new MemoryResultSet( metaData );
+      int rows = rowLimit == null || rowLimit < 0 ? 2 : Math.min( 2, rowLimit );
+      for ( int i = 0; i < rows; i++ ) {
+        resultSet.addRow( new Object[] { table } );
+      }
+      return resultSet;
+    }
+
+    @Override
+    public void drop( String table ) {
+      drops.add( table );
+      tables.remove( table );
+    }
+
+    @Override
+    public List<String> listTables( String prefix ) {
+      List<String> names = new ArrayList<String>();
+      for ( String table : tables.keySet() ) {
+        if ( table.startsWith( prefix ) ) {
+          names.add( table );
+        }
+      }
+      return names;
+    }
+  }
+}
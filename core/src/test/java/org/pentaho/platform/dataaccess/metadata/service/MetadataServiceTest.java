@@ -23,6 +23,8 @@ import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.commons.connection.marshal.MarshallableColumnNames;
 import org.pentaho.commons.connection.marshal.MarshallableResultSet;
 import org.pentaho.commons.connection.marshal.MarshallableRow;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
 import org.pentaho.metadata.model.Category;
 import org.pentaho.metadata.model.Domain;
 import org.pentaho.metadata.model.IPhysicalColumn;
@@ -42,6 +44,11 @@ import org.pentaho.platform.dataaccess.metadata.model.impl.Order;
 import org.pentaho.platform.dataaccess.metadata.model.impl.Parameter;
 import org.pentaho.platform.dataaccess.metadata.model.impl.Query;
 
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -51,11 +58,15 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
@@ -83,6 +94,9 @@ public class MetadataServiceTest {
   @Before
   public void initialize() {
 
+    ThinModelCache.getInstance().invalidateAll();
+    ModelVisibilityIndex.getInstance().invalidateAll();
+
     List<Category> categoryList = new ArrayList();
     Category category = mock( Category.class );
     when( category.getId() ).thenReturn( CATEGORY_ID );
@@ -211,6 +225,24 @@ public class MetadataServiceTest {
     Assert.assertTrue( model.getName() == LOGICAL_MODEL_NAME );
   }
 
+  @Test
+  public void testLoadModelFromCache() {
+
+    when( metadataService.loadModel( anyString(), anyString() ) ).thenCallRealMethod();
+
+    Model model = metadataService.loadModel( DOMAIN_ID, LOGICAL_MODEL_ID );
+    Model cached = metadataService.loadModel( DOMAIN_ID, LOGICAL_MODEL_ID );
+    // every caller gets a copy of the cached model
+    Assert.assertNotSame( model, cached );
+    Assert.assertEquals( model.getName(), cached.getName() );
+    verify( metadataServiceUtil, times( 1 ) ).createThinModel( Mockito.<LogicalModel>any(), anyString() );
+
+    // storing the domain drops the cached model
+    MetadataDomainEvents.domainChanged( DOMAIN_ID );
+    Assert.assertNotSame( model, metadataService.loadModel( DOMAIN_ID, LOGICAL_MODEL_ID ) );
+    verify( metadataServiceUtil, times( 2 ) ).createThinModel( Mockito.<LogicalModel>any(), anyString() );
+  }
+
   @Test
   public void testLoadModelJson() {
 
@@ -324,6 +356,144 @@ public class MetadataServiceTest {
 
   }
 
+  @Test
+  public void testWriteCdaJson() throws Exception {
+
+    String expectedQueryJson = "{\"metadata\":[{\"colName\":\"" + COLUMN_NAME + "\",\"colType\":\"" + DataType.STRING + "\",\"colIndex\":0,"
+      + "\"colLabel\":\"" + COLUMN_NAME + "\"}],\"resultset\":[[\"" + RESULT + "\"]]}";
+
+    getMarshallableResultSet();
+    IPentahoResultSet resultSet = metadataService.executeQuery( "", ROWS );
+
+    StringWriter writer = new StringWriter();
+    new MetadataServiceUtil().writeCdaJson( resultSet, "en_US", writer );
+
+    Assert.assertEquals( expectedQueryJson, writer.toString() );
+  }
+
+  @Test
+  public void testStreamXmlQueryToCdaJson() throws Exception {
+
+    String expectedQueryJson = "{\"metadata\":[{\"colName\":\"" + COLUMN_NAME + "\",\"colType\":\"" + DataType.STRING + "\",\"colIndex\":0,"
+      + "\"colLabel\":\"" + COLUMN_NAME + "\"}],\"resultset\":[[\"" + RESULT + "\"]]}";
+
+    String xmlQuery = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><mql><domain_id>" + DOMAIN_ID + "</domain_id><model_id"
+      + ">" + LOGICAL_MODEL_ID + "</model_id><options><disable_distinct>false</disable_distinct><limit>-1</limit></options"
+      + "><parameters><parameter defaultValue=\"" + VALUE + "\" name=\"" + COLUMN_NAME + "\" "
+      + "type=\"STRING\"/></parameters><selections><selection><view>" + CATEGORY_ID + "</view><column>" + COLUMN_ID + "</column"
+      + "><aggregation>NONE</aggregation></selection></selections><constraints><constraint><operator>AND</operator"
+      + "><condition>[" + CATEGORY_NAME + "." + COLUMN_NAME + "] = " + VALUE + "</condition></constraint></constraints><orders/></mql>";
+
+    getMarshallableResultSet();
+    IPentahoResultSet resultSet = metadataService.executeQuery( "", ROWS );
+    when( metadataService.executeQuery( anyString(), any( Integer.class ), anyBoolean() ) ).thenReturn( resultSet );
+    when( metadataService.streamXmlQueryToCdaJson( anyString(), anyInt() ) ).thenCallRealMethod();
+    when( metadataService.createCdaJsonStreamingOutput( any( IPentahoResultSet.class ), nullable( String.class ) ) )
+      .thenCallRealMethod();
+    when( metadataServiceUtil.getDomainObject( anyString() ) ).thenCallRealMethod();
+    doCallRealMethod().when( metadataServiceUtil ).writeCdaJson( any( IPentahoResultSet.class ), nullable( String.class ),
+      any( Writer.class ) );
+
+    StreamingOutput output = metadataService.streamXmlQueryToCdaJson( xmlQuery, ROWS );
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    output.write( bytes );
+
+    Assert.assertEquals( expectedQueryJson, bytes.toString( "UTF-8" ) );
+    // the live result set must be released once it has been written
+    verify( resultSet ).closeConnection();
+  }
+
+  @Test
+  public void testAcceptsGzip() {
+    Assert.assertTrue( MetadataService.acceptsGzip( "gzip, deflate, br" ) );
+    Assert.assertTrue( MetadataService.acceptsGzip( "deflate;q=1.0, GZIP;q=0.5" ) );
+    Assert.assertTrue( MetadataService.acceptsGzip( "*" ) );
+    Assert.assertFalse( MetadataService.acceptsGzip( null ) );
+    Assert.assertFalse( MetadataService.acceptsGzip( "identity" ) );
+    Assert.assertFalse( MetadataService.acceptsGzip( "gzip;q=0" ) );
+    Assert.assertFalse( MetadataService.acceptsGzip( "deflate, gzip ; q=0.000" ) );
+    Assert.assertFalse( MetadataService.acceptsGzip( "*, gzip;q=0" ) );
+    Assert.assertFalse( MetadataService.acceptsGzip( "*;q=0" ) );
+  }
+
+  @Test
+  public void testDoJsonQueriesToCdaJson() throws Exception {
+    String expectedResultJson = "{\"metadata\":[{\"colName\":\"" + COLUMN_NAME + "\",\"colType\":\"" + DataType.STRING
+      + "\",\"colIndex\":0}],\"resultset\":[[\"" + RESULT + "\"]]}";
+
+    Query query = buildQuery();
+    org.pentaho.metadata.query.model.Query fullQuery = mock( org.pentaho.metadata.query.model.Query.class );
+    when( metadataService.doJsonQueriesToCdaJson( anyString() ) ).thenCallRealMethod();
+    when( metadataServiceUtil.deserializeJsonQuery( anyString() ) ).thenReturn( query );
+    when( metadataServiceUtil.compileQuery( any( Query.class ), any( Domain.class ) ) ).thenReturn( fullQuery );
+    when( metadataService.executeQuery( any( org.pentaho.metadata.query.model.Query.class ), any( Integer.class ),
+      anyBoolean() ) ).thenAnswer( invocation -> createResultSet() );
+    doCallRealMethod().when( metadataServiceUtil ).writeCdaJson( any( IPentahoResultSet.class ), nullable( String.class ),
+      any( Writer.class ) );
+
+    String json = metadataService.doJsonQueriesToCdaJson( "[{\"id\":\"a\",\"query\":{}},{\"id\":\"b\"},"
+      + "{\"id\":\"c\",\"query\":{},\"rowLimit\":5}]" );
+
+    Assert.assertTrue( json.startsWith( "{\"a\":" + expectedResultJson + ",\"b\":{\"error\":" ) );
+    Assert.assertTrue( json.endsWith( "},\"c\":" + expectedResultJson + "}" ) );
+    // the domain is loaded once for the batch
+    verify( iMetadataDomainRepository, times( 1 ) ).getDomain( DOMAIN_ID );
+    verify( metadataService ).executeQuery( fullQuery, -1, false );
+    verify( metadataService ).executeQuery( fullQuery, 5, false );
+  }
+
+  @Test
+  public void testDoJsonQueriesToCdaJsonDuplicateIds() throws Exception {
+    String expectedResultJson = "{\"metadata\":[{\"colName\":\"" + COLUMN_NAME + "\",\"colType\":\"" + DataType.STRING
+      + "\",\"colIndex\":0}],\"resultset\":[[\"" + RESULT + "\"]]}";
+
+    Query query = buildQuery();
+    org.pentaho.metadata.query.model.Query fullQuery = mock( org.pentaho.metadata.query.model.Query.class );
+    when( metadataService.doJsonQueriesToCdaJson( anyString() ) ).thenCallRealMethod();
+    when( metadataServiceUtil.deserializeJsonQuery( anyString() ) ).thenReturn( query );
+    when( metadataServiceUtil.compileQuery( any( Query.class ), any( Domain.class ) ) ).thenReturn( fullQuery );
+    when( metadataService.executeQuery( any( org.pentaho.metadata.query.model.Query.class ), any( Integer.class ),
+      anyBoolean() ) ).thenAnswer( invocation -> createResultSet() );
+    doCallRealMethod().when( metadataServiceUtil ).writeCdaJson( any( IPentahoResultSet.class ), nullable( String.class ),
+      any( Writer.class ) );
+
+    String json = metadataService.doJsonQueriesToCdaJson( "[{\"id\":\"a\",\"query\":{}},{\"id\":\"b\",\"query\":{}},"
+      + "{\"id\":\"a\",\"query\":{},\"rowLimit\":5}]" );
+
+    Assert.assertTrue( json.startsWith( "{\"a\":{\"error\":" ) );
+    Assert.assertTrue( json.endsWith( "},\"b\":" + expectedResultJson + "}" ) );
+    // neither query with the duplicate id runs
+    verify( metadataService, times( 1 ) ).executeQuery( any( org.pentaho.metadata.query.model.Query.class ),
+      any( Integer.class ), anyBoolean() );
+  }
+
+  @Test
+  public void testDoJsonQueriesToCdaJsonDomainNotFound() throws Exception {
+    when( metadataService.doJsonQueriesToCdaJson( anyString() ) ).thenCallRealMethod();
+    when( metadataServiceUtil.deserializeJsonQuery( anyString() ) ).thenReturn( buildQuery() );
+    when( iMetadataDomainRepository.getDomain( DOMAIN_ID ) ).thenReturn( null );
+
+    String json = metadataService.doJsonQueriesToCdaJson( "[{\"id\":\"a\",\"query\":{}}]" );
+
+    Assert.assertTrue( json.startsWith( "{\"a\":{\"error\":" ) );
+    Assert.assertTrue( json.contains( DOMAIN_ID ) );
+    verify( metadataServiceUtil, never() ).compileQuery( any( Query.class ), nullable( Domain.class ) );
+    verify( metadataService, never() ).executeQuery( any( org.pentaho.metadata.query.model.Query.class ),
+      any( Integer.class ), anyBoolean() );
+  }
+
+  private IPentahoResultSet createResultSet() {
+    MemoryMetaData metaData = new MemoryMetaData( new Object[][] { { COLUMN_NAME } }, null ) {
+      @Override
+      public Object getAttribute( int rowNo, int columnNo, String attributeName ) {
+        return IPhysicalColumn.DATATYPE_PROPERTY.equals( attributeName ) ? DataType.STRING : null;
+      }
+    };
+    MemoryResultSet resultSet = new MemoryResultSet( metaData );
+    resultSet.addRow( new Object[] { RESULT } );
+    return resultSet;
+  }
+
   private MarshallableResultSet getMarshallableResultSet() {
 
     //Build the IPentahoResultSet
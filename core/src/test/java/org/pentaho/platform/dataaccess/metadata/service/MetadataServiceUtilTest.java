@@ -0,0 +1,264 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.metadata.model.Category;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalColumn;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.LogicalTable;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.metadata.model.concept.types.LocaleType;
+import org.pentaho.metadata.model.concept.types.LocalizedString;
+import org.pentaho.metadata.query.model.Selection;
+import org.pentaho.metadata.repository.IMetadataDomainRepository;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Column;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Condition;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Model;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Order;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Parameter;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Query;
+
+public class MetadataServiceUtilTest {
+  private static final String LOCALE = "en_US";
+  private static final int CATEGORIES = 50;
+  private static final int COLUMNS_PER_CATEGORY = 100;
+
+  @Test
+  public void testCreateThinModelForWideModel() {
+    LogicalModel logicalModel = new LogicalModel();
+    logicalModel.setId( "MODEL" );
+    logicalModel.setName( new LocalizedString( LOCALE, "Model" ) );
+    for ( int i = 0; i < CATEGORIES; i++ ) {
+      Category category = new Category();
+      category.setId( "CATEGORY_" + i );
+      category.setName( new LocalizedString( LOCALE, "Category " + i ) );
+      for ( int j = 0; j < COLUMNS_PER_CATEGORY; j++ ) {
+        LogicalColumn column = new LogicalColumn();
+        column.setId( "COLUMN_" + i + "_" + j );
+        column.setName( new LocalizedString( LOCALE, "Column " + i + " " + j ) );
+        column.setDataType( DataType.NUMERIC );
+        column.setAggregationList( Arrays.asList( AggregationType.SUM, AggregationType.AVERAGE ) );
+        column.setAggregationType( AggregationType.SUM );
+        category.addLogicalColumn( column );
+      }
+      logicalModel.getCategories().add( category );
+    }
+    Domain domain = new Domain();
+    domain.setLocales( Collections.singletonList( new LocaleType( LOCALE, "English" ) ) );
+    MetadataServiceUtil util = new MetadataServiceUtil();
+    util.setDomain( domain );
+    Assert.assertTrue( CATEGORIES * COLUMNS_PER_CATEGORY >= MetadataServiceUtil.PARALLEL_COLUMN_THRESHOLD );
+
+    Model model = util.createThinModel( logicalModel, "DOMAIN" );
+
+    Assert.assertEquals( CATEGORIES, model.getCategories().length );
+    String[] aggTypes = model.getCategories()[ 0 ].getColumns()[ 0 ].getAggTypes();
+    Assert.assertArrayEquals( new String[] { "SUM", "AVERAGE", "SUM" }, aggTypes );
+    for ( int i = 0; i < CATEGORIES; i++ ) {
+      Assert.assertEquals( "CATEGORY_" + i, model.getCategories()[ i ].getId() );
+      Assert.assertEquals( "Category " + i, model.getCategories()[ i ].getName() );
+      Column[] columns = model.getCategories()[ i ].getColumns();
+      Assert.assertEquals( COLUMNS_PER_CATEGORY, columns.length );
+      for ( int j = 0; j < COLUMNS_PER_CATEGORY; j++ ) {
+        Assert.assertEquals( "COLUMN_" + i + "_" + j, columns[ j ].getId() );
+        Assert.assertEquals( "Column " + i + " " + j, columns[ j ].getName() );
+        Assert.assertEquals( "CATEGORY_" + i, columns[ j ].getCategory() );
+        Assert.assertEquals( "SUM", columns[ j ].getDefaultAggType() );
+        Assert.assertArrayEquals( aggTypes, columns[ j ].getAggTypes() );
+      }
+    }
+  }
+
+  @Test
+  public void testConvertQueryForWideQuery() {
+    LogicalModel logicalModel = new LogicalModel();
+    logicalModel.setId( "MODEL" );
+    LogicalTable table = new LogicalTable();
+    logicalModel.getLogicalTables().add( table );
+    for ( int i = 0; i < CATEGORIES; i++ ) {
+      Category category = new Category();
+      category.setId( "CATEGORY_" + i );
+      for ( int j = 0; j < COLUMNS_PER_CATEGORY; j++ ) {
+        LogicalColumn column = new LogicalColumn();
+        column.setId( "COLUMN_" + i + "_" + j );
+        column.setDataType( j % 2 == 0 ? DataType.STRING : DataType.NUMERIC );
+        table.addLogicalColumn( column );
+        category.addLogicalColumn( column );
+      }
+      logicalModel.getCategories().add( category );
+    }
+    Domain domain = new Domain();
+    domain.setId( "DOMAIN" );
+    domain.addLogicalModel( logicalModel );
+    IMetadataDomainRepository repo = mock( IMetadataDomainRepository.class );
+    when( repo.getDomain( "DOMAIN" ) ).thenReturn( domain );
+    MetadataServiceUtil util = spy( new MetadataServiceUtil() );
+    doReturn( repo ).when( util ).getMetadataRepository();
+
+    // 300 columns spread over the categories, with the first one selected twice
+    List<Column> columns = new ArrayList<>();
+    for ( int i = 0; i < 300; i++ ) {
+      columns.add( createColumn( "COLUMN_" + ( i % CATEGORIES ) + "_" + ( i / CATEGORIES ), "NONE" ) );
+    }
+    columns.add( createColumn( "COLUMN_0_0", "COUNT" ) );
+    Condition condition = new Condition();
+    condition.setColumn( "COLUMN_1_0" );
+    condition.setCategory( "CATEGORY_1" );
+    condition.setOperator( "=" );
+    condition.setCombinationType( "AND" );
+    condition.setParameterized( true );
+    condition.setValue( new String[] { "param" } );
+    Parameter parameter = new Parameter();
+    parameter.setColumn( "COLUMN_1_0" );
+    parameter.setName( "param" );
+    parameter.setValue( new String[] { "value" } );
+    Order order = new Order();
+    order.setColumn( "COLUMN_0_0" );
+    order.setOrderType( "DESC" );
+    Query query = new Query();
+    query.setDomainName( "DOMAIN" );
+    query.setModelId( "MODEL" );
+    query.setColumns( columns.toArray( new Column[ 0 ] ) );
+    query.setConditions( new Condition[] { condition } );
+    query.setParameters( new Parameter[] { parameter } );
+    query.setOrders( new Order[] { order } );
+
+    org.pentaho.metadata.query.model.Query fullQuery = util.convertQuery( query );
+
+    Assert.assertEquals( 301, fullQuery.getSelections().size() );
+    for ( int i = 0; i < 300; i++ ) {
+      Selection selection = fullQuery.getSelections().get( i );
+      Assert.assertEquals( "COLUMN_" + ( i % CATEGORIES ) + "_" + ( i / CATEGORIES ),
+        selection.getLogicalColumn().getId() );
+      Assert.assertEquals( "CATEGORY_" + ( i % CATEGORIES ), selection.getCategory().getId() );
+    }
+    // the order applies to every selection of the column
+    Assert.assertEquals( 2, fullQuery.getOrders().size() );
+    Assert.assertSame( fullQuery.getSelections().get( 0 ), fullQuery.getOrders().get( 0 ).getSelection() );
+    Assert.assertSame( fullQuery.getSelections().get( 300 ), fullQuery.getOrders().get( 1 ).getSelection() );
+    Assert.assertEquals( condition.getCondition( DataType.STRING.name(), "param" ),
+      fullQuery.getConstraints().get( 0 ).getFormula() );
+    Assert.assertEquals( "COLUMN_1_0", fullQuery.getParameters().get( 0 ).getName() );
+    Assert.assertEquals( DataType.STRING, fullQuery.getParameters().get( 0 ).getType() );
+  }
+
+  @Test
+  public void testCompiledQueryIsOnlyReusedForTheSameDomain() {
+    Domain domain = createDomain();
+    IMetadataDomainRepository repo = mock( IMetadataDomainRepository.class );
+    when( repo.getDomain( "DOMAIN" ) ).thenReturn( domain );
+    MetadataServiceUtil util = spy( new MetadataServiceUtil() );
+    doReturn( repo ).when( util ).getMetadataRepository();
+    CompiledQueryCache.getInstance().invalidateAll();
+    Query query = new Query();
+    query.setDomainName( "DOMAIN" );
+    query.setModelId( "MODEL" );
+    query.setColumns( new Column[] { createColumn( "COLUMN", "NONE" ) } );
+
+    Assert.assertSame( domain, util.compileQuery( query ).getDomain() );
+    Assert.assertSame( domain, util.compileQuery( query, domain ).getDomain() );
+
+    // the repository reloaded the domain without the cache being told
+    Domain reloaded = createDomain();
+    when( repo.getDomain( "DOMAIN" ) ).thenReturn( reloaded );
+    Assert.assertSame( reloaded, util.compileQuery( query ).getDomain() );
+    Assert.assertSame( reloaded, util.compileQuery( query, reloaded ).getDomain() );
+  }
+
+  @Test
+  public void testGetAggTypes() {
+    Assert.assertArrayEquals( new String[] { "NONE" }, MetadataServiceUtil.getAggTypes( null, AggregationType.NONE ) );
+    Assert.assertArrayEquals( MetadataServiceUtil.getAggTypes( null, AggregationType.NONE ),
+      MetadataServiceUtil.getAggTypes( Collections.<AggregationType>emptyList(), AggregationType.NONE ) );
+    // a caller that changes the names does not change them for the other columns
+    String[] aggTypes = MetadataServiceUtil.getAggTypes( null, AggregationType.NONE );
+    aggTypes[ 0 ] = "SUM";
+    Assert.assertArrayEquals( new String[] { "NONE" }, MetadataServiceUtil.getAggTypes( null, AggregationType.NONE ) );
+    Assert.assertArrayEquals( new String[] { "COUNT", "NONE" },
+      MetadataServiceUtil.getAggTypes( Arrays.asList( AggregationType.COUNT ), AggregationType.NONE ) );
+    Assert.assertArrayEquals( new String[] { "COUNT", "COUNT" },
+      MetadataServiceUtil.getAggTypes( Arrays.asList( AggregationType.COUNT ), AggregationType.COUNT ) );
+  }
+
+  @Test
+  public void testWriteCsv() throws Exception {
+    StringWriter writer = new StringWriter();
+    new MetadataServiceUtil().writeCsv( createResultSet(), writer );
+
+    Assert.assertEquals( "NAME,AMOUNT,CREATED\r\n"
+      + "\"Smith, \"\"Jr\"\"\",1.5,1970-01-01T00:00:00Z\r\n"
+      + ",,\r\n", writer.toString() );
+  }
+
+  @Test
+  public void testWriteNdjson() throws Exception {
+    StringWriter writer = new StringWriter();
+    new MetadataServiceUtil().writeNdjson( createResultSet(), writer );
+
+    Assert.assertEquals( "{\"NAME\":\"Smith, \\\"Jr\\\"\",\"AMOUNT\":1.5,\"CREATED\":\"1970-01-01T00:00:00Z\"}\n"
+      + "{\"NAME\":null,\"AMOUNT\":null,\"CREATED\":null}\n", writer.toString() );
+  }
+
+  private static IPentahoResultSet createResultSet() {
+    MemoryResultSet resultSet =
+      new MemoryResultSet( new MemoryMetaData( new Object[][] { { "NAME", "AMOUNT", "CREATED" } }, null ) );
+    resultSet.addRow( new Object[] { "Smith, \"Jr\"", 1.5d, new Date( 0 ) } );
+    resultSet.addRow( new Object[] { null, null, null } );
+    return resultSet;
+  }
+
+  private static Domain createDomain() {
+    LogicalColumn column = new LogicalColumn();
+    column.setId( "COLUMN" );
+    column.setDataType( DataType.STRING );
+    LogicalTable table = new LogicalTable();
+    table.addLogicalColumn( column );
+    Category category = new Category();
+    category.setId( "CATEGORY" );
+    category.addLogicalColumn( column );
+    LogicalModel logicalModel = new LogicalModel();
+    logicalModel.setId( "MODEL" );
+    logicalModel.getLogicalTables().add( table );
+    logicalModel.getCategories().add( category );
+    Domain domain = new Domain();
+    domain.setId( "DOMAIN" );
+    domain.addLogicalModel( logicalModel );
+    return domain;
+  }
+
+  private static Column createColumn( String id, String aggType ) {
+    Column column = new Column();
+    column.setId( id );
+    column.setSelectedAggType( aggType );
+    return column;
+  }
+}
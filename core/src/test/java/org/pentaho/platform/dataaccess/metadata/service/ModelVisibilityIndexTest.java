@@ -0,0 +1,124 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.repository.IMetadataDomainRepository;
+
+public class ModelVisibilityIndexTest {
+  private static final String DOMAIN_ID = "DOMAIN_ID";
+  private static final String USER = "joe";
+
+  private IMetadataDomainRepository repo;
+  private Domain domain;
+
+  @Before
+  public void setUp() {
+    LogicalModel hidden = new LogicalModel();
+    hidden.setId( "hidden" );
+    hidden.setProperty( ModelVisibilityIndex.VISIBLE_PROPERTY, "analysis, reporting" );
+    LogicalModel visible = new LogicalModel();
+    visible.setId( "visible" );
+
+    domain = new Domain();
+    domain.setId( DOMAIN_ID );
+    domain.setLogicalModels( Arrays.asList( hidden, visible ) );
+
+    repo = mock( IMetadataDomainRepository.class );
+    when( repo.getDomain( DOMAIN_ID ) ).thenReturn( domain );
+  }
+
+  @Test
+  public void testIndexIsReused() {
+    ModelVisibilityIndex index = new ModelVisibilityIndex( 10, 60000 );
+
+    ModelVisibilityIndex.DomainEntry entry = index.getDomain( repo, USER, DOMAIN_ID );
+    Assert.assertSame( entry, index.getDomain( repo, USER, DOMAIN_ID ) );
+    verify( repo, times( 1 ) ).getDomain( DOMAIN_ID );
+
+    // another user's access is checked against the repository, but the index is shared
+    Assert.assertSame( entry, index.getDomain( repo, "suzy", DOMAIN_ID ) );
+    verify( repo, times( 2 ) ).getDomain( DOMAIN_ID );
+
+    index.invalidate( DOMAIN_ID );
+    Assert.assertNotSame( entry, index.getDomain( repo, USER, DOMAIN_ID ) );
+  }
+
+  @Test
+  public void testAccessIsKeptUntilDomainChanges() {
+    ModelVisibilityIndex index = new ModelVisibilityIndex( 10, 0 );
+
+    ModelVisibilityIndex.DomainEntry entry = index.getDomain( repo, USER, DOMAIN_ID );
+    for ( int i = 0; i < 5; i++ ) {
+      Assert.assertSame( entry, index.getDomain( repo, USER, DOMAIN_ID ) );
+    }
+    verify( repo, times( 1 ) ).getDomain( DOMAIN_ID );
+
+    // a changed access control list invalidates the domain
+    index.invalidate( DOMAIN_ID );
+    when( repo.getDomain( DOMAIN_ID ) ).thenReturn( null );
+    Assert.assertNull( index.getDomain( repo, USER, DOMAIN_ID ) );
+    verify( repo, times( 2 ) ).getDomain( DOMAIN_ID );
+  }
+
+  @Test
+  public void testAccessIsCheckedAgainWhenRolesChange() {
+    ModelVisibilityIndex index = new ModelVisibilityIndex( 10, 0 );
+    String identity = QueryResultCache.getSecurityIdentity( USER, Arrays.asList( "Power User" ) );
+    Assert.assertNotNull( index.getDomain( repo, identity, DOMAIN_ID ) );
+
+    when( repo.getDomain( DOMAIN_ID ) ).thenReturn( null );
+    Assert.assertNotNull( index.getDomain( repo, identity, DOMAIN_ID ) );
+    String otherIdentity = QueryResultCache.getSecurityIdentity( USER, Arrays.asList( "Report Author" ) );
+    Assert.assertNull( index.getDomain( repo, otherIdentity, DOMAIN_ID ) );
+    verify( repo, times( 2 ) ).getDomain( DOMAIN_ID );
+  }
+
+  @Test
+  public void testNoAccess() {
+    ModelVisibilityIndex index = new ModelVisibilityIndex( 10, 60000 );
+    index.getDomain( repo, USER, DOMAIN_ID );
+
+    IMetadataDomainRepository otherRepo = mock( IMetadataDomainRepository.class );
+    Assert.assertNull( index.getDomain( otherRepo, "suzy", DOMAIN_ID ) );
+    Assert.assertNull( index.getDomain( otherRepo, "suzy", DOMAIN_ID ) );
+    verify( otherRepo, times( 1 ) ).getDomain( DOMAIN_ID );
+  }
+
+  @Test
+  public void testVisibility() {
+    ModelVisibilityIndex.DomainEntry entry = new ModelVisibilityIndex( 10, 60000 ).getDomain( repo, USER, DOMAIN_ID );
+    ModelVisibilityIndex.ModelEntry hidden = entry.getModels().get( 0 );
+    ModelVisibilityIndex.ModelEntry visible = entry.getModels().get( 1 );
+
+    Assert.assertTrue( hidden.isVisible( "analysis" ) );
+    Assert.assertFalse( hidden.isVisible( "reporting" ) );
+    Assert.assertTrue( hidden.isVisible( "" ) );
+    Assert.assertFalse( hidden.isVisible( "other" ) );
+    Assert.assertTrue( hidden.isListedIn( "reporting" ) );
+    Assert.assertFalse( hidden.isListedIn( null ) );
+    Assert.assertTrue( visible.isVisible( "other" ) );
+    Assert.assertTrue( visible.isListedIn( null ) );
+  }
+}
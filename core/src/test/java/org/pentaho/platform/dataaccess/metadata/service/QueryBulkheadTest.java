@@ -0,0 +1,160 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlDataSource;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.query.model.Query;
+
+public class QueryBulkheadTest {
+  private static final String CONNECTION = "SampleData";
+  private static final long TIMEOUT = 10000;
+
+  @Test
+  public void testDisabled() {
+    QueryBulkhead bulkhead = new QueryBulkhead( 0, 0, 0, 5 );
+    Assert.assertFalse( bulkhead.isEnabled() );
+    Assert.assertEquals( "result", bulkhead.execute( CONNECTION, () -> "result" ) );
+    Assert.assertTrue( bulkhead.getStatistics().isEmpty() );
+  }
+
+  @Test
+  public void testQueueFull() throws Exception {
+    final QueryBulkhead bulkhead = new QueryBulkhead( 1, 1, TIMEOUT, 5 );
+    final CountDownLatch started = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    ExecutorService executor = Executors.newFixedThreadPool( 2 );
+    try {
+      Future<String> running = executor.submit( () -> bulkhead.execute( CONNECTION, () -> {
+        started.countDown();
+        await( release );
+        return "first";
+      } ) );
+      Assert.assertTrue( started.await( TIMEOUT, TimeUnit.MILLISECONDS ) );
+      Future<String> waiting = executor.submit( () -> bulkhead.execute( CONNECTION, () -> "second" ) );
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while ( getStatistic( bulkhead, "waiting" ) < 1 && System.currentTimeMillis() < deadline ) {
+        Thread.sleep( 10 );
+      }
+
+      try {
+        bulkhead.execute( CONNECTION, () -> "third" );
+        Assert.fail();
+      } catch ( QueryRejectedException e ) {
+        Assert.assertEquals( 5, e.getRetryAfter() );
+        Assert.assertEquals( 429, e.getResponse().getStatus() );
+        Assert.assertEquals( "5", e.getResponse().getHeaderString( "Retry-After" ) );
+      }
+      // other connections are not affected
+      Assert.assertEquals( "other", bulkhead.execute( "OtherConnection", () -> "other" ) );
+
+      release.countDown();
+      Assert.assertEquals( "first", running.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+      Assert.assertEquals( "second", waiting.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals( 0, getStatistic( bulkhead, "running" ) );
+    Assert.assertEquals( 0, getStatistic( bulkhead, "waiting" ) );
+    Assert.assertEquals( 2, getStatistic( bulkhead, "admitted" ) );
+    Assert.assertEquals( 1, getStatistic( bulkhead, "rejected" ) );
+  }
+
+  @Test
+  public void testWaitTimeout() throws Exception {
+    final QueryBulkhead bulkhead = new QueryBulkhead( 1, 5, 50, 5 );
+    final CountDownLatch started = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      executor.submit( () -> bulkhead.execute( CONNECTION, () -> {
+        started.countDown();
+        await( release );
+        return null;
+      } ) );
+      Assert.assertTrue( started.await( TIMEOUT, TimeUnit.MILLISECONDS ) );
+      try {
+        bulkhead.execute( CONNECTION, () -> "second" );
+        Assert.fail();
+      } catch ( QueryRejectedException e ) {
+        // expected
+      }
+      Assert.assertEquals( 1, getStatistic( bulkhead, "timedOut" ) );
+      Assert.assertEquals( 0, getStatistic( bulkhead, "waiting" ) );
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testSlotIsReleasedWhenTheQueryFails() {
+    QueryBulkhead bulkhead = new QueryBulkhead( 1, 0, 0, 5 );
+    try {
+      bulkhead.execute( CONNECTION, () -> {
+        throw new IllegalStateException();
+      } );
+      Assert.fail();
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+    Assert.assertEquals( "result", bulkhead.execute( CONNECTION, () -> "result" ) );
+  }
+
+  @Test
+  public void testGetConnectionKey() {
+    SqlDataSource dataSource = new SqlDataSource();
+    dataSource.setDatabaseName( CONNECTION );
+    SqlPhysicalModel physicalModel = new SqlPhysicalModel();
+    physicalModel.setId( "PHYSICAL_MODEL" );
+    physicalModel.setDatasource( dataSource );
+    LogicalModel logicalModel = mock( LogicalModel.class );
+    when( logicalModel.getPhysicalModel() ).thenReturn( physicalModel );
+    Domain domain = new Domain();
+    domain.setId( "DOMAIN" );
+    Query query = mock( Query.class );
+    when( query.getLogicalModel() ).thenReturn( logicalModel );
+    when( query.getDomain() ).thenReturn( domain );
+
+    Assert.assertEquals( CONNECTION, QueryBulkhead.getConnectionKey( query ) );
+    dataSource.setDatabaseName( null );
+    Assert.assertEquals( "PHYSICAL_MODEL", QueryBulkhead.getConnectionKey( query ) );
+    when( logicalModel.getPhysicalModel() ).thenReturn( null );
+    Assert.assertEquals( "DOMAIN", QueryBulkhead.getConnectionKey( query ) );
+  }
+
+  private static long getStatistic( QueryBulkhead bulkhead, String name ) {
+    return bulkhead.getStatistics().get( CONNECTION ).get( name );
+  }
+
+  private static void await( CountDownLatch latch ) {
+    try {
+      latch.await( TIMEOUT, TimeUnit.MILLISECONDS );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
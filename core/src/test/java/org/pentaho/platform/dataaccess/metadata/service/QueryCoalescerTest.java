@@ -0,0 +1,157 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+
+public class QueryCoalescerTest {
+  private static final String KEY = "KEY";
+  private static final long TIMEOUT = 10000;
+
+  @Test
+  public void testConcurrentQueriesShareOneExecution() throws Exception {
+    final QueryCoalescer coalescer = new QueryCoalescer( true );
+    final AtomicInteger executions = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    ExecutorService executor = Executors.newFixedThreadPool( 5 );
+    try {
+      List<Future<IPentahoResultSet>> results = new ArrayList<Future<IPentahoResultSet>>();
+      results.add( executor.submit( () -> coalescer.execute( KEY, createQuery( 3, executions, started, release ) ) ) );
+      Assert.assertTrue( started.await( TIMEOUT, TimeUnit.MILLISECONDS ) );
+      for ( int i = 0; i < 4; i++ ) {
+        results.add( executor.submit( () -> coalescer.execute( KEY, createQuery( 3, executions, null, null ) ) ) );
+      }
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while ( coalescer.getCoalescedCount() < 4 && System.currentTimeMillis() < deadline ) {
+        Thread.sleep( 10 );
+      }
+      release.countDown();
+
+      for ( Future<IPentahoResultSet> result : results ) {
+        // every caller reads its own view of the rows
+        assertRows( result.get( TIMEOUT, TimeUnit.MILLISECONDS ), 3 );
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals( 1, executions.get() );
+    Assert.assertEquals( 1, coalescer.getExecutionCount() );
+    Assert.assertEquals( 4, coalescer.getCoalescedCount() );
+    Assert.assertEquals( 0, coalescer.getInFlightCount() );
+  }
+
+  @Test
+  public void testSequentialQueriesAreExecuted() {
+    QueryCoalescer coalescer = new QueryCoalescer( true );
+    AtomicInteger executions = new AtomicInteger();
+    assertRows( coalescer.execute( KEY, createQuery( 2, executions, null, null ) ), 2 );
+    assertRows( coalescer.execute( KEY, createQuery( 2, executions, null, null ) ), 2 );
+    Assert.assertEquals( 2, executions.get() );
+    Assert.assertEquals( 0, coalescer.getCoalescedCount() );
+  }
+
+  @Test
+  public void testCallersGetTheirOwnRows() throws Exception {
+    final QueryCoalescer coalescer = new QueryCoalescer( true );
+    final AtomicInteger executions = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    ExecutorService executor = Executors.newFixedThreadPool( 2 );
+    try {
+      Future<IPentahoResultSet> first =
+        executor.submit( () -> coalescer.execute( KEY, createQuery( 2, executions, started, release ) ) );
+      Assert.assertTrue( started.await( TIMEOUT, TimeUnit.MILLISECONDS ) );
+      Future<IPentahoResultSet> second =
+        executor.submit( () -> coalescer.execute( KEY, createQuery( 2, executions, null, null ) ) );
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while ( coalescer.getCoalescedCount() < 1 && System.currentTimeMillis() < deadline ) {
+        Thread.sleep( 10 );
+      }
+      release.countDown();
+
+      Object[] row = first.get( TIMEOUT, TimeUnit.MILLISECONDS ).next();
+      row[ 0 ] = "changed";
+      assertRows( second.get( TIMEOUT, TimeUnit.MILLISECONDS ), 2 );
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals( 1, executions.get() );
+  }
+
+  @Test
+  public void testDisabled() {
+    QueryCoalescer coalescer = new QueryCoalescer( false );
+    AtomicInteger executions = new AtomicInteger();
+    assertRows( coalescer.execute( KEY, createQuery( 2, executions, null, null ) ), 2 );
+    Assert.assertEquals( 1, executions.get() );
+    Assert.assertEquals( 1, coalescer.getExecutionCount() );
+  }
+
+  @Test
+  public void testFailedQuery() {
+    QueryCoalescer coalescer = new QueryCoalescer( true );
+    Assert.assertNull( coalescer.execute( KEY, () -> null ) );
+    try {
+      coalescer.execute( KEY, () -> {
+        throw new IllegalStateException();
+      } );
+      Assert.fail();
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+    Assert.assertEquals( 0, coalescer.getInFlightCount() );
+  }
+
+  private void assertRows( IPentahoResultSet resultSet, int rows ) {
+    for ( int i = 0; i < rows; i++ ) {
+      Assert.assertArrayEquals( new Object[] { i }, resultSet.next() );
+    }
+    Assert.assertNull( resultSet.next() );
+  }
+
+  private Supplier<QueryResultCache.CachedResult> createQuery( final int rows, final AtomicInteger executions,
+                                                              final CountDownLatch started,
+                                                              final CountDownLatch release ) {
+    return () -> {
+      executions.incrementAndGet();
+      if ( started != null ) {
+        started.countDown();
+        try {
+          release.await( TIMEOUT, TimeUnit.MILLISECONDS );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      MemoryResultSet resultSet = new MemoryResultSet( new MemoryMetaData( new Object[][] { { "ID" } }, null ) );
+      for ( int i = 0; i < rows; i++ ) {
+        resultSet.addRow( new Object[] { i } );
+      }
+      return new QueryResultCache.CachedResult( resultSet );
+    };
+  }
+}
@@ -0,0 +1,133 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+
+public class QueryCursorManagerTest {
+  private static final String SESSION_ID = "SESSION_ID";
+  private static final String USER = "joe";
+
+  @Test
+  public void testFetchPages() {
+    QueryCursorManager manager = new QueryCursorManager( 0, 5 );
+    AtomicInteger executions = new AtomicInteger();
+    String cursorId = manager.open( SESSION_ID, USER, createQuery( 25, executions ) );
+
+    assertPage( manager.fetch( SESSION_ID, cursorId, 0, 10 ), 0, 10 );
+    assertPage( manager.fetch( SESSION_ID, cursorId, 10, 10 ), 10, 10 );
+    assertPage( manager.fetch( SESSION_ID, cursorId, 20, 10 ), 20, 5 );
+    assertPage( manager.fetch( SESSION_ID, cursorId, 30, 10 ), 30, 0 );
+    Assert.assertEquals( 1, executions.get() );
+
+    // skipping forward reads past the rows, going back re-executes the query
+    assertPage( manager.fetch( SESSION_ID, cursorId, 5, 3 ), 5, 3 );
+    Assert.assertEquals( 2, executions.get() );
+    assertPage( manager.fetch( SESSION_ID, cursorId, 15, 3 ), 15, 3 );
+    Assert.assertEquals( 2, executions.get() );
+  }
+
+  @Test
+  public void testCursorBelongsToSession() {
+    QueryCursorManager manager = new QueryCursorManager( 0, 5 );
+    String cursorId = manager.open( SESSION_ID, USER, createQuery( 5, new AtomicInteger() ) );
+
+    Assert.assertNull( manager.fetch( "OTHER_SESSION_ID", cursorId, 0, 10 ) );
+    Assert.assertFalse( manager.close( "OTHER_SESSION_ID", cursorId ) );
+    Assert.assertTrue( manager.close( SESSION_ID, cursorId ) );
+    Assert.assertNull( manager.fetch( SESSION_ID, cursorId, 0, 10 ) );
+    Assert.assertEquals( 0, manager.getCursorCount() );
+  }
+
+  @Test
+  public void testMaxCursorsPerUser() {
+    QueryCursorManager manager = new QueryCursorManager( 0, 2 );
+    String cursorId = manager.open( SESSION_ID, USER, createQuery( 5, new AtomicInteger() ) );
+    manager.open( SESSION_ID, USER, createQuery( 5, new AtomicInteger() ) );
+    Assert.assertNotNull( manager.open( "OTHER_SESSION_ID", "suzy", createQuery( 5, new AtomicInteger() ) ) );
+
+    try {
+      manager.open( SESSION_ID, USER, createQuery( 5, new AtomicInteger() ) );
+      Assert.fail();
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+
+    manager.close( SESSION_ID, cursorId );
+    Assert.assertNotNull( manager.open( SESSION_ID, USER, createQuery( 5, new AtomicInteger() ) ) );
+  }
+
+  @Test
+  public void testFailedQuery() {
+    QueryCursorManager manager = new QueryCursorManager( 0, 1 );
+    Assert.assertNull( manager.open( SESSION_ID, USER, () -> null ) );
+    Assert.assertEquals( 0, manager.getCursorCount() );
+  }
+
+  @Test
+  public void testIdleTimeout() {
+    final long[] now = { 0 };
+    QueryCursorManager manager = new QueryCursorManager( 1000, 5 ) {
+      @Override
+      protected long currentTimeMillis() {
+        return now[ 0 ];
+      }
+    };
+    String cursorId = manager.open( SESSION_ID, USER, createQuery( 5, new AtomicInteger() ) );
+
+    now[ 0 ] = 999;
+    manager.closeIdleCursors();
+    assertPage( manager.fetch( SESSION_ID, cursorId, 0, 1 ), 0, 1 );
+
+    now[ 0 ] = 1998;
+    manager.closeIdleCursors();
+    Assert.assertEquals( 1, manager.getCursorCount() );
+
+    now[ 0 ] = 1999;
+    manager.closeIdleCursors();
+    Assert.assertEquals( 0, manager.getCursorCount() );
+    Assert.assertNull( manager.fetch( SESSION_ID, cursorId, 1, 1 ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testBadPage() {
+    QueryCursorManager manager = new QueryCursorManager( 0, 5 );
+    String cursorId = manager.open( SESSION_ID, USER, createQuery( 5, new AtomicInteger() ) );
+    manager.fetch( SESSION_ID, cursorId, 0, 0 );
+  }
+
+  private void assertPage( IPentahoResultSet page, int offset, int rows ) {
+    for ( int i = 0; i < rows; i++ ) {
+      Assert.assertArrayEquals( new Object[] { offset + i }, page.next() );
+    }
+    Assert.assertNull( page.next() );
+  }
+
+  private Supplier<IPentahoResultSet> createQuery( final int rows, final AtomicInteger executions ) {
+    return () -> {
+      executions.incrementAndGet();
+      MemoryResultSet resultSet = new MemoryResultSet( new MemoryMetaData( new Object[][] { { "ID" } }, null ) );
+      for ( int i = 0; i < rows; i++ ) {
+        resultSet.addRow( new Object[] { i } );
+      }
+      return resultSet;
+    };
+  }
+}
@@ -0,0 +1,227 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+
+public class QueryJobManagerTest {
+  private static final String SESSION_ID = "SESSION_ID";
+  private static final String USER = "joe";
+  private static final long TIMEOUT = 10000;
+
+  @Test
+  public void testSubmitAndGetResult() throws Exception {
+    QueryJobManager manager = new QueryJobManager( 2, 10, 2, 0 );
+    String jobId = manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+
+    Assert.assertEquals( QueryJobManager.Status.FINISHED, manager.waitFor( SESSION_ID, jobId, TIMEOUT ) );
+    // every call returns a new result set over the same rows
+    for ( int i = 0; i < 2; i++ ) {
+      IPentahoResultSet resultSet = manager.getResult( SESSION_ID, jobId );
+      for ( int row = 0; row < 3; row++ ) {
+        Assert.assertArrayEquals( new Object[] { row }, resultSet.next() );
+      }
+      Assert.assertNull( resultSet.next() );
+    }
+  }
+
+  @Test
+  public void testJobBelongsToSession() throws Exception {
+    QueryJobManager manager = new QueryJobManager( 2, 10, 2, 0 );
+    String jobId = manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+    manager.waitFor( SESSION_ID, jobId, TIMEOUT );
+
+    Assert.assertNull( manager.getStatus( "OTHER_SESSION_ID", jobId ) );
+    Assert.assertNull( manager.getResult( "OTHER_SESSION_ID", jobId ) );
+    Assert.assertFalse( manager.remove( "OTHER_SESSION_ID", jobId ) );
+    Assert.assertTrue( manager.remove( SESSION_ID, jobId ) );
+    Assert.assertNull( manager.getStatus( SESSION_ID, jobId ) );
+    Assert.assertEquals( 0, manager.getJobCount() );
+  }
+
+  @Test
+  public void testMaxJobsPerUser() throws Exception {
+    QueryJobManager manager = new QueryJobManager( 2, 10, 1, 0 );
+    CountDownLatch latch = new CountDownLatch( 1 );
+    String jobId = manager.submit( SESSION_ID, USER, createQuery( 3, latch ) );
+    Assert.assertNotNull( manager.submit( "OTHER_SESSION_ID", "suzy", createQuery( 3, null ) ) );
+
+    try {
+      manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+      Assert.fail();
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+
+    latch.countDown();
+    Assert.assertEquals( QueryJobManager.Status.FINISHED, manager.waitFor( SESSION_ID, jobId, TIMEOUT ) );
+    Assert.assertNotNull( manager.submit( SESSION_ID, USER, createQuery( 3, null ) ) );
+  }
+
+  @Test
+  public void testQueueFull() throws Exception {
+    QueryJobManager manager = new QueryJobManager( 1, 1, 5, 0 );
+    CountDownLatch latch = new CountDownLatch( 1 );
+    String running = manager.submit( SESSION_ID, USER, createQuery( 3, latch ) );
+    waitForStatus( manager, running, QueryJobManager.Status.RUNNING );
+    manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+
+    try {
+      manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+      Assert.fail();
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+    Assert.assertEquals( 2, manager.getJobCount() );
+    latch.countDown();
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    QueryJobManager manager = new QueryJobManager( 1, 10, 5, 0 );
+    CountDownLatch latch = new CountDownLatch( 1 );
+    String running = manager.submit( SESSION_ID, USER, createQuery( 3, latch ) );
+    String queued = manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+    waitForStatus( manager, running, QueryJobManager.Status.RUNNING );
+
+    Assert.assertTrue( manager.cancel( SESSION_ID, queued ) );
+    Assert.assertTrue( manager.cancel( SESSION_ID, running ) );
+    Assert.assertFalse( manager.cancel( SESSION_ID, running ) );
+    latch.countDown();
+
+    Assert.assertEquals( QueryJobManager.Status.CANCELLED, manager.waitFor( SESSION_ID, running, TIMEOUT ) );
+    Assert.assertEquals( QueryJobManager.Status.CANCELLED, manager.getStatus( SESSION_ID, queued ) );
+    Assert.assertNull( manager.getResult( SESSION_ID, running ) );
+    Assert.assertNull( manager.getResult( SESSION_ID, queued ) );
+  }
+
+  @Test
+  public void testCancelRunsCancelActions() throws Exception {
+    QueryJobManager manager = new QueryJobManager( 1, 10, 5, 0 );
+    CountDownLatch registered = new CountDownLatch( 1 );
+    CountDownLatch cancelled = new CountDownLatch( 1 );
+    String jobId = manager.submit( SESSION_ID, USER, () -> {
+      Assert.assertTrue( QueryJobManager.isJobThread() );
+      QueryJobManager.onCancel( cancelled::countDown );
+      registered.countDown();
+      // stands for a statement that only returns once it is cancelled
+      cancelled.await( TIMEOUT, TimeUnit.MILLISECONDS );
+      return null;
+    } );
+    Assert.assertTrue( registered.await( TIMEOUT, TimeUnit.MILLISECONDS ) );
+
+    Assert.assertTrue( manager.cancel( SESSION_ID, jobId ) );
+    Assert.assertEquals( 0, cancelled.getCount() );
+    Assert.assertEquals( QueryJobManager.Status.CANCELLED, manager.waitFor( SESSION_ID, jobId, TIMEOUT ) );
+    Assert.assertFalse( QueryJobManager.isJobThread() );
+
+    // outside of a job there is nothing to cancel
+    QueryJobManager.onCancel( () -> Assert.fail() );
+  }
+
+  @Test
+  public void testMaxJobsPerSession() throws Exception {
+    QueryJobManager manager = new QueryJobManager( 1, 10, 5, 2, 0 );
+    String first = manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+    manager.waitFor( SESSION_ID, first, TIMEOUT );
+    String second = manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+    manager.waitFor( SESSION_ID, second, TIMEOUT );
+    String other = manager.submit( "OTHER_SESSION_ID", USER, createQuery( 3, null ) );
+    manager.waitFor( "OTHER_SESSION_ID", other, TIMEOUT );
+
+    // the oldest finished job of the session makes room for the new one
+    String third = manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+    manager.waitFor( SESSION_ID, third, TIMEOUT );
+    Assert.assertNull( manager.getStatus( SESSION_ID, first ) );
+    Assert.assertEquals( QueryJobManager.Status.FINISHED, manager.getStatus( SESSION_ID, second ) );
+    Assert.assertEquals( QueryJobManager.Status.FINISHED, manager.getStatus( "OTHER_SESSION_ID", other ) );
+    Assert.assertEquals( 3, manager.getJobCount() );
+  }
+
+  @Test
+  public void testShutdown() throws Exception {
+    QueryJobManager manager = new QueryJobManager( 1, 10, 5, 0 );
+    String jobId = manager.submit( SESSION_ID, USER, createQuery( 3, new CountDownLatch( 1 ) ) );
+    waitForStatus( manager, jobId, QueryJobManager.Status.RUNNING );
+    manager.shutdown();
+
+    Assert.assertEquals( QueryJobManager.Status.CANCELLED, manager.waitFor( SESSION_ID, jobId, TIMEOUT ) );
+    try {
+      manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+      Assert.fail();
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFailedQuery() throws Exception {
+    QueryJobManager manager = new QueryJobManager( 1, 10, 5, 0 );
+    String jobId = manager.submit( SESSION_ID, USER, () -> null );
+
+    Assert.assertEquals( QueryJobManager.Status.FAILED, manager.waitFor( SESSION_ID, jobId, TIMEOUT ) );
+    Assert.assertNull( manager.getResult( SESSION_ID, jobId ) );
+  }
+
+  @Test
+  public void testExpiredJobs() throws Exception {
+    final long[] now = { 0 };
+    QueryJobManager manager = new QueryJobManager( 1, 10, 5, 1000 ) {
+      @Override
+      protected long currentTimeMillis() {
+        return now[ 0 ];
+      }
+    };
+    String jobId = manager.submit( SESSION_ID, USER, createQuery( 3, null ) );
+    manager.waitFor( SESSION_ID, jobId, TIMEOUT );
+
+    now[ 0 ] = 999;
+    manager.removeExpiredJobs();
+    Assert.assertEquals( 1, manager.getJobCount() );
+
+    now[ 0 ] = 1000;
+    manager.removeExpiredJobs();
+    Assert.assertEquals( 0, manager.getJobCount() );
+    Assert.assertNull( manager.getStatus( SESSION_ID, jobId ) );
+  }
+
+  private void waitForStatus( QueryJobManager manager, String jobId, QueryJobManager.Status status )
+    throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while ( manager.getStatus( SESSION_ID, jobId ) != status && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 10 );
+    }
+    Assert.assertEquals( status, manager.getStatus( SESSION_ID, jobId ) );
+  }
+
+  private Callable<IPentahoResultSet> createQuery( final int rows, final CountDownLatch latch ) {
+    return () -> {
+      if ( latch != null ) {
+        latch.await( TIMEOUT, TimeUnit.MILLISECONDS );
+      }
+      MemoryResultSet resultSet = new MemoryResultSet( new MemoryMetaData( new Object[][] { { "ID" } }, null ) );
+      for ( int i = 0; i < rows; i++ ) {
+        resultSet.addRow( new Object[] { i } );
+      }
+      return resultSet;
+    };
+  }
+}
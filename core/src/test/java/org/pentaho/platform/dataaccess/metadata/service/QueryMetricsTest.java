@@ -0,0 +1,167 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryMetricsTest {
+
+  @Test
+  public void testPhasesAreRecordedPerModel() {
+    QueryMetrics metrics = new QueryMetrics( true, 0 );
+    QueryMetrics.Trace trace = metrics.begin();
+    Assert.assertNotNull( trace );
+    // a request inside another one is part of it
+    Assert.assertNull( metrics.begin() );
+
+    metrics.setModel( "steel-wheels", "BV_ORDERS" );
+    metrics.record( QueryMetrics.Phase.PARSE, System.nanoTime() );
+    metrics.record( QueryMetrics.Phase.EXECUTE, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos( 30 ) );
+    metrics.setRows( 12 );
+    metrics.addBytes( 512 );
+    metrics.end( trace );
+    Assert.assertNull( metrics.current() );
+
+    Map<String, Object> model = getModel( metrics, "steel-wheels/BV_ORDERS" );
+    Assert.assertEquals( 1L, model.get( "queries" ) );
+    Assert.assertEquals( 12L, model.get( "rows" ) );
+    Assert.assertEquals( 512L, model.get( "bytes" ) );
+    Map<String, Object> phases = getMap( model, "phases" );
+    Assert.assertTrue( phases.containsKey( "parse" ) );
+    Assert.assertTrue( phases.containsKey( "execute" ) );
+    Assert.assertFalse( phases.containsKey( "serialize" ) );
+    Assert.assertEquals( 1L, getMap( getMap( phases, "execute" ), "buckets" ).get( "50" ) );
+    Assert.assertEquals( 1, metrics.getQueryCount() );
+  }
+
+  @Test
+  public void testDetachedTraceIsRecordedWhenCompleted() {
+    QueryMetrics metrics = new QueryMetrics( true, 0 );
+    QueryMetrics.Trace trace = metrics.begin();
+    QueryMetrics.Trace detached = metrics.detach();
+    Assert.assertSame( trace, detached );
+    metrics.end( trace );
+    Assert.assertEquals( 0, metrics.getQueryCount() );
+
+    detached.record( QueryMetrics.Phase.SERIALIZE, System.nanoTime() );
+    detached.setRows( 3 );
+    metrics.complete( detached );
+    metrics.complete( detached );
+    Assert.assertEquals( 1, metrics.getQueryCount() );
+    Assert.assertEquals( 3L, getModel( metrics, "?/?" ).get( "rows" ) );
+  }
+
+  @Test
+  public void testMqlElement() {
+    String mql = "<mql><domain_type>relational</domain_type><domain_id>steel-wheels</domain_id>"
+      + "<model_id>BV_&amp;ORDERS</model_id><selections/></mql>";
+    Assert.assertEquals( "steel-wheels", QueryMetrics.getMqlElement( mql, "domain_id" ) );
+    Assert.assertEquals( "BV_&ORDERS", QueryMetrics.getMqlElement( mql, "model_id" ) );
+    Assert.assertNull( QueryMetrics.getMqlElement( "<mql><domain_id>steel-wheels", "domain_id" ) );
+  }
+
+  @Test
+  public void testModelIsNotReadFromMql() {
+    QueryMetrics metrics = new QueryMetrics( true, 0 );
+    QueryMetrics.Trace trace = metrics.begin();
+    metrics.setMql( "<mql><domain_id>steel-wheels</domain_id><model_id>BV_ORDERS</model_id></mql>" );
+    metrics.end( trace );
+
+    Assert.assertNull( getModel( metrics, "steel-wheels/BV_ORDERS" ) );
+    Assert.assertEquals( 1L, getModel( metrics, "?/?" ).get( "queries" ) );
+  }
+
+  @Test
+  public void testModelsAreCapped() {
+    QueryMetrics metrics = new QueryMetrics( true, 0 );
+    for ( int i = 0; i < QueryMetrics.MAX_MODELS + 5; i++ ) {
+      QueryMetrics.Trace trace = metrics.begin();
+      metrics.setModel( "domain", "model" + i );
+      metrics.end( trace );
+    }
+
+    Assert.assertEquals( QueryMetrics.MAX_MODELS, getMap( metrics.getStatistics(), "models" ).size() );
+    Assert.assertEquals( 6L, getModel( metrics, "?/?" ).get( "queries" ) );
+    Assert.assertEquals( QueryMetrics.MAX_MODELS + 5, metrics.getQueryCount() );
+  }
+
+  @Test
+  public void testSlowQueries() {
+    QueryMetrics metrics = new QueryMetrics( true, 10000 );
+    metrics.end( metrics.begin() );
+    Assert.assertEquals( 0, metrics.getSlowQueryCount() );
+
+    metrics.setSlowQueryThreshold( 1 );
+    QueryMetrics.Trace trace = metrics.begin();
+    metrics.setMql( "<mql/>" );
+    sleep( 5 );
+    metrics.end( trace );
+    Assert.assertEquals( 1, metrics.getSlowQueryCount() );
+
+    metrics.reset();
+    Assert.assertEquals( 0, metrics.getSlowQueryCount() );
+    Assert.assertEquals( 0, metrics.getQueryCount() );
+  }
+
+  @Test
+  public void testDisabled() {
+    QueryMetrics metrics = new QueryMetrics( false, 1 );
+    Assert.assertNull( metrics.begin() );
+    metrics.record( QueryMetrics.Phase.EXECUTE, System.nanoTime() );
+    metrics.end( null );
+    Assert.assertEquals( 0, metrics.getQueryCount() );
+  }
+
+  @Test
+  public void testHistogramPercentiles() {
+    QueryMetrics.Histogram histogram = new QueryMetrics.Histogram();
+    Assert.assertEquals( 0.0, histogram.getPercentile( 50 ), 0 );
+    for ( int i = 0; i < 98; i++ ) {
+      histogram.add( TimeUnit.MILLISECONDS.toNanos( 3 ) );
+    }
+    histogram.add( TimeUnit.MILLISECONDS.toNanos( 150 ) );
+    histogram.add( TimeUnit.MILLISECONDS.toNanos( 90000 ) );
+
+    Assert.assertEquals( 5.0, histogram.getPercentile( 50 ), 0 );
+    Assert.assertEquals( 200.0, histogram.getPercentile( 99 ), 0 );
+    Assert.assertEquals( 90000.0, histogram.getPercentile( 100 ), 0 );
+  }
+
+  @Test
+  public void testUtf8Length() {
+    Assert.assertEquals( 0, QueryMetrics.getUtf8Length( null ) );
+    Assert.assertEquals( 10, QueryMetrics.getUtf8Length( "a\u00e9\u20ac\ud83d\ude00" ) );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static Map<String, Object> getModel( QueryMetrics metrics, String key ) {
+    return (Map<String, Object>) getMap( metrics.getStatistics(), "models" ).get( key );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static Map<String, Object> getMap( Map<String, Object> map, String key ) {
+    return (Map<String, Object>) map.get( key );
+  }
+
+  private static void sleep( long millis ) {
+    try {
+      Thread.sleep( millis );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
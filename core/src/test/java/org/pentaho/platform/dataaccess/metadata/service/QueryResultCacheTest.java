@@ -0,0 +1,151 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.metadata.model.LogicalModel;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class QueryResultCacheTest {
+  private static final String DOMAIN_ID = "DOMAIN_ID";
+  private static final String KEY = "KEY";
+
+  @Test
+  public void testReplay() {
+    QueryResultCache cache = new QueryResultCache( 1024 * 1024, 0 );
+    IPentahoResultSet resultSet = createResultSet( 3 );
+
+    QueryResultCache.CachedResult result = new QueryResultCache.CachedResult( resultSet );
+    cache.put( DOMAIN_ID, KEY, cache.getVersion( DOMAIN_ID ), result );
+    IPentahoResultSet first = result.newResultSet();
+    IPentahoResultSet second = cache.getResultSet( DOMAIN_ID, KEY );
+
+    Assert.assertNotNull( second );
+    Assert.assertNotSame( first, second );
+    Assert.assertSame( resultSet.getMetaData(), second.getMetaData() );
+    for ( int i = 0; i < 3; i++ ) {
+      Assert.assertArrayEquals( new Object[] { "row" + i, i }, first.next() );
+      Assert.assertArrayEquals( new Object[] { "row" + i, i }, second.next() );
+    }
+    Assert.assertNull( second.next() );
+  }
+
+  @Test
+  public void testExpiry() {
+    final long[] now = { 0 };
+    QueryResultCache cache = new QueryResultCache( 1024 * 1024, 1000 ) {
+      @Override
+      protected long currentTimeMillis() {
+        return now[ 0 ];
+      }
+    };
+    cache.put( DOMAIN_ID, KEY, cache.getVersion( DOMAIN_ID ), createResult( 1 ) );
+
+    now[ 0 ] = 999;
+    Assert.assertNotNull( cache.getResultSet( DOMAIN_ID, KEY ) );
+    now[ 0 ] = 1000;
+    Assert.assertNull( cache.getResultSet( DOMAIN_ID, KEY ) );
+    Assert.assertEquals( 0, cache.getWeight() );
+  }
+
+  @Test
+  public void testSizeEviction() {
+    long rowBytes = createResult( 10 ).getBytes();
+    QueryResultCache cache = new QueryResultCache( rowBytes * 2, 0 );
+
+    cache.put( DOMAIN_ID, "1", cache.getVersion( DOMAIN_ID ), createResult( 10 ) );
+    cache.put( DOMAIN_ID, "2", cache.getVersion( DOMAIN_ID ), createResult( 10 ) );
+    cache.getResultSet( DOMAIN_ID, "1" );
+    cache.put( DOMAIN_ID, "3", cache.getVersion( DOMAIN_ID ), createResult( 10 ) );
+
+    Assert.assertNotNull( cache.getResultSet( DOMAIN_ID, "1" ) );
+    Assert.assertNull( cache.getResultSet( DOMAIN_ID, "2" ) );
+    Assert.assertNotNull( cache.getResultSet( DOMAIN_ID, "3" ) );
+    Assert.assertEquals( rowBytes * 2, cache.getWeight() );
+
+    // a result larger than the whole cache is not cached
+    cache.put( DOMAIN_ID, "4", cache.getVersion( DOMAIN_ID ), createResult( 30 ) );
+    Assert.assertNull( cache.getResultSet( DOMAIN_ID, "4" ) );
+    Assert.assertEquals( 2, cache.size() );
+  }
+
+  @Test
+  public void testInvalidateDomain() {
+    QueryResultCache cache = new QueryResultCache( 1024 * 1024, 0 );
+    cache.put( DOMAIN_ID, KEY, cache.getVersion( DOMAIN_ID ), createResult( 1 ) );
+
+    cache.invalidate( DOMAIN_ID );
+
+    Assert.assertNull( cache.getResultSet( DOMAIN_ID, KEY ) );
+    Assert.assertEquals( 0, cache.getWeight() );
+  }
+
+  @Test
+  public void testDisabled() {
+    QueryResultCache cache = new QueryResultCache( 0, 0 );
+    Assert.assertFalse( cache.isEnabled() );
+    cache.put( DOMAIN_ID, KEY, cache.getVersion( DOMAIN_ID ), createResult( 1 ) );
+    Assert.assertNull( cache.getResultSet( DOMAIN_ID, KEY ) );
+  }
+
+  @Test
+  public void testIsCacheable() {
+    LogicalModel model = new LogicalModel();
+    Assert.assertTrue( QueryResultCache.isCacheable( model ) );
+    model.setProperty( QueryResultCache.CACHE_PROPERTY, "false" );
+    Assert.assertFalse( QueryResultCache.isCacheable( model ) );
+  }
+
+  @Test
+  public void testSecurityIdentity() {
+    Assert.assertEquals( "", QueryResultCache.getSecurityIdentity( new LogicalModel() ) );
+    Assert.assertEquals( QueryResultCache.getSecurityIdentity( "joe", Arrays.asList( "b", "a" ) ),
+      QueryResultCache.getSecurityIdentity( "joe", Arrays.asList( "a", "b" ) ) );
+    Assert.assertNotEquals( QueryResultCache.getSecurityIdentity( "joe", Arrays.asList( "a" ) ),
+      QueryResultCache.getSecurityIdentity( "suzy", Arrays.asList( "a" ) ) );
+    Assert.assertNotEquals( QueryResultCache.createKey( DOMAIN_ID, "MODEL", "mql", 10, "" ),
+      QueryResultCache.createKey( DOMAIN_ID, "MODEL", "mql", 20, "" ) );
+  }
+
+  @Test
+  public void testUserIdentity() {
+    try {
+      SecurityContextHolder.getContext().setAuthentication( new UsernamePasswordAuthenticationToken( "joe", null,
+        Arrays.asList( new SimpleGrantedAuthority( "b" ), new SimpleGrantedAuthority( "a" ) ) ) );
+      Assert.assertEquals( QueryResultCache.getSecurityIdentity( "joe", Arrays.asList( "a", "b" ) ),
+        QueryResultCache.getUserIdentity() );
+    } finally {
+      SecurityContextHolder.clearContext();
+    }
+  }
+
+  private QueryResultCache.CachedResult createResult( int rows ) {
+    return new QueryResultCache.CachedResult( createResultSet( rows ) );
+  }
+
+  private IPentahoResultSet createResultSet( int rows ) {
+    MemoryResultSet resultSet = new MemoryResultSet( new MemoryMetaData( new Object[][] { { "NAME", "ID" } }, null ) );
+    for ( int i = 0; i < rows; i++ ) {
+      resultSet.addRow( new Object[] { "row" + i, i } );
+    }
+    return resultSet;
+  }
+}
@@ -0,0 +1,124 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Category;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Column;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Model;
+
+public class ThinModelCacheTest {
+  private static final String DOMAIN_ID = "DOMAIN_ID";
+  private static final String OTHER_DOMAIN_ID = "OTHER_DOMAIN_ID";
+  private static final String MODEL_ID = "MODEL_ID";
+  private static final String LOCALE = "en_US";
+
+  private final Domain domain = new Domain();
+
+  @Test
+  public void testHitAndMiss() {
+    ThinModelCache cache = new ThinModelCache( 10 );
+    Model model = new Model();
+    model.setId( MODEL_ID );
+
+    Assert.assertNull( cache.get( DOMAIN_ID, MODEL_ID, LOCALE, domain ) );
+    cache.put( DOMAIN_ID, MODEL_ID, LOCALE, cache.getVersion( DOMAIN_ID ), domain, model );
+
+    Assert.assertEquals( MODEL_ID, cache.get( DOMAIN_ID, MODEL_ID, LOCALE, domain ).getId() );
+    Assert.assertNull( cache.get( DOMAIN_ID, MODEL_ID, "de", domain ) );
+    Assert.assertEquals( 1, cache.getHitCount() );
+    Assert.assertEquals( 2, cache.getMissCount() );
+  }
+
+  @Test
+  public void testModelOfAnotherDomainObjectIsNotReturned() {
+    ThinModelCache cache = new ThinModelCache( 10 );
+    cache.put( DOMAIN_ID, MODEL_ID, LOCALE, cache.getVersion( DOMAIN_ID ), domain, new Model() );
+
+    // the repository reloaded the domain without the cache being told
+    Assert.assertNull( cache.get( DOMAIN_ID, MODEL_ID, LOCALE, new Domain() ) );
+    Assert.assertNotNull( cache.get( DOMAIN_ID, MODEL_ID, LOCALE, domain ) );
+  }
+
+  @Test
+  public void testInvalidateDomain() {
+    ThinModelCache cache = new ThinModelCache( 10 );
+    Model model = new Model();
+    Model otherModel = new Model();
+    otherModel.setId( MODEL_ID );
+    cache.put( DOMAIN_ID, MODEL_ID, LOCALE, cache.getVersion( DOMAIN_ID ), domain, model );
+    cache.put( OTHER_DOMAIN_ID, MODEL_ID, LOCALE, cache.getVersion( OTHER_DOMAIN_ID ), domain, otherModel );
+
+    cache.invalidate( DOMAIN_ID );
+
+    Assert.assertNull( cache.get( DOMAIN_ID, MODEL_ID, LOCALE, domain ) );
+    Assert.assertEquals( MODEL_ID, cache.get( OTHER_DOMAIN_ID, MODEL_ID, LOCALE, domain ).getId() );
+  }
+
+  @Test
+  public void testStaleVersionIsNotCached() {
+    ThinModelCache cache = new ThinModelCache( 10 );
+    long version = cache.getVersion( DOMAIN_ID );
+
+    // the domain changes while the model is being built
+    cache.invalidate( DOMAIN_ID );
+    cache.put( DOMAIN_ID, MODEL_ID, LOCALE, version, domain, new Model() );
+    Assert.assertNull( cache.get( DOMAIN_ID, MODEL_ID, LOCALE, domain ) );
+
+    version = cache.getVersion( DOMAIN_ID );
+    cache.invalidateAll();
+    cache.put( DOMAIN_ID, MODEL_ID, LOCALE, version, domain, new Model() );
+    Assert.assertNull( cache.get( DOMAIN_ID, MODEL_ID, LOCALE, domain ) );
+  }
+
+  @Test
+  public void testBounded() {
+    ThinModelCache cache = new ThinModelCache( 2 );
+    cache.put( DOMAIN_ID, "1", LOCALE, cache.getVersion( DOMAIN_ID ), domain, new Model() );
+    cache.put( DOMAIN_ID, "2", LOCALE, cache.getVersion( DOMAIN_ID ), domain, new Model() );
+    // touch the first model so the second one is the least recently used
+    cache.get( DOMAIN_ID, "1", LOCALE, domain );
+    cache.put( DOMAIN_ID, "3", LOCALE, cache.getVersion( DOMAIN_ID ), domain, new Model() );
+
+    Assert.assertEquals( 2, cache.size() );
+    Assert.assertNotNull( cache.get( DOMAIN_ID, "1", LOCALE, domain ) );
+    Assert.assertNull( cache.get( DOMAIN_ID, "2", LOCALE, domain ) );
+  }
+
+  @Test
+  public void testCallersGetCopies() {
+    ThinModelCache cache = new ThinModelCache( 10 );
+    Column column = new Column();
+    column.setId( "COLUMN" );
+    column.setAggTypes( new String[] { "SUM" } );
+    Category category = new Category();
+    category.setColumns( new Column[] { column } );
+    Model model = new Model();
+    model.setCategories( new Category[] { category } );
+    cache.put( DOMAIN_ID, MODEL_ID, LOCALE, cache.getVersion( DOMAIN_ID ), domain, model );
+
+    // changing the model after it was cached, or the model a caller got, does not change the cached model
+    column.setId( "CHANGED" );
+    Model first = cache.get( DOMAIN_ID, MODEL_ID, LOCALE, domain );
+    first.getCategories()[ 0 ].getColumns()[ 0 ].getAggTypes()[ 0 ] = "COUNT";
+    first.getCategories()[ 0 ].setColumns( new Column[ 0 ] );
+
+    Model second = cache.get( DOMAIN_ID, MODEL_ID, LOCALE, domain );
+    Assert.assertNotSame( first, second );
+    Column cached = second.getCategories()[ 0 ].getColumns()[ 0 ];
+    Assert.assertEquals( "COLUMN", cached.getId() );
+    Assert.assertEquals( "SUM", cached.getAggTypes()[ 0 ] );
+  }
+}
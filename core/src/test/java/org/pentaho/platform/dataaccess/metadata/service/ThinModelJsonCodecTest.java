@@ -0,0 +1,134 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.metadata.service;
+
+import java.util.Collections;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Category;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Column;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Condition;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Model;
+import org.pentaho.platform.dataaccess.metadata.model.impl.ModelInfo;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Order;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Parameter;
+import org.pentaho.platform.dataaccess.metadata.model.impl.Query;
+
+import flexjson.JSONDeserializer;
+import flexjson.JSONSerializer;
+
+public class ThinModelJsonCodecTest {
+  private static final String PACKAGE = "org.pentaho.platform.dataaccess.metadata.model.impl.";
+
+  // the JSON sent by models-mql.js
+  private static final String CLIENT_QUERY = "{\"class\":\"" + PACKAGE + "Query\",\"domainName\":\"steel-wheels\","
+    + "\"modelId\":\"BV_ORDERS\",\"disableDistinct\":false,\"defaultParameterMap\":{\"region\":\"EMEA\"},"
+    + "\"columns\":[{\"class\":\"" + PACKAGE + "Column\",\"aggTypes\":[\"SUM\",\"NONE\"],\"category\":\"CAT_ORDERS\","
+    + "\"defaultAggType\":\"SUM\",\"fieldType\":null,\"id\":\"BC_QUANTITY\",\"name\":\"Quantity \\\"ordered\\\"\","
+    + "\"selectedAggType\":\"SUM\",\"type\":\"NUMERIC\"}],"
+    + "\"conditions\":[{\"class\":\"" + PACKAGE + "Condition\",\"category\":\"CAT_ORDERS\",\"column\":\"BC_QUANTITY\","
+    + "\"operator\":\">\",\"value\":[\"10\"],\"combinationType\":\"OR\",\"parameterized\":true}],"
+    + "\"orders\":[{\"class\":\"" + PACKAGE + "Order\",\"category\":\"CAT_ORDERS\",\"column\":\"BC_QUANTITY\","
+    + "\"orderType\":\"DESC\"}],"
+    + "\"parameters\":[{\"class\":\"" + PACKAGE + "Parameter\",\"column\":\"BC_QUANTITY\",\"name\":\"quantity\","
+    + "\"type\":\"NUMERIC\",\"value\":null,\"defaultValue\":[\"5\"]}]}";
+
+  @Test
+  public void testReadClientQuery() {
+    Query query = ThinModelJsonCodec.readQuery( CLIENT_QUERY );
+
+    Assert.assertEquals( "steel-wheels", query.getDomainName() );
+    Assert.assertEquals( "BV_ORDERS", query.getModelId() );
+    Assert.assertEquals( Boolean.FALSE, query.getDisableDistinct() );
+    Assert.assertEquals( Collections.singletonMap( "region", "EMEA" ), query.getDefaultParameterMap() );
+
+    Column column = query.getColumns()[ 0 ];
+    Assert.assertEquals( "BC_QUANTITY", column.getId() );
+    Assert.assertEquals( "Quantity \"ordered\"", column.getName() );
+    Assert.assertArrayEquals( new String[] { "SUM", "NONE" }, column.getAggTypes() );
+    Assert.assertNull( column.getFieldType() );
+
+    Condition condition = query.getConditions()[ 0 ];
+    Assert.assertEquals( ">", condition.getOperator() );
+    Assert.assertEquals( "OR", condition.getCombinationType() );
+    Assert.assertTrue( condition.isParameterized() );
+    Assert.assertArrayEquals( new String[] { "10" }, condition.getValue() );
+
+    Order order = query.getOrders()[ 0 ];
+    Assert.assertEquals( "DESC", order.getOrderType() );
+
+    Parameter parameter = query.getParameters()[ 0 ];
+    Assert.assertEquals( "quantity", parameter.getName() );
+    Assert.assertArrayEquals( new String[] { "5" }, parameter.getValue() );
+  }
+
+  @Test
+  public void testReadLenientValues() {
+    Query query = ThinModelJsonCodec.readQuery( "{\"domainName\":\"steel-wheels\",\"unknown\":{\"a\":[1,{}]},"
+      + "\"conditions\":[{\"column\":\"BC_QUANTITY\",\"value\":10,\"parameterized\":null}]}" );
+
+    Assert.assertEquals( "steel-wheels", query.getDomainName() );
+    Condition condition = query.getConditions()[ 0 ];
+    Assert.assertArrayEquals( new String[] { "10" }, condition.getValue() );
+    Assert.assertFalse( condition.isParameterized() );
+    Assert.assertEquals( 0, query.getColumns().length );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testReadMalformedQuery() {
+    ThinModelJsonCodec.readQuery( "{\"domainName\":\"steel-wheels\"" );
+  }
+
+  @Test
+  public void testQueryCompatibleWithFlexjson() {
+    Query query = ThinModelJsonCodec.readQuery( CLIENT_QUERY );
+    query.setDefaultParameterMap( null );
+
+    String json = ThinModelJsonCodec.writeQuery( query );
+    Assert.assertTrue( new JSONObject( new JSONSerializer().deepSerialize( query ) ).similar( new JSONObject( json ) ) );
+
+    Query flexjsonQuery = new JSONDeserializer<Query>().deserialize( json );
+    Assert.assertEquals( json, ThinModelJsonCodec.writeQuery( flexjsonQuery ) );
+    Assert.assertEquals( json, ThinModelJsonCodec.writeQuery( ThinModelJsonCodec.readQuery( json ) ) );
+  }
+
+  @Test
+  public void testModelCompatibleWithFlexjson() {
+    Column column = new Column();
+    column.setId( "BC_QUANTITY" );
+    column.setName( "Quantity" );
+    column.setAggTypes( new String[] { "SUM" } );
+    column.setHiddenForUser( true );
+    Category category = new Category();
+    category.setId( "<CAT_ORDERS>" );
+    category.setColumns( new Column[] { column } );
+    Model model = new Model();
+    model.setId( "BV_ORDERS" );
+    model.setDomainId( "steel-wheels" );
+    model.setCategories( new Category[] { category } );
+
+    String json = ThinModelJsonCodec.writeModel( model );
+    Assert.assertTrue( new JSONObject( new JSONSerializer().deepSerialize( model ) ).similar( new JSONObject( json ) ) );
+    Assert.assertTrue( json.contains( "\"id\":\"&lt;CAT_ORDERS&gt;\"" ) );
+
+    ModelInfo info = new ModelInfo();
+    info.setDomainId( "steel-wheels" );
+    info.setModelId( "BV_ORDERS" );
+    ModelInfo[] infos = { info };
+    Assert.assertTrue( new JSONArray( new JSONSerializer().deepSerialize( infos ) )
+      .similar( new JSONArray( ThinModelJsonCodec.writeModelInfos( infos ) ) ) );
+  }
+}